@@ -22,7 +22,9 @@ import androidx.annotation.RequiresApi;
 import com.agora.baselibrary.utils.StringUtils;
 
 import java.io.File;
+import java.util.List;
 
+import io.agora.avmodule.AvDiagnoseFinding;
 import io.agora.avmodule.AvDiagnoser;
 import io.agora.avmodule.AvMediaConverter;
 import io.agora.avmodule.AvMediaInfo;
@@ -848,6 +850,7 @@ public class CloudRcdFragment extends BaseViewBindingFragment<FragmentHomeCloudr
             diagnoseParam.mCallback = this;
             diagnoseParam.mContext = this.getContext();
             diagnoseParam.mSrcFileUrl = srcFileUrl;
+            diagnoseParam.mMode = AvDiagnoser.DIAGNOSE_MODE_FAST;
 
             mDiagnoser = new AvDiagnoser();
             ret = mDiagnoser.initialize(diagnoseParam);
@@ -903,6 +906,14 @@ public class CloudRcdFragment extends BaseViewBindingFragment<FragmentHomeCloudr
         Log.d(TAG, "<onDiagnoserParseError> errCode=" + errCode);
     }
 
+    @Override
+    public void onDiagnoserFindings(AvDiagnoser.DiagnoseParam diagnoseParam,
+                                    List<AvDiagnoseFinding> findingList) {
+        for (AvDiagnoseFinding finding : findingList) {
+            Log.d(TAG, "<onDiagnoserFindings> finding=" + finding);
+        }
+    }
+
 
 
 }
@@ -559,12 +559,10 @@ public class PresistentLinkComp extends BaseThreadComp {
 
     @Override
     protected void removeAllMessages() {
-        synchronized (mMsgQueueLock) {
-            mWorkHandler.removeMessages(MSGID_PREPARE_NODEACTIVE);
-            mWorkHandler.removeMessages(MSGID_PREPARE_INIT_DONE);
-            mWorkHandler.removeMessages(MSGID_PACKET_SEND);
-            mWorkHandler.removeMessages(MSGID_UNPREPARE);
-        }
+        removeMessage(MSGID_PREPARE_NODEACTIVE);
+        removeMessage(MSGID_PREPARE_INIT_DONE);
+        removeMessage(MSGID_PACKET_SEND);
+        removeMessage(MSGID_UNPREPARE);
     }
 
     @Override
@@ -0,0 +1,196 @@
+/**
+ * @file AvBandScaler.cpp
+ * @brief This file implement the multi-threaded band scaler
+ * @author xiaohua.lu
+ * @email 2489186909@qq.com    luxiaohua@agora.io
+ * @version 1.0.0.1
+ * @date 2023-02-05
+ * @license Copyright (C) 2021 LuXiaoHua. All rights reserved.
+ */
+#include "AvBandScaler.hpp"
+
+
+#define BAND_MIN_HEIGHT                 64      ///< 每个带的最小行数，太小时线程同步开销大于收益
+#define BAND_MAX_COUNT                  8       ///< 最多切分的带数量
+
+
+///////////////////////////////////////////////////////////////////////////////////////////
+/////////////////////////////////// Public Methods ////////////////////////////////////////
+///////////////////////////////////////////////////////////////////////////////////////////
+CAvBandScaler::CAvBandScaler()
+{
+}
+
+CAvBandScaler::~CAvBandScaler()
+{
+    Close();
+}
+
+int32_t CAvBandScaler::Open(int32_t src_width, int32_t src_height, AVPixelFormat src_format,
+                            int32_t dst_width, int32_t dst_height, AVPixelFormat dst_format,
+                            int32_t band_count)
+{
+    Close();
+
+    const AVPixFmtDescriptor* src_desc = av_pix_fmt_desc_get(src_format);
+    const AVPixFmtDescriptor* dst_desc = av_pix_fmt_desc_get(dst_format);
+    if (src_desc == nullptr || dst_desc == nullptr) {
+        LOGE("<CAvBandScaler::Open> [ERROR] invalid format, src=%d, dst=%d\n", src_format, dst_format);
+        return XERR_INVALID_PARAM;
+    }
+    src_chroma_shift_ = src_desc->log2_chroma_h;
+    dst_chroma_shift_ = dst_desc->log2_chroma_h;
+    src_planes_ = av_pix_fmt_count_planes(src_format);
+    dst_planes_ = av_pix_fmt_count_planes(dst_format);
+
+    // 只有不缩放时才能分带，带的起始行要和色度下采样对齐
+    if (band_count <= 0) {
+        band_count = static_cast<int32_t>(std::thread::hardware_concurrency());
+    }
+    band_count = MIN(band_count, BAND_MAX_COUNT);
+    band_count = MIN(band_count, src_height / BAND_MIN_HEIGHT);
+    if (src_width != dst_width || src_height != dst_height || band_count < 1) {
+        band_count = 1;
+    }
+    int32_t align = 1 << MAX(src_chroma_shift_, dst_chroma_shift_);
+    int32_t band_height = ((src_height / band_count) + align - 1) / align * align;
+
+    bands_.resize(band_count);
+    for (int32_t i = 0; i < band_count; i++) {
+        BandInfo& band = bands_[i];
+        band.y_begin = i * band_height;
+        band.y_count = (i == band_count - 1) ? (src_height - band.y_begin) : band_height;
+        int32_t dst_band_height = (band_count == 1) ? dst_height : band.y_count;
+        band.sws_ctx = SwsContextPtr(sws_getContext(
+                src_width, band.y_count, src_format,
+                dst_width, dst_band_height, dst_format,
+                SWS_BICUBIC, nullptr, nullptr, nullptr));
+        if (band.sws_ctx == nullptr) {
+            LOGE("<CAvBandScaler::Open> [ERROR] fail to sws_getContext(), band=%d\n", i);
+            Close();
+            return XERR_CODEC_OPEN;
+        }
+    }
+
+    // 第一个带由调用线程处理，其他带各自一个常驻线程
+    exit_ = false;
+    generation_ = 0;
+    for (int32_t i = 1; i < band_count; i++) {
+        workers_.emplace_back(&CAvBandScaler::WorkerLoop, this, i);
+    }
+
+    LOGD("<CAvBandScaler::Open> done, src=%dx%d, dst=%dx%d, bands=%d, band_height=%d\n",
+         src_width, src_height, dst_width, dst_height, band_count, band_height);
+    return XOK;
+}
+
+void CAvBandScaler::Close()
+{
+    StopWorkers();
+    bands_.clear();
+}
+
+int32_t CAvBandScaler::Scale(const uint8_t* const src_data[], const int src_linesize[],
+                             uint8_t* const dst_data[], const int dst_linesize[])
+{
+    if (bands_.empty()) {
+        return XERR_BAD_STATE;
+    }
+
+    src_data_ = src_data;
+    src_linesize_ = src_linesize;
+    dst_data_ = dst_data;
+    dst_linesize_ = dst_linesize;
+
+    if (!workers_.empty()) {    // 唤醒所有工作线程
+        std::lock_guard<std::mutex> lock(mutex_);
+        pending_count_ = static_cast<int32_t>(workers_.size());
+        generation_++;
+        start_cond_.notify_all();
+    }
+
+    ScaleBand(0);
+
+    if (!workers_.empty()) {    // 等待所有工作线程完成
+        std::unique_lock<std::mutex> lock(mutex_);
+        done_cond_.wait(lock, [this] { return (pending_count_ == 0); });
+    }
+
+    for (const BandInfo& band : bands_) {
+        if (band.result < 0) {
+            LOGE("<CAvBandScaler::Scale> [ERROR] fail to sws_scale(), y_begin=%d, res=%d\n",
+                 band.y_begin, band.result);
+            return XERR_CODEC_DECODING;
+        }
+    }
+    return XOK;
+}
+
+
+///////////////////////////////////////////////////////////////////////////////////////////
+/////////////////////////////////// Internal Methods //////////////////////////////////////
+///////////////////////////////////////////////////////////////////////////////////////////
+void CAvBandScaler::WorkerLoop(int32_t band_index)
+{
+    uint64_t done_generation = 0;
+    for (;;) {
+        {
+            std::unique_lock<std::mutex> lock(mutex_);
+            start_cond_.wait(lock, [this, done_generation] {
+                return (exit_ || generation_ != done_generation);
+            });
+            if (exit_) {
+                return;
+            }
+            done_generation = generation_;
+        }
+
+        ScaleBand(band_index);
+
+        {
+            std::lock_guard<std::mutex> lock(mutex_);
+            pending_count_--;
+            if (pending_count_ == 0) {
+                done_cond_.notify_one();
+            }
+        }
+    }
+}
+
+/*
+ * @brief 转换一个带，源和目标各个平面的指针都偏移到带的起始行
+ *        平面1和平面2是色度平面，需要按照色度下采样调整起始行
+ */
+void CAvBandScaler::ScaleBand(int32_t band_index)
+{
+    BandInfo& band = bands_[band_index];
+    const uint8_t* src_band[4] = { nullptr };
+    uint8_t* dst_band[4] = { nullptr };
+
+    for (int32_t p = 0; p < src_planes_ && p < 4; p++) {
+        int32_t shift = (p == 1 || p == 2) ? src_chroma_shift_ : 0;
+        src_band[p] = src_data_[p] + (int64_t)(band.y_begin >> shift) * src_linesize_[p];
+    }
+    for (int32_t p = 0; p < dst_planes_ && p < 4; p++) {
+        int32_t shift = (p == 1 || p == 2) ? dst_chroma_shift_ : 0;
+        dst_band[p] = dst_data_[p] + (int64_t)(band.y_begin >> shift) * dst_linesize_[p];
+    }
+
+    band.result = sws_scale(band.sws_ctx.get(), src_band, src_linesize_, 0, band.y_count,
+                            dst_band, dst_linesize_);
+}
+
+void CAvBandScaler::StopWorkers()
+{
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        exit_ = true;
+        start_cond_.notify_all();
+    }
+    for (std::thread& worker : workers_) {
+        if (worker.joinable()) {
+            worker.join();
+        }
+    }
+    workers_.clear();
+}
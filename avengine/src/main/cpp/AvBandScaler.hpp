@@ -0,0 +1,83 @@
+/**
+ * @file AvBandScaler.hpp
+ * @brief This file define the multi-threaded band scaler
+ * @author xiaohua.lu
+ * @email 2489186909@qq.com    luxiaohua@agora.io
+ * @version 1.0.0.1
+ * @date 2023-02-05
+ * @license Copyright (C) 2021 LuXiaoHua. All rights reserved.
+ */
+#ifndef __AVBAND_SCALER_H__
+#define __AVBAND_SCALER_H__
+
+#include <condition_variable>
+#include <mutex>
+#include <thread>
+#include <vector>
+#include "comtypedef.hpp"
+
+
+/**
+ * @brief 分带并行的视频帧格式转换器
+ *        源视频帧和目标视频帧大小相同时，按照水平带切分图像，每个带使用独立的 SwsContext，
+ *        由常驻工作线程并行转换，调用线程处理第一个带；
+ *        大小不同(需要缩放)时只使用一个 SwsContext 整帧转换
+ */
+class CAvBandScaler final
+{
+public:
+    CAvBandScaler();
+    virtual ~CAvBandScaler();
+
+    /*
+     * @brief 创建转换器和工作线程
+     * @param band_count : 期望的带数量，<=0 表示根据 CPU 核数自动选择，实际数量会根据图像高度调整
+     * @return 错误码
+     */
+    int32_t Open(int32_t src_width, int32_t src_height, AVPixelFormat src_format,
+                 int32_t dst_width, int32_t dst_height, AVPixelFormat dst_format,
+                 int32_t band_count);
+    void Close();
+
+    /*
+     * @brief 转换一帧图像，所有带转换完成后才返回
+     * @return 错误码
+     */
+    int32_t Scale(const uint8_t* const src_data[], const int src_linesize[],
+                  uint8_t* const dst_data[], const int dst_linesize[]);
+
+    int32_t GetBandCount() { return static_cast<int32_t>(bands_.size()); }
+
+private:
+    struct BandInfo {
+        SwsContextPtr sws_ctx = nullptr;
+        int32_t y_begin = 0;            ///< 带的起始行
+        int32_t y_count = 0;            ///< 带的行数
+        int32_t result = 0;             ///< 最后一次转换结果
+    };
+
+    void WorkerLoop(int32_t band_index);
+    void ScaleBand(int32_t band_index);
+    void StopWorkers();
+
+    std::vector<BandInfo> bands_;
+    std::vector<std::thread> workers_;
+    std::mutex mutex_;
+    std::condition_variable start_cond_;
+    std::condition_variable done_cond_;
+    uint64_t generation_ = 0;           ///< 每帧递增，工作线程根据它判断是否有新任务
+    int32_t pending_count_ = 0;         ///< 还没有完成的工作线程数量
+    bool exit_ = false;
+
+    // 当前帧的参数，只在 Scale() 期间有效
+    const uint8_t* const* src_data_ = nullptr;
+    const int* src_linesize_ = nullptr;
+    uint8_t* const* dst_data_ = nullptr;
+    const int* dst_linesize_ = nullptr;
+    int32_t src_chroma_shift_ = 0;      ///< 源格式色度平面的垂直下采样位移
+    int32_t dst_chroma_shift_ = 0;      ///< 目标格式色度平面的垂直下采样位移
+    int32_t src_planes_ = 0;
+    int32_t dst_planes_ = 0;
+};
+
+#endif // __AVBAND_SCALER_H__
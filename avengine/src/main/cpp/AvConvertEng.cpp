@@ -180,6 +180,10 @@ int32_t CAvConvertEng::GetCvtProgress() {
     return cvt_progress_;
 }
 
+int64_t CAvConvertEng::GetCvtTime() {
+    return cvt_time_;
+}
+
 
 
 ///////////////////////////////////////////////////////////////////////////////
@@ -32,6 +32,9 @@ public:
   // 获取当前转换进度，返回转换进度百分比
   int32_t GetCvtProgress();
 
+  // 获取当前转换到的时间点，单位微秒
+  int64_t GetCvtTime();
+
 
 protected:
   int32_t InStreamOpen();
@@ -7,6 +7,7 @@
  * @date 2023-09-26
  * @license Copyright (C) 2021 LuXiaoHua. All rights reserved.
  */
+#include <algorithm>
 #include "comtypedef.hpp"
 #include "AvDiagnoseEng.hpp"
 
@@ -18,6 +19,21 @@
 #define OUT_CHANNELS                    2                           // 输出双频道
 #define OUT_SAMPLE_RATE                 48000                       // 输出采样率
 
+//
+// 诊断检查的配置
+//
+#define DIAG_DEFAULT_SAMPLES            16              // 快速模式默认抽样的GOP数量
+#define DIAG_MAX_SAMPLES                256             // 快速模式最多抽样的GOP数量
+#define DIAG_MAX_WORKERS                8               // 深度模式最多的工作线程数量
+#define DIAG_DEEP_WAIT_MS               50              // 深度模式每次 DoPrasing() 最多等待的时间
+#define DIAG_GAP_MIN_US                 200000          // 时间戳间隔超过该值才可能是跳变
+#define DIAG_GAP_FRAMES                 4               // 时间戳间隔超过该帧数的时长才是跳变
+#define DIAG_BITRATE_WINDOW_US          1000000         // 码率统计窗口时长
+#define DIAG_SPIKE_RATIO                3               // 码率超过平均值的倍数时是突增
+#define DIAG_SPIKE_MIN_WINDOWS          3               // 至少统计了这么多窗口之后才判断码率突增
+#define DIAG_LONG_GOP_US                10000000        // 关键帧间隔超过该值时报告
+#define DIAG_MAX_FINDINGS               4096            // 最多缓存的诊断结果数量，超出时丢弃最早的
+
 
 
 //
@@ -57,6 +73,7 @@ CAvDiagnoseEng::CAvDiagnoseEng()
 
 CAvDiagnoseEng::~CAvDiagnoseEng()
 {
+    StopDeepWorkers();
     avformat_network_deinit();
 }
 
@@ -80,6 +97,7 @@ int32_t CAvDiagnoseEng::Open(std::string src_file_path)
 
 int32_t CAvDiagnoseEng::Close()
 {
+    StopDeepWorkers();
     InStreamClose();
 
     LOGD("<CAvDiagnoseEng::Close> done");
@@ -90,7 +108,39 @@ const AvMediaInfo* CAvDiagnoseEng::GetMediaInfoPtr() {
     return (in_media_info_.get());
 }
 
+int32_t CAvDiagnoseEng::SetMode(int32_t mode, int32_t sample_count)
+{
+  if ((mode < DIAGNOSE_MODE_FULL) || (mode > DIAGNOSE_MODE_DEEP)) {
+    LOGE("<CAvDiagnoseEng::SetMode> [ERROR] invalid mode=%d\n", mode);
+    return XERR_INVALID_PARAM;
+  }
+  if (index_scanned_ || workers_started_) {
+    LOGE("<CAvDiagnoseEng::SetMode> [ERROR] bad state, parsing already started\n");
+    return XERR_BAD_STATE;
+  }
+
+  mode_ = mode;
+  sample_count_ = (sample_count > 0) ? MIN(sample_count, DIAG_MAX_SAMPLES) : DIAG_DEFAULT_SAMPLES;
+  LOGD("<CAvDiagnoseEng::SetMode> done, mode=%d, sample_count=%d\n", mode_, sample_count_);
+  return XOK;
+}
+
 int32_t CAvDiagnoseEng::DoPrasing()  {
+  if (mode_ == DIAGNOSE_MODE_FAST) {
+    return DoFastStep();
+  }
+  if (mode_ == DIAGNOSE_MODE_DEEP) {
+    return DoDeepStep();
+  }
+
+  int32_t ret = DoDecodeStep();
+  if (ret == XERR_FILE_EOF) {
+    parse_progress_ = 100;
+  }
+  return ret;
+}
+
+int32_t CAvDiagnoseEng::DoDecodeStep()  {
   int ret;
 
   // 连续送入数据包
@@ -98,11 +148,19 @@ int32_t CAvDiagnoseEng::DoPrasing()  {
     int32_t pkt_type = 0;
     ret = InputPacket(pkt_type);
     if (ret == XERR_CODEC_DEC_EOS) {  // 视频帧已经送入完成
-      LOGD("<CAvDiagnoseEng::DoPrasing> feeding EOS done!");
+      LOGD("<CAvDiagnoseEng::DoDecodeStep> feeding EOS done!");
       input_eos_ = true;
 
+      // 送入空包，让解码器输出内部缓存的所有帧，最后返回 AVERROR_EOF
+      if (video_codec_ctx_ != nullptr) {
+        avcodec_send_packet(video_codec_ctx_.get(), nullptr);
+      }
+      if (audio_codec_ctx_ != nullptr) {
+        avcodec_send_packet(audio_codec_ctx_.get(), nullptr);
+      }
+
     } else if (ret != XOK) {
-      LOGE("<CAvDiagnoseEng::DoPrasing> feeding packet error, ret=%d!", ret);
+      LOGE("<CAvDiagnoseEng::DoDecodeStep> feeding packet error, ret=%d!", ret);
     }
   }
 
@@ -115,7 +173,7 @@ int32_t CAvDiagnoseEng::DoPrasing()  {
     ret = DecodeVideoFrame();
 
     if (ret == XERR_CODEC_DEC_EOS) {  // 视频帧解码完成
-      LOGD("<CAvDiagnoseEng::DoPrasing> video decoding EOS done!");
+      LOGD("<CAvDiagnoseEng::DoDecodeStep> video decoding EOS done!");
       video_dec_eos_ = true;
     }
 
@@ -132,7 +190,7 @@ int32_t CAvDiagnoseEng::DoPrasing()  {
   {
     ret = DecodeAudioFrame();
     if (ret == XERR_CODEC_DEC_EOS) {  // 音频帧解码完成
-      LOGD("<CAvDiagnoseEng::DoPrasing> audio decoding EOS done!");
+      LOGD("<CAvDiagnoseEng::DoDecodeStep> audio decoding EOS done!");
       audio_dec_eos_ = true;
     }
 
@@ -142,7 +200,7 @@ int32_t CAvDiagnoseEng::DoPrasing()  {
   }
 
   if (video_dec_eos_ && audio_dec_eos_) {
-    LOGD("<CAvDiagnoseEng::DoPrasing> total parsing all done!\n");
+    LOGD("<CAvDiagnoseEng::DoDecodeStep> total parsing all done!\n");
     return XERR_FILE_EOF;
   }
 
@@ -153,6 +211,18 @@ int32_t CAvDiagnoseEng::GetParseProgress() {
     return parse_progress_;
 }
 
+int32_t CAvDiagnoseEng::FetchFindings(std::vector<AvDiagnoseFinding>& out_findings, int32_t max_count)
+{
+    std::lock_guard<std::mutex> lock(finding_mutex_);
+    int32_t count = 0;
+    while (!findings_.empty() && (count < max_count)) {
+        out_findings.push_back(findings_.front());
+        findings_.pop_front();
+        count++;
+    }
+    return count;
+}
+
 
 
 int32_t CAvDiagnoseEng::InputPacket(int32_t& pkt_type)
@@ -173,8 +243,48 @@ int32_t CAvDiagnoseEng::InputPacket(int32_t& pkt_type)
          video_progress_.GetLastPtkPts(), audio_progress_.GetLastPtkPts() );
     return XERR_CODEC_DEC_EOS;
 
-  } else if (ret < 0) {   // 数据包读取失败
+  } else if (ret == AVERROR(EAGAIN)) {   // 网络流暂时没有数据，下次再读取
+    return XOK;
+
+  } else if (ret < 0) {   // 数据包读取失败，报告读取位置，之后的数据不再分析
     LOGE("<CAvDiagnoseEng::InputPacket> [ERROR] fail to av_read_frame(), ret=%d\n", ret);
+    bool has_video = (in_media_info_->video_track_index_ >= 0);
+    int64_t error_us = MAX(range_begin_us_, has_video ? last_video_us_ : last_audio_us_);
+    AddFinding(has_video ? DIAGNOSE_STREAM_VIDEO : DIAGNOSE_STREAM_AUDIO, DIAGNOSE_FINDING_READ_ERROR,
+               error_us, ret);
+    video_progress_.SetInputEos();
+    audio_progress_.SetInputEos();
+    return XERR_CODEC_DEC_EOS;
+  }
+
+  //
+  // 定位之后从第一个视频关键帧开始分析，遇到区间结束的关键帧时当作文件结束
+  //
+  bool is_video = (packet->stream_index == in_media_info_->video_track_index_);
+  bool is_audio = (packet->stream_index == in_media_info_->audio_track_index_);
+  bool is_key = ((packet->flags & AV_PKT_FLAG_KEY) != 0);
+  if (is_video && wait_key_frame_) {
+    if (!is_key) {
+      return XOK;
+    }
+    wait_key_frame_ = false;
+
+  } else if (range_end_us_ >= 0) {
+    bool range_done = false;
+    if (is_video && is_key) {
+      range_done = (StreamTimeUs(in_video_stream_, packet->pts) >= range_end_us_);
+    } else if (is_audio && (in_media_info_->video_track_index_ < 0)) {
+      range_done = (StreamTimeUs(in_audio_stream_, packet->pts) >= range_end_us_);
+    }
+    if (range_done) {
+      // 和前一个包之间的时间戳跳变仍然属于当前区间
+      CheckPacket(is_video ? DIAGNOSE_STREAM_VIDEO : DIAGNOSE_STREAM_AUDIO,
+                  is_video ? in_video_stream_ : in_audio_stream_, packet.get());
+      video_progress_.SetInputEos();
+      audio_progress_.SetInputEos();
+      LOGD("<CAvDiagnoseEng::InputPacket> range done, range_end_us=%" PRId64 "\n", range_end_us_);
+      return XERR_CODEC_DEC_EOS;
+    }
   }
 
 
@@ -188,6 +298,12 @@ int32_t CAvDiagnoseEng::InputPacket(int32_t& pkt_type)
            ", video_time=%" PRId64 ", video_time_sec=%f, pkt_flags=%d\n",
          packet->pts, packet->dts, packet->size, video_time, video_time_sec, packet->flags);
 
+    CheckPacket(DIAGNOSE_STREAM_VIDEO, in_video_stream_, packet.get());
+    last_video_us_ = video_time;
+    if (mode_ != DIAGNOSE_MODE_FAST) {
+      UpdateProgress(video_time);
+    }
+
   } else if (packet->stream_index == in_media_info_->audio_track_index_) { // 音频
     // 打印音频包信息
     int64_t audio_pts = packet->pts - in_audio_stream_->start_time;
@@ -197,6 +313,12 @@ int32_t CAvDiagnoseEng::InputPacket(int32_t& pkt_type)
     LOGD("<CAvDiagnoseEng::InputPacket> [AUDIO_PKT] pkt_pts=%" PRId64 ", pkt_dts=%" PRId64 ", pkt_size=%d"
            ", audio_time=%" PRId64 ", audio_time_sec=%f, pkt_flags=%d\n",
          packet->pts, packet->dts, packet->size, audio_time, audio_time_sec, packet->flags);
+
+    CheckPacket(DIAGNOSE_STREAM_AUDIO, in_audio_stream_, packet.get());
+    last_audio_us_ = audio_time;
+    if ((mode_ != DIAGNOSE_MODE_FAST) && (in_media_info_->video_track_index_ < 0)) {
+      UpdateProgress(audio_time);
+    }
   }
 
 
@@ -221,6 +343,11 @@ int32_t CAvDiagnoseEng::InputPacket(int32_t& pkt_type)
 
   } else if (ret < 0) { // 送入输入数据包失败
     LOGE("<CAvDiagnoseEng::InputPacket> [ERROR] fail to avcodec_send_frame(), ret=%d\n", ret);
+    if (pkt_type == DIAGNOSE_STREAM_VIDEO) {
+      AddFinding(DIAGNOSE_STREAM_VIDEO, DIAGNOSE_FINDING_DECODE_ERROR, last_video_us_, ret);
+    } else {
+      AddFinding(DIAGNOSE_STREAM_AUDIO, DIAGNOSE_FINDING_DECODE_ERROR, last_audio_us_, ret);
+    }
   }
 
   LOGD("<CAvDiagnoseEng::InputPacket> done\n");
@@ -260,6 +387,7 @@ int32_t CAvDiagnoseEng::DecodeVideoFrame()
 
   } else if (ret < 0) {
     LOGE("<CAvDiagnoseEng::DecodeVideoFrame> [ERROR] fail to avcodec_receive_packet(), ret=%d\n", ret);
+    AddFinding(DIAGNOSE_STREAM_VIDEO, DIAGNOSE_FINDING_DECODE_ERROR, last_video_us_, ret);
     decoded_frame.reset();
     video_progress_.IncreaseDecodeCount();
     if (video_progress_.IsDecodeEos())  { // 视频解码完成
@@ -270,6 +398,11 @@ int32_t CAvDiagnoseEng::DecodeVideoFrame()
   }
   video_progress_.ResetDecodeCount();
   video_progress_.SetDecodedPts(decoded_frame->pts);
+  if ((decoded_frame->flags & AV_FRAME_FLAG_CORRUPT) || (decoded_frame->decode_error_flags != 0)) {
+    int64_t frame_pts = (decoded_frame->pts != AV_NOPTS_VALUE) ? decoded_frame->pts : decoded_frame->pkt_dts;
+    int64_t frame_us = (frame_pts != AV_NOPTS_VALUE) ? StreamTimeUs(in_video_stream_, frame_pts) : last_video_us_;
+    AddFinding(DIAGNOSE_STREAM_VIDEO, DIAGNOSE_FINDING_DECODE_ERROR, frame_us, AVERROR_INVALIDDATA);
+  }
 
 
   LOGD("<CAvDiagnoseEng::DecodeVideoFrame> [VIDEO_FRAME], format=%d, w=%d, h=%d, pts=%" PRId64
@@ -317,6 +450,7 @@ int32_t CAvDiagnoseEng::DecodeAudioFrame()
 
   } else if (ret < 0) {
     LOGE("<CAvDiagnoseEng::DecodeAudioFrame> [ERROR] fail to avcodec_receive_packet(), ret=%d\n", ret);
+    AddFinding(DIAGNOSE_STREAM_AUDIO, DIAGNOSE_FINDING_DECODE_ERROR, last_audio_us_, ret);
     audio_progress_.IncreaseDecodeCount();
     if (audio_progress_.IsDecodeEos())  { // 音频解码完成
       LOGD("<CAvDiagnoseEng::DecodeAudioFrame> audio decoding EOS\n");
@@ -349,6 +483,472 @@ int32_t CAvDiagnoseEng::DecodeAudioFrame()
 
 
 
+///////////////////////////////////////////////////////////////////////////////
+/////////////////////// Internal Methods for Diagnose Mode ////////////////////
+///////////////////////////////////////////////////////////////////////////////
+/*
+ * @brief 快速模式的单步处理
+ *        第一步只扫描容器索引，之后每一步处理抽样GOP中的一个数据包，一个GOP结束后定位到下一个抽样GOP
+ */
+int32_t CAvDiagnoseEng::DoFastStep()
+{
+  int32_t ret;
+
+  if (!index_scanned_) {
+    ScanIndex(true);
+    index_scanned_ = true;
+
+    // 有关键帧索引时按照GOP均匀抽样，否则按照时长均匀抽样
+    sample_times_.clear();
+    int64_t duration = in_media_info_->file_duration_;
+    int32_t key_count = static_cast<int32_t>(key_times_.size());
+    if (key_count >= 2) {
+      int32_t count = MIN(sample_count_, key_count);
+      for (int32_t i = 0; i < count; i++) {
+        sample_times_.push_back(key_times_[(int64_t)i * key_count / count]);
+      }
+    } else if (duration > 0) {
+      for (int32_t i = 0; i < sample_count_; i++) {
+        sample_times_.push_back(duration * i / sample_count_);
+      }
+    } else {  // 时长未知，只检查开头的GOP
+      sample_times_.push_back(0);
+    }
+    sample_index_ = 0;
+    sample_started_ = false;
+
+    LOGD("<CAvDiagnoseEng::DoFastStep> index scanned, key_count=%d, sample_count=%d\n",
+         key_count, static_cast<int32_t>(sample_times_.size()));
+    return XOK;
+  }
+
+  int32_t total_samples = static_cast<int32_t>(sample_times_.size());
+  if (sample_index_ >= total_samples) {
+    parse_progress_ = 100;
+    return XERR_FILE_EOF;
+  }
+
+  if (!sample_started_) {
+    int64_t seek_us = sample_times_[sample_index_];
+    int64_t end_us = -1;
+    auto next_key = std::upper_bound(key_times_.begin(), key_times_.end(), seek_us);
+    if (next_key != key_times_.end()) {
+      end_us = *next_key;
+    } else if (key_times_.empty()) {  // 没有索引，分析到定位点之后的第一个关键帧
+      end_us = seek_us + 1;
+    }
+
+    ret = StartRange(seek_us, 0, end_us);
+    if (ret != XOK) {  // 定位失败，跳过这个GOP
+      LOGE("<CAvDiagnoseEng::DoFastStep> fail to seek, seek_us=%" PRId64 "\n", seek_us);
+      sample_index_++;
+      parse_progress_ = sample_index_ * 100 / total_samples;
+      return XOK;
+    }
+    sample_started_ = true;
+  }
+
+  ret = DoDecodeStep();
+  if (ret != XERR_FILE_EOF) {
+    return ret;
+  }
+
+  // 当前GOP分析完成
+  sample_index_++;
+  sample_started_ = false;
+  parse_progress_ = sample_index_ * 100 / total_samples;
+  return (sample_index_ >= total_samples) ? XERR_FILE_EOF : XOK;
+}
+
+/*
+ * @brief 深度模式的单步处理
+ *        第一步创建工作线程，之后每一步最多等待 DIAG_DEEP_WAIT_MS，所有工作线程完成后返回结束
+ */
+int32_t CAvDiagnoseEng::DoDeepStep()
+{
+  if (!workers_started_) {
+    StartDeepWorkers();
+    workers_started_ = true;
+    return XOK;
+  }
+
+  bool all_done;
+  int32_t result;
+  {
+    std::unique_lock<std::mutex> lock(worker_mutex_);
+    worker_cond_.wait_for(lock, std::chrono::milliseconds(DIAG_DEEP_WAIT_MS),
+                          [this] { return (running_workers_ == 0); });
+    all_done = (running_workers_ == 0);
+    result = worker_result_;
+  }
+
+  // 总进度是所有区间进度的平均值
+  if (!worker_engs_.empty()) {
+    int32_t progress_sum = 0;
+    for (const auto& worker_eng : worker_engs_) {
+      progress_sum += worker_eng->GetParseProgress();
+    }
+    parse_progress_ = progress_sum / static_cast<int32_t>(worker_engs_.size());
+  }
+
+  if (!all_done) {
+    return XOK;
+  }
+
+  StopDeepWorkers();
+  parse_progress_ = 100;
+  LOGD("<CAvDiagnoseEng::DoDeepStep> all workers done, result=%d\n", result);
+  return (result != XOK) ? result : XERR_FILE_EOF;
+}
+
+/*
+ * @brief 按照关键帧把文件切分成若干个区间，每个区间由一个工作线程使用独立的诊断引擎解码
+ *        没有关键帧索引时按照时长切分，工作线程定位到区间开始之前最近的关键帧
+ */
+void CAvDiagnoseEng::StartDeepWorkers()
+{
+  ScanIndex(false);
+
+  int32_t worker_count = static_cast<int32_t>(std::thread::hardware_concurrency());
+  worker_count = MAX(1, MIN(worker_count, DIAG_MAX_WORKERS));
+  int64_t duration = in_media_info_->file_duration_;
+  int32_t key_count = static_cast<int32_t>(key_times_.size());
+  std::vector<int64_t> range_begins;
+  if (key_count >= 2) {
+    worker_count = MIN(worker_count, key_count);
+    for (int32_t i = 0; i < worker_count; i++) {
+      range_begins.push_back(key_times_[(int64_t)i * key_count / worker_count]);
+    }
+  } else if (duration > 0) {
+    for (int32_t i = 0; i < worker_count; i++) {
+      range_begins.push_back(duration * i / worker_count);
+    }
+  } else {
+    range_begins.push_back(0);
+  }
+  range_begins[0] = 0;  // 第一个区间包括第一个关键帧之前的数据
+
+  // 先在当前线程中打开所有的工作引擎，有一个失败就不再启动
+  int32_t ret = XOK;
+  worker_result_ = XOK;
+  worker_exit_ = false;
+  for (size_t i = 0; i < range_begins.size(); i++) {
+    int64_t begin_us = range_begins[i];
+    int64_t end_us = (i + 1 < range_begins.size()) ? range_begins[i + 1] : -1;
+
+    std::unique_ptr<CAvDiagnoseEng> worker_eng = MakeUniquePtr<CAvDiagnoseEng>();
+    worker_eng->parent_ = this;
+    ret = worker_eng->Open(src_file_path_);
+    if (ret == XOK) {
+      ret = worker_eng->StartRange(begin_us, begin_us, end_us);
+    }
+    if (ret != XOK) {
+      LOGE("<CAvDiagnoseEng::StartDeepWorkers> [ERROR] fail to open worker, index=%d, ret=%d\n",
+           static_cast<int32_t>(i), ret);
+      worker_eng->Close();
+      break;
+    }
+    worker_eng->report_end_us_ = end_us;
+    worker_engs_.push_back(std::move(worker_eng));
+  }
+  if (ret != XOK) {
+    for (const auto& worker_eng : worker_engs_) {
+      worker_eng->Close();
+    }
+    worker_engs_.clear();
+    worker_result_ = ret;
+    running_workers_ = 0;
+    return;
+  }
+
+  running_workers_ = static_cast<int32_t>(worker_engs_.size());
+  for (const auto& worker_eng : worker_engs_) {
+    worker_threads_.emplace_back(&CAvDiagnoseEng::DeepWorkerLoop, this, worker_eng.get());
+  }
+  LOGD("<CAvDiagnoseEng::StartDeepWorkers> done, key_count=%d, worker_count=%d\n",
+       key_count, running_workers_);
+}
+
+void CAvDiagnoseEng::StopDeepWorkers()
+{
+  worker_exit_ = true;
+  for (std::thread& worker : worker_threads_) {
+    if (worker.joinable()) {
+      worker.join();
+    }
+  }
+  worker_threads_.clear();
+
+  for (const auto& worker_eng : worker_engs_) {
+    worker_eng->Close();
+  }
+  worker_engs_.clear();
+}
+
+void CAvDiagnoseEng::DeepWorkerLoop(CAvDiagnoseEng* worker_eng)
+{
+  int32_t ret = XOK;
+  while (!worker_exit_) {
+    ret = worker_eng->DoPrasing();
+    if (ret != XOK) {
+      break;
+    }
+  }
+
+  std::lock_guard<std::mutex> lock(worker_mutex_);
+  if ((ret != XOK) && (ret != XERR_FILE_EOF) && (worker_result_ == XOK)) {
+    worker_result_ = ret;
+  }
+  running_workers_--;
+  worker_cond_.notify_all();
+}
+
+void CAvDiagnoseEng::ScanIndex(bool report)
+{
+  key_times_.clear();
+
+  if (in_media_info_->video_track_index_ >= 0) {
+    ScanStreamIndex(DIAGNOSE_STREAM_VIDEO, in_format_ctx_->streams[in_media_info_->video_track_index_],
+                    report, &key_times_);
+    if (report && (in_media_info_->audio_track_index_ >= 0)) {
+      ScanStreamIndex(DIAGNOSE_STREAM_AUDIO, in_format_ctx_->streams[in_media_info_->audio_track_index_],
+                      report, nullptr);
+    }
+  } else if (in_media_info_->audio_track_index_ >= 0) {
+    ScanStreamIndex(DIAGNOSE_STREAM_AUDIO, in_format_ctx_->streams[in_media_info_->audio_track_index_],
+                    report, &key_times_);
+  }
+}
+
+/*
+ * @brief 扫描一个媒体流的容器索引
+ *        MP4 等格式的索引包含所有的帧，可以直接检查时间戳跳变，并且按照GOP统计码率；
+ *        只有关键帧的索引只检查GOP时长；TS/HLS 等没有索引的格式只能依靠抽样解码
+ */
+void CAvDiagnoseEng::ScanStreamIndex(int32_t stream_type, const AVStream* stream, bool report,
+                                     std::vector<int64_t>* key_times)
+{
+  int32_t entry_count = stream->nb_index_entries;
+  if (entry_count <= 0) {
+    LOGD("<CAvDiagnoseEng::ScanStreamIndex> no index, stream_type=%d\n", stream_type);
+    return;
+  }
+
+  int32_t key_count = 0;
+  for (int32_t i = 0; i < entry_count; i++) {
+    if (stream->index_entries[i].flags & AVINDEX_KEYFRAME) {
+      key_count++;
+    }
+  }
+  bool full_index = (key_count < entry_count);  // 索引中有非关键帧，说明包含了所有的帧
+  if (report && full_index) {  // 快速模式抽样解码时不再重复检查时间戳跳变和码率
+    StreamCheck& check = (stream_type == DIAGNOSE_STREAM_VIDEO) ? video_check_ : audio_check_;
+    check.index_checked = true;
+  }
+
+  int64_t frame_us = 0;
+  if ((stream_type == DIAGNOSE_STREAM_VIDEO) && (in_media_info_->frame_rate_ > 0)) {
+    frame_us = 1000000 / in_media_info_->frame_rate_;
+  }
+  int64_t max_gap_us = MAX(DIAG_GAP_MIN_US, frame_us * DIAG_GAP_FRAMES);
+
+  std::vector<int64_t> gop_begins;
+  std::vector<int64_t> gop_bytes;
+  int64_t prev_us = AV_NOPTS_VALUE;
+  for (int32_t i = 0; i < entry_count; i++) {
+    const AVIndexEntry& entry = stream->index_entries[i];
+    int64_t entry_us = StreamTimeUs(stream, entry.timestamp);
+
+    if (report && full_index && (prev_us != AV_NOPTS_VALUE) && (entry_us - prev_us > max_gap_us)) {
+      AddFinding(stream_type, DIAGNOSE_FINDING_TS_GAP, prev_us, entry_us - prev_us);
+    }
+    prev_us = entry_us;
+
+    if (entry.flags & AVINDEX_KEYFRAME) {
+      if (key_times != nullptr) {
+        key_times->push_back(entry_us);
+      }
+      gop_begins.push_back(entry_us);
+      gop_bytes.push_back(0);
+    }
+    if (!gop_bytes.empty()) {
+      gop_bytes.back() += entry.size;
+    }
+  }
+
+  if (!report || (stream_type != DIAGNOSE_STREAM_VIDEO) || (gop_begins.size() < 2)) {
+    return;
+  }
+
+  // GOP时长和码率，最后一个GOP长度未知不统计
+  size_t gop_count = gop_begins.size() - 1;
+  std::vector<int64_t> gop_bitrates(gop_count, 0);
+  int64_t bitrate_sum = 0;
+  for (size_t i = 0; i < gop_count; i++) {
+    int64_t gop_us = gop_begins[i + 1] - gop_begins[i];
+    if (gop_us > DIAG_LONG_GOP_US) {
+      AddFinding(stream_type, DIAGNOSE_FINDING_LONG_GOP, gop_begins[i], gop_us);
+    }
+    if (full_index && (gop_us > 0)) {
+      gop_bitrates[i] = gop_bytes[i] * 8 * 1000000 / gop_us;
+      bitrate_sum += gop_bitrates[i];
+    }
+  }
+  if (full_index && (gop_count >= DIAG_SPIKE_MIN_WINDOWS)) {
+    int64_t average_bitrate = bitrate_sum / static_cast<int64_t>(gop_count);
+    for (size_t i = 0; i < gop_count; i++) {
+      if ((average_bitrate > 0) && (gop_bitrates[i] > average_bitrate * DIAG_SPIKE_RATIO)) {
+        AddFinding(stream_type, DIAGNOSE_FINDING_BITRATE_SPIKE, gop_begins[i], gop_bitrates[i]);
+      }
+    }
+  }
+}
+
+int32_t CAvDiagnoseEng::StartRange(int64_t seek_us, int64_t begin_us, int64_t end_us)
+{
+  int32_t track_index = (in_media_info_->video_track_index_ >= 0) ? in_media_info_->video_track_index_
+                                                                   : in_media_info_->audio_track_index_;
+  if (track_index < 0) {
+    return XERR_BAD_STATE;
+  }
+  AVStream* stream = in_format_ctx_->streams[track_index];
+  int64_t start_time = (stream->start_time != AV_NOPTS_VALUE) ? stream->start_time : 0;
+  int64_t seek_ts = start_time + av_rescale_q(seek_us, AV_TIME_BASE_Q, stream->time_base);
+  int ret = av_seek_frame(in_format_ctx_.get(), track_index, seek_ts, AVSEEK_FLAG_BACKWARD);
+  if (ret < 0) {
+    LOGE("<CAvDiagnoseEng::StartRange> [ERROR] fail to av_seek_frame(), seek_us=%" PRId64 ", ret=%d\n",
+         seek_us, ret);
+    return XERR_FILE_SEEK;
+  }
+
+  if (video_codec_ctx_ != nullptr) {
+    avcodec_flush_buffers(video_codec_ctx_.get());
+  }
+  if (audio_codec_ctx_ != nullptr) {
+    avcodec_flush_buffers(audio_codec_ctx_.get());
+  }
+  video_progress_.ResetAll();
+  audio_progress_.ResetAll();
+  input_eos_ = false;
+  video_dec_eos_ = (video_codec_ctx_ == nullptr);
+  audio_dec_eos_ = (audio_codec_ctx_ == nullptr);
+
+  // 定位后的时间戳和前面不连续，只保留平均码率
+  video_check_.last_ts_us = AV_NOPTS_VALUE;
+  video_check_.window_begin_us = AV_NOPTS_VALUE;
+  video_check_.window_bytes = 0;
+  audio_check_.last_ts_us = AV_NOPTS_VALUE;
+  audio_check_.window_begin_us = AV_NOPTS_VALUE;
+  audio_check_.window_bytes = 0;
+
+  range_begin_us_ = begin_us;
+  range_end_us_ = end_us;
+  report_end_us_ = -1;
+  wait_key_frame_ = (in_media_info_->video_track_index_ >= 0);
+  LOGD("<CAvDiagnoseEng::StartRange> done, seek_us=%" PRId64 ", begin_us=%" PRId64 ", end_us=%" PRId64 "\n",
+       seek_us, begin_us, end_us);
+  return XOK;
+}
+
+/*
+ * @brief 检查数据包的时间戳连续性和码率
+ *        时间戳使用 dts，有B帧时 pts 本身就不是单调的
+ */
+void CAvDiagnoseEng::CheckPacket(int32_t stream_type, const AVStream* stream, const AVPacket* packet)
+{
+  int64_t ts = (packet->dts != AV_NOPTS_VALUE) ? packet->dts : packet->pts;
+  if ((stream == NULL) || (ts == AV_NOPTS_VALUE)) {
+    return;
+  }
+  int64_t ts_us = StreamTimeUs(stream, ts);
+  StreamCheck& check = (stream_type == DIAGNOSE_STREAM_VIDEO) ? video_check_ : audio_check_;
+  bool index_checked = ((mode_ == DIAGNOSE_MODE_FAST) && check.index_checked);  // 跳变和码率已经根据索引报告过
+
+  // 允许的最大间隔是 DIAG_GAP_FRAMES 个帧时长，并且不小于 DIAG_GAP_MIN_US
+  if (check.last_ts_us != AV_NOPTS_VALUE) {
+    int64_t delta_us = ts_us - check.last_ts_us;
+    int64_t frame_us = (packet->duration > 0) ? av_rescale_q(packet->duration, stream->time_base, AV_TIME_BASE_Q) : 0;
+    if ((frame_us <= 0) && (stream_type == DIAGNOSE_STREAM_VIDEO) && (in_media_info_->frame_rate_ > 0)) {
+      frame_us = 1000000 / in_media_info_->frame_rate_;
+    }
+    int64_t max_gap_us = MAX(DIAG_GAP_MIN_US, frame_us * DIAG_GAP_FRAMES);
+    if (delta_us < 0) {
+      AddFinding(stream_type, DIAGNOSE_FINDING_TS_BACKWARD, ts_us, -delta_us);
+    } else if ((delta_us > max_gap_us) && !index_checked) {
+      AddFinding(stream_type, DIAGNOSE_FINDING_TS_GAP, check.last_ts_us, delta_us);
+    }
+  }
+  check.last_ts_us = ts_us;
+
+  // 按照固定时长的窗口统计码率，明显超过之前窗口的平均码率时报告
+  if ((check.window_begin_us == AV_NOPTS_VALUE) || (ts_us < check.window_begin_us)) {
+    check.window_begin_us = ts_us;
+    check.window_bytes = 0;
+  }
+  int64_t window_us = ts_us - check.window_begin_us;
+  if (window_us >= DIAG_BITRATE_WINDOW_US) {
+    int64_t bitrate = check.window_bytes * 8 * 1000000 / window_us;
+    if (!index_checked && (check.window_count >= DIAG_SPIKE_MIN_WINDOWS) && (check.average_bitrate > 0)
+        && (bitrate > check.average_bitrate * DIAG_SPIKE_RATIO)) {
+      AddFinding(stream_type, DIAGNOSE_FINDING_BITRATE_SPIKE, check.window_begin_us, bitrate);
+    }
+    check.average_bitrate = (check.window_count == 0) ? bitrate : (check.average_bitrate * 7 + bitrate) / 8;
+    check.window_count++;
+    check.window_begin_us = ts_us;
+    check.window_bytes = 0;
+  }
+  check.window_bytes += packet->size;
+}
+
+/*
+ * @brief 记录一条诊断结果，工作线程的结果直接汇总到父引擎
+ */
+void CAvDiagnoseEng::AddFinding(int32_t stream_type, int32_t finding_type, int64_t time_us, int64_t value)
+{
+  if ((time_us < range_begin_us_) || ((report_end_us_ >= 0) && (time_us >= report_end_us_))) {
+    return;  // 不属于当前区间，由相邻区间的工作线程报告
+  }
+
+  AvDiagnoseFinding finding;
+  finding.stream_type_ = stream_type;
+  finding.finding_type_ = finding_type;
+  finding.time_us_ = time_us;
+  finding.value_ = value;
+
+  CAvDiagnoseEng* sink_eng = (parent_ != nullptr) ? parent_ : this;
+  std::lock_guard<std::mutex> lock(sink_eng->finding_mutex_);
+  if (sink_eng->findings_.size() >= DIAG_MAX_FINDINGS) {
+    sink_eng->findings_.pop_front();
+  }
+  sink_eng->findings_.push_back(finding);
+
+  LOGD("<CAvDiagnoseEng::AddFinding> stream_type=%d, finding_type=%d, time_us=%" PRId64 ", value=%" PRId64 "\n",
+       stream_type, finding_type, time_us, value);
+}
+
+int64_t CAvDiagnoseEng::StreamTimeUs(const AVStream* stream, int64_t pts)
+{
+  int64_t start_time = (stream->start_time != AV_NOPTS_VALUE) ? stream->start_time : 0;
+  return av_rescale_q(pts - start_time, stream->time_base, AV_TIME_BASE_Q);
+}
+
+/*
+ * @brief 根据当前分析的时间更新进度，有区间时按照区间计算，100 只在分析完成时设置
+ */
+void CAvDiagnoseEng::UpdateProgress(int64_t time_us)
+{
+  int64_t end_us = (range_end_us_ >= 0) ? range_end_us_ : in_media_info_->file_duration_;
+  if (end_us <= range_begin_us_) {
+    return;
+  }
+
+  parse_time_ = time_us;
+  int64_t progress = (time_us - range_begin_us_) * 100 / (end_us - range_begin_us_);
+  parse_progress_ = static_cast<int32_t>(MAX(0, MIN(progress, 99)));
+}
+
+
+
 ///////////////////////////////////////////////////////////////////////////////
 /////////////////////// Internal Methods for Input Stream /////////////////////
 ///////////////////////////////////////////////////////////////////////////////
@@ -573,9 +1173,10 @@ int32_t CAvDiagnoseEng::InStreamOpen() {
   video_progress_.ResetAll();
   audio_progress_.ResetAll();
 
+  // 没有解码器的媒体流当作已经解码完成，否则永远等不到结束
   input_eos_ = false;
-  video_dec_eos_ = false;
-  audio_dec_eos_ = false;
+  video_dec_eos_ = (video_codec_ctx_ == nullptr);
+  audio_dec_eos_ = (audio_codec_ctx_ == nullptr);
 
   LOGD("<CAvDiagnoseEng::InStreamOpen> done, srcFile=%s\n", src_file_path_.c_str());
     return XOK;
@@ -10,10 +10,52 @@
 #ifndef __AV_DIAGNOSE_ENG_H__
 #define __AV_DIAGNOSE_ENG_H__
 
+#include <atomic>
+#include <condition_variable>
+#include <deque>
+#include <mutex>
+#include <thread>
+#include <vector>
 #include "comtypedef.hpp"
 #include "AvParseProgress.hpp"
 
 
+//
+// 诊断模式
+//
+#define DIAGNOSE_MODE_FULL              0       ///< 顺序解码整个文件
+#define DIAGNOSE_MODE_FAST              1       ///< 只读取容器索引，并且抽样解码均匀分布的若干个GOP
+#define DIAGNOSE_MODE_DEEP              2       ///< 按照GOP区间切分文件，多线程并行解码整个文件
+
+//
+// 诊断结果所属的媒体流，和 InputPacket() 的 pkt_type 一致
+//
+#define DIAGNOSE_STREAM_VIDEO           1
+#define DIAGNOSE_STREAM_AUDIO           2
+
+//
+// 诊断结果类型
+//
+#define DIAGNOSE_FINDING_TS_GAP         1       ///< 时间戳跳变，value为间隔(微秒)
+#define DIAGNOSE_FINDING_TS_BACKWARD    2       ///< 时间戳回退，value为回退量(微秒)
+#define DIAGNOSE_FINDING_DECODE_ERROR   3       ///< 解码失败或者解码出损坏帧，value为FFmpeg错误码
+#define DIAGNOSE_FINDING_BITRATE_SPIKE  4       ///< 码率突增，value为当前码率(bps)
+#define DIAGNOSE_FINDING_LONG_GOP       5       ///< 关键帧间隔过大，value为GOP时长(微秒)
+#define DIAGNOSE_FINDING_READ_ERROR     6       ///< 数据包读取失败，之后的数据不再分析，value为FFmpeg错误码
+
+
+/**
+ * @brief 一条诊断结果
+ */
+struct AvDiagnoseFinding final
+{
+  int32_t stream_type_ = 0;         ///< DIAGNOSE_STREAM_XXX
+  int32_t finding_type_ = 0;        ///< DIAGNOSE_FINDING_XXX
+  int64_t time_us_ = 0;             ///< 问题出现的位置，相对于媒体流开始的时间(微秒)
+  int64_t value_ = 0;               ///< 问题的数值，含义由 finding_type_ 决定
+};
+
+
 class CAvDiagnoseEng final
 {
 public:
@@ -24,20 +66,77 @@ public:
   int32_t Close();
   const AvMediaInfo* GetMediaInfoPtr();
 
+  /*
+   * @brief 设置诊断模式，必须在 Open() 之后，第一次 DoPrasing() 之前调用
+   * @param mode : 诊断模式 DIAGNOSE_MODE_XXX
+   * @param sample_count : 快速模式下抽样的GOP数量，<=0 使用默认值
+   * @return 错误码
+   */
+  int32_t SetMode(int32_t mode, int32_t sample_count);
+
   // 分析处理过程，需要循环的调用
   // 正常返回0或者正值，返回其他值表示失败或结束
-  //   XERR_FILE_EOF: 转码完成；   XERR_FILE_READ: 数据包读取失败
+  //   XERR_FILE_EOF: 分析完成，数据包读取失败时作为诊断结果报告，并且当作分析完成
   int32_t DoPrasing();
 
   // 获取当前分析进度，返回分析进度百分比
   int32_t GetParseProgress();
 
+  /*
+   * @brief 取出已经产生的诊断结果，分析过程中可以随时调用
+   * @param out_findings : 输出的诊断结果
+   * @param max_count : 最多取出的数量
+   * @return 取出的数量
+   */
+  int32_t FetchFindings(std::vector<AvDiagnoseFinding>& out_findings, int32_t max_count);
+
 
 protected:
+  /*
+   * @brief 每个媒体流的时间戳和码率检查状态
+   */
+  struct StreamCheck {
+    int64_t last_ts_us = AV_NOPTS_VALUE;  ///< 上一个数据包的时间戳
+    int64_t window_begin_us = AV_NOPTS_VALUE; ///< 当前码率统计窗口的开始时间
+    int64_t window_bytes = 0;             ///< 当前码率统计窗口内的字节数
+    int64_t average_bitrate = 0;          ///< 之前窗口的平均码率
+    int32_t window_count = 0;             ///< 已经统计的窗口数量
+    bool index_checked = false;           ///< 是否已经根据完整的容器索引检查过时间戳跳变和码率
+  };
+
   int32_t InStreamOpen();
   void InStreamClose();
   int32_t ParseRotateAngle(AVStream *pAvStream);
 
+  // 顺序解码一步，FULL模式、FAST模式的每个抽样GOP、DEEP模式的每个工作线程都使用
+  int32_t DoDecodeStep();
+  int32_t DoFastStep();
+  int32_t DoDeepStep();
+
+  /*
+   * @brief 扫描容器索引，得到关键帧时间列表，不读取任何数据包
+   * @param report : 是否根据索引报告时间戳跳变、GOP过长和码率突增
+   */
+  void ScanIndex(bool report);
+  void ScanStreamIndex(int32_t stream_type, const AVStream* stream, bool report,
+                       std::vector<int64_t>* key_times);
+
+  /*
+   * @brief 定位到指定位置，重置解码器和检查状态，只分析 [begin_us, end_us) 范围内的数据
+   * @param seek_us : 定位时间，会定位到之前最近的关键帧
+   * @param end_us : 遇到不早于该时间的关键帧时结束，<0 表示分析到文件结束
+   */
+  int32_t StartRange(int64_t seek_us, int64_t begin_us, int64_t end_us);
+
+  void StartDeepWorkers();
+  void StopDeepWorkers();
+  void DeepWorkerLoop(CAvDiagnoseEng* worker_eng);
+
+  void CheckPacket(int32_t stream_type, const AVStream* stream, const AVPacket* packet);
+  void AddFinding(int32_t stream_type, int32_t finding_type, int64_t time_us, int64_t value);
+  int64_t StreamTimeUs(const AVStream* stream, int64_t pts);
+  void UpdateProgress(int64_t time_us);
+
   /*
    * @brief 从数据流中读取并送入一个数据包到音视频解码器
    * @param pkt_type : 表明送入的数据包类型； 0--没有送如包；  1--送入视频包； 2--送入音频包
@@ -86,12 +185,48 @@ private:
   AvAudioFramePtr        audio_frame_ = nullptr;        ///< 当前解码出来的音频帧
 
   int64_t                 parse_time_ = 0;                ///< 当前分析的时间
-  int64_t                 parse_progress_ = 0;            ///< 分析进度百分比，范围 [0, 100]
+  std::atomic<int32_t>    parse_progress_{0};             ///< 分析进度百分比，范围 [0, 100]
 
   bool                    input_eos_ = false;            ///< 数据包送入是否已经完成
   bool                    video_dec_eos_ = false;        ///< 视频帧是否已经全部解码完成
   bool                    audio_dec_eos_ = false;        ///< 视频帧是否已经全部解码完成
 
+  int32_t                 mode_ = DIAGNOSE_MODE_FULL;    ///< 诊断模式
+  int32_t                 sample_count_ = 0;             ///< 快速模式抽样的GOP数量
+  int64_t                 range_begin_us_ = 0;           ///< 只报告不早于该时间的问题
+  int64_t                 range_end_us_ = -1;            ///< 遇到不早于该时间的关键帧时结束，<0表示文件结束
+  int64_t                 report_end_us_ = -1;           ///< 只报告早于该时间的问题，<0表示不限制
+  bool                    wait_key_frame_ = false;       ///< 定位之后丢弃第一个关键帧之前的视频包
+  StreamCheck             video_check_;
+  StreamCheck             audio_check_;
+  int64_t                 last_video_us_ = 0;            ///< 最后送入的视频包时间，用于标记解码错误位置
+  int64_t                 last_audio_us_ = 0;            ///< 最后送入的音频包时间，用于标记解码错误位置
+
+  //
+  // 快速模式
+  //
+  std::vector<int64_t>    key_times_;                    ///< 容器索引中的关键帧时间(微秒)
+  std::vector<int64_t>    sample_times_;                 ///< 要抽样的GOP开始时间(微秒)
+  bool                    index_scanned_ = false;        ///< 是否已经扫描过索引
+  int32_t                 sample_index_ = 0;             ///< 当前抽样的GOP
+  bool                    sample_started_ = false;       ///< 当前抽样的GOP是否已经定位
+
+  //
+  // 深度模式，每个工作线程使用独立的诊断引擎，结果汇总到父引擎
+  //
+  CAvDiagnoseEng*         parent_ = nullptr;             ///< 父引擎，诊断结果汇总到父引擎
+  std::vector<std::unique_ptr<CAvDiagnoseEng>> worker_engs_;
+  std::vector<std::thread> worker_threads_;
+  std::mutex              worker_mutex_;
+  std::condition_variable worker_cond_;
+  int32_t                 running_workers_ = 0;          ///< 还没有完成的工作线程数量
+  int32_t                 worker_result_ = XOK;          ///< 第一个出错的工作线程的错误码
+  std::atomic<bool>       worker_exit_{false};
+  bool                    workers_started_ = false;
+
+  std::mutex              finding_mutex_;
+  std::deque<AvDiagnoseFinding> findings_;               ///< 还没有取出的诊断结果
+
 };
 
 #endif // __AV_DIAGNOSE_ENG_H__
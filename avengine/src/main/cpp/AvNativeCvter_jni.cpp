@@ -269,4 +269,23 @@ JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvNativeCvter_native_1cvterGetProg
 
   int progress = pEngHandler->pCvtEng->GetCvtProgress();
   return (jint)progress;
-}
\ No newline at end of file
+}
+
+/*
+ * Class:     io_agora_avmodule_AvNativeCvter
+ * Method:    native_cvterGetTimestamp
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_io_agora_avmodule_AvNativeCvter_native_1cvterGetTimestamp
+  (JNIEnv *env, jobject thiz, jlong jlEng)
+{
+  AVCVTERENG_HANDLER* pEngHandler = (AVCVTERENG_HANDLER*)jlEng;
+
+  if (nullptr == pEngHandler || nullptr == pEngHandler->pCvtEng) {
+    LOGE("<native_1cvterGetTimestamp> [ERROR] invalid parameter\n");
+    return 0;
+  }
+
+  int64_t cvt_time = pEngHandler->pCvtEng->GetCvtTime();
+  return (jlong)cvt_time;
+}
@@ -47,6 +47,14 @@ JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvNativeCvter_native_1cvterDoStep
 JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvNativeCvter_native_1cvterGetProgress
   (JNIEnv *, jobject, jlong);
 
+/*
+ * Class:     io_agora_avmodule_AvNativeCvter
+ * Method:    native_cvterGetTimestamp
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_io_agora_avmodule_AvNativeCvter_native_1cvterGetTimestamp
+  (JNIEnv *, jobject, jlong);
+
 #ifdef __cplusplus
 }
 #endif
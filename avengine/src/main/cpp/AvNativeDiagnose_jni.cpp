@@ -266,4 +266,61 @@ JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvNativeDiagnose_native_1diagnoseG
 
   int progress = pEngHandler->pDiagnoseEng->GetParseProgress();
   return (jint)progress;
-}
\ No newline at end of file
+}
+
+/*
+ * Class:     io_agora_avmodule_AvNativeDiagnose
+ * Method:    native_diagnoseSetMode
+ * Signature: (JII)I
+ */
+JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvNativeDiagnose_native_1diagnoseSetMode
+  (JNIEnv *env, jobject thiz, jlong jlEng, jint jiMode, jint jiSampleCount)
+{
+  AVDIAGNOSEERENG_HANDLER* pEngHandler = (AVDIAGNOSEERENG_HANDLER*)jlEng;
+
+  if (nullptr == pEngHandler || nullptr == pEngHandler->pDiagnoseEng) {
+    LOGE("<native_1diagnoseSetMode> [ERROR] invalid parameter\n");
+    return XERR_INVALID_PARAM;
+  }
+
+  int ret = pEngHandler->pDiagnoseEng->SetMode((int32_t)jiMode, (int32_t)jiSampleCount);
+  return (jint)ret;
+}
+
+/*
+ * Class:     io_agora_avmodule_AvNativeDiagnose
+ * Method:    native_diagnoseGetFindings
+ * Signature: (J[J)I
+ * 每条诊断结果占用4个元素：stream_type, finding_type, time_us, value
+ */
+JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvNativeDiagnose_native_1diagnoseGetFindings
+  (JNIEnv *env, jobject thiz, jlong jlEng, jlongArray jarr_out_data)
+{
+  AVDIAGNOSEERENG_HANDLER* pEngHandler = (AVDIAGNOSEERENG_HANDLER*)jlEng;
+
+  if (nullptr == pEngHandler || nullptr == pEngHandler->pDiagnoseEng || nullptr == jarr_out_data) {
+    LOGE("<native_1diagnoseGetFindings> [ERROR] invalid parameter\n");
+    return 0;
+  }
+
+  int32_t max_count = env->GetArrayLength(jarr_out_data) / 4;
+  if (max_count <= 0) {
+    return 0;
+  }
+
+  std::vector<AvDiagnoseFinding> findings;
+  int32_t count = pEngHandler->pDiagnoseEng->FetchFindings(findings, max_count);
+  if (count <= 0) {
+    return 0;
+  }
+
+  std::vector<jlong> out_data(count * 4);
+  for (int32_t i = 0; i < count; i++) {
+    out_data[i * 4 + 0] = (jlong)(findings[i].stream_type_);
+    out_data[i * 4 + 1] = (jlong)(findings[i].finding_type_);
+    out_data[i * 4 + 2] = (jlong)(findings[i].time_us_);
+    out_data[i * 4 + 3] = (jlong)(findings[i].value_);
+  }
+  env->SetLongArrayRegion(jarr_out_data, 0, count * 4, out_data.data());
+  return (jint)count;
+}
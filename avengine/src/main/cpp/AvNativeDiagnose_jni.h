@@ -47,6 +47,22 @@ JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvNativeDiagnose_native_1diagnoseD
 JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvNativeDiagnose_native_1diagnoseGetProgress
   (JNIEnv *, jobject, jlong);
 
+/*
+ * Class:     io_agora_avmodule_AvNativeDiagnose
+ * Method:    native_diagnoseSetMode
+ * Signature: (JII)I
+ */
+JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvNativeDiagnose_native_1diagnoseSetMode
+  (JNIEnv *, jobject, jlong, jint, jint);
+
+/*
+ * Class:     io_agora_avmodule_AvNativeDiagnose
+ * Method:    native_diagnoseGetFindings
+ * Signature: (J[J)I
+ */
+JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvNativeDiagnose_native_1diagnoseGetFindings
+  (JNIEnv *, jobject, jlong, jlongArray);
+
 #ifdef __cplusplus
 }
 #endif
@@ -19,6 +19,12 @@
 //
 #define OUT_FRAME_FORAMT                AV_PIX_FMT_NV12
 
+//
+// 音频重采样后累积到这么多样本才输出一帧，减少 JNI 调用和编码器送入次数
+// 44.1kHz 双声道16位时约46ms、8KB，超过编码器输入缓冲区大小时由 AvEncoder.inputFrame() 分多次送入
+//
+#define AUDIO_BATCH_SAMPLES             2048
+
 int32_t ParseStreamRotateAngle(AVStream *pAvStream);
 extern "C" int32_t SaveToBmp(uint8_t * rgba_data, int width, int height, const char* save_bmp_file);
 
@@ -332,6 +338,10 @@ int32_t CAvParserEng::Open(SharePtr<AvDecParam> dec_param)
         }
         avcodec_parameters_to_context(video_codec_ctx_.get(), pVideoStream->codecpar);
 
+        // 多线程解码，帧级并行和片级并行都打开，FFmpeg 根据解码器能力选择，thread_count=0 表示按照 CPU 核数
+        video_codec_ctx_->thread_count = MAX(dec_param_->decode_threads_, 0);
+        video_codec_ctx_->thread_type = FF_THREAD_FRAME | FF_THREAD_SLICE;
+
         ret = avcodec_open2(video_codec_ctx_.get(), nullptr, nullptr);
         if (ret < 0)
         {
@@ -340,17 +350,19 @@ int32_t CAvParserEng::Open(SharePtr<AvDecParam> dec_param)
             return XERR_CODEC_OPEN;
         }
         avcodec_flush_buffers(video_codec_ctx_.get());
+        LOGD("<CAvParserEng::Open> video decoder threads=%d, active_thread_type=%d\n",
+             video_codec_ctx_->thread_count, video_codec_ctx_->active_thread_type);
 
 
-        // 视频帧格式转换器，源视频帧和目标视频帧保持一样大小，固定输出ARGB格式
-        video_sws_ctx_ = SwsContextPtr(sws_getContext(
+        // 视频帧格式转换器，源视频帧和目标视频帧保持一样大小，固定输出NV12格式，分带多线程转换
+        ret = video_scaler_.Open(
                 pVideoStream->codecpar->width, pVideoStream->codecpar->height,
                 static_cast<AVPixelFormat>(pVideoStream->codecpar->format),
                 pVideoStream->codecpar->width, pVideoStream->codecpar->height, OUT_FRAME_FORAMT,
-                SWS_BICUBIC, nullptr, nullptr, nullptr));
-        if (video_sws_ctx_ == nullptr)
+                dec_param_->convert_threads_);
+        if (ret != XOK)
         {
-            LOGE("<CAvParserEng::Open> [ERROR] fail to video sws_getContext()\n");
+            LOGE("<CAvParserEng::Open> [ERROR] fail to open video scaler, ret=%d\n", ret);
             Close();
             return XERR_CODEC_OPEN;
         }
@@ -424,6 +436,8 @@ int32_t CAvParserEng::Open(SharePtr<AvDecParam> dec_param)
         int32_t max_smpl_size = audio_frame_->bytes_per_sample_ * audio_frame_->channels_ * audio_frame_->sample_rate_;
         audio_frame_->sample_data_ = MakeUniquePtr<uint8_t[]>(max_smpl_size);;
         audio_frame_->frame_valid_ = false;
+        audio_max_samples_ = audio_frame_->sample_rate_;    // 缓冲区可以容纳1秒的数据
+        audio_batch_samples_ = 0;
 
         LOGD("<CAvParserEng::Open> Open audio decoder and converter successful!");
     }
@@ -443,9 +457,7 @@ int32_t CAvParserEng::Close()
         video_codec_ctx_.reset();
     }
 
-    if (video_sws_ctx_ != nullptr) {
-        video_sws_ctx_.reset();
-    }
+    video_scaler_.Close();
 
     if (audio_codec_ctx_ != nullptr) {
         audio_codec_ctx_.reset();
@@ -470,6 +482,7 @@ int32_t CAvParserEng::Close()
         audio_frame_->sample_data_.reset();
         audio_frame_.reset();
     }
+    audio_batch_samples_ = 0;
     return XOK;
 }
 
@@ -628,57 +641,79 @@ int32_t CAvParserEng::DecodeAudioFrame()
     // 标记音频帧数据无效
     audio_frame_->frame_valid_ = false;
 
-    AVFramePtr decoded_frame = AVFramePtrCreate();
-    ret = avcodec_receive_frame(audio_codec_ctx_.get(), decoded_frame.get());
-    if (ret == AVERROR(EAGAIN)) // 当前这次没有解码后的音视频帧输出,需要 avcodec_send_packet()送入更多的数据
-    {
-        LOGD("<CAvParserEng::DecodeAudioFrame> no data output\n");
-        decoded_frame.reset();
-        audio_progress_.ResetDecodeCount();
-        if (audio_progress_.IsDecodeEos())  { // 音频解码完成
-            LOGD("<CAvParserEng::DecodeAudioFrame> audio decoding EOS\n");
-            return XERR_CODEC_DEC_EOS;
+    //
+    // 连续解码并且重采样到 audio_frame_ 中，累积到 AUDIO_BATCH_SAMPLES 个样本才输出，
+    // 解码器需要更多数据时保留已经累积的样本，解码完成时输出剩余的样本
+    //
+    for (;;) {
+        AVFramePtr decoded_frame = AVFramePtrCreate();
+        ret = avcodec_receive_frame(audio_codec_ctx_.get(), decoded_frame.get());
+        if (ret == AVERROR(EAGAIN)) // 当前这次没有解码后的音视频帧输出,需要 avcodec_send_packet()送入更多的数据
+        {
+            LOGD("<CAvParserEng::DecodeAudioFrame> no data output\n");
+            decoded_frame.reset();
+            audio_progress_.ResetDecodeCount();
+            if (audio_progress_.IsDecodeEos())  { // 音频解码完成
+                LOGD("<CAvParserEng::DecodeAudioFrame> audio decoding EOS\n");
+                return AudioBatchOutput(XERR_CODEC_DEC_EOS);
+            }
+            return XERR_CODEC_INDATA;
+
+        } else if (ret == AVERROR_EOF) // 解码缓冲区已经刷新完成,后续不再有数据输出
+        {
+            LOGD("<CAvParserEng::DecodeAudioFrame> decoder is EOF\n");
+            decoded_frame.reset();
+            return AudioBatchOutput(XERR_CODEC_DEC_EOS);
+
+        } else if (ret < 0) {
+            LOGE("<CAvParserEng::DecodeAudioFrame> [ERROR] fail to avcodec_receive_packet(), ret=%d\n", ret);
+            audio_progress_.IncreaseDecodeCount();
+            if (audio_progress_.IsDecodeEos())  { // 音频解码完成
+                LOGD("<CAvParserEng::DecodeAudioFrame> audio decoding EOS\n");
+                return AudioBatchOutput(XERR_CODEC_DEC_EOS);
+            }
+            return XERR_CODEC_DECODING;
         }
-        return XERR_CODEC_INDATA;
+        audio_progress_.ResetDecodeCount();
+        audio_progress_.SetDecodedPts(decoded_frame->pts);
 
-    } else if (ret == AVERROR_EOF) // 解码缓冲区已经刷新完成,后续不再有数据输出
-    {
-        LOGD("<CAvParserEng::DecodeAudioFrame> decoder is EOF\n");
+        ret = AudioFrameConvert(decoded_frame.get());
+        if (ret != XOK) {
+            LOGE("<CAvParserEng::DecodeAudioFrame> [ERROR] fail to AudioFrameConvert(), ret=%d\n", ret);
+            decoded_frame.reset();
+            return ret;
+        }
+        audio_progress_.SetAudioParam(audio_frame_->sample_fmt_, audio_frame_->channels_, audio_frame_->sample_rate_);
         decoded_frame.reset();
-        return XERR_CODEC_DEC_EOS;
 
-    } else if (ret < 0) {
-        LOGE("<CAvParserEng::DecodeAudioFrame> [ERROR] fail to avcodec_receive_packet(), ret=%d\n", ret);
-        audio_progress_.IncreaseDecodeCount();
-        if (audio_progress_.IsDecodeEos())  { // 音频解码完成
+        if (audio_progress_.IsDecodeEos()) { // 音频解码完成
             LOGD("<CAvParserEng::DecodeAudioFrame> audio decoding EOS\n");
-            return XERR_CODEC_DEC_EOS;
+            return AudioBatchOutput(XERR_CODEC_DEC_EOS);
+        }
+        if (audio_batch_samples_ >= AUDIO_BATCH_SAMPLES) {
+            return AudioBatchOutput(XOK);
         }
-        return XERR_CODEC_DECODING;
     }
-    audio_progress_.ResetDecodeCount();
-    audio_progress_.SetDecodedPts(decoded_frame->pts);
+}
 
-    ret = AudioFrameConvert(decoded_frame.get());
-    if (ret != XOK) {
-        LOGE("<CAvParserEng::DecodeAudioFrame> [ERROR] fail to AudioFrameConvert(), ret=%d\n", ret);
-        decoded_frame.reset();
-        return ret;
+/**
+  * @brief 输出已经累积的音频样本，audio_frame_ 标记为有效
+  * @param no_batch_ret : 没有累积的样本时返回的错误码
+  * @return 有样本输出时返回 XOK，否则返回 no_batch_ret
+  */
+int32_t CAvParserEng::AudioBatchOutput(int32_t no_batch_ret)
+{
+    if (audio_batch_samples_ <= 0) {
+        return no_batch_ret;
     }
-    audio_progress_.SetAudioParam(audio_frame_->sample_fmt_, audio_frame_->channels_, audio_frame_->sample_rate_);
 
+    audio_frame_->sample_number_ = audio_batch_samples_;
+    audio_frame_->frame_valid_ = true;          // 音频帧有效
+    audio_batch_samples_ = 0;
 
-    int64_t pts = decoded_frame->pts;
-    decoded_frame.reset();
-    LOGD("<CAvParserEng::DecodeAudioFrame> decoded, format=%d, smplrate=%d, samples=%d, timestamp=%" PRId64 " , flags=%d, pts=%" PRId64 " \n",
+    LOGD("<CAvParserEng::AudioBatchOutput> decoded, format=%d, smplrate=%d, samples=%d, timestamp=%" PRId64 " , flags=%d\n",
          audio_frame_->sample_fmt_, audio_frame_->sample_rate_, audio_frame_->sample_number_,
-         audio_frame_->timestamp_, audio_frame_->flags_, pts);
-
-    if (audio_progress_.IsDecodeEos()) { // 音频解码完成
-        LOGD("<CAvParserEng::DecodeAudioFrame> audio decoding EOS\n");
-        return XERR_CODEC_DEC_EOS;
-    }
-
+         audio_frame_->timestamp_, audio_frame_->flags_);
     return XOK;
 }
 
@@ -710,16 +745,13 @@ int32_t CAvParserEng::VideoFrameConvert(const AVFrame* in_frame)
 
     memset(out_data[0], 0x00, (y_size + uv_size + uv_size));
 
-    int res = sws_scale(video_sws_ctx_.get(),
-                        static_cast<const uint8_t* const*>(in_frame->data),
-                        in_frame->linesize,
-                        0,
-                        video_frame_->height_,
-                        out_data,
-                        out_linesize);
-    if (res < 0)
+    int res = video_scaler_.Scale(static_cast<const uint8_t* const*>(in_frame->data),
+                                  in_frame->linesize,
+                                  out_data,
+                                  out_linesize);
+    if (res != XOK)
     {
-        LOGE("<CAvParserEng::VideoFrameConvert> [ERROR] fail to sws_scale(), res=%d\n", res);
+        LOGE("<CAvParserEng::VideoFrameConvert> [ERROR] fail to scale, res=%d\n", res);
         return XERR_CODEC_DECODING;
     }
 
@@ -774,7 +806,7 @@ int32_t CAvParserEng::VideoFrameConvert(const AVFrame* in_frame)
 
 
 /**
-  * @brief 音频格式重采样转码，转码结果输出到 audio_frame_ 中
+  * @brief 音频格式重采样转码，转码结果追加到 audio_frame_ 已经累积的样本后面
   * @param in_frame  ：入原始音频帧
   * @return 返回错误码, 0: 转码成功;  other: 出错
   */
@@ -782,8 +814,10 @@ int32_t CAvParserEng::AudioFrameConvert(const AVFrame* in_frame)
 {
     int64_t scale_samples = av_rescale_rnd(in_frame->nb_samples, dec_param_->sample_rate_,
                                            audio_codec_ctx_->sample_rate, AV_ROUND_UP);
+    scale_samples = MIN(scale_samples, (int64_t)(audio_max_samples_ - audio_batch_samples_));
+    int32_t bytes_per_frame = audio_frame_->bytes_per_sample_ * audio_frame_->channels_;  // 交错格式
     uint8_t* out_buffer[8] = {nullptr};
-    out_buffer[0] = audio_frame_->sample_data_.get();
+    out_buffer[0] = audio_frame_->sample_data_.get() + audio_batch_samples_ * bytes_per_frame;
 
     int32_t cvted_samples = swr_convert(audio_sws_ctx_.get(),
                                         const_cast<uint8_t **>(out_buffer),
@@ -803,19 +837,20 @@ int32_t CAvParserEng::AudioFrameConvert(const AVFrame* in_frame)
 //    LOGD("<CAvParserEng::AudioFrameConvert> pts=%" PRId64 ", start_time=%" PRId64 ", frame_time=%" PRId64 ", timestamp=%" PRId64 " \n",
 //         in_frame->pts, start_timestamp_, frame_time, timestamp);
 
-    // 填充音频帧信息字段
-    audio_frame_->frame_index_++;
-    audio_frame_->timestamp_ = audio_duration_;
+    // 填充音频帧信息字段，时间戳是本批第一个样本的时间
+    if (audio_batch_samples_ == 0) {
+        audio_frame_->frame_index_++;
+        audio_frame_->timestamp_ = audio_duration_;
+    }
     audio_frame_->key_frame_ = in_frame->key_frame;
     audio_frame_->last_frame_ = false;
     audio_frame_->flags_ = in_frame->flags;
-    audio_frame_->frame_valid_ = true;          // 音频帧有效
 
     audio_frame_->sample_fmt_ = dec_param_->sample_format_;
     audio_frame_->bytes_per_sample_ = av_get_bytes_per_sample((enum AVSampleFormat)(dec_param_->sample_format_));
     audio_frame_->channels_ = dec_param_->channels_;
     audio_frame_->sample_rate_ = dec_param_->sample_rate_;
-    audio_frame_->sample_number_ = cvted_samples;       // 转换后的样本数量
+    audio_batch_samples_ += cvted_samples;              // 累积转换后的样本数量
 
     if (dec_param_->sample_rate_ > 0) {  // 根据数据长度计算音频时间戳
         int64_t frame_duration = (int64_t)cvted_samples * 1000L * 1000L / (int64_t)(dec_param_->sample_rate_);
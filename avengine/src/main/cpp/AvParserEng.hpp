@@ -12,6 +12,7 @@
 
 #include "comtypedef.hpp"
 #include "AvParseProgress.hpp"
+#include "AvBandScaler.hpp"
 
 
 class CAvParserEng final
@@ -70,12 +71,13 @@ public:
 protected:
     int32_t VideoFrameConvert(const AVFrame* in_frame);
     int32_t AudioFrameConvert(const AVFrame* in_frame);
+    int32_t AudioBatchOutput(int32_t no_batch_ret);
 
 private:
     SharePtr<AvDecParam> dec_param_ = nullptr;
     AVFormatOpenContextPtr format_ctx_  = nullptr;
     AVCodecContextPtr      video_codec_ctx_ = nullptr;
-    SwsContextPtr          video_sws_ctx_ = nullptr;
+    CAvBandScaler          video_scaler_;                 ///< 视频格式转换器，分带多线程转换
     AVCodecContextPtr      audio_codec_ctx_ = nullptr;
     SwrContextPtr          audio_sws_ctx_  = nullptr;
     AvMediaInfoPtr         media_info_ = nullptr;
@@ -85,6 +87,8 @@ private:
     AvVideoFramePtr        video_frame_ = nullptr;        ///< 当前解码出来的视频帧
     UniquePtr<uint8_t[]>   yuv_buffer_= nullptr;          ///< 解码后的YUV缓冲区
     AvAudioFramePtr        audio_frame_ = nullptr;        ///< 当前解码出来的音频帧
+    int32_t                audio_batch_samples_ = 0;      ///< 已经重采样到 audio_frame_ 中还未输出的样本数
+    int32_t                audio_max_samples_ = 0;        ///< audio_frame_ 缓冲区可以容纳的样本数
 
     int64_t                start_timestamp_ = 0;          ///< 初始时间戳
     int64_t                audio_duration_ = 0;           ///< 当前视频时长
@@ -208,6 +208,10 @@ JNIEXPORT jlong JNICALL Java_io_agora_avmodule_AvSoftDecoder_native_1parserOpen(
     dec_param->channels_ = (int32_t) (GetJNIFieid<jint>(env, jobj_decParam, "mOutAudChannels"));
     dec_param->sample_rate_ = (int32_t) (GetJNIFieid<jint>(env, jobj_decParam, "mOutAudSampleRate"));
 
+    // 解析线程参数
+    dec_param->decode_threads_ = (int32_t) (GetJNIFieid<jint>(env, jobj_decParam, "mDecodeThreads"));
+    dec_param->convert_threads_ = (int32_t) (GetJNIFieid<jint>(env, jobj_decParam, "mConvertThreads"));
+
     // 打开媒体文件进行解析
     int32_t ret = pEngHandler->pParserEng->Open(dec_param);
     if (ret != XOK) {
@@ -501,20 +505,13 @@ JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvSoftDecoder_native_1parserGetVid
         return XERR_CODEC_DECODING;
     }
 
-    // Lock video bytes buffer
-    jbyte* out_vidbuffer =  env->GetByteArrayElements(jobj_videoBuffer, 0);
-    if (NULL == out_vidbuffer) {
-        LOGE("<native_1parserGetVideoFrame> fail to lock video buffer");
+    // Copy the data, SetByteArrayRegion() copies only once and never copies back
+    int32_t data_size = (video_frame->width_ * video_frame->height_ * 3 / 2);
+    if (env->GetArrayLength(jobj_videoBuffer) < data_size) {
+        LOGE("<native_1parserGetVideoFrame> video buffer too small, data_size=%d\n", data_size);
         return XERR_INVALID_PARAM;
     }
-
-    // Copy the data
-    int32_t data_size = (video_frame->width_ * video_frame->height_ * 3 / 2);
-    memcpy(out_vidbuffer, video_frame->frame_data_.get(), data_size);
-
-
-    // Unlock video bytes buffer
-    env->ReleaseByteArrayElements(jobj_videoBuffer, out_vidbuffer, 0);
+    env->SetByteArrayRegion(jobj_videoBuffer, 0, data_size, (const jbyte*)(video_frame->frame_data_.get()));
 
     LOGD("<native_1parserGetVideoFrame> done\n");
     return XOK;
@@ -605,7 +602,7 @@ JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvSoftDecoder_native_1parserDecAud
         //
     // 释放相应的类对象
     //
-    env->DeleteLocalRef(jobj_audioFrame);
+    env->DeleteLocalRef(jclass_audio_frame);
 
     LOGD("<native_1parserDecAudioFrame> done, ret=%d\n", ret);
     return (jint)ret;
@@ -632,24 +629,74 @@ JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvSoftDecoder_native_1parserGetAud
         return XERR_CODEC_DECODING;
     }
 
-    // Lock audio bytes buffer
-    jbyte* out_audbuffer =  env->GetByteArrayElements(jb_audioBuffer, 0);
-    if (NULL == out_audbuffer) {
-        LOGE("<native_1parserGetAudioFrame> fail to lock audio buffer");
+    // Copy the data, SetByteArrayRegion() copies only once and never copies back
+    int32_t data_size = (audio_frame->sample_number_ * audio_frame->channels_ * audio_frame->bytes_per_sample_);
+    if (env->GetArrayLength(jb_audioBuffer) < data_size) {
+        LOGE("<native_1parserGetAudioFrame> audio buffer too small, data_size=%d\n", data_size);
         return XERR_INVALID_PARAM;
     }
+    env->SetByteArrayRegion(jb_audioBuffer, 0, data_size, (const jbyte*)(audio_frame->sample_data_.get()));
 
-    // Copy the data
-    int32_t data_size = (audio_frame->sample_number_ * audio_frame->channels_ * audio_frame->bytes_per_sample_);
-    memcpy(out_audbuffer, audio_frame->sample_data_.get(), data_size);
 
+    LOGD("<native_1parserGetAudioFrame> done\n");
+    return XOK;
+}
 
-    // Unlock audio bytes buffer
-    env->ReleaseByteArrayElements(jb_audioBuffer, out_audbuffer, 0);
+/*
+ * Class:     io_agora_avmodule_AvSoftDecoder
+ * Method:    native_parserDecVideoFrameTo
+ * Signature: (JLio/agora/avmodule/AvVideoFrame;[B)I
+ * @brief 解码一帧视频帧，并且在同一次调用中拷贝到调用者提供的缓冲区
+ *        只有解码到有效帧(非EOS)，并且缓冲区大小正好等于帧数据大小时才拷贝，
+ *        大小不匹配(例如分辨率变化)时不拷贝，解码帧仍然保留，调用者可以再用 native_parserGetVideoFrame() 获取
+ */
+JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvSoftDecoder_native_1parserDecVideoFrameTo
+    (JNIEnv *env, jobject thiz, jlong jlEng, jobject jobj_videoFrame, jbyteArray jb_outBuffer)
+{
+    jint ret = Java_io_agora_avmodule_AvSoftDecoder_native_1parserDecVideoFrame(env, thiz, jlEng, jobj_videoFrame);
+    if (ret == XERR_CODEC_DEC_EOS || ret == XERR_INVALID_PARAM || nullptr == jb_outBuffer) {
+        return ret;
+    }
 
+    AVPARSERENG_HANDLER* pEngHandler = (AVPARSERENG_HANDLER*)jlEng;
+    AvVideoFrame* video_frame = pEngHandler->pParserEng->GetVideoFrame();
+    if (!video_frame->frame_valid_ || video_frame->width_ <= 0 || video_frame->height_ <= 0) {
+        return ret;
+    }
 
-    LOGD("<native_1parserGetAudioFrame> done\n");
-    return XOK;
+    int32_t data_size = (video_frame->width_ * video_frame->height_ * 3 / 2);
+    if (env->GetArrayLength(jb_outBuffer) == data_size) {
+        env->SetByteArrayRegion(jb_outBuffer, 0, data_size, (const jbyte*)(video_frame->frame_data_.get()));
+    }
+    return ret;
+}
+
+/*
+ * Class:     io_agora_avmodule_AvSoftDecoder
+ * Method:    native_parserDecAudioFrameTo
+ * Signature: (JLio/agora/avmodule/AvAudioFrame;[B)I
+ * @brief 解码一帧音频帧，并且在同一次调用中拷贝到调用者提供的缓冲区
+ *        拷贝条件和 native_parserDecVideoFrameTo() 相同
+ */
+JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvSoftDecoder_native_1parserDecAudioFrameTo
+    (JNIEnv *env, jobject thiz, jlong jlEng, jobject jobj_audioFrame, jbyteArray jb_outBuffer)
+{
+    jint ret = Java_io_agora_avmodule_AvSoftDecoder_native_1parserDecAudioFrame(env, thiz, jlEng, jobj_audioFrame);
+    if (ret == XERR_CODEC_DEC_EOS || ret == XERR_INVALID_PARAM || nullptr == jb_outBuffer) {
+        return ret;
+    }
+
+    AVPARSERENG_HANDLER* pEngHandler = (AVPARSERENG_HANDLER*)jlEng;
+    AvAudioFrame* audio_frame = pEngHandler->pParserEng->GetAudioFrame();
+    if (!audio_frame->frame_valid_ || audio_frame->sample_number_ <= 0) {
+        return ret;
+    }
+
+    int32_t data_size = (audio_frame->sample_number_ * audio_frame->channels_ * audio_frame->bytes_per_sample_);
+    if (env->GetArrayLength(jb_outBuffer) == data_size) {
+        env->SetByteArrayRegion(jb_outBuffer, 0, data_size, (const jbyte*)(audio_frame->sample_data_.get()));
+    }
+    return ret;
 }
 
 
@@ -79,6 +79,22 @@ JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvSoftDecoder_native_1parserDecAud
 JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvSoftDecoder_native_1parserGetAudioFrame
         (JNIEnv *, jobject, jlong, jbyteArray);
 
+/*
+ * Class:     io_agora_avmodule_AvSoftDecoder
+ * Method:    native_parserDecVideoFrameTo
+ * Signature: (JLio/agora/avmodule/AvVideoFrame;[B)I
+ */
+JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvSoftDecoder_native_1parserDecVideoFrameTo
+        (JNIEnv *, jobject, jlong, jobject, jbyteArray);
+
+/*
+ * Class:     io_agora_avmodule_AvSoftDecoder
+ * Method:    native_parserDecAudioFrameTo
+ * Signature: (JLio/agora/avmodule/AvAudioFrame;[B)I
+ */
+JNIEXPORT jint JNICALL Java_io_agora_avmodule_AvSoftDecoder_native_1parserDecAudioFrameTo
+        (JNIEnv *, jobject, jlong, jobject, jbyteArray);
+
 /*
  * Class:     io_agora_avmodule_AvSoftDecoder
  * Method:    native_yuvToBitmap
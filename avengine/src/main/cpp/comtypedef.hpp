@@ -40,6 +40,9 @@ struct AvDecParam final {
     int32_t sample_format_;      ///< 输出文件要编码的音频采样格式，Android上默认16位采样
     int32_t channels_;           ///< 输出文件要编码的音频通道数量，Android 默认2
     int32_t sample_rate_;        ///< 输出文件要编码的音频采样率，Android 默认44100
+
+    int32_t decode_threads_ = 0;   ///< 视频解码线程数量，0 表示由 FFmpeg 根据 CPU 核数自动选择，1 表示单线程
+    int32_t convert_threads_ = 0;  ///< 视频格式转换的分带线程数量，0 表示根据 CPU 核数自动选择
 };
 
 
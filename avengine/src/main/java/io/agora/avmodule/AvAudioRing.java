@@ -0,0 +1,226 @@
+package io.agora.avmodule;
+
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+
+
+/*
+ * @brief 音频采集回调和编码器之间的 PCM 环形缓冲区
+ *        1. 所有 PCM 缓冲区在开始时预先分配，容量固定，运行中不再分配新缓冲区
+ *        2. 编码器来不及处理时，按照设定的策略丢弃最旧的或者最新的音频帧
+ *        3. 时间戳根据累计的采样数计算，不会像按毫秒累加那样产生累计误差，丢帧时采样数也会累计
+ */
+public class AvAudioRing {
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "AVMODULE/AvAudioRing";
+    public static final int DEFAULT_CAPACITY = 50;          ///< 默认缓冲区数量，RTC 回放音频30ms一帧时为1.5秒
+
+    //
+    // 编码器来不及处理，缓冲区满时的处理策略
+    //
+    public static final int POLICY_DROP_OLDEST = 0;         ///< 丢弃最旧的还未读取的帧
+    public static final int POLICY_DROP_NEWEST = 1;         ///< 丢弃当前写入的帧
+
+
+    /*
+     * @brief 环形缓冲区统计信息
+     */
+    public static class RingStats {
+        public long mWriteCount;            ///< 写入的帧数
+        public long mDropOldestCount;       ///< 丢弃的旧帧数量
+        public long mDropNewestCount;       ///< 丢弃的新帧数量
+        public int mPendingCount;           ///< 当前还未读取的帧数量
+        public long mTotalSamples;          ///< 累计的单声道采样数
+
+        @Override
+        public String toString() {
+            String infoText = "{ mWriteCount=" + mWriteCount
+                    + ", mDropOldestCount=" + mDropOldestCount
+                    + ", mDropNewestCount=" + mDropNewestCount
+                    + ", mPendingCount=" + mPendingCount
+                    + ", mTotalSamples=" + mTotalSamples + " }";
+            return infoText;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final Object mRingLock = new Object();
+    private final int mCapacity;
+    private final int mPolicy;
+    private final ArrayDeque<AvAudioFrame> mPendingQueue;   ///< 已经写入还未读取的帧
+    private AvBufferPool mBufferPool;                       ///< 固定数量的 PCM 缓冲区
+
+    private int mFrameIndex = 0;
+    private int mSampleRate = 0;            ///< 当前采样率
+    private long mBaseTimeUs = 0;           ///< 采样率变化时的时间基准(微秒)
+    private long mBaseSamples = 0;          ///< 采样率变化时的累计采样数
+    private long mTotalSamples = 0;         ///< 累计的单声道采样数
+    private long mWriteCount = 0;
+    private long mDropOldestCount = 0;
+    private long mDropNewestCount = 0;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 构造函数
+     * @param capacity : PCM 缓冲区数量
+     * @param policy : 缓冲区满时的处理策略
+     */
+    public AvAudioRing(int capacity, int policy) {
+        mCapacity = (capacity > 0) ? capacity : DEFAULT_CAPACITY;
+        mPolicy = policy;
+        mPendingQueue = new ArrayDeque<>(mCapacity);
+        mBufferPool = new AvBufferPool(mCapacity);
+    }
+
+    /*
+     * @brief 写入一帧 PCM 数据，在音频回调线程中调用
+     * @param pcmBuffer : PCM 数据，从 position 读取到 limit
+     * @param samplesPerChannel : 每个声道的采样数
+     * @param channels : 声道数
+     * @param bytesPerSample : 每个采样的字节数
+     * @param sampleRate : 采样率
+     * @return 错误码，缓冲区满并且丢弃当前帧时返回 XERR_BUFFER_OVERFLOW
+     */
+    public int write(final ByteBuffer pcmBuffer, int samplesPerChannel, int channels,
+                     int bytesPerSample, int sampleRate) {
+        int dataSize = pcmBuffer.remaining();
+        if ((dataSize <= 0) || (sampleRate <= 0)) {
+            return ErrCode.XERR_INVALID_PARAM;
+        }
+
+        AvAudioFrame dropFrame = null;
+        AvBufferPool.PooledBuffer pcmData = null;
+        synchronized (mRingLock) {
+            // 根据累计采样数计算时间戳，采样率变化时重新设置时间基准
+            if (sampleRate != mSampleRate) {
+                mBaseTimeUs = calcTimestamp();
+                mBaseSamples = mTotalSamples;
+                mSampleRate = sampleRate;
+            }
+            long timestamp = calcTimestamp();
+            mTotalSamples += samplesPerChannel;
+            mWriteCount++;
+
+            // 缓冲区都在使用中，按照策略处理
+            if (mBufferPool.getOutstandingCount() >= mCapacity) {
+                if ((mPolicy == POLICY_DROP_OLDEST) && !mPendingQueue.isEmpty()) {
+                    dropFrame = mPendingQueue.pollFirst();
+                    mDropOldestCount++;
+                } else {
+                    // 所有缓冲区都已经被编码器读取还未释放，只能丢弃当前帧
+                    mDropNewestCount++;
+                    return ErrCode.XERR_BUFFER_OVERFLOW;
+                }
+            }
+            if (dropFrame != null) {
+                dropFrame.releaseBuffer();
+            }
+
+            pcmData = mBufferPool.obtain(dataSize);
+            pcmBuffer.get(pcmData.mData, 0, dataSize);
+
+            AvAudioFrame audioFrame = new AvAudioFrame();
+            audioFrame.mBytesPerSample = bytesPerSample;
+            audioFrame.mChannels = channels;
+            audioFrame.mSampleRate = sampleRate;
+            audioFrame.mSampleNumber = (samplesPerChannel * channels);
+            audioFrame.mDataBuffer = pcmData.mData;
+            audioFrame.mPooledBuffer = pcmData;
+            audioFrame.mFrameIndex = mFrameIndex;
+            audioFrame.mTimestamp = timestamp;
+            audioFrame.mKeyFrame = true;
+            audioFrame.mLastFrame = false;
+            audioFrame.mFlags = 0;
+            mFrameIndex++;
+            mPendingQueue.addLast(audioFrame);
+        }
+
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 读取一帧 PCM 数据，编码器送入数据后需要调用 releaseBuffer() 归还缓冲区
+     * @return 返回音频帧，没有数据时返回null
+     */
+    public AvAudioFrame read() {
+        synchronized (mRingLock) {
+            return mPendingQueue.pollFirst();
+        }
+    }
+
+    /*
+     * @brief 清空还未读取的帧，并且重置时间戳
+     *        已经被编码器读取的缓冲区释放后不再回到新的对象池中
+     */
+    public void reset() {
+        synchronized (mRingLock) {
+            for (AvAudioFrame audioFrame : mPendingQueue) {
+                audioFrame.releaseBuffer();
+            }
+            mPendingQueue.clear();
+            mBufferPool = new AvBufferPool(mCapacity);
+            mFrameIndex = 0;
+            mSampleRate = 0;
+            mBaseTimeUs = 0;
+            mBaseSamples = 0;
+            mTotalSamples = 0;
+            mWriteCount = 0;
+            mDropOldestCount = 0;
+            mDropNewestCount = 0;
+        }
+        Log.d(TAG, "<reset> done, mCapacity=" + mCapacity + ", mPolicy=" + mPolicy);
+    }
+
+    /*
+     * @brief 预先分配 PCM 缓冲区
+     * @param frameSize : 每一帧 PCM 数据的字节数
+     */
+    public void preallocate(int frameSize) {
+        synchronized (mRingLock) {
+            mBufferPool.preallocate(frameSize, mCapacity);
+        }
+    }
+
+    /*
+     * @brief 获取统计信息
+     */
+    public RingStats getStats() {
+        RingStats stats = new RingStats();
+        synchronized (mRingLock) {
+            stats.mWriteCount = mWriteCount;
+            stats.mDropOldestCount = mDropOldestCount;
+            stats.mDropNewestCount = mDropNewestCount;
+            stats.mPendingCount = mPendingQueue.size();
+            stats.mTotalSamples = mTotalSamples;
+        }
+        return stats;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 根据累计采样数计算当前时间戳(微秒)，需要在 mRingLock 锁内调用
+     */
+    private long calcTimestamp() {
+        if (mSampleRate <= 0) {
+            return mBaseTimeUs;
+        }
+        return mBaseTimeUs + ((mTotalSamples - mBaseSamples) * 1000000L / mSampleRate);
+    }
+}
@@ -20,4 +20,16 @@ public class AvBaseFrame {
     public boolean mKeyFrame;               ///< 当前帧是否是关键帧
     public boolean mLastFrame;              ///< 当前帧是最后一帧
     public int mFlags;                      ///< 帧信息标记
+    public AvBufferPool.PooledBuffer mPooledBuffer; ///< mDataBuffer 来自对象池时对应的缓冲区，数据消费完成后释放
+
+    /*
+     * @brief 数据已经消费完成，释放帧数据缓冲区，来自对象池时减少引用计数
+     */
+    public void releaseBuffer() {
+        if (mPooledBuffer != null) {
+            mPooledBuffer.release();
+            mPooledBuffer = null;
+        }
+        mDataBuffer = null;
+    }
 }
\ No newline at end of file
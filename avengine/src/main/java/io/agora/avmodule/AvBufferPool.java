@@ -0,0 +1,198 @@
+package io.agora.avmodule;
+
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+
+/*
+ * @brief 帧数据缓冲区对象池，缓冲区带有引用计数，所有引用都释放后才会回到对象池中复用
+ *        同一个对象池中的缓冲区大小通常是相同的(例如相同分辨率的视频帧)，
+ *        大小变化时空闲列表中不匹配的缓冲区会被直接丢弃
+ */
+public class AvBufferPool {
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "AVMODULE/AvBufferPool";
+    public static final int DEFAULT_MAX_FREE_COUNT = 4;     ///< 默认最多缓存的空闲缓冲区数量
+
+
+    /*
+     * @brief 带引用计数的缓冲区，获取时引用计数为1
+     */
+    public static class PooledBuffer {
+        private final AvBufferPool mOwner;
+        private final AtomicInteger mRefCount = new AtomicInteger(0);
+        public final byte[] mData;                  ///< 缓冲区数据，长度就是有效数据大小
+
+        PooledBuffer(final AvBufferPool owner, int size) {
+            mOwner = owner;
+            mData = new byte[size];
+        }
+
+        /*
+         * @brief 增加一个引用
+         * @return 返回当前缓冲区
+         */
+        public PooledBuffer retain() {
+            mRefCount.incrementAndGet();
+            return this;
+        }
+
+        /*
+         * @brief 释放一个引用，所有引用都释放后回到对象池
+         */
+        public void release() {
+            int refCount = mRefCount.decrementAndGet();
+            if (refCount == 0) {
+                mOwner.recycle(this);
+            } else if (refCount < 0) {
+                mRefCount.set(0);   // 多次释放，忽略
+            }
+        }
+
+        public int getRefCount() {
+            return mRefCount.get();
+        }
+    }
+
+    /*
+     * @brief 对象池统计信息
+     */
+    public static class PoolStats {
+        public long mObtainCount;           ///< 获取缓冲区的次数
+        public long mReuseCount;            ///< 从空闲列表中复用的次数
+        public long mAllocBytes;            ///< 新分配缓冲区的累计字节数
+        public int mFreeCount;              ///< 当前空闲缓冲区数量
+
+        @Override
+        public String toString() {
+            String infoText = "{ mObtainCount=" + mObtainCount
+                    + ", mReuseCount=" + mReuseCount
+                    + ", mAllocBytes=" + mAllocBytes
+                    + ", mFreeCount=" + mFreeCount + " }";
+            return infoText;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final Object mPoolLock = new Object();
+    private final ArrayDeque<PooledBuffer> mFreeList = new ArrayDeque<>();
+    private final int mMaxFreeCount;
+    private long mObtainCount = 0;
+    private long mReuseCount = 0;
+    private long mAllocBytes = 0;
+    private int mOutstandingCount = 0;      ///< 已经获取但是还没有全部释放引用的缓冲区数量
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public AvBufferPool() {
+        this(DEFAULT_MAX_FREE_COUNT);
+    }
+
+    public AvBufferPool(int maxFreeCount) {
+        mMaxFreeCount = (maxFreeCount > 0) ? maxFreeCount : 1;
+    }
+
+    /*
+     * @brief 获取指定大小的缓冲区，引用计数为1，使用完成后调用 release()
+     * @param size : 缓冲区大小
+     * @return 返回缓冲区对象
+     */
+    public PooledBuffer obtain(int size) {
+        PooledBuffer buffer = null;
+        synchronized (mPoolLock) {
+            mObtainCount++;
+            while (!mFreeList.isEmpty()) {
+                PooledBuffer freeBuffer = mFreeList.pollFirst();
+                if (freeBuffer.mData.length == size) {
+                    buffer = freeBuffer;
+                    mReuseCount++;
+                    break;
+                }
+                // 大小不匹配(例如分辨率变化)的缓冲区直接丢弃
+            }
+            if (buffer == null) {
+                mAllocBytes += size;
+            }
+            mOutstandingCount++;
+        }
+
+        if (buffer == null) {
+            buffer = new PooledBuffer(this, size);
+        }
+        return buffer.retain();
+    }
+
+    /*
+     * @brief 预先分配空闲缓冲区，最多分配到空闲列表的上限
+     * @param size : 缓冲区大小
+     * @param count : 要分配的数量
+     */
+    public void preallocate(int size, int count) {
+        synchronized (mPoolLock) {
+            while ((count > 0) && (mFreeList.size() < mMaxFreeCount)) {
+                mFreeList.addLast(new PooledBuffer(this, size));
+                mAllocBytes += size;
+                count--;
+            }
+        }
+    }
+
+    /*
+     * @brief 获取已经获取但是还没有全部释放引用的缓冲区数量
+     */
+    public int getOutstandingCount() {
+        synchronized (mPoolLock) {
+            return mOutstandingCount;
+        }
+    }
+
+    /*
+     * @brief 清空所有空闲缓冲区
+     */
+    public void clear() {
+        synchronized (mPoolLock) {
+            mFreeList.clear();
+        }
+    }
+
+    /*
+     * @brief 获取统计信息
+     */
+    public PoolStats getStats() {
+        PoolStats stats = new PoolStats();
+        synchronized (mPoolLock) {
+            stats.mObtainCount = mObtainCount;
+            stats.mReuseCount = mReuseCount;
+            stats.mAllocBytes = mAllocBytes;
+            stats.mFreeCount = mFreeList.size();
+        }
+        return stats;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 所有引用都释放后回收到空闲列表中
+     */
+    private void recycle(final PooledBuffer buffer) {
+        synchronized (mPoolLock) {
+            mOutstandingCount--;
+            if (mFreeList.size() < mMaxFreeCount) {
+                mFreeList.addLast(buffer);
+            }
+        }
+    }
+}
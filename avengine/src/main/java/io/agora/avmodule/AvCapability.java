@@ -34,6 +34,8 @@ public class AvCapability {
         public boolean mBitrateVbrSupported;        ///< 是否支持 VBR码率模式
         public boolean mBitrateCbrSupported;        ///< 是否支持 CBR码率模式
         public boolean mBitrateCqSupported;         ///< 是否支持 CQ码率模式
+        public int mMaxInstances;                   ///< 可以同时创建的最大编解码器实例数量
+        public long mMaxPixelRate;                  ///< 编解码器每秒可以处理的最大像素数，0表示未知
 
         @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
         public String toString() {
@@ -44,9 +46,10 @@ public class AvCapability {
             String vbrSupported = mBitrateVbrSupported ? "[VBR support]" : "[VBR unsupport]";
             String cbrSupported = mBitrateCbrSupported ? "[CBR support]" : "[CBR unsupport]";
             String cqSupported = mBitrateCqSupported ? "[CQ support]" : "[CQ unsupport]";
+            String instanceInfo = " maxInstances=" + mMaxInstances + ", maxPixelRate=" + mMaxPixelRate;
 
             String text = "{ " + widthInfo + heightInfo + fpsInfo + bitrateInfo
-                            + vbrSupported + cbrSupported + cqSupported + " }";
+                            + vbrSupported + cbrSupported + cqSupported + instanceInfo + " }";
             return text;
         }
     }
@@ -80,6 +83,12 @@ public class AvCapability {
     private static final String TAG = "AVMODULE/Capability";
     private static final String MIME_TYPE_VIDEO = "video/";
     private static final String MIME_TYPE_AUDIO = "audio/";
+    private static final int DEFAULT_MAX_INSTANCES = 4;     ///< 无法查询时默认的最大实例数量
+
+    //
+    // 估算编解码器性能上限时使用的分辨率，按照从大到小的顺序查询
+    //
+    private static final int[][] PROBE_SIZE_ARRAY = { {1920, 1080}, {1280, 720}, {640, 480} };
 
 
     ////////////////////////////////////////////////////////////////////////
@@ -141,6 +150,13 @@ public class AvCapability {
             videoCapability.mBitrateCbrSupported = encodeCaps.isBitrateModeSupported(MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR);
             videoCapability.mBitrateCqSupported = encodeCaps.isBitrateModeSupported(MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ);
 
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                videoCapability.mMaxInstances = caps.getMaxSupportedInstances();
+            } else {
+                videoCapability.mMaxInstances = DEFAULT_MAX_INSTANCES;
+            }
+            videoCapability.mMaxPixelRate = calcMaxPixelRate(videoCaps);
+
         } catch (IllegalArgumentException argueExpt) {
             argueExpt.printStackTrace();
             Log.e(TAG, "<getVideoCapability> [argueExpt] fail to get capabilites");
@@ -188,5 +204,29 @@ public class AvCapability {
     }
 
 
-
-}
\ No newline at end of file
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 根据编解码器声明的最大帧率估算每秒可以处理的最大像素数
+     * @param videoCaps : 编解码器的视频能力
+     * @return 返回每秒最大像素数，所有探测分辨率都不支持时返回0
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private static long calcMaxPixelRate(final MediaCodecInfo.VideoCapabilities videoCaps) {
+        for (int[] probeSize : PROBE_SIZE_ARRAY) {
+            int width = probeSize[0];
+            int height = probeSize[1];
+            if (!videoCaps.isSizeSupported(width, height)) {
+                continue;
+            }
+            try {
+                Range<Double> fpsRange = videoCaps.getSupportedFrameRatesFor(width, height);
+                return (long)(width * height * fpsRange.getUpper());
+            } catch (IllegalArgumentException argueExpt) {
+                Log.e(TAG, "<calcMaxPixelRate> [argueExpt] width=" + width + ", height=" + height);
+            }
+        }
+        return 0;
+    }
+}
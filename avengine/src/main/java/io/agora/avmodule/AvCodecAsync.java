@@ -0,0 +1,229 @@
+package io.agora.avmodule;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayDeque;
+
+
+
+/*
+ * @brief MediaCodec 异步回调模式的事件队列
+ *        1. 编解码器回调在独立的回调线程中执行，只记录空闲输入缓冲区和输出事件，不做任何耗时操作
+ *        2. 组件线程从队列中直接取缓冲区索引，没有就立即返回，不再使用 dequeue*Buffer() 的超时等待
+ *        3. 每次有新事件时调用事件监听器，组件线程可以据此唤醒阻塞等待
+ */
+@RequiresApi(api = Build.VERSION_CODES.M)
+public class AvCodecAsync extends MediaCodec.Callback {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 编解码器的一个输出事件，按照回调顺序排队
+     */
+    public static class OutputEvent {
+        public int mIndex;                  ///< 输出缓冲区索引，INFO_OUTPUT_FORMAT_CHANGED 表示格式变化
+        public MediaCodec.BufferInfo mInfo; ///< 输出缓冲区信息，格式变化时为null，新格式通过 getOutputFormat() 获取
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "AVMODULE/AvCodecAsync";
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final Object mLock = new Object();      ///< 同步锁，同时作为事件通知对象
+    private final ArrayDeque<Integer> mInputIndexes = new ArrayDeque<>();    ///< 空闲的输入缓冲区索引
+    private final ArrayDeque<OutputEvent> mOutputEvents = new ArrayDeque<>(); ///< 还未处理的输出事件
+    private MediaCodec.CodecException mCodecError = null;   ///< 编解码器回调的错误
+    private HandlerThread mCallbackThread = null;   ///< 回调线程
+    private volatile Runnable mEventListener = null;    ///< 有新事件时的监听器
+    private String mName = "";
+
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 创建回调线程并设置到编解码器，必须在编解码器 configure() 之前调用
+     * @param codec : 编解码器对象
+     * @param name : 编解码器名称，仅用于日志和线程名
+     */
+    public void attach(MediaCodec codec, final String name) {
+        mName = name;
+        mCallbackThread = new HandlerThread("CodecCb-" + name);
+        mCallbackThread.start();
+        codec.setCallback(this, new Handler(mCallbackThread.getLooper()));
+        Log.d(TAG, "<attach> done, name=" + mName);
+    }
+
+    /*
+     * @brief 结束回调线程，清除所有事件，必须在编解码器 release() 之后调用
+     */
+    public void detach() {
+        if (mCallbackThread != null) {
+            mCallbackThread.quitSafely();
+            mCallbackThread = null;
+        }
+        synchronized (mLock) {
+            mInputIndexes.clear();
+            mOutputEvents.clear();
+            mCodecError = null;
+            mLock.notifyAll();
+        }
+        mEventListener = null;
+        Log.d(TAG, "<detach> done, name=" + mName);
+    }
+
+    /*
+     * @brief 设置事件监听器，在回调线程中调用，不能做耗时操作
+     */
+    public void setEventListener(Runnable listener) {
+        mEventListener = listener;
+    }
+
+    /*
+     * @brief 取一个空闲的输入缓冲区索引
+     * @return 缓冲区索引，-1表示当前没有空闲的输入缓冲区
+     */
+    public int pollInputIndex() {
+        synchronized (mLock) {
+            Integer index = mInputIndexes.pollFirst();
+            return (index != null) ? index : -1;
+        }
+    }
+
+    /*
+     * @brief 取一个输出事件
+     * @return 输出事件，null表示当前没有输出
+     */
+    public OutputEvent pollOutput() {
+        synchronized (mLock) {
+            return mOutputEvents.pollFirst();
+        }
+    }
+
+    public boolean hasFreeInput() {
+        synchronized (mLock) {
+            return (!mInputIndexes.isEmpty());
+        }
+    }
+
+    /*
+     * @brief 是否有待处理的输出事件，编解码器出错也当作有输出，让组件线程尽快处理错误
+     */
+    public boolean hasPendingOutput() {
+        synchronized (mLock) {
+            return ((!mOutputEvents.isEmpty()) || (mCodecError != null));
+        }
+    }
+
+    /*
+     * @brief 获取编解码器回调的错误
+     * @return 错误对象，null表示没有错误
+     */
+    public MediaCodec.CodecException getError() {
+        synchronized (mLock) {
+            return mCodecError;
+        }
+    }
+
+    /*
+     * @brief 阻塞等待空闲输入缓冲区或者输出事件
+     * @param timeout : 最长等待时间(毫秒)
+     * @return true 表示有事件；false 表示超时
+     */
+    public boolean waitEvent(long timeout) {
+        synchronized (mLock) {
+            long deadline = SystemClock.elapsedRealtime() + timeout;
+            while (mInputIndexes.isEmpty() && mOutputEvents.isEmpty() && (mCodecError == null)) {
+                long remain = deadline - SystemClock.elapsedRealtime();
+                if (remain <= 0) {
+                    return false;
+                }
+                try {
+                    mLock.wait(remain);
+                } catch (InterruptedException interruptExp) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Override Methods of MediaCodec.Callback /////////////////////////
+    ////////////////////////////////////////////////////////////////////////////////////////////
+    @Override
+    public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+        synchronized (mLock) {
+            mInputIndexes.addLast(index);
+            mLock.notifyAll();
+        }
+        notifyEvent();
+    }
+
+    @Override
+    public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index,
+                                        @NonNull MediaCodec.BufferInfo info) {
+        OutputEvent event = new OutputEvent();
+        event.mIndex = index;
+        event.mInfo = new MediaCodec.BufferInfo();
+        event.mInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        synchronized (mLock) {
+            mOutputEvents.addLast(event);
+            mLock.notifyAll();
+        }
+        notifyEvent();
+    }
+
+    @Override
+    public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+        OutputEvent event = new OutputEvent();
+        event.mIndex = MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+        synchronized (mLock) {
+            mOutputEvents.addLast(event);
+            mLock.notifyAll();
+        }
+        Log.d(TAG, "<onOutputFormatChanged> name=" + mName + ", format=" + format);
+        notifyEvent();
+    }
+
+    @Override
+    public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException error) {
+        Log.e(TAG, "<onError> name=" + mName + ", error=" + error
+                + ", diagnostic=" + error.getDiagnosticInfo());
+        synchronized (mLock) {
+            mCodecError = error;
+            mLock.notifyAll();
+        }
+        notifyEvent();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private void notifyEvent() {
+        Runnable listener = mEventListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
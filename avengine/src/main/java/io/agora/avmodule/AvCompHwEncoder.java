@@ -2,8 +2,8 @@ package io.agora.avmodule;
 
 
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import java.io.IOException;
 
@@ -27,6 +27,8 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
     private static final String TAG = "AVMODULE/CompHwEncoder";
 
     private static final long SYNCOPT_TIMEOUT = 3000;      ///< 同步操作超时3秒
+    private static final long IN_EMPTY_WAIT_TIMEOUT = 20;  ///< 输入队列空并且编码器没有输出时阻塞等待的超时时间
+    private static final long CODEC_EVENT_WAIT_TIMEOUT = 200;  ///< 异步模式下等待编码器事件的超时时间，事件到达会立即唤醒
 
     //
     // The state for muxer
@@ -57,7 +59,7 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
     private final Object mEncMuxDoneEvent = new Object(); ///< 所有音视频编码及混流完成事件
     private AvEncoder mVideoEncoder = null;              ///< 视频编码器
     private AvEncoder mAudioEncoder = null;             ///< 音频编码器
-    private MediaMuxer mAvMuxer = null;                 ///< 音视频混流器
+    private IAvMuxer mAvMuxer = null;                   ///< 音视频混流器
     private int mVideoTrackIndex = -1;                  ///< 视频混流轨道索引
     private int mAudioTrackIndex = -1;                  ///< 音频混流轨道索引
     private boolean mVideoInputEos = false;             ///< 视频帧是否已经全部送入完成
@@ -68,8 +70,22 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
     private long mAudioTimestamp = 0;                   ///< 当前编码音频帧时间戳
 
 
-    private AvFrameQueue mInVideoQueue = new AvFrameQueue();    ///< 要编码的视频帧队列
-    private AvFrameQueue mInAudioQueue = new AvFrameQueue();    ///< 要编码的音频帧队列
+    private final Object mInQueueLock = new Object();            ///< 输入队列共享锁，可以同时等待音视频输入
+    private AvFrameQueue mInVideoQueue = new AvFrameQueue(0, 0, mInQueueLock);  ///< 要编码的视频帧队列
+    private AvFrameQueue mInAudioQueue = new AvFrameQueue(0, 0, mInQueueLock);  ///< 要编码的音频帧队列
+    private boolean mEncodeActive = false;              ///< 本次编码循环是否有帧送入或者有编码输出
+    private boolean mAsyncCodec = false;                ///< 编码器是否工作在异步回调模式
+
+    ///< 异步模式下编码器回调事件的监听器，通知输入队列共享锁，唤醒阻塞等待的编码线程
+    private final Runnable mCodecEventListener = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mInQueueLock) {
+                mInQueueLock.notifyAll();
+            }
+        }
+    };
+    private final AvStageStats mEncodeStats = new AvStageStats("encode");  ///< 编码阶段统计
 
 
 
@@ -94,6 +110,7 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
         mMuxState = MUXSTATE_INIT;
         mInVideoQueue.clear();
         mInAudioQueue.clear();
+        mEncodeStats.reset();
 
         //
         // 打开视频编码器
@@ -128,8 +145,10 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
             if (ret != ErrCode.XOK) {
                 Log.e(TAG, "<initialize> fail to open audio encoder, ret=" + ret);
                 mAudioEncoder = null;
-                mVideoEncoder.release();
-                mVideoEncoder = null;
+                if (mVideoEncoder != null) {
+                    mVideoEncoder.release();
+                    mVideoEncoder = null;
+                }
                 return ErrCode.XERR_CODEC_OPEN;
             }
         }
@@ -140,19 +159,22 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
         ret = muxerInitialize();
         if (ret != ErrCode.XOK) {
             Log.e(TAG, "<initialize> fail to open muxerInitialize(), ret=" + ret);
-            mAudioEncoder.release();
-            mVideoEncoder.release();
             mAudioEncoder = null;
             mVideoEncoder = null;
             return ErrCode.XERR_CODEC_OPEN;
         }
 
-        // 设置混流器
+        // 设置混流器，异步模式下设置编码器事件监听
+        mAsyncCodec = false;
         if (mVideoEncoder != null) {
             mVideoEncoder.setMediaMuxer(mAvMuxer);
+            mVideoEncoder.setEventListener(mCodecEventListener);
+            mAsyncCodec = mVideoEncoder.isAsyncMode();
         }
         if (mAudioEncoder != null) {
             mAudioEncoder.setMediaMuxer(mAvMuxer);
+            mAudioEncoder.setEventListener(mCodecEventListener);
+            mAsyncCodec = mAsyncCodec || mAudioEncoder.isAsyncMode();
         }
         mMuxState = MUXSTATE_PREPARE_AUD;
 
@@ -161,7 +183,7 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
         }
 
 
-        Log.d(TAG, "<initialize> done");
+        Log.d(TAG, "<initialize> done, asyncCodec=" + mAsyncCodec);
         return ErrCode.XOK;
     }
 
@@ -247,6 +269,15 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
         return mInAudioQueue.size();
     }
 
+    /*
+     * @brief 获取编码阶段统计信息
+     * @return 编码统计信息，帧数只统计视频帧
+     */
+    @Override
+    public AvStageStats getEncodeStats() {
+        return mEncodeStats;
+    }
+
     /*
      * @brief 启动编码线程进行编码处理
      * @param None
@@ -279,7 +310,8 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
     public int stop()  {
         Log.d(TAG, "<stop> [BEGIN] mStateMachine=" + mStateMachine);
 
-        // 停止线程处理
+        // 唤醒阻塞等待的编码线程，停止线程处理
+        mInVideoQueue.wakeup();
         runStop();
 
         synchronized (mDataLock) {
@@ -306,6 +338,7 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
         }
 
         setState(STATE_PAUSED);
+        mInVideoQueue.wakeup();     // 阻塞等待的编码线程立即返回，两个队列共享锁，唤醒一个即可
         return ErrCode.XOK;
     }
 
@@ -325,6 +358,7 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
         }
 
         setState(STATE_ENCODING);
+        sendEncodingMessage();  // 暂停时编码线程不再循环，这里重新开始
         return ErrCode.XOK;
     }
 
@@ -351,10 +385,15 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
      */
     int muxerInitialize() {
 
+        if (mInitParam.mEncParam.mMuxer != null) {  // 使用外部指定的混流器
+            mAvMuxer = mInitParam.mEncParam.mMuxer;
+            Log.d(TAG, "<muxerInitialize> done, external muxer=" + mAvMuxer);
+            return ErrCode.XOK;
+        }
+
         try {
             //AvUtility.deleteFile(mInitParam.mEncParam.mOutFilePath);
-            mAvMuxer = new MediaMuxer(mInitParam.mEncParam.mOutFilePath,
-                                        MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            mAvMuxer = new AvFileMuxer(mInitParam.mEncParam.mOutFilePath);
 
         } catch (IllegalArgumentException illegalExp) {
             illegalExp.printStackTrace();
@@ -473,14 +512,11 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
      */
     private void doMessageEncoding() {
         int state = getState();
-        if (state == STATE_IDLE || state == STATE_PAUSED) {  // 停止编码，则延迟10ms后再检测
+        if (state != STATE_ENCODING) {  // 暂停或者停止时不再循环，恢复时由 resume() 重新发送消息
             mWorkHandler.removeMessages(MSGID_ENCODING);
-            mWorkHandler.sendEmptyMessageDelayed(MSGID_ENCODING, 10);
-            return;
-        }
-        if (state == STATE_INVALID) {
             return;
         }
+        mEncodeActive = false;
 
 
         int retVideo = ErrCode.XOK;
@@ -554,9 +590,91 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
             }
 
         } else {
-            // 立即进行下一次编码操作
-            mWorkHandler.removeMessages(MSGID_ENCODING);
-            mWorkHandler.sendEmptyMessage(MSGID_ENCODING);
+            // 输入队列为空并且编码器没有输出，阻塞等待上游送入帧，不再空转
+            if (!mEncodeActive) {
+                waitInputFrame();
+            }
+
+            // 进行下一次编码操作
+            sendEncodingMessage();
+        }
+    }
+
+    /*
+     * @brief 阻塞等待当前需要的输入队列非空
+     *        准备音频轨道时只等待音频输入，准备视频轨道时只等待视频输入，已经送入EOS的队列不再等待
+     */
+    private void waitInputFrame() {
+        if (mAsyncCodec) {
+            waitCodecEvent();
+            return;
+        }
+
+        boolean waitVideo = (mVideoEncoder != null) && (!mVideoInputEos) && (mMuxState != MUXSTATE_PREPARE_AUD);
+        boolean waitAudio = (mAudioEncoder != null) && (!mAudioInputEos) && (mMuxState != MUXSTATE_PREPARE_VID);
+        if (waitVideo && waitAudio) {
+            AvFrameQueue.waitAnyNotEmpty(IN_EMPTY_WAIT_TIMEOUT, mInVideoQueue, mInAudioQueue);
+        } else if (waitVideo) {
+            mInVideoQueue.waitNotEmpty(IN_EMPTY_WAIT_TIMEOUT);
+        } else if (waitAudio) {
+            mInAudioQueue.waitNotEmpty(IN_EMPTY_WAIT_TIMEOUT);
+        }
+    }
+
+    /*
+     * @brief 异步模式下阻塞等待编码事件：编码器有输出，或者编码器有空闲输入缓冲区并且输入队列有帧
+     *        编码器回调和输入队列入队都会通知 mInQueueLock，暂停或者停止时 wakeup() 也会唤醒
+     */
+    private void waitCodecEvent() {
+        boolean checkVideo = (mMuxState != MUXSTATE_PREPARE_AUD);
+        boolean checkAudio = (mMuxState != MUXSTATE_PREPARE_VID);
+        long deadline = SystemClock.elapsedRealtime() + CODEC_EVENT_WAIT_TIMEOUT;
+
+        synchronized (mInQueueLock) {
+            while (mStateMachine == STATE_ENCODING) {
+                if (checkVideo && isEncoderReady(mVideoEncoder, mVideoInputEos, mVideoEncodeEos, mInVideoQueue)) {
+                    return;
+                }
+                if (checkAudio && isEncoderReady(mAudioEncoder, mAudioInputEos, mAudioEncodeEos, mInAudioQueue)) {
+                    return;
+                }
+                long remain = deadline - SystemClock.elapsedRealtime();
+                if (remain <= 0) {
+                    return;
+                }
+                try {
+                    mInQueueLock.wait(remain);
+                } catch (InterruptedException interruptExp) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /*
+     * @brief 判断异步模式的编码器是否有事件需要处理
+     */
+    private static boolean isEncoderReady(AvEncoder encoder, boolean inputEos, boolean encodeEos,
+                                          AvFrameQueue inQueue) {
+        if ((encoder == null) || encodeEos) {
+            return false;
+        }
+        if (encoder.hasPendingOutput()) {
+            return true;
+        }
+        return ((!inputEos) && (inQueue.size() > 0) && encoder.hasFreeInput());
+    }
+
+    /*
+     * @brief 发送编码消息，可以在任意线程中调用
+     */
+    private void sendEncodingMessage() {
+        synchronized (mMsgQueueLock) {
+            if (mWorkHandler != null) {
+                mWorkHandler.removeMessages(MSGID_ENCODING);
+                mWorkHandler.sendEmptyMessage(MSGID_ENCODING);
+            }
         }
     }
 
@@ -587,15 +705,30 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
             if (inVideoFrame != null) {
                 ret = mVideoEncoder.inputFrame(inVideoFrame);
                 if (ret == ErrCode.XERR_CODEC_DEC_EOS) {  // 视频帧已经送入完成
-                    Log.d(TAG, "<doVideoEncoding> feeding EOS done!");
+                    Log.d(TAG, "<doVideoEncoding> feeding EOS done, stats=" + mEncodeStats);
                     mVideoInputEos = true;
+                    mEncodeActive = true;
+                    notifyInputConsumed();
 
                 } else if (ret == ErrCode.XERR_CODEC_NOBUFFER) {
-                    mInVideoQueue.inqueueHead(inVideoFrame);  // 没有送入缓冲区了，重新插到队列头
+                    // 没有送入缓冲区了，重新插到队列头，不算作有效处理，异步模式下等待空闲缓冲区事件
+                    mInVideoQueue.inqueueHead(inVideoFrame);
+                    mEncodeStats.stallBegin();
 
                 } else if (ret != ErrCode.XOK) {
+                    mEncodeActive = true;
                     //Log.e(TAG, "<doVideoEncoding> fail to input frame");
+                    notifyInputConsumed();
+
+                } else {
+                    mEncodeActive = true;
+                    mEncodeStats.stallEnd();
+                    mEncodeStats.addFrames(1);
+                    notifyInputConsumed();
                 }
+
+            } else {    // 等待上游送入视频帧
+                mEncodeStats.starveBegin();
             }
         }
 
@@ -604,6 +737,9 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
         //
         if (!mVideoEncodeEos) {
             ret = mVideoEncoder.encodeVideoFrame();
+            if (ret != ErrCode.XERR_CODEC_MOREINDATA) {
+                mEncodeActive = true;
+            }
             if (ret == ErrCode.XERR_CODEC_ENCODING) { // 编码失败
                 Log.e(TAG, "<doVideoEncoding> encoding error");
                 if (mInitParam.mCallback != null) {  // 回调编码错误
@@ -654,12 +790,20 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
                 if (ret == ErrCode.XERR_CODEC_DEC_EOS) {  // 音频帧已经送入完成
                     Log.d(TAG, "<doAudioEncoding> feeding EOS done!");
                     mAudioInputEos = true;
+                    mEncodeActive = true;
+                    notifyInputConsumed();
 
                 } else if (ret == ErrCode.XERR_CODEC_NOBUFFER) {
                     mInAudioQueue.inqueueHead(inAudioFrame);  // 没有送入缓冲区了，重新插到队列头
 
                 } else if (ret != ErrCode.XOK) {
                     //Log.e(TAG, "<doAudioEncoding> fail to input frame");
+                    mEncodeActive = true;
+                    notifyInputConsumed();
+
+                } else {
+                    mEncodeActive = true;
+                    notifyInputConsumed();
                 }
             }
         }
@@ -670,6 +814,9 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
         //
         if (!mAudioEncodeEos) {
             ret = mAudioEncoder.encodeAudioFrame();
+            if (ret != ErrCode.XERR_CODEC_MOREINDATA) {
+                mEncodeActive = true;
+            }
             if (ret == ErrCode.XERR_CODEC_ENCODING) { // 编码失败
                 Log.e(TAG, "<doAudioEncoding> encoding error");
                 if (mInitParam.mCallback != null) {  // 回调编码错误
@@ -692,5 +839,13 @@ public class AvCompHwEncoder extends AvCompBase implements IAvCompEncoder {
         return ret;
     }
 
+    /*
+     * @brief 输入队列中的帧已经送入编码器，通知上游可以继续送入
+     */
+    private void notifyInputConsumed() {
+        if (mInitParam.mCallback != null) {
+            mInitParam.mCallback.onInputFrameConsumed(mInitParam);
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -27,6 +27,11 @@ public class AvCompSwDecoder extends AvCompBase implements IAvCompDecoder {
 
     private static final long EXIT_WAIT_TIMEOUT = 3000;    ///< 线程结束等待超时3秒
     private static final long SYNCOPT_TIMEOUT = 3000;      ///< 同步操作超时3秒
+    private static final int OUT_VIDEO_QUEUE_MAX = 4;      ///< 输出视频帧队列最大帧数
+    private static final int OUT_AUDIO_QUEUE_MAX = 16;     ///< 输出音频帧队列最大帧数
+    private static final long OUT_VIDEO_BYTES_MAX = 32 * 1024 * 1024;  ///< 输出视频帧队列最大字节数，4K时不超过3帧
+    private static final long OUT_AUDIO_BYTES_MAX = 1024 * 1024;       ///< 输出音频帧队列最大字节数
+    private static final long OUT_FULL_WAIT_TIMEOUT = 500; ///< 输出队列满时阻塞等待非满的超时时间
 
     //
     // The state machine of Player Engine
@@ -59,8 +64,9 @@ public class AvCompSwDecoder extends AvCompBase implements IAvCompDecoder {
     private boolean mAudioDecodeEos = false;            ///< 音频帧是否已经全部送入完成
 
     private AvMediaInfo mMediaInfo = new AvMediaInfo(); ///< 媒体文件信息
-    private AvFrameQueue mVideoQueue = new AvFrameQueue();  ///< 解码后的视频帧队列
-    private AvFrameQueue mAudioQueue = new AvFrameQueue();  ///< 解码后的音频帧队列
+    private AvFrameQueue mVideoQueue = new AvFrameQueue(OUT_VIDEO_QUEUE_MAX, OUT_VIDEO_BYTES_MAX);  ///< 解码后的视频帧队列
+    private AvFrameQueue mAudioQueue = new AvFrameQueue(OUT_AUDIO_QUEUE_MAX, OUT_AUDIO_BYTES_MAX);  ///< 解码后的音频帧队列
+    private final AvStageStats mDecodeStats = new AvStageStats("decode");  ///< 解码阶段统计
 
 
 
@@ -83,6 +89,7 @@ public class AvCompSwDecoder extends AvCompBase implements IAvCompDecoder {
         mMediaInfo.mAudioTrackId = -1;
         mVideoQueue.clear();
         mAudioQueue.clear();
+        mDecodeStats.reset();
 
         setState(STATE_READY);
         Log.d(TAG, "<initialize> done");
@@ -163,7 +170,10 @@ public class AvCompSwDecoder extends AvCompBase implements IAvCompDecoder {
     public int stop()  {
         Log.d(TAG, "<stop> [BEGIN] mStateMachine=" + mStateMachine);
 
-        // 停止线程处理
+        // 唤醒阻塞等待的解码线程，停止线程处理
+        setState(STATE_READY);
+        mVideoQueue.wakeup();
+        mAudioQueue.wakeup();
         runStop();
 
         setState(STATE_READY);
@@ -188,6 +198,8 @@ public class AvCompSwDecoder extends AvCompBase implements IAvCompDecoder {
         }
 
         setState(STATE_PAUSED);
+        mVideoQueue.wakeup();   // 阻塞等待的解码线程立即返回
+        mAudioQueue.wakeup();
         return ErrCode.XOK;
     }
 
@@ -207,6 +219,7 @@ public class AvCompSwDecoder extends AvCompBase implements IAvCompDecoder {
         }
 
         setState(STATE_DECODING);
+        sendDecodingMessage();  // 暂停时解码线程不再循环，这里重新开始
         return ErrCode.XOK;
     }
 
@@ -251,6 +264,26 @@ public class AvCompSwDecoder extends AvCompBase implements IAvCompDecoder {
         return frameCnt;
     }
 
+    /*
+     * @brief 通知解码组件输出帧已经被取走
+     *        输出队列出队时已经发出非满通知，阻塞等待的解码线程会立即继续，这里不需要再处理
+     * @param None
+     * @retrun None
+     */
+    @Override
+    public void notifyFramesConsumed() {
+    }
+
+    /*
+     * @brief 获取解码阶段统计信息
+     * @param None
+     * @retrun 解码统计信息，帧数只统计视频帧
+     */
+    @Override
+    public AvStageStats getDecodeStats() {
+        return mDecodeStats;
+    }
+
     /////////////////////////////////////////////////////////////////////////
     ////////////////////////// Internal Methods /////////////////////////////
     /////////////////////////////////////////////////////////////////////////
@@ -282,12 +315,7 @@ public class AvCompSwDecoder extends AvCompBase implements IAvCompDecoder {
      */
     private void doMessageDecoding() {
         int state = getState();
-        if (state == STATE_READY || state == STATE_PAUSED) {  // 停止解码，则延迟10ms后再检测
-            mWorkHandler.removeMessages(MSGID_DECODING);
-            mWorkHandler.sendEmptyMessageDelayed(MSGID_DECODING, 10);
-            return;
-        }
-        if (state == STATE_INVALID || state == STATE_DONE) {  // 不再进行解码处理
+        if (state != STATE_DECODING) {  // 暂停或者停止时不再循环，恢复时由 resume() 重新发送消息
             mWorkHandler.removeMessages(MSGID_DECODING);
             return;
         }
@@ -321,15 +349,18 @@ public class AvCompSwDecoder extends AvCompBase implements IAvCompDecoder {
         }
 
 
-        int videoCount = mVideoQueue.size();
-        int audioCount = mAudioQueue.size();
-        if (videoCount > 4 || audioCount > 16) {  // 解码的帧缓冲区队列过多，延迟解码
-            mWorkHandler.removeMessages(MSGID_DECODING);
-            mWorkHandler.sendEmptyMessageDelayed(MSGID_DECODING, 30);
-//            Log.d(TAG, "<doMessageDecoding> delay 30ms, videoCount=" + videoCount
-//                    + ", audioCount=" + audioCount);
+        //
+        // 解码的帧缓冲区队列已满，阻塞等待消费者取走帧后的非满通知，不再轮询
+        // 等待结束后通过消息重新检测，这样等待期间也能及时处理退出消息
+        //
+        if (mVideoQueue.isFull() || mAudioQueue.isFull()) {
+            mDecodeStats.stallBegin();
+            AvFrameQueue fullQueue = mVideoQueue.isFull() ? mVideoQueue : mAudioQueue;
+            fullQueue.waitNotFull(OUT_FULL_WAIT_TIMEOUT);
+            sendDecodingMessage();
             return;
         }
+        mDecodeStats.stallEnd();
         mInputPktType[0] = 0;
 
 
@@ -348,12 +379,23 @@ public class AvCompSwDecoder extends AvCompBase implements IAvCompDecoder {
             // 全部解码完成了
             setState(STATE_DONE);
             mWorkHandler.removeMessages(MSGID_DECODING);
-            Log.d(TAG, "<doMessageDecoding> All streams decoding done!");
+            Log.d(TAG, "<doMessageDecoding> All streams decoding done, stats=" + mDecodeStats);
 
         } else {
             // 立即进行下一次解码操作
-            mWorkHandler.removeMessages(MSGID_DECODING);
-            mWorkHandler.sendEmptyMessage(MSGID_DECODING);
+            sendDecodingMessage();
+        }
+    }
+
+    /*
+     * @brief 发送解码消息，可以在任意线程中调用
+     */
+    private void sendDecodingMessage() {
+        synchronized (mMsgQueueLock) {
+            if (mWorkHandler != null) {
+                mWorkHandler.removeMessages(MSGID_DECODING);
+                mWorkHandler.sendEmptyMessage(MSGID_DECODING);
+            }
         }
     }
 
@@ -416,6 +458,7 @@ public class AvCompSwDecoder extends AvCompBase implements IAvCompDecoder {
             AvVideoFrame videoFrame = pair.second;
             if (videoFrame != null) {
                 mVideoQueue.inqueue(videoFrame);
+                mDecodeStats.addFrames(1);
                 if (mInitParam.mCallback != null) {  // 回调解码出来的视频帧
                     mInitParam.mCallback.onVideoFrameDecoded(mMediaInfo, videoFrame);
                 }
@@ -21,6 +21,9 @@ public class AvDecParam {
     public int mOutAudChannels;     ///< 输出音频通道数
     public int mOutAudSampleRate;   ///< 输出音频采样率
 
+    public int mDecodeThreads;      ///< 视频解码线程数，0表示根据CPU核数自动选择
+    public int mConvertThreads;     ///< 视频格式转换线程数，0表示根据CPU核数自动选择
+
 
     @Override
     public String toString() {
@@ -30,7 +33,9 @@ public class AvDecParam {
                 + ", mOutVidHeight=" + mOutVidHeight
                 + ", mOutAudSampleFmt=" + mOutAudSampleFmt
                 + ", mOutAudChannels=" + mOutAudChannels
-                + ", mOutAudSampleRate=" + mOutAudSampleRate + " }\n";
+                + ", mOutAudSampleRate=" + mOutAudSampleRate
+                + ", mDecodeThreads=" + mDecodeThreads
+                + ", mConvertThreads=" + mConvertThreads + " }\n";
         return strInfo;
     }
 }
\ No newline at end of file
@@ -12,8 +12,10 @@ import android.media.MediaFormat;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Pair;
+import android.view.Surface;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -59,6 +61,9 @@ public class AvDecoder {
     private MediaCodec  mAvDecoder = null;      ///< 音视频解码器
     private ByteBuffer[] mInputBuffers;         ///< 解码输入缓冲区
     private ByteBuffer[] mOutputBuffers;        ///< 解码输出缓冲区
+    private AvCodecAsync mCodecAsync = null;    ///< 异步回调模式的事件队列，null表示使用同步模式
+    private long mStartTime = 0;                ///< 解码器 start() 的时间点
+    private long mFirstOutputTime = 0;          ///< 第一个解码输出的时间点
     private int mAvTrackIndex = -1;             ///< 流轨道索引
     private int mFrameIndex = 0;                ///< 解码的帧索引
     private AvMediaInfo mMediaInfo = new AvMediaInfo();
@@ -78,6 +83,7 @@ public class AvDecoder {
     private int mRotation = 0;
     private Bitmap mOriginalBmp;        ///< 存放原始YUV数据转换后的图像，宽高(mDataWidth,mDataHeight)
     private Matrix mRotMatrix;          ///< 旋转变换矩阵
+    private Surface mOutputSurface;     ///< 解码输出 Surface，null表示输出到缓冲区
 
     //
     // 仅对音频流解码有效
@@ -93,12 +99,23 @@ public class AvDecoder {
     ////////////////////////////////////////////////////////////////////////
 
     /*
-     * @brief 初始化解码器
+     * @brief 初始化解码器，使用同步模式
      * @param filePath : 要解码的文件路径
      * @param audioDecoder : 是否解码音频流，还是视频流
      * @return error code
      */
     public int initialize(Context ctx, Uri fileUri, String filePath, int decStreamType) {
+        return initialize(ctx, fileUri, filePath, decStreamType, false);
+    }
+
+    /*
+     * @brief 初始化解码器
+     * @param filePath : 要解码的文件路径
+     * @param audioDecoder : 是否解码音频流，还是视频流
+     * @param asyncMode : 是否使用异步回调模式，仅 Android 6.0 及以上有效，否则使用同步模式
+     * @return error code
+     */
+    public int initialize(Context ctx, Uri fileUri, String filePath, int decStreamType, boolean asyncMode) {
         mStorageRootPath = Environment.getExternalStorageDirectory().getAbsolutePath();
         mContext = ctx;
         mFileUri = fileUri;
@@ -134,9 +151,19 @@ public class AvDecoder {
            // 创建相应的解码器
             //
             mAvDecoder = MediaCodec.createDecoderByType(mAvFormat.getString(MediaFormat.KEY_MIME));
+            if (asyncMode && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)) {
+                mCodecAsync = new AvCodecAsync();   // 回调必须在 configure() 之前设置
+                mCodecAsync.attach(mAvDecoder, mMimeType);
+            }
             //mAvFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar);
-            mAvDecoder.configure(mAvFormat, null, null, 0);
+            if ((mStreamType == STREAM_TYPE_VIDEO) && (mOutputSurface != null)) {
+                // 输出到 Surface 时旋转由渲染端处理，不让解码器再旋转一次
+                mAvFormat.setInteger(MediaFormat.KEY_ROTATION, 0);
+            }
+            mAvDecoder.configure(mAvFormat, mOutputSurface, null, 0);
             mAvDecoder.start();
+            mStartTime = SystemClock.elapsedRealtime();
+            mFirstOutputTime = 0;
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
                 mInputBuffers = mAvDecoder.getInputBuffers();
                 mOutputBuffers = mAvDecoder.getOutputBuffers();
@@ -157,7 +184,8 @@ public class AvDecoder {
             return ErrCode.XERR_CODEC_OPEN;
         }
 
-        Log.d(TAG, "<initialize> done");
+        Log.d(TAG, "<initialize> done, asyncMode=" + (mCodecAsync != null)
+                + ", surfaceOutput=" + (mOutputSurface != null));
         return ErrCode.XOK;
     }
 
@@ -173,9 +201,22 @@ public class AvDecoder {
             }
             mAvDecoder.release();
             mAvDecoder = null;
-            Log.d(TAG, "<release> done");
+            Log.d(TAG, "<release> done, asyncMode=" + (mCodecAsync != null)
+                    + ", firstOutputMs=" + getFirstOutputDelay());
         }
+        if (mCodecAsync != null) {
+            mCodecAsync.detach();
+            mCodecAsync = null;
+        }
+    }
 
+    /*
+     * @brief 设置视频解码输出 Surface，必须在 initialize() 之前调用，仅对视频流有效
+     *        设置后解码数据不再经过 Java 层，通过 renderVideoFrame() 将解码帧渲染到 Surface 上
+     * @param outSurface : 解码输出 Surface，null表示输出到缓冲区
+     */
+    public void setOutputSurface(Surface outSurface) {
+        mOutputSurface = outSurface;
     }
 
     /*
@@ -192,6 +233,34 @@ public class AvDecoder {
         return mAvFormat;
     }
 
+    /*
+     * @brief 是否使用异步回调模式
+     */
+    public boolean isAsyncMode() {
+        return (mCodecAsync != null);
+    }
+
+    /*
+     * @brief 异步模式下阻塞等待解码器有空闲输入缓冲区或者有输出，同步模式下直接返回
+     *        同步模式的等待已经包含在 dequeue*Buffer() 的超时中
+     * @param timeout : 最长等待时间(毫秒)
+     * @return true 表示有事件；false 表示超时
+     */
+    public boolean waitCodecEvent(long timeout) {
+        if (mCodecAsync == null) {
+            return true;
+        }
+        return mCodecAsync.waitEvent(timeout);
+    }
+
+    /*
+     * @brief 获取从解码器 start() 到第一个解码输出的耗时
+     * @return 毫秒数，-1表示还没有输出
+     */
+    public long getFirstOutputDelay() {
+        return (mFirstOutputTime > 0) ? (mFirstOutputTime - mStartTime) : -1;
+    }
+
 
     /*
      * @brief 送入解码帧数据
@@ -202,7 +271,7 @@ public class AvDecoder {
         int ret = ErrCode.XOK;
         try {
             // 获取解码器输入缓冲区
-            int inputBufferIndex = mAvDecoder.dequeueInputBuffer(TIMEOUT_US);
+            int inputBufferIndex = dequeueInputIndex();
             if (inputBufferIndex < 0) {  // 当前没有空闲的解码输入缓冲区
                 //Log.e(TAG, "<inputFrame> " + mMimeType + " NO input buffer");
                 return ErrCode.XERR_CODEC_NOBUFFER;
@@ -259,7 +328,7 @@ public class AvDecoder {
 
         try {
             MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
-            int outputBufferIndex = mAvDecoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+            int outputBufferIndex = dequeueOutputIndex(bufferInfo);
             switch (outputBufferIndex) {
                 case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
                     mOutputFormat = mAvDecoder.getOutputFormat();
@@ -313,6 +382,7 @@ public class AvDecoder {
 
                     // 这里直接将解码后的YUV数据转换成ARGB格式
                     mAvDecoder.releaseOutputBuffer(outputBufferIndex, false);
+                    markFirstOutput();
                     Log.d(TAG, "<decodeVideoFrame> decodedSize=" + bufferInfo.size
                             + ", mTimestamp=" + outFrame.mTimestamp
                             + ", mFlags=" + outFrame.mFlags);
@@ -352,7 +422,7 @@ public class AvDecoder {
 
         try {
             MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
-            int outputBufferIndex = mAvDecoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+            int outputBufferIndex = dequeueOutputIndex(bufferInfo);
             switch (outputBufferIndex) {
                 case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
                     Log.d(TAG, "<decodeAudioFrame> FORMAT_CHANGED");
@@ -401,6 +471,7 @@ public class AvDecoder {
                     outFrame.mChannels = mChannels;
                     outFrame.mSampleRate = mSampleRate;
                     mAvDecoder.releaseOutputBuffer(outputBufferIndex, false);
+                    markFirstOutput();
                     Log.d(TAG, "<decodeAudioFrame> decodedSize=" + bufferInfo.size
                             + ", mTimestamp=" + outFrame.mTimestamp
                             + ", mFlags=" + outFrame.mFlags);
@@ -432,6 +503,53 @@ public class AvDecoder {
     /////////////////////////////////////////////////////////////////////////
     ////////////////////////// Internal Methods /////////////////////////////
     /////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 获取空闲的输入缓冲区索引
+     *        异步模式直接从回调事件队列中取，没有立即返回；同步模式最多等待 TIMEOUT_US
+     * @return 缓冲区索引，<0表示当前没有空闲的输入缓冲区
+     */
+    private int dequeueInputIndex() {
+        if (mCodecAsync == null) {
+            return mAvDecoder.dequeueInputBuffer(TIMEOUT_US);
+        }
+        MediaCodec.CodecException codecError = mCodecAsync.getError();
+        if (codecError != null) {
+            throw codecError;
+        }
+        return mCodecAsync.pollInputIndex();
+    }
+
+    /*
+     * @brief 获取解码输出缓冲区索引，返回值和 dequeueOutputBuffer() 相同
+     *        异步模式直接从回调事件队列中取，没有立即返回 INFO_TRY_AGAIN_LATER；同步模式最多等待 TIMEOUT_US
+     * @param bufferInfo : 输出缓冲区信息
+     * @return 缓冲区索引，或者 INFO_* 状态值
+     */
+    private int dequeueOutputIndex(MediaCodec.BufferInfo bufferInfo) {
+        if (mCodecAsync == null) {
+            return mAvDecoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+        }
+        MediaCodec.CodecException codecError = mCodecAsync.getError();
+        if (codecError != null) {
+            throw codecError;
+        }
+        AvCodecAsync.OutputEvent event = mCodecAsync.pollOutput();
+        if (event == null) {
+            return MediaCodec.INFO_TRY_AGAIN_LATER;
+        }
+        if (event.mInfo != null) {
+            bufferInfo.set(event.mInfo.offset, event.mInfo.size, event.mInfo.presentationTimeUs,
+                    event.mInfo.flags);
+        }
+        return event.mIndex;
+    }
+
+    private void markFirstOutput() {
+        if (mFirstOutputTime == 0) {
+            mFirstOutputTime = SystemClock.elapsedRealtime();
+        }
+    }
+
     /*
      * @brief 打开媒体文件，解析文信息
      * @retrun error code, 0表示成功
@@ -738,12 +856,35 @@ public class AvDecoder {
      *         AvVideoFrame : 返回解码后的视频帧
      */
     public Pair<Integer, AvVideoFrame> tryDecVideoFrame() {
+        return drainVideoFrame(false);
+    }
+
+    /*
+     * @brief 视频帧解码并渲染到输出 Surface 上，仅对设置了输出 Surface 的视频流有效
+     * @param None
+     * @return Integer：错误码，XERR_CODEC_DEC_EOS 表示解码是最后一帧了，后续没有要解码数据了
+     *         AvVideoFrame : 返回解码后的视频帧信息，不包含数据，mDataBuffer 为 null
+     */
+    public Pair<Integer, AvVideoFrame> renderVideoFrame() {
+        if (mOutputSurface == null) {
+            Log.e(TAG, "<renderVideoFrame> bad state, no output surface");
+            return (new Pair(ErrCode.XERR_BAD_STATE, null));
+        }
+        return drainVideoFrame(true);
+    }
+
+
+    /*
+     * @brief 取一个视频解码输出，只返回视频帧信息
+     * @param render : 是否将解码帧渲染到输出 Surface 上，空帧不渲染
+     */
+    private Pair<Integer, AvVideoFrame> drainVideoFrame(boolean render) {
         AvVideoFrame outFrame = null;
         int ret = ErrCode.XOK;
 
         try {
             MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
-            int outputBufferIndex = mAvDecoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+            int outputBufferIndex = dequeueOutputIndex(bufferInfo);
             switch (outputBufferIndex) {
                 case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
                     mOutputFormat = mAvDecoder.getOutputFormat();
@@ -752,27 +893,29 @@ public class AvDecoder {
                     break;
 
                 case MediaCodec.INFO_TRY_AGAIN_LATER: // 当前没有解码数据输出，需要继续解码
-                    //Log.d(TAG, "<tryDecVideoFrame> TRY_AGAIN_LATER");
+                    //Log.d(TAG, "<drainVideoFrame> TRY_AGAIN_LATER");
                     ret = ErrCode.XERR_CODEC_MOREINDATA;    // 需要更多数据
                     break;
 
                 case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED:
-                    Log.d(TAG, "<tryDecVideoFrame> BUFFERS_CHANGED");
+                    Log.d(TAG, "<drainVideoFrame> BUFFERS_CHANGED");
                     mOutputBuffers = mAvDecoder.getOutputBuffers();
                     ret = ErrCode.XERR_CODEC_MOREINDATA;    // 需要更多数据
                     break;
 
                 default: {
-                    // 获取解码后的数据
-                    ByteBuffer outputBuffer;
-                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-                        outputBuffer = (mOutputBuffers != null) ? mOutputBuffers[outputBufferIndex] : null;
-                    } else {
-                        outputBuffer = mAvDecoder.getOutputBuffer(outputBufferIndex);
-                    }
-                    if (outputBuffer == null) {
-                        Log.e(TAG, "<tryDecVideoFrame> outputBuffer is NULL");
-                        return (new Pair(ErrCode.XERR_CODEC_MOREINDATA, null));
+                    // 输出到 Surface 时没有输出缓冲区
+                    if (mOutputSurface == null) {
+                        ByteBuffer outputBuffer;
+                        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                            outputBuffer = (mOutputBuffers != null) ? mOutputBuffers[outputBufferIndex] : null;
+                        } else {
+                            outputBuffer = mAvDecoder.getOutputBuffer(outputBufferIndex);
+                        }
+                        if (outputBuffer == null) {
+                            Log.e(TAG, "<drainVideoFrame> outputBuffer is NULL");
+                            return (new Pair(ErrCode.XERR_CODEC_MOREINDATA, null));
+                        }
                     }
                     //outputBuffer.position(bufferInfo.offset);
                     //outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
@@ -789,8 +932,10 @@ public class AvDecoder {
                         outFrame.mHeight = outFrame.mFrameBmp.getHeight();
                     }
 
-                    mAvDecoder.releaseOutputBuffer(outputBufferIndex, false);
-                    Log.d(TAG, "<tryDecVideoFrame> decodedSize=" + bufferInfo.size
+                    outFrame.mRendered = (render && (bufferInfo.size > 0));   // 空帧不渲染
+                    mAvDecoder.releaseOutputBuffer(outputBufferIndex, outFrame.mRendered);
+                    markFirstOutput();
+                    Log.d(TAG, "<drainVideoFrame> decodedSize=" + bufferInfo.size
                             + ", mTimestamp=" + outFrame.mTimestamp
                             + ", mFlags=" + outFrame.mFlags);
 
@@ -799,7 +944,7 @@ public class AvDecoder {
                     }
 
                     if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {   // 解码缓冲区完成
-                        Log.d(TAG, "<tryDecVideoFrame> BUFFER_FLAG_EOS");
+                        Log.d(TAG, "<drainVideoFrame> BUFFER_FLAG_EOS");
                         ret = ErrCode.XERR_CODEC_DEC_EOS;
                         outFrame.mLastFrame = true;
                     } else {
@@ -810,7 +955,7 @@ public class AvDecoder {
 
         } catch (Exception except) {
             except.printStackTrace();
-            Log.e(TAG, "<tryDecVideoFrame> except=" + except.toString());
+            Log.e(TAG, "<drainVideoFrame> except=" + except.toString());
             return (new Pair(ErrCode.XERR_CODEC_DECODING, null));
         }
 
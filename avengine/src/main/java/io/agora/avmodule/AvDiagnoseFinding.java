@@ -0,0 +1,36 @@
+package io.agora.avmodule;
+
+
+
+
+/*
+ * @brief 码流诊断发现的一个问题，数值和 native层 AvDiagnoseFinding 一致
+ */
+public class AvDiagnoseFinding {
+
+    public static final int STREAM_VIDEO = 1;               ///< 视频流
+    public static final int STREAM_AUDIO = 2;               ///< 音频流
+
+    public static final int TYPE_TS_GAP = 1;                ///< 时间戳跳变，mValue为间隔(微秒)
+    public static final int TYPE_TS_BACKWARD = 2;           ///< 时间戳回退，mValue为回退量(微秒)
+    public static final int TYPE_DECODE_ERROR = 3;          ///< 解码失败或者解码出损坏帧，mValue为FFmpeg错误码
+    public static final int TYPE_BITRATE_SPIKE = 4;         ///< 码率突增，mValue为当前码率(bps)
+    public static final int TYPE_LONG_GOP = 5;              ///< 关键帧间隔过大，mValue为GOP时长(微秒)
+    public static final int TYPE_READ_ERROR = 6;            ///< 数据包读取失败，之后的数据不再分析，mValue为FFmpeg错误码
+
+
+    public int mStreamType;         ///< 所属媒体流 STREAM_XXX
+    public int mFindingType;        ///< 问题类型 TYPE_XXX
+    public long mTimestamp;         ///< 问题出现的位置，相对于媒体流开始的时间(微秒)
+    public long mValue;             ///< 问题的数值，含义由 mFindingType 决定
+
+
+    @Override
+    public String toString() {
+        String strInfo = "{ mStreamType=" + mStreamType
+                + ", mFindingType=" + mFindingType
+                + ", mTimestamp=" + mTimestamp
+                + ", mValue=" + mValue + " }";
+        return strInfo;
+    }
+}
@@ -10,6 +10,7 @@ import android.util.Log;
 import android.util.Pair;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -51,6 +52,13 @@ public class AvDiagnoser extends AvCompBase {
          */
         void onDiagnoserParseError(DiagnoseParam diagnoseParam, int errCode);
 
+        /**
+         * @brief 诊断过程中发现了新的问题，分析过程中会多次回调
+         * @param diagnoseParam : 诊断器参数
+         * @param findingList: 新发现的问题列表，按照发现的先后顺序
+         */
+        default void onDiagnoserFindings(DiagnoseParam diagnoseParam, List<AvDiagnoseFinding> findingList) {  }
+
     }
 
     /*
@@ -60,6 +68,8 @@ public class AvDiagnoser extends AvCompBase {
         public IAvDiagnoserCallback mCallback;
         public Context mContext;
         public String mSrcFileUrl;
+        public int mMode = DIAGNOSE_MODE_FULL;  ///< 诊断模式 DIAGNOSE_MODE_XXX
+        public int mSampleCount = 0;            ///< 快速模式下抽样的GOP数量，<=0 使用默认值
     }
 
 
@@ -78,6 +88,13 @@ public class AvDiagnoser extends AvCompBase {
     public static final int DIAGNOSE_STATE_ONGOING = 0x0003;     ///< 正在转码
     public static final int DIAGNOSE_STATE_ERROR = 0x0005;       ///< 错误状态,不能再继续
 
+    /**
+     * @brief 诊断模式，数值和 native层一致
+     */
+    public static final int DIAGNOSE_MODE_FULL = 0;     ///< 顺序解码整个文件
+    public static final int DIAGNOSE_MODE_FAST = 1;     ///< 只读取容器索引，并且抽样解码均匀分布的若干个GOP
+    public static final int DIAGNOSE_MODE_DEEP = 2;     ///< 按照GOP区间切分文件，多线程并行解码整个文件
+
 
     //
     // The mesage Id
@@ -202,6 +219,7 @@ public class AvDiagnoser extends AvCompBase {
 
     /*
      * @brief 暂停转换处理，仅当成功打开后才能调用
+     *        深度模式下已经启动的 native工作线程会继续分析，只是暂停结果回调
      * @return 错误码
      */
     public int stop() {
@@ -256,6 +274,12 @@ public class AvDiagnoser extends AvCompBase {
     void onMessageOpen(Message msg) {
         mNativeDiagnoser = new AvNativeDiagnose();
         int ret = mNativeDiagnoser.open(mDiagnoseParam.mSrcFileUrl);
+        if (ret == ErrCode.XOK) {
+            ret = mNativeDiagnoser.setMode(mDiagnoseParam.mMode, mDiagnoseParam.mSampleCount);
+            if (ret != ErrCode.XOK) {
+                mNativeDiagnoser.close();
+            }
+        }
         if (ret != ErrCode.XOK) {
             Log.e(TAG, "<onMessageOpen> fail to open(), ret=" + ret);
             mNativeDiagnoser = null;
@@ -301,6 +325,12 @@ public class AvDiagnoser extends AvCompBase {
         synchronized (mDataLock) {
             mParseProgress = cvtProgress;
         }
+
+        // 诊断结果逐步回调给上层，不用等到整个文件分析完成
+        ArrayList<AvDiagnoseFinding> findingList = mNativeDiagnoser.fetchFindings();
+        if ((findingList.size() > 0) && (mDiagnoseParam.mCallback != null)) {
+            mDiagnoseParam.mCallback.onDiagnoserFindings(mDiagnoseParam, findingList);
+        }
         if (ret == ErrCode.XERR_FILE_EOF) {
             Log.d(TAG, "<onMessageParsing> convering is done!");
             if (mDiagnoseParam.mCallback != null) {  // 回调给上层 转换完成
@@ -15,6 +15,11 @@ public class AvDownloaderParam {
     public String mInFileUrl;               ///< 要下载的文件路径
     public String mOutFilePath;             ///< 输出媒体文件全路径
     public IAvDownloaderCallback mCallback; ///< 下载回调接口
+    public boolean mRemuxEnabled = true;    ///< 源文件编码格式和输出格式相同时，是否直接转封装不重新编码
+    public String mCacheDir;                ///< 分段下载缓存目录，为空表示由 FFmpeg 直接读取网络流
+    public boolean mAsyncCodec = false;     ///< 硬编码是否使用 MediaCodec 异步回调模式，仅 Android 6.0 及以上有效
+    public boolean mSurfaceEnabled = false; ///< 需要转码时，设备支持的情况下是否走 Surface 到 Surface 的硬件转码，
+                                            ///< 该路径转码过程中出错不会回退到软解转码，默认关闭
 
 
 
@@ -22,7 +27,11 @@ public class AvDownloaderParam {
     @Override
     public String toString() {
         String strInfo = "{ mInFileUrl=" + mInFileUrl
-                + ", mOutFilePath=" + mOutFilePath + " }\n";
+                + ", mOutFilePath=" + mOutFilePath
+                + ", mRemuxEnabled=" + mRemuxEnabled
+                + ", mCacheDir=" + mCacheDir
+                + ", mSurfaceEnabled=" + mSurfaceEnabled
+                + ", mAsyncCodec=" + mAsyncCodec + " }\n";
         return strInfo;
     }
 }
\ No newline at end of file
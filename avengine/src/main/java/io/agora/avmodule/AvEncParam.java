@@ -7,6 +7,7 @@ package io.agora.avmodule;
 public class AvEncParam {
 
     public String mOutFilePath;     ///< 输出媒体文件全路径
+    public IAvMuxer mMuxer;         ///< 外部指定的混流器，为null时直接写入 mOutFilePath
 
     public String mVideoCodec;      ///< 输出文件视频视频编码格式，默认是 AVC
     public int mColorFormat;        ///< 输出视频帧色彩格式
@@ -24,16 +25,20 @@ public class AvEncParam {
     public int mSampleRate;         ///< 输出文件要编码的音频采样率，默认可以沿用输入文件的
     public int mAudioBitRate;       ///< 输出文件音频编码码率，默认可以沿用输入文件的
 
+    public boolean mAsyncCodec;     ///< 是否使用 MediaCodec 异步回调模式，仅 Android 6.0 及以上有效
+    public boolean mSurfaceInput;   ///< 视频编码器是否使用 Surface 输入，此时 mColorFormat 固定为 COLOR_FormatSurface
+
     @Override
     public String toString() {
         String strInfo = "{ videoCodec=" + mVideoCodec
                 + ", colorfmt=" + mColorFormat + ", width=" + mVideoWidth + ", height=" + mVideoHeight
                 + ", fps=" + mFrameRate + ", rotation=" + mRotation + ", gopFrame=" + mGopFrame
-                + ", videoBitrate=" + mVideoBitRate + ", videoBitMode=" + mVBitRateMode + " }\n"
+                + ", videoBitrate=" + mVideoBitRate + ", videoBitMode=" + mVBitRateMode
+                + ", surfaceInput=" + mSurfaceInput + " }\n"
 
                 + "{ audioCodec=" + mAudioCodec
                 + ", smplFmt=" + mSampleFmt + ", mChannels=" + mChannels + ", smplRate=" + mSampleRate
-                + ", audioBitrate=" + mAudioBitRate + " }\n";
+                + ", audioBitrate=" + mAudioBitRate + ", asyncCodec=" + mAsyncCodec + " }\n";
         return strInfo;
     }
 }
\ No newline at end of file
@@ -5,9 +5,11 @@ import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Surface;
+
 import java.nio.ByteBuffer;
 
 
@@ -41,16 +43,21 @@ public class AvEncoder {
     private int mEncodeType = ENCODER_TYPE_VIDEO;   ///< 当前是音频编码还是视频编码
     private String mCodecType;                  ///< 编码器格式
     private MediaFormat mAvFormat = null;       ///< 音视频格式信息
-    private MediaMuxer mAvMuxer;                ///< 混流器，由外部设置进来
+    private IAvMuxer mAvMuxer;                  ///< 混流器，由外部设置进来
     private int mAvTrackIndex = -1;             ///< 当前轨道索引，由外部设置进来
 
     private MediaCodec  mAvEncoder = null;      ///< 音视频编码器
     private ByteBuffer[] mInputBuffers;         ///< 编码输入缓冲区
     private ByteBuffer[] mOutputBuffers;        ///< 编码输出缓冲区
     private MediaFormat mOutputFormat = null;
+    private AvCodecAsync mCodecAsync = null;    ///< 异步回调模式的事件队列，null表示使用同步模式
+    private Surface mInputSurface = null;       ///< Surface 输入模式下的编码器输入 Surface
+    private long mStartTime = 0;                ///< 编码器 start() 的时间点
+    private long mFirstOutputTime = 0;          ///< 第一个编码输出的时间点
 
     private long mEncodingVidTimestamp = 0;     ///< 当前编码视频帧时间戳
     private long mEncodingAudTimestamp = 0;     ///< 当前编码音频帧时间戳
+    private int mInputOffset = 0;               ///< 当前帧已经送入编码器的字节数，超过输入缓冲区大小时分多次送入
 
 
 
@@ -97,21 +104,32 @@ public class AvEncoder {
 
         try {
             mAvEncoder = MediaCodec.createEncoderByType(mCodecType);
+            if (mInitParam.mAsyncCodec && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)) {
+                mCodecAsync = new AvCodecAsync();   // 回调必须在 configure() 之前设置
+                mCodecAsync.attach(mAvEncoder, mCodecType);
+            }
             mAvEncoder.configure(mAvFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            if (isSurfaceInput()) {    // 输入 Surface 必须在 configure() 之后 start() 之前创建
+                mInputSurface = mAvEncoder.createInputSurface();
+            }
 
         } catch (IllegalStateException illegalExp) {
             illegalExp.printStackTrace();
             Log.e(TAG, "<initialize> [illegalEXCEPT] faile to configure()");
+            release();
             return ErrCode.XERR_UNSUPPORTED;
 
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(TAG, "<initialize> [EXCEPT] faile to configure()");
+            release();
             return ErrCode.XERR_UNSUPPORTED;
         }
 
         try {
             mAvEncoder.start();
+            mStartTime = SystemClock.elapsedRealtime();
+            mFirstOutputTime = 0;
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
                 mInputBuffers = mAvEncoder.getInputBuffers();
                 mOutputBuffers = mAvEncoder.getOutputBuffers();
@@ -121,10 +139,12 @@ public class AvEncoder {
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(TAG, "<initialize> [EXCEPT] faile to start()");
+            release();
             return ErrCode.XERR_UNSUPPORTED;
         }
 
-        Log.d(TAG, "<initialize> END");
+        Log.d(TAG, "<initialize> END, asyncMode=" + (mCodecAsync != null)
+                + ", surfaceInput=" + (mInputSurface != null));
         return ErrCode.XERR_NONE;
     }
 
@@ -144,7 +164,16 @@ public class AvEncoder {
                 Log.e(TAG, "<release> [EXCEPT] exception of other: " + e);
             }
             mAvEncoder = null;
-            Log.d(TAG, "<release> done");
+            Log.d(TAG, "<release> done, asyncMode=" + (mCodecAsync != null)
+                    + ", firstOutputMs=" + getFirstOutputDelay());
+        }
+        if (mCodecAsync != null) {
+            mCodecAsync.detach();
+            mCodecAsync = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
         }
 
         mInputBuffers = null;
@@ -169,10 +198,76 @@ public class AvEncoder {
     /*
      * @brief 设置混流器
      */
-    public void setMediaMuxer(MediaMuxer muxer) {
+    public void setMediaMuxer(IAvMuxer muxer) {
         mAvMuxer = muxer;
     }
 
+    /*
+     * @brief 是否使用异步回调模式
+     */
+    public boolean isAsyncMode() {
+        return (mCodecAsync != null);
+    }
+
+    /*
+     * @brief 设置异步模式的编码器事件监听器，在编码器回调线程中调用，同步模式下无效
+     */
+    public void setEventListener(Runnable listener) {
+        if (mCodecAsync != null) {
+            mCodecAsync.setEventListener(listener);
+        }
+    }
+
+    /*
+     * @brief 异步模式下是否有空闲的输入缓冲区，同步模式下总是返回 true
+     */
+    public boolean hasFreeInput() {
+        return (mCodecAsync == null) || mCodecAsync.hasFreeInput();
+    }
+
+    /*
+     * @brief 异步模式下是否有待处理的编码输出，同步模式下总是返回 true
+     */
+    public boolean hasPendingOutput() {
+        return (mCodecAsync == null) || mCodecAsync.hasPendingOutput();
+    }
+
+    /*
+     * @brief 获取 Surface 输入模式下的编码器输入 Surface
+     * @return 输入 Surface，null表示不是 Surface 输入模式
+     */
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    /*
+     * @brief Surface 输入模式下通知编码器输入结束，后续编码输出会带上 EOS 标记
+     * @return 错误码
+     */
+    public int signalEndOfInput() {
+        if ((mAvEncoder == null) || (mInputSurface == null)) {
+            Log.e(TAG, "<signalEndOfInput> bad state, mEncodeType=" + mEncodeType);
+            return ErrCode.XERR_BAD_STATE;
+        }
+        try {
+            mAvEncoder.signalEndOfInputStream();
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.e(TAG, "<signalEndOfInput> [EXCEPT] exception: " + e.toString());
+            return ErrCode.XERR_CODEC_INDATA;
+        }
+        Log.d(TAG, "<signalEndOfInput> done");
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 获取从编码器 start() 到第一个编码输出的耗时
+     * @return 毫秒数，-1表示还没有输出
+     */
+    public long getFirstOutputDelay() {
+        return (mFirstOutputTime > 0) ? (mFirstOutputTime - mStartTime) : -1;
+    }
+
 
     /*
      * @brief 送入要编码的帧数据
@@ -215,47 +310,75 @@ public class AvEncoder {
         }
 
         try {
-            // 获取编码器输入缓冲区
-            int inputBufferIndex = mAvEncoder.dequeueInputBuffer(TIMEOUT_US);
-            if (inputBufferIndex < 0) {  // 当前没有空闲的编码输入缓冲区
-                Log.e(TAG, "<inputFrame> " + mCodecType + " NO input buffer");
-                return ErrCode.XERR_CODEC_NOBUFFER;
-            }
-            ByteBuffer inputBuffer;
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-                inputBuffer = (mInputBuffers != null) ? mInputBuffers[inputBufferIndex] : null;
-            } else {
-                inputBuffer = mAvEncoder.getInputBuffer(inputBufferIndex);
-            }
-            if (inputBuffer == null) {
-                Log.e(TAG, "<inputFrame> " + mCodecType + " fail to get input buffer");
-                return ErrCode.XERR_CODEC_NOBUFFER;
-            }
+            // 一帧数据超过输入缓冲区大小时分多次送入，中途没有空闲缓冲区时返回 XERR_CODEC_NOBUFFER，
+            // 调用者重新送入同一帧，从 mInputOffset 处继续
+            for (;;) {
+                // 获取编码器输入缓冲区
+                int inputBufferIndex = dequeueInputIndex();
+                if (inputBufferIndex < 0) {  // 当前没有空闲的编码输入缓冲区
+                    Log.e(TAG, "<inputFrame> " + mCodecType + " NO input buffer");
+                    return ErrCode.XERR_CODEC_NOBUFFER;
+                }
+                ByteBuffer inputBuffer;
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                    inputBuffer = (mInputBuffers != null) ? mInputBuffers[inputBufferIndex] : null;
+                } else {
+                    inputBuffer = mAvEncoder.getInputBuffer(inputBufferIndex);
+                }
+                if (inputBuffer == null) {
+                    Log.e(TAG, "<inputFrame> " + mCodecType + " fail to get input buffer");
+                    return ErrCode.XERR_CODEC_NOBUFFER;
+                }
 
-            // 填充输入缓冲区，并且送入解码器进行解码
-            if (inputFrame.mDataBuffer != null) {
-                inputBuffer.clear();
-                inputBuffer.put(inputFrame.mDataBuffer);
-                mAvEncoder.queueInputBuffer(inputBufferIndex, 0, inputFrame.mDataBuffer.length,
-                        inputFrame.mTimestamp, flags);
-                Log.d(TAG, "<inputFrame> dataSize=" + inputFrame.mDataBuffer.length
-                      + ", timestamp=" + inputFrame.mTimestamp
-                    + ", inputBufferIndex=" + inputBufferIndex);
-                inputFrame.mDataBuffer = null;
-
-            } else {
+                if (inputFrame.mDataBuffer == null) {
+                    inputBuffer.clear();
+                    mAvEncoder.queueInputBuffer(inputBufferIndex, 0, 0, inputFrame.mTimestamp, flags);
+                    break;
+                }
+
+                // 填充输入缓冲区，并且送入编码器进行编码
                 inputBuffer.clear();
-                mAvEncoder.queueInputBuffer(inputBufferIndex, 0, 0, inputFrame.mTimestamp, flags);
+                int remainSize = inputFrame.mDataBuffer.length - mInputOffset;
+                int chunkSize = remainSize;
+                if (remainSize > inputBuffer.remaining()) {
+                    int alignSize = getFrameAlignSize(inputFrame);
+                    chunkSize = inputBuffer.remaining() / alignSize * alignSize;
+                    if ((mEncodeType != ENCODER_TYPE_AUDIO) || (chunkSize <= 0)) {  // 视频帧不能拆分
+                        Log.e(TAG, "<inputFrame> " + mCodecType + " frame too large, dataSize=" + remainSize
+                                + ", capacity=" + inputBuffer.remaining());
+                        mAvEncoder.queueInputBuffer(inputBufferIndex, 0, 0, inputFrame.mTimestamp, 0);
+                        mInputOffset = 0;
+                        inputFrame.releaseBuffer();
+                        return ErrCode.XERR_CODEC_INDATA;
+                    }
+                }
+                boolean lastChunk = (chunkSize == remainSize);
+                long timestamp = inputFrame.mTimestamp + calcOffsetDuration(inputFrame, mInputOffset);
+                inputBuffer.put(inputFrame.mDataBuffer, mInputOffset, chunkSize);
+                mAvEncoder.queueInputBuffer(inputBufferIndex, 0, chunkSize, timestamp, (lastChunk ? flags : 0));
+                Log.d(TAG, "<inputFrame> dataSize=" + chunkSize
+                        + ", timestamp=" + timestamp
+                        + ", inputBufferIndex=" + inputBufferIndex);
+                if (lastChunk) {
+                    mInputOffset = 0;
+                    inputFrame.releaseBuffer();
+                    break;
+                }
+                mInputOffset += chunkSize;
             }
 
         } catch (IllegalStateException e) {
             e.printStackTrace();
             Log.e(TAG, "<inputFrame> [EXCEPT] illegalExcetpion: " + e.toString());
+            mInputOffset = 0;
+            inputFrame.releaseBuffer();     // 该帧不会再送入，归还缓冲区
             ret = ErrCode.XERR_CODEC_INDATA;
 
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(TAG, "<inputFrame> [EXCEPT] Exceptioin: " + e.toString());
+            mInputOffset = 0;
+            inputFrame.releaseBuffer();
             ret = ErrCode.XERR_CODEC_INDATA;
         }
 
@@ -272,7 +395,7 @@ public class AvEncoder {
 
         try {
             MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
-            int outputBufferIndex = mAvEncoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+            int outputBufferIndex = dequeueOutputIndex(bufferInfo);
             switch (outputBufferIndex) {
                 case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED: {
                     Log.d(TAG, "<encodeVideoFrame> FORMAT_CHANGED");
@@ -321,6 +444,7 @@ public class AvEncoder {
                     }
 
                     if ((bufferInfo.presentationTimeUs >= 0) && (bufferInfo.size > 0)) {
+                        markFirstOutput();
                         mEncodingVidTimestamp = bufferInfo.presentationTimeUs;
                     }
                     mAvEncoder.releaseOutputBuffer(outputBufferIndex, false);
@@ -366,7 +490,7 @@ public class AvEncoder {
 
         try {
             MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
-            int outputBufferIndex = mAvEncoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+            int outputBufferIndex = dequeueOutputIndex(bufferInfo);
             switch (outputBufferIndex) {
                 case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED: {
                     Log.d(TAG, "<encodeAudioFrame> FORMAT_CHANGED");
@@ -409,6 +533,7 @@ public class AvEncoder {
                     }
 
                     if ((bufferInfo.presentationTimeUs >= 0) && (bufferInfo.size > 0)) {
+                        markFirstOutput();
                         mEncodingAudTimestamp = bufferInfo.presentationTimeUs;
                     }
                     mAvEncoder.releaseOutputBuffer(outputBufferIndex, false);
@@ -455,6 +580,81 @@ public class AvEncoder {
     /////////////////////////////////////////////////////////////////////////
     ////////////////////////// Internal Methods /////////////////////////////
     /////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 帧数据拆分时的对齐字节数，音频按照一个采样点(所有通道)对齐
+     */
+    private static int getFrameAlignSize(AvBaseFrame inputFrame) {
+        if (inputFrame instanceof AvAudioFrame) {
+            AvAudioFrame audioFrame = (AvAudioFrame)inputFrame;
+            int alignSize = audioFrame.mBytesPerSample * audioFrame.mChannels;
+            return (alignSize > 0) ? alignSize : 1;
+        }
+        return 1;
+    }
+
+    /*
+     * @brief 计算帧内字节偏移对应的时长(微秒)，只有音频帧可以计算
+     */
+    private static long calcOffsetDuration(AvBaseFrame inputFrame, int offset) {
+        if ((offset <= 0) || !(inputFrame instanceof AvAudioFrame)) {
+            return 0;
+        }
+        AvAudioFrame audioFrame = (AvAudioFrame)inputFrame;
+        long bytesPerSecond = (long)audioFrame.mBytesPerSample * audioFrame.mChannels * audioFrame.mSampleRate;
+        return (bytesPerSecond > 0) ? (offset * 1000000L / bytesPerSecond) : 0;
+    }
+
+    /*
+     * @brief 获取空闲的输入缓冲区索引
+     *        异步模式直接从回调事件队列中取，没有立即返回；同步模式最多等待 TIMEOUT_US
+     * @return 缓冲区索引，<0表示当前没有空闲的输入缓冲区
+     */
+    private int dequeueInputIndex() {
+        if (mCodecAsync == null) {
+            return mAvEncoder.dequeueInputBuffer(TIMEOUT_US);
+        }
+        MediaCodec.CodecException codecError = mCodecAsync.getError();
+        if (codecError != null) {
+            throw codecError;
+        }
+        return mCodecAsync.pollInputIndex();
+    }
+
+    /*
+     * @brief 获取编码输出缓冲区索引，返回值和 dequeueOutputBuffer() 相同
+     *        异步模式直接从回调事件队列中取，没有立即返回 INFO_TRY_AGAIN_LATER；同步模式最多等待 TIMEOUT_US
+     * @param bufferInfo : 输出缓冲区信息
+     * @return 缓冲区索引，或者 INFO_* 状态值
+     */
+    private int dequeueOutputIndex(MediaCodec.BufferInfo bufferInfo) {
+        if (mCodecAsync == null) {
+            return mAvEncoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+        }
+        MediaCodec.CodecException codecError = mCodecAsync.getError();
+        if (codecError != null) {
+            throw codecError;
+        }
+        AvCodecAsync.OutputEvent event = mCodecAsync.pollOutput();
+        if (event == null) {
+            return MediaCodec.INFO_TRY_AGAIN_LATER;
+        }
+        if (event.mInfo != null) {
+            bufferInfo.set(event.mInfo.offset, event.mInfo.size, event.mInfo.presentationTimeUs,
+                    event.mInfo.flags);
+        }
+        return event.mIndex;
+    }
+
+    private boolean isSurfaceInput() {
+        return (mEncodeType == ENCODER_TYPE_VIDEO) && mInitParam.mSurfaceInput;
+    }
+
+    private void markFirstOutput() {
+        if (mFirstOutputTime == 0) {
+            mFirstOutputTime = SystemClock.elapsedRealtime();
+        }
+    }
+
 
     /*
      * @brief 设置视频编码器参数
@@ -475,7 +675,9 @@ public class AvEncoder {
             mAvFormat = MediaFormat.createVideoFormat(mInitParam.mVideoCodec,
                     mInitParam.mVideoWidth, mInitParam.mVideoHeight);
 
-            mAvFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, mInitParam.mColorFormat); // 色彩格式
+            int colorFormat = mInitParam.mSurfaceInput
+                    ? MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface : mInitParam.mColorFormat;
+            mAvFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat); // 色彩格式
             mAvFormat.setInteger(MediaFormat.KEY_FRAME_RATE, mInitParam.mFrameRate); // 帧率
             int intervalSeconds = (mInitParam.mGopFrame / mInitParam.mFrameRate);
             mAvFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, intervalSeconds);  // 关键帧间隔秒数
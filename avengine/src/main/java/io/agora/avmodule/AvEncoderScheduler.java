@@ -0,0 +1,171 @@
+package io.agora.avmodule;
+
+
+import android.util.Log;
+
+import java.util.ArrayList;
+
+
+
+/*
+ * @brief 多路录像共享硬件编码器的调度器
+ *        1. 同时使用的编码器数量不超过 MediaCodec 支持的最大实例数量，超过时不再分配
+ *        2. 所有编码器的像素吞吐量(宽 x 高 x 帧率)之和不超过编码器的性能上限，
+ *           超过时新申请的编码器先降低帧率，再逐级降低分辨率，已经在编码的不受影响
+ */
+public class AvEncoderScheduler {
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "AVMODULE/EncScheduler";
+    public static final int DEGRADE_FRAME_RATE = 10;       ///< 降级时使用的帧率
+
+    //
+    // 降级时分辨率的缩放比例(百分比)，按照顺序逐级尝试
+    //
+    private static final int[] DEGRADE_SCALE_ARRAY = { 100, 75, 50, 25 };
+
+
+    /*
+     * @brief 分配到的编码器资源，记录实际使用的编码参数
+     */
+    public static class EncodeSlot {
+        public final int mWidth;            ///< 实际编码宽度
+        public final int mHeight;           ///< 实际编码高度
+        public final int mFrameRate;        ///< 实际编码帧率
+        public final boolean mDegraded;     ///< 是否进行了降级
+
+        EncodeSlot(int width, int height, int frameRate, boolean degraded) {
+            mWidth = width;
+            mHeight = height;
+            mFrameRate = frameRate;
+            mDegraded = degraded;
+        }
+
+        long getPixelRate() {
+            return ((long)mWidth * mHeight * mFrameRate);
+        }
+
+        @Override
+        public String toString() {
+            String infoText = "{ mWidth=" + mWidth + ", mHeight=" + mHeight
+                    + ", mFrameRate=" + mFrameRate + ", mDegraded=" + mDegraded + " }";
+            return infoText;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final Object mSlotLock = new Object();
+    private final ArrayList<EncodeSlot> mActiveList = new ArrayList<>();
+    private final int mMaxInstances;        ///< 最大编码器实例数量
+    private final long mMaxPixelRate;       ///< 每秒最大像素吞吐量，0表示不限制
+    private long mUsedPixelRate = 0;        ///< 已经分配的像素吞吐量
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 构造函数
+     * @param maxInstances : 最大编码器实例数量
+     * @param maxPixelRate : 每秒最大像素吞吐量，0表示不限制
+     */
+    public AvEncoderScheduler(int maxInstances, long maxPixelRate) {
+        mMaxInstances = (maxInstances > 0) ? maxInstances : 1;
+        mMaxPixelRate = (maxPixelRate > 0) ? maxPixelRate : 0;
+    }
+
+    /*
+     * @brief 申请一个编码器，剩余吞吐量不足时降低帧率和分辨率
+     *        降到最低档位还是不足时，仍然按照最低档位分配
+     * @param width : 期望的编码宽度
+     * @param height : 期望的编码高度
+     * @param frameRate : 期望的编码帧率
+     * @return 返回分配到的编码器资源，实例数量已满时返回null
+     */
+    public EncodeSlot acquire(int width, int height, int frameRate) {
+        synchronized (mSlotLock) {
+            if (mActiveList.size() >= mMaxInstances) {
+                Log.e(TAG, "<acquire> no more encoder, activeCount=" + mActiveList.size()
+                        + ", mMaxInstances=" + mMaxInstances);
+                return null;
+            }
+
+            EncodeSlot slot = null;
+            long remainRate = mMaxPixelRate - mUsedPixelRate;
+            int degradeFps = Math.min(frameRate, DEGRADE_FRAME_RATE);
+            for (int scale : DEGRADE_SCALE_ARRAY) {
+                int scaledWidth = alignSize(width * scale / 100);
+                int scaledHeight = alignSize(height * scale / 100);
+                boolean scaled = (scale != 100);
+
+                // 原始分辨率时先尝试原始帧率，再尝试降低帧率
+                if (!scaled) {
+                    slot = new EncodeSlot(scaledWidth, scaledHeight, frameRate, false);
+                    if ((mMaxPixelRate == 0) || (slot.getPixelRate() <= remainRate)) {
+                        break;
+                    }
+                }
+                slot = new EncodeSlot(scaledWidth, scaledHeight, degradeFps, true);
+                if (slot.getPixelRate() <= remainRate) {
+                    break;
+                }
+            }
+
+            mActiveList.add(slot);
+            mUsedPixelRate += slot.getPixelRate();
+            Log.d(TAG, "<acquire> slot=" + slot + ", activeCount=" + mActiveList.size()
+                    + ", mUsedPixelRate=" + mUsedPixelRate + ", mMaxPixelRate=" + mMaxPixelRate);
+            return slot;
+        }
+    }
+
+    /*
+     * @brief 释放编码器资源
+     * @param slot : acquire() 分配到的编码器资源
+     */
+    public void release(final EncodeSlot slot) {
+        if (slot == null) {
+            return;
+        }
+        synchronized (mSlotLock) {
+            for (int i = 0; i < mActiveList.size(); i++) {
+                if (mActiveList.get(i) == slot) {
+                    mActiveList.remove(i);
+                    mUsedPixelRate -= slot.getPixelRate();
+                    break;
+                }
+            }
+            Log.d(TAG, "<release> slot=" + slot + ", activeCount=" + mActiveList.size()
+                    + ", mUsedPixelRate=" + mUsedPixelRate);
+        }
+    }
+
+    /*
+     * @brief 获取当前使用中的编码器数量
+     */
+    public int getActiveCount() {
+        synchronized (mSlotLock) {
+            return mActiveList.size();
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief YUV420 编码宽高需要是偶数
+     */
+    private static int alignSize(int size) {
+        if (size <= 0) {
+            return 0;
+        }
+        return Math.max(2, size & ~1);
+    }
+}
@@ -0,0 +1,52 @@
+package io.agora.avmodule;
+
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+
+/*
+ * @brief 直接写入 MP4 文件的混流器，对 MediaMuxer 的简单封装
+ */
+public class AvFileMuxer implements IAvMuxer {
+
+    private final MediaMuxer mMediaMuxer;
+
+    /*
+     * @brief 构造函数，打开输出文件
+     * @param outFilePath : 输出的 MP4 文件全路径
+     */
+    public AvFileMuxer(final String outFilePath) throws IOException {
+        mMediaMuxer = new MediaMuxer(outFilePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return mMediaMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        mMediaMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        mMediaMuxer.writeSampleData(trackIndex, byteBuf, bufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        mMediaMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mMediaMuxer.release();
+    }
+}
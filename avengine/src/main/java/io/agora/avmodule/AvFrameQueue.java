@@ -1,9 +1,16 @@
 package io.agora.avmodule;
 
-import java.util.ArrayList;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
 
 /*
  * @brief 音视频帧队列
+ *        1. 可以设置最大帧数和最大字节数，达到任一上限时队列为满，0表示不限制
+ *        2. 入队和出队时发出 非空/非满 通知，生产者和消费者可以阻塞等待，不需要轮询
+ *        3. 多个队列可以共享同一个同步锁，消费者可以同时等待多个队列中任意一个非空
+ *        入队操作本身不阻塞，生产者在入队前调用 waitNotFull() 等待队列有空闲
  */
 public class AvFrameQueue {
 
@@ -17,20 +24,55 @@ public class AvFrameQueue {
     ////////////////////////////////////////////////////////////////////////
     //////////////////////// Variable Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
-    private ArrayList<AvBaseFrame> mFrameList = new ArrayList<>();  ///< 帧列表
+    private final ArrayDeque<AvBaseFrame> mFrameList = new ArrayDeque<>();  ///< 帧列表
+    private final Object mLock;                 ///< 同步锁，同时作为 非空/非满 的通知对象
+    private final int mMaxFrames;               ///< 最大帧数，0表示不限制
+    private final long mMaxBytes;               ///< 最大字节数，0表示不限制
+    private long mDataBytes = 0;                ///< 队列中帧数据的总字节数
+    private long mWakeupSeq = 0;                ///< wakeup() 调用序号，用于中断正在进行的等待
 
 
     ////////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods //////////////////////////////
     ////////////////////////////////////////////////////////////////////////
     /**
-     * @brief 将帧插入队列尾部
+     * @brief 创建不限制大小的队列
+     */
+    public AvFrameQueue() {
+        this(0, 0, null);
+    }
+
+    /**
+     * @brief 创建有上限的队列
+     * @param maxFrames : 最大帧数，0表示不限制
+     * @param maxBytes : 最大字节数，0表示不限制
+     */
+    public AvFrameQueue(int maxFrames, long maxBytes) {
+        this(maxFrames, maxBytes, null);
+    }
+
+    /**
+     * @brief 创建有上限的队列，可以和其他队列共享同步锁
+     * @param maxFrames : 最大帧数，0表示不限制
+     * @param maxBytes : 最大字节数，0表示不限制
+     * @param sharedLock : 共享的同步锁，null表示使用队列自己的锁
+     */
+    public AvFrameQueue(int maxFrames, long maxBytes, Object sharedLock) {
+        mMaxFrames = Math.max(maxFrames, 0);
+        mMaxBytes = Math.max(maxBytes, 0);
+        mLock = (sharedLock != null) ? sharedLock : new Object();
+    }
+
+    /**
+     * @brief 将帧插入队列尾部，不检查上限，唤醒等待非空的消费者
      * @param frame : 要插入的帧对象
      * @return None
      */
     public void inqueue(AvBaseFrame frame) {
-        synchronized (mFrameList) {
-            mFrameList.add(frame);
+        synchronized (mLock) {
+            mFrameList.addLast(frame);
+            mDataBytes += getFrameBytes(frame);
+            mLock.notifyAll();
 //            Log.d(TAG, "<inqueue> mFrameType=" + frame.mFrameType
 //                    + ", timestamp=" + frame.mTimestamp
 //                    + ", flags=" + frame.mFlags
@@ -39,16 +81,17 @@ public class AvFrameQueue {
     }
 
     /**
-     * @brief 从队列头提取一个帧对象
+     * @brief 从队列头提取一个帧对象，唤醒等待非满的生产者
      * @return 返回提取到的帧对象，如果队列为空则返回null
      */
     public AvBaseFrame dequeue() {
-        synchronized (mFrameList) {
-            int count = mFrameList.size();
-            if (count <= 0) {
+        synchronized (mLock) {
+            AvBaseFrame frame = mFrameList.pollFirst();
+            if (frame == null) {
                 return null;
             }
-            AvBaseFrame frame = mFrameList.remove(0);
+            mDataBytes = mFrameList.isEmpty() ? 0 : Math.max(mDataBytes - getFrameBytes(frame), 0);
+            mLock.notifyAll();
 //            Log.d(TAG, "<dequeue> mFrameType=" + frame.mFrameType
 //                    + ", timestamp=" + frame.mTimestamp
 //                    + ", flags=" + frame.mFlags
@@ -58,13 +101,15 @@ public class AvFrameQueue {
     }
 
     /**
-     * @brief 将帧插入队列头部
+     * @brief 将帧插入队列头部，不检查上限
      * @param frame : 要插入的帧对象
      * @return None
      */
     public void inqueueHead(AvBaseFrame frame) {
-        synchronized (mFrameList) {
-            mFrameList.add(0, frame);
+        synchronized (mLock) {
+            mFrameList.addFirst(frame);
+            mDataBytes += getFrameBytes(frame);
+            mLock.notifyAll();
 //            Log.d(TAG, "<inqueueHead> mFrameType=" + frame.mFrameType
 //                    + ", timestamp=" + frame.mTimestamp
 //                    + ", flags=" + frame.mFlags
@@ -77,37 +122,185 @@ public class AvFrameQueue {
      * @return 队列帧数量
      */
     public int size() {
-        synchronized (mFrameList) {
-            int count = mFrameList.size();
-            return count;
+        synchronized (mLock) {
+            return mFrameList.size();
+        }
+    }
+
+    /**
+     * @brief 获取队列中帧数据的总字节数
+     * @return 字节数
+     */
+    public long getDataBytes() {
+        synchronized (mLock) {
+            return mDataBytes;
         }
     }
 
     /**
-     * @brief 清空队列
+     * @brief 判断队列是否达到帧数或者字节数上限
+     * @return true 表示队列已满
+     */
+    public boolean isFull() {
+        synchronized (mLock) {
+            return isFullLocked();
+        }
+    }
+
+    /**
+     * @brief 清空队列，唤醒等待非满的生产者
      * @return None
      */
     public void clear() {
-        synchronized (mFrameList) {
+        synchronized (mLock) {
+            for (AvBaseFrame frame : mFrameList) {
+                frame.releaseBuffer();
+            }
             mFrameList.clear();
+            mDataBytes = 0;
+            mLock.notifyAll();
         }
     }
 
 
     /**
-     * @brief 将队列中视频都清除，保留最先的一帧作为EOS帧
+     * @brief 将队列中视频都清除，保留最先的一帧作为EOS帧，唤醒等待的生产者和消费者
      * @return None
      */
     public void resetToEos() {
-        synchronized (mFrameList) {
-            int count = mFrameList.size();
-            if (count <= 0) {
+        synchronized (mLock) {
+            AvBaseFrame frame = mFrameList.pollFirst();
+            if (frame == null) {
                 return;
             }
-            AvBaseFrame frame = mFrameList.remove(0);
+            for (AvBaseFrame dropFrame : mFrameList) {
+                dropFrame.releaseBuffer();
+            }
             mFrameList.clear();
             frame.mLastFrame = true;
-            mFrameList.add(frame);
+            mFrameList.addLast(frame);
+            mDataBytes = getFrameBytes(frame);
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * @brief 阻塞等待队列非满
+     * @param timeout : 最长等待时间(毫秒)
+     * @return true 表示队列非满；false 表示超时或者被 wakeup() 中断
+     */
+    public boolean waitNotFull(long timeout) {
+        synchronized (mLock) {
+            long wakeupSeq = mWakeupSeq;
+            long deadline = SystemClock.elapsedRealtime() + timeout;
+            while (isFullLocked()) {
+                long remain = deadline - SystemClock.elapsedRealtime();
+                if ((remain <= 0) || (wakeupSeq != mWakeupSeq)) {
+                    return false;
+                }
+                if (!waitLock(mLock, remain)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @brief 阻塞等待队列非空
+     * @param timeout : 最长等待时间(毫秒)
+     * @return true 表示队列非空；false 表示超时或者被 wakeup() 中断
+     */
+    public boolean waitNotEmpty(long timeout) {
+        return waitAnyNotEmpty(timeout, this);
+    }
+
+    /**
+     * @brief 阻塞等待多个队列中任意一个非空，这些队列必须共享同一个同步锁
+     * @param timeout : 最长等待时间(毫秒)
+     * @param queues : 要等待的队列
+     * @return true 表示有队列非空；false 表示超时或者被 wakeup() 中断
+     */
+    public static boolean waitAnyNotEmpty(long timeout, AvFrameQueue... queues) {
+        if ((queues == null) || (queues.length <= 0)) {
+            return false;
+        }
+        Object lock = queues[0].mLock;
+        for (AvFrameQueue queue : queues) {
+            if (queue.mLock != lock) {
+                Log.e(TAG, "<waitAnyNotEmpty> [ERROR] queues do not share the same lock");
+                return false;
+            }
+        }
+
+        synchronized (lock) {
+            long wakeupSeq = sumWakeupSeq(queues);
+            long deadline = SystemClock.elapsedRealtime() + timeout;
+            for (;;) {
+                for (AvFrameQueue queue : queues) {
+                    if (!queue.mFrameList.isEmpty()) {
+                        return true;
+                    }
+                }
+                long remain = deadline - SystemClock.elapsedRealtime();
+                if ((remain <= 0) || (wakeupSeq != sumWakeupSeq(queues))) {
+                    return false;
+                }
+                if (!waitLock(lock, remain)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief 中断所有正在等待这个队列的线程，用于暂停或者停止时让阻塞的线程立即返回
+     * @return None
+     */
+    public void wakeup() {
+        synchronized (mLock) {
+            mWakeupSeq++;
+            mLock.notifyAll();
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private boolean isFullLocked() {
+        if ((mMaxFrames > 0) && (mFrameList.size() >= mMaxFrames)) {
+            return true;
+        }
+        if ((mMaxBytes > 0) && (mDataBytes >= mMaxBytes)) {
+            return true;
+        }
+        return false;
+    }
+
+    private static long getFrameBytes(AvBaseFrame frame) {
+        return (frame.mDataBuffer != null) ? frame.mDataBuffer.length : 0;
+    }
+
+    private static long sumWakeupSeq(AvFrameQueue[] queues) {
+        long seq = 0;
+        for (AvFrameQueue queue : queues) {
+            seq += queue.mWakeupSeq;
+        }
+        return seq;
+    }
+
+    /*
+     * @brief 在同步锁上等待通知
+     * @return false 表示线程被中断
+     */
+    private static boolean waitLock(Object lock, long timeout) {
+        try {
+            lock.wait(timeout);
+        } catch (InterruptedException interruptExp) {
+            Thread.currentThread().interrupt();
+            return false;
         }
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -60,6 +60,7 @@ public class AvMediaConverter extends AvCompBase {
         public Context mContext;
         public String mSrcFileUrl;
         public String mDstFilePath;
+        public String mCacheDir;            ///< 分段下载缓存目录，为空表示由 FFmpeg 直接读取网络流
     }
 
 
@@ -97,6 +98,7 @@ public class AvMediaConverter extends AvCompBase {
     private MediaCvtParam mCvtParam;
 
     private AvNativeCvter mNativeCvter;
+    private volatile AvSegmentFetcher mSegmentFetcher;  ///< 分段下载器，没有设置缓存目录时为 null
     private AvMediaInfo mMediaInfo;         ///< 原始媒体文件信息
     private int mCvtProgress = 0;           ///< 当前转换进度
     private volatile int mState = CONVERT_STATE_CLOSED;
@@ -144,8 +146,15 @@ public class AvMediaConverter extends AvCompBase {
     public int release() {
         Log.d(TAG, "<release> [BEGIN] mState=" + mState);
 
+        // 取消分段下载，已经下载的分块保留在缓存目录中，下次可以续传
+        AvSegmentFetcher segmentFetcher = mSegmentFetcher;
+        if (segmentFetcher != null) {
+            segmentFetcher.cancel();
+        }
+
         // 停止组件线程
         runStop();
+        mSegmentFetcher = null;
 
         if (mNativeCvter != null) {
             mNativeCvter.close();
@@ -254,8 +263,32 @@ public class AvMediaConverter extends AvCompBase {
      * @brief 工作线程中运行，打开源和目标流文件
      */
     void onMessageOpen(Message msg) {
+        String srcUrl = mCvtParam.mSrcFileUrl;
+        if ((mCvtParam.mCacheDir != null) && !mCvtParam.mCacheDir.isEmpty()) {  // 先分段下载到本地
+            AvSegmentFetcher.FetchParam fetchParam = new AvSegmentFetcher.FetchParam();
+            fetchParam.mSrcUrl = mCvtParam.mSrcFileUrl;
+            fetchParam.mCacheDir = mCvtParam.mCacheDir;
+            AvSegmentFetcher segmentFetcher = new AvSegmentFetcher(fetchParam);
+            mSegmentFetcher = segmentFetcher;
+            int ret = segmentFetcher.fetch();
+            if (ret == ErrCode.XOK) {
+                srcUrl = segmentFetcher.getLocalUrl();
+            } else if (ret == ErrCode.XERR_UNSUPPORTED) {  // 直播流直接读取网络流
+                mSegmentFetcher = null;
+            } else if (ret == ErrCode.XERR_BAD_STATE) {  // 下载已经取消
+                return;
+            } else {
+                Log.e(TAG, "<onMessageOpen> fail to fetch, ret=" + ret);
+                setState(CONVERT_STATE_PAUSED);
+                if (mCvtParam.mCallback != null) {
+                    mCvtParam.mCallback.onMediaCvtOpenDone(mCvtParam, ret);
+                }
+                return;
+            }
+        }
+
         mNativeCvter = new AvNativeCvter();
-        int ret = mNativeCvter.open(mCvtParam.mSrcFileUrl, mCvtParam.mDstFilePath);
+        int ret = mNativeCvter.open(srcUrl, mCvtParam.mDstFilePath);
         if (ret != ErrCode.XOK) {
             Log.e(TAG, "<onMessageOpen> fail to open(), ret=" + ret);
             mNativeCvter = null;
@@ -303,6 +336,9 @@ public class AvMediaConverter extends AvCompBase {
         }
         if (ret == ErrCode.XERR_FILE_EOF) {
             Log.d(TAG, "<onMessageConvert> convering is done!");
+            if (mSegmentFetcher != null) {  // 删除分段下载的缓存文件
+                AvSegmentFetcher.clearCache(mCvtParam.mCacheDir);
+            }
             if (mCvtParam.mCallback != null) {  // 回调给上层 转换完成
                 mCvtParam.mCallback.onMediaConvertingDone(mCvtParam, mMediaInfo.mFileDuration);
             }
@@ -5,14 +5,20 @@ import android.content.Context;
 import android.media.AudioFormat;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Build;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Pair;
 
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
 import java.util.ArrayList;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -25,6 +31,47 @@ public class AvMediaDownloader extends AvCompBase
     ////////////////////////////////////////////////////////////////////////
     //////////////////////// Data Structure Definition /////////////////////
     ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 下载转码流水线各阶段统计信息
+     *        转码时：解码阶段(拉流解封装和解码)、转交阶段(解码器到编码器)、编码阶段(编码和混流)
+     *        直接转封装时：只有转封装阶段，帧数为数据包数量
+     *        Surface 硬件转码时：只有转码阶段，帧数为渲染的视频帧数量
+     *        设置了缓存目录时，处理之前先分段下载到本地
+     */
+    public static class PipelineStats {
+        public int mPipelineMode;               ///< 当前处理方式 PIPELINE_MODE_XXX
+        public long mCostTime;                  ///< 从开始处理到现在(或者完成时)的耗时，单位毫秒
+        public AvStageStats mDecodeStats;       ///< 解码阶段统计，阻塞表示解码输出队列满
+        public AvStageStats mHandoffStats;      ///< 转交阶段统计，阻塞表示编码输入队列满
+        public AvStageStats mEncodeStats;       ///< 编码阶段统计，阻塞表示编码器没有输入缓冲区
+        public AvStageStats mRemuxStats;        ///< 直接转封装统计
+        public AvStageStats mSurfaceStats;      ///< Surface 硬件转码统计
+        public long mFetchTime;                 ///< 分段下载耗时，单位毫秒，0 表示没有分段下载
+        public long mFetchedBytes;              ///< 分段下载的字节数，包含续传恢复的部分
+
+        @Override
+        public String toString() {
+            if (mPipelineMode == PIPELINE_MODE_REMUX) {
+                String infoText = "{ mode=REMUX, costTime=" + mCostTime
+                        + ", fetchTime=" + mFetchTime + ", fetchedBytes=" + mFetchedBytes
+                        + ", remux=" + mRemuxStats + " }";
+                return infoText;
+            }
+            if (mPipelineMode == PIPELINE_MODE_SURFACE) {
+                String infoText = "{ mode=SURFACE, costTime=" + mCostTime
+                        + ", fetchTime=" + mFetchTime + ", fetchedBytes=" + mFetchedBytes
+                        + ", surface=" + mSurfaceStats + " }";
+                return infoText;
+            }
+            String infoText = "{ mode=" + ((mPipelineMode == PIPELINE_MODE_TRANSCODE) ? "TRANSCODE" : "NONE")
+                    + ", costTime=" + mCostTime
+                    + ", fetchTime=" + mFetchTime + ", fetchedBytes=" + mFetchedBytes
+                    + ", decode=" + mDecodeStats
+                    + ", handoff=" + mHandoffStats
+                    + ", encode=" + mEncodeStats + " }";
+            return infoText;
+        }
+    }
 
 
     ////////////////////////////////////////////////////////////////////////
@@ -39,6 +86,11 @@ public class AvMediaDownloader extends AvCompBase
     private static final int AUDIO_CHANNELS = 2;
     private static final int AUDIO_SAMPLE_RATE = 44100;
 
+    private static final int ENCODE_VIDEO_QUEUE_MAX = 4;      ///< 编码器输入视频帧队列最大帧数
+    private static final int ENCODE_AUDIO_QUEUE_MAX = 16;     ///< 编码器输入音频帧队列最大帧数
+    private static final int HANDOFF_BATCH_MAX = 32;          ///< 每次唤醒最多转交的帧数
+    private static final long HANDOFF_WAIT_TIMEOUT = 50;      ///< 没有收到通知时的超时检测时间
+
 
     /**
      * @brief 定义下载状态
@@ -50,6 +102,17 @@ public class AvMediaDownloader extends AvCompBase
     public static final int DOWNLOAD_STATE_DONE = 0x0004;         ///< 转换完成状态
     public static final int DOWNLOAD_STATE_ERROR = 0x0005;        ///< 错误状态,不能再继续
 
+    /**
+     * @brief 定义处理方式
+     */
+    public static final int PIPELINE_MODE_NONE = 0x0000;          ///< 还在探测源文件，未确定处理方式
+    public static final int PIPELINE_MODE_REMUX = 0x0001;         ///< 编码格式相同，直接转封装
+    public static final int PIPELINE_MODE_TRANSCODE = 0x0002;     ///< 解码后重新编码
+    public static final int PIPELINE_MODE_SURFACE = 0x0003;       ///< 硬解码到硬编码的 Surface 转码
+
+    private static final int REMUX_BATCH_PACKETS = 64;            ///< 直接转封装每次消息处理的数据包数量
+    private static final int SURFACE_BATCH_STEPS = 16;            ///< Surface 转码每次消息处理的步数
+
     //
     // The mesage Id
     //
@@ -68,34 +131,57 @@ public class AvMediaDownloader extends AvCompBase
     private AvDownloaderParam mInitParam;             ///< 初始化参数
     private IAvCompDecoder mAvDecoder;      ///< 解码器组件
     private IAvCompEncoder mAvEncoder;      ///< 编码器组件
+    private AvNativeCvter mNativeCvter;     ///< 直接转封装的转换器
+    private AvSurfaceTranscoder mSurfaceTranscoder;  ///< Surface 硬件转码器，只在组件线程中创建和释放
+    private volatile AvSegmentFetcher mSegmentFetcher;  ///< 分段下载器，没有设置缓存目录时为 null
+    private volatile boolean mReleasing = false;    ///< release() 已经开始，新创建的分段下载器立即取消
+    private String mSourceUrl;              ///< 实际读取的源文件，分段下载完成后是本地缓存文件
+    private volatile long mFetchTime = 0;   ///< 分段下载耗时
     private AvMediaInfo mMediaInfo;         ///< 原始媒体文件信息
+    private volatile int mPipelineMode = PIPELINE_MODE_NONE;  ///< 当前处理方式
+    private volatile long mRemuxTimestamp = 0;  ///< 直接转封装当前的时间点
+    private volatile long mSurfaceVideoTimestamp = 0;   ///< Surface 转码当前的视频时间点
+    private volatile long mSurfaceAudioTimestamp = 0;   ///< Surface 转码当前的音频时间点
+    private volatile long mBeginTime = 0;   ///< 开始处理的时间点
+    private volatile long mDoneTime = 0;    ///< 处理完成的时间点
 
 
     private int mDecErrCount = 0;           ///< 解码错误统计
 
+    private final AtomicBoolean mHandoffSignaled = new AtomicBoolean(false);  ///< 转交处理消息已经发送
+    private final AvStageStats mHandoffStats = new AvStageStats("handoff");  ///< 转交阶段统计
+    private final AvStageStats mRemuxStats = new AvStageStats("remux");      ///< 直接转封装统计
+    private volatile AvStageStats mSurfaceStats = null;     ///< Surface 硬件转码统计，由转码器创建
+
     ////////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods //////////////////////////////
     ////////////////////////////////////////////////////////////////////////
     /**
      * @brief 初始化录像，准备输出媒体文件和编码
-     *        初始化成功后，状态机切换为 DOWNLOAD_STATE_IDLE
+     *        初始化成功后，状态机切换为 DOWNLOAD_STATE_PREPARING，
+     *        在组件线程中探测源文件，编码格式相同时直接转封装，否则创建解码器组件进行转码
      * @param initParam : 录像的初始化参数
      * @return 返回错误代码，0：表示成功打开；其他值：表示打开文件失败
      */
     public int initialize(AvDownloaderParam initParam) {
         int ret;
         mInitParam = initParam;
+        mReleasing = false;
         synchronized (mDataLock) {
             mMediaInfo = null;
         }
-
-        // 创建解码器组件
-         ret = decodeCompCreate();
-        if (ret != ErrCode.XERR_NONE) {
-            Log.e(TAG, "<initialize> fail to create decoder component");
-            release();
-            return ret;
-        }
+        mHandoffSignaled.set(false);
+        mHandoffStats.reset();
+        mRemuxStats.reset();
+        mPipelineMode = PIPELINE_MODE_NONE;
+        mRemuxTimestamp = 0;
+        mSurfaceVideoTimestamp = 0;
+        mSurfaceAudioTimestamp = 0;
+        mSurfaceStats = null;
+        mSourceUrl = initParam.mInFileUrl;
+        mFetchTime = 0;
+        mBeginTime = SystemClock.elapsedRealtime();
+        mDoneTime = 0;
 
         // 启动组件线程
         ret = runStart(COMP_NAME);
@@ -125,8 +211,16 @@ public class AvMediaDownloader extends AvCompBase
     public int release() {
         Log.d(TAG, "<release> [BEGIN] mState=" + mState);
 
+        // 取消分段下载，已经下载的分块保留在缓存目录中，下次可以续传
+        mReleasing = true;
+        AvSegmentFetcher segmentFetcher = mSegmentFetcher;
+        if (segmentFetcher != null) {
+            segmentFetcher.cancel();
+        }
+
         // 停止组件线程
         runStop();
+        mSegmentFetcher = null;
 
         // 释放解码器组件
         decodeCompDestroy();
@@ -134,6 +228,19 @@ public class AvMediaDownloader extends AvCompBase
         // 释放编码器组件
         encodeCompDestroy();
 
+        // 关闭直接转封装转换器
+        if (mNativeCvter != null) {
+            mNativeCvter.close();
+            mNativeCvter = null;
+        }
+
+        // Surface 转码器在组件线程退出时关闭，EGL 上下文绑定在组件线程上，不能在当前线程中释放
+        // 线程退出超时时转码器还没有关闭，只能放弃释放
+        if (mSurfaceTranscoder != null) {
+            Log.w(TAG, "<release> component thread exit timeout, skip closing surface transcoder");
+            mSurfaceTranscoder = null;
+        }
+
         // 设置无效状态机
         setState(DOWNLOAD_STATE_INVALID);
 
@@ -221,6 +328,12 @@ public class AvMediaDownloader extends AvCompBase
         if (state == DOWNLOAD_STATE_INVALID || state == DOWNLOAD_STATE_PREPARING) {
             return 0;
         }
+        if (mPipelineMode == PIPELINE_MODE_REMUX) {
+            return mRemuxTimestamp;
+        }
+        if (mPipelineMode == PIPELINE_MODE_SURFACE) {
+            return (mSurfaceVideoTimestamp);
+        }
         if (mAvEncoder == null) {
             return 0;
         }
@@ -237,6 +350,12 @@ public class AvMediaDownloader extends AvCompBase
         if (state == DOWNLOAD_STATE_INVALID || state == DOWNLOAD_STATE_PREPARING) {
             return 0;
         }
+        if (mPipelineMode == PIPELINE_MODE_REMUX) {
+            return mRemuxTimestamp;
+        }
+        if (mPipelineMode == PIPELINE_MODE_SURFACE) {
+            return (mSurfaceAudioTimestamp);
+        }
         if (mAvEncoder == null) {
             return 0;
         }
@@ -244,6 +363,28 @@ public class AvMediaDownloader extends AvCompBase
         return mAvEncoder.getAudioTimestamp();
     }
 
+    /**
+     * @brief 获取下载转码流水线各阶段的统计信息
+     * @return 统计信息，编码器还未创建时编码阶段统计为 null
+     */
+    public PipelineStats getPipelineStats() {
+        PipelineStats stats = new PipelineStats();
+        IAvCompDecoder avDecoder = mAvDecoder;
+        IAvCompEncoder avEncoder = mAvEncoder;
+        long doneTime = mDoneTime;
+        stats.mPipelineMode = mPipelineMode;
+        stats.mCostTime = ((doneTime > 0) ? doneTime : SystemClock.elapsedRealtime()) - mBeginTime;
+        stats.mRemuxStats = mRemuxStats;
+        stats.mSurfaceStats = mSurfaceStats;
+        AvSegmentFetcher segmentFetcher = mSegmentFetcher;
+        stats.mFetchTime = mFetchTime;
+        stats.mFetchedBytes = (segmentFetcher != null) ? segmentFetcher.getFetchedBytes() : 0;
+        stats.mDecodeStats = (avDecoder != null) ? avDecoder.getDecodeStats() : null;
+        stats.mHandoffStats = mHandoffStats;
+        stats.mEncodeStats = (avEncoder != null) ? avEncoder.getEncodeStats() : null;
+        return stats;
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////////////
     ///////////////////////// Override AvCompBase Methods /////////////////////////////
@@ -256,6 +397,12 @@ public class AvMediaDownloader extends AvCompBase
         }
     }
 
+    @Override
+    protected void processTaskFinsh() {
+        // EGL 上下文绑定在组件线程上，Surface 转码器必须在组件线程中释放
+        closeSurfaceTranscoder();
+    }
+
     @Override
     protected void processWorkMessage(Message msg) {
         switch (msg.what) {
@@ -271,18 +418,50 @@ public class AvMediaDownloader extends AvCompBase
     void doMessageDownloading() {
         int state = getState();
         int ret;
+        mHandoffSignaled.set(false);
 
         switch (state) {
             case DOWNLOAD_STATE_PREPARING: {    // 正在请求媒体信息
                 //Log.d(TAG, "<doMessageDownloading> state=DOWNLOAD_STATE_PREPARING");
+                if (mPipelineMode == PIPELINE_MODE_NONE) {  // 分段下载到本地，探测源文件，确定处理方式
+                    ret = fetchSegments();
+                    if (ret == ErrCode.XERR_BAD_STATE) {  // 下载已经取消
+                        return;
+                    }
+                    if (ret == ErrCode.XOK) {
+                        ret = selectPipelineMode();
+                    }
+                    if (ret != ErrCode.XOK) {
+                        if (mInitParam.mCallback != null) {
+                            mInitParam.mCallback.onDownloaderError(mInitParam, ret);
+                        }
+                        setState(DOWNLOAD_STATE_ERROR);  // 进入错误状态，并且不再继续
+                        return;
+                    }
+                }
+
+                if ((mPipelineMode == PIPELINE_MODE_REMUX)
+                        || (mPipelineMode == PIPELINE_MODE_SURFACE)) {  // 直接转封装或者 Surface 转码，不需要编码器组件
+                    AvMediaInfo remuxMediaInfo;
+                    synchronized (mDataLock) {
+                        remuxMediaInfo = mMediaInfo;
+                    }
+                    setState(DOWNLOAD_STATE_ONGOING);
+                    if (mInitParam.mCallback != null) {
+                        mInitParam.mCallback.onDownloaderPrepared(mInitParam, remuxMediaInfo);
+                    }
+                    mWorkHandler.removeMessages(MSG_ID_DOWNLOAD);
+                    mWorkHandler.sendEmptyMessage(MSG_ID_DOWNLOAD);
+                    return;
+                }
+
                 AvMediaInfo mediaInfo;
                 synchronized (mDataLock) {
                     mediaInfo = mMediaInfo;
                  }
 
-                 if (mediaInfo == null) {   // 没有获取到媒体信息，继续50ms轮询一次
-                     mWorkHandler.removeMessages(MSG_ID_DOWNLOAD);
-                     mWorkHandler.sendEmptyMessageDelayed(MSG_ID_DOWNLOAD, 50);
+                 if (mediaInfo == null) {   // 没有获取到媒体信息，等待 onMediaInfoDecoded() 通知
+                     waitHandoffSignal();
                      return;
                  }
 
@@ -308,12 +487,14 @@ public class AvMediaDownloader extends AvCompBase
             } break;
 
             case DOWNLOAD_STATE_ONGOING: {  // 正常解码和编码处理流程
-                //Log.d(TAG, "<doMessageDownloading> state=DOWNLOAD_STATE_ONGOING");
-                processInVideoFrame();
-                processInAudioFrame();
-                mWorkHandler.removeMessages(MSG_ID_DOWNLOAD);
-                mWorkHandler.sendEmptyMessage(MSG_ID_DOWNLOAD);
-
+                if (mPipelineMode == PIPELINE_MODE_REMUX) {
+                    doRemuxing();
+                } else if ((mPipelineMode == PIPELINE_MODE_SURFACE)
+                        && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)) {
+                    doSurfaceTranscoding();
+                } else {
+                    doFrameHandoff();
+                }
             } break;
 
             default: {  // 其他状态下不做任何处理
@@ -324,40 +505,313 @@ public class AvMediaDownloader extends AvCompBase
 
 
     /**
-     * @brief 在这里处理接收到的解码后的视频帧，帧数据存放在 mInVideoQueue 队列中
+     * @brief 设置了缓存目录时，先将云录文件分段并行下载到本地，在组件线程中调用
+     *        下载成功后从本地缓存文件读取；直播流不能分段下载，直接读取网络流
+     *        下载失败时已经完成的分块保留在缓存目录中，重新下载时只下载剩余的分块
+     * @return 错误码，XERR_BAD_STATE 表示下载已经被 release() 取消
      */
-    void processInVideoFrame() {
-        // 从解码器中提取视频帧
-        AvVideoFrame videoFrame = mAvDecoder.dequeueVideoFrame();
-        if (videoFrame == null) {
-            return;
+    int fetchSegments() {
+        if ((mInitParam.mCacheDir == null) || mInitParam.mCacheDir.isEmpty()) {
+            return ErrCode.XOK;
+        }
+
+        AvSegmentFetcher.FetchParam fetchParam = new AvSegmentFetcher.FetchParam();
+        fetchParam.mSrcUrl = mInitParam.mInFileUrl;
+        fetchParam.mCacheDir = mInitParam.mCacheDir;
+        AvSegmentFetcher segmentFetcher = new AvSegmentFetcher(fetchParam);
+        mSegmentFetcher = segmentFetcher;
+        if (mReleasing) {   // release() 读取 mSegmentFetcher 时还没有创建
+            segmentFetcher.cancel();
+        }
+
+        long beginTime = SystemClock.elapsedRealtime();
+        int ret = segmentFetcher.fetch();
+        mFetchTime = SystemClock.elapsedRealtime() - beginTime;
+        if (ret == ErrCode.XOK) {
+            mSourceUrl = segmentFetcher.getLocalUrl();
+            Log.d(TAG, "<fetchSegments> done, fetchTime=" + mFetchTime + ", mSourceUrl=" + mSourceUrl);
+            return ErrCode.XOK;
+        }
+        if (ret == ErrCode.XERR_UNSUPPORTED) {
+            Log.w(TAG, "<fetchSegments> not supported, read network stream directly");
+            mSegmentFetcher = null;
+            return ErrCode.XOK;
+        }
+        if (ret != ErrCode.XERR_BAD_STATE) {
+            Log.e(TAG, "<fetchSegments> fail to fetch, ret=" + ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @brief 处理完成后删除分段下载的缓存文件
+     */
+    void clearFetchCache() {
+        if (mSegmentFetcher != null) {
+            AvSegmentFetcher.clearCache(mInitParam.mCacheDir);
+        }
+    }
+
+    /**
+     * @brief 探测源文件的编码格式，确定处理方式，在组件线程中调用
+     *        视频是 AVC 并且音频是 AAC(或者没有音频)时直接转封装，只拷贝数据包
+     *        其他编码格式，设备编解码器支持时走 Surface 到 Surface 的硬件转码
+     *        都不支持，或者转换器打开失败时，创建解码器组件进行转码
+     * @return 错误码
+     */
+    int selectPipelineMode() {
+        if (mInitParam.mRemuxEnabled) {
+            AvNativeCvter nativeCvter = new AvNativeCvter();
+            int ret = nativeCvter.open(mSourceUrl, mInitParam.mOutFilePath);
+            if (ret == ErrCode.XOK) {
+                AvMediaInfo mediaInfo = nativeCvter.getMediaInfo();
+                if (isRemuxCompatible(mediaInfo)) {
+                    mNativeCvter = nativeCvter;
+                    synchronized (mDataLock) {
+                        mMediaInfo = mediaInfo;
+                    }
+                    mPipelineMode = PIPELINE_MODE_REMUX;
+                    Log.d(TAG, "<selectPipelineMode> REMUX, probeTime="
+                            + (SystemClock.elapsedRealtime() - mBeginTime) + ", mediaInfo=" + mediaInfo);
+                    return ErrCode.XOK;
+                }
+                Log.d(TAG, "<selectPipelineMode> codecs not compatible, mediaInfo=" + mediaInfo);
+            } else {
+                Log.w(TAG, "<selectPipelineMode> fail to open converter, ret=" + ret);
+            }
+            nativeCvter.close();
+
+            // 转换器打开时已经创建了输出文件，删除这个不完整的文件，后续的处理重新生成
+            File outFile = new File(mInitParam.mOutFilePath);
+            if (outFile.exists() && !outFile.delete()) {
+                Log.w(TAG, "<selectPipelineMode> fail to delete probe output, file=" + outFile);
+            }
+        }
+
+        if (mInitParam.mSurfaceEnabled && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)) {
+            if (surfaceTranscoderCreate() == ErrCode.XOK) {
+                mPipelineMode = PIPELINE_MODE_SURFACE;
+                Log.d(TAG, "<selectPipelineMode> SURFACE, probeTime="
+                        + (SystemClock.elapsedRealtime() - mBeginTime));
+                return ErrCode.XOK;
+            }
+        }
+
+        // 转码处理，创建解码器组件
+        int ret = decodeCompCreate();
+        if (ret != ErrCode.XOK) {
+            Log.e(TAG, "<selectPipelineMode> fail to create decoder component, ret=" + ret);
+            return ret;
+        }
+        mPipelineMode = PIPELINE_MODE_TRANSCODE;
+        Log.d(TAG, "<selectPipelineMode> TRANSCODE, probeTime=" + (SystemClock.elapsedRealtime() - mBeginTime));
+        return ErrCode.XOK;
+    }
+
+    /**
+     * @brief 判断是否是网络地址
+     */
+    static boolean isNetworkUrl(final String url) {
+        return (url != null) && (url.contains("://") && !url.startsWith("file://"));
+    }
+
+    /**
+     * @brief 判断源文件的编码格式是否可以直接转封装到输出文件
+     */
+    static boolean isRemuxCompatible(final AvMediaInfo mediaInfo) {
+        if ((mediaInfo == null) || (mediaInfo.mVideoTrackId < 0)) {
+            return false;
+        }
+        if (mediaInfo.mVideoDuration <= 0) {  // 转换器根据视频时长计算进度，没有时长的直播流不能直接转封装
+            return false;
+        }
+        if (!DNLOAD_VIDEO_CODEC.equals(mediaInfo.mVideoCodec)) {
+            return false;
+        }
+        return ((mediaInfo.mAudioTrackId < 0) || DNLOAD_AUDIO_CODEC.equals(mediaInfo.mAudioCodec));
+    }
+
+    /**
+     * @brief 直接转封装处理，每次消息处理 REMUX_BATCH_PACKETS 个数据包
+     *        暂停时不再发送消息，恢复时由 downloadResume() 重新发送
+     */
+    void doRemuxing() {
+        int packetCount = 0;
+        int ret = ErrCode.XOK;
+        while (packetCount < REMUX_BATCH_PACKETS) {
+            ret = mNativeCvter.doConvertStep();
+            if (ret != ErrCode.XOK) {
+                break;
+            }
+            packetCount++;
+        }
+        mRemuxStats.addFrames(packetCount);
+        mRemuxTimestamp = mNativeCvter.getConvertTimestamp();
+
+        if (ret == ErrCode.XERR_FILE_EOF) {  // 转封装完成
+            mDoneTime = SystemClock.elapsedRealtime();
+            clearFetchCache();
+            setState(DOWNLOAD_STATE_DONE);
+            Log.d(TAG, "<doRemuxing> done, pipelineStats=" + getPipelineStats());
+            if (mInitParam.mCallback != null) {
+                mInitParam.mCallback.onDownloaderDone(mInitParam);
+            }
+
+        } else if (ret != ErrCode.XOK) {
+            Log.e(TAG, "<doRemuxing> remux error, ret=" + ret);
+            setState(DOWNLOAD_STATE_ERROR);
+            if (mInitParam.mCallback != null) {
+                mInitParam.mCallback.onDownloaderError(mInitParam, ret);
+            }
+
+        } else if (getState() == DOWNLOAD_STATE_ONGOING) {
+            mWorkHandler.removeMessages(MSG_ID_DOWNLOAD);
+            mWorkHandler.sendEmptyMessage(MSG_ID_DOWNLOAD);
+        }
+    }
+
+    /**
+     * @brief Surface 硬件转码处理，每次消息处理 SURFACE_BATCH_STEPS 步
+     *        暂停时不再发送消息，恢复时由 downloadResume() 重新发送
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    void doSurfaceTranscoding() {
+        int stepCount = 0;
+        int ret = ErrCode.XOK;
+        while (stepCount < SURFACE_BATCH_STEPS) {
+            ret = mSurfaceTranscoder.doTranscodeStep();
+            if (ret != ErrCode.XOK) {
+                break;
+            }
+            stepCount++;
         }
-        Log.d(TAG, "<processInVideoFrame> timestamp=" + videoFrame.mTimestamp
-                + ", keyFrame=" + videoFrame.mKeyFrame
-                + ", lastFrame=" + videoFrame.mLastFrame);
+        mSurfaceVideoTimestamp = mSurfaceTranscoder.getVideoTimestamp();
+        mSurfaceAudioTimestamp = mSurfaceTranscoder.getAudioTimestamp();
+
+        if (ret == ErrCode.XERR_FILE_EOF) {  // 转码完成
+            mDoneTime = SystemClock.elapsedRealtime();
+            closeSurfaceTranscoder();
+            clearFetchCache();
+            setState(DOWNLOAD_STATE_DONE);
+            Log.d(TAG, "<doSurfaceTranscoding> done, pipelineStats=" + getPipelineStats());
+            if (mInitParam.mCallback != null) {
+                mInitParam.mCallback.onDownloaderDone(mInitParam);
+            }
+
+        } else if (ret != ErrCode.XOK) {
+            Log.e(TAG, "<doSurfaceTranscoding> transcode error, ret=" + ret);
+            setState(DOWNLOAD_STATE_ERROR);
+            if (mInitParam.mCallback != null) {
+                mInitParam.mCallback.onDownloaderError(mInitParam, ret);
+            }
 
-        // 送入编码器进行编码
-        mAvEncoder.inputVideoFrame(videoFrame);
+        } else if (getState() == DOWNLOAD_STATE_ONGOING) {
+            mWorkHandler.removeMessages(MSG_ID_DOWNLOAD);
+            mWorkHandler.sendEmptyMessage(MSG_ID_DOWNLOAD);
+        }
     }
 
     /**
-     * @brief 在这里处理接收到的解码后的音频帧，帧数据存放在 mInAudioQueue 队列中
+     * @brief 将解码器输出的音视频帧批量转交给编码器
+     *        解码组件线程(拉流解封装和解码)、当前组件线程(转交)、编码组件线程(编码和混流)构成三级流水线，
+     *        各级之间的队列都有上限，下游队列满时上游停止并等待下游的消费通知，不再轮询
+     *        1. 每次唤醒最多转交 HANDOFF_BATCH_MAX 帧，还有剩余时立即再次处理
+     *        2. 编码器输入队列满时等待 onInputFrameConsumed() 通知
+     *        3. 解码器没有输出帧时等待 onVideoFrameDecoded()/onAudioFrameDecoded() 通知
+     *        4. 没有收到通知时 HANDOFF_WAIT_TIMEOUT 超时后再检测一次
      */
-    void processInAudioFrame() {
-        ArrayList<AvAudioFrame> outFrameList = new ArrayList<>();
+    void doFrameHandoff() {
+        int videoCount = 0;
+        int audioCount = 0;
+        boolean encoderFull = false;
+
+        while ((videoCount + audioCount) < HANDOFF_BATCH_MAX) {
+            boolean frameMoved = false;
+
+            // 转交视频帧
+            if (mAvEncoder.getInVideoCount() < ENCODE_VIDEO_QUEUE_MAX) {
+                AvVideoFrame videoFrame = mAvDecoder.dequeueVideoFrame();
+                if (videoFrame != null) {
+                    if (videoFrame.mLastFrame) {
+                        Log.d(TAG, "<doFrameHandoff> last video frame, timestamp=" + videoFrame.mTimestamp);
+                    }
+                    mAvEncoder.inputVideoFrame(videoFrame);
+                    videoCount++;
+                    frameMoved = true;
+                }
+            } else if (mAvDecoder.getVideoFrameCount() > 0) {
+                encoderFull = true;
+            }
 
-        for (;;) {
-            // 从解码器中提取音频帧
-            AvAudioFrame audioFrame = mAvDecoder.dequeueAudioFrame();
-            if (audioFrame == null) {
+            // 转交音频帧
+            if (mAvEncoder.getInAudioCount() < ENCODE_AUDIO_QUEUE_MAX) {
+                AvAudioFrame audioFrame = mAvDecoder.dequeueAudioFrame();
+                if (audioFrame != null) {
+                    if (audioFrame.mLastFrame) {
+                        Log.d(TAG, "<doFrameHandoff> last audio frame, timestamp=" + audioFrame.mTimestamp);
+                    }
+                    mAvEncoder.inputAudioFrame(audioFrame);
+                    audioCount++;
+                    frameMoved = true;
+                }
+            } else if (mAvDecoder.getAudioFrameCount() > 0) {
+                encoderFull = true;
+            }
+
+            if (!frameMoved) {
                 break;
             }
-            Log.d(TAG, "<processInAudioFrame> timestamp=" + audioFrame.mTimestamp
-                    + ", keyFrame=" + audioFrame.mKeyFrame
-                    + ", lastFrame=" + audioFrame.mLastFrame);
+        }
+
+        if ((videoCount + audioCount) > 0) {
+            mHandoffStats.stallEnd();
+            mHandoffStats.addFrames(videoCount + audioCount);  // 音视频帧都计入转交数量
+            mAvDecoder.notifyFramesConsumed();   // 解码器输出队列有空闲了
+        }
+
+        if ((videoCount + audioCount) >= HANDOFF_BATCH_MAX) {
+            // 本批次达到上限，还有剩余的帧，立即再次处理
+            signalHandoff();
+            return;
+        }
+
+        if (encoderFull) {
+            mHandoffStats.stallBegin();
+        } else if ((videoCount + audioCount) <= 0) {
+            mHandoffStats.starveBegin();
+        }
+
+        // 等待上下游通知，超时后再检测
+        waitHandoffSignal();
+    }
+
+    /**
+     * @brief 通知转交处理，可以在任意线程中调用，已经有待处理的消息时不重复发送
+     */
+    void signalHandoff() {
+        synchronized (mMsgQueueLock) {
+            if (mWorkHandler == null) {
+                return;
+            }
+            if (!mHandoffSignaled.compareAndSet(false, true)) {
+                return;
+            }
+            mWorkHandler.removeMessages(MSG_ID_DOWNLOAD);
+            mWorkHandler.sendEmptyMessage(MSG_ID_DOWNLOAD);
+        }
+    }
 
-            // 送入编码器进行编码
-            mAvEncoder.inputAudioFrame(audioFrame);
+    /**
+     * @brief 等待下一次转交通知，同时设置超时检测，在组件线程中调用
+     *        处理过程中已经收到通知时，通知消息已经在队列中，不再设置超时
+     */
+    void waitHandoffSignal() {
+        synchronized (mMsgQueueLock) {
+            if (mHandoffSignaled.get() || (mWorkHandler == null)) {
+                return;
+            }
+            mWorkHandler.removeMessages(MSG_ID_DOWNLOAD);
+            mWorkHandler.sendEmptyMessageDelayed(MSG_ID_DOWNLOAD, HANDOFF_WAIT_TIMEOUT);
         }
     }
 
@@ -374,6 +828,7 @@ public class AvMediaDownloader extends AvCompBase
                 mMediaInfo = mediaInfo;
             }
         }
+        signalHandoff();
     }
 
     private int mDumpFrameIdx = 0;
@@ -388,6 +843,7 @@ public class AvMediaDownloader extends AvCompBase
 //            videoFrame.mWidth, videoFrame.mHeight, mDumpFrameIdx);
 //        AvUtility.saveBytesToFile(videoFrame.mDataBuffer, dumpFilePath);
 //        mDumpFrameIdx++;
+        signalHandoff();
     }
 
     @Override
@@ -395,7 +851,7 @@ public class AvMediaDownloader extends AvCompBase
 //        Log.d(TAG, "<onAudioFrameDecoded> timestamp=" + audioFrame.mTimestamp
 //                + ", keyFrame=" + audioFrame.mKeyFrame
 //                + ", lastFrame=" + audioFrame.mLastFrame );
-
+        signalHandoff();
     }
 
     @Override
@@ -416,10 +872,11 @@ public class AvMediaDownloader extends AvCompBase
     ////////////////////////////////////////////////////////////////////////////////////
     @Override
     public void onEncodeDone(IAvCompEncoder.CompEncodeParam encodeParam, int errCode) {
-        Log.d(TAG, "<onEncodeDone> errCode=" + errCode);
-
         // 下载转码完成状态机
+        mDoneTime = SystemClock.elapsedRealtime();
+        clearFetchCache();
         setState(DOWNLOAD_STATE_DONE);
+        Log.d(TAG, "<onEncodeDone> errCode=" + errCode + ", pipelineStats=" + getPipelineStats());
 
         if (mInitParam.mCallback != null) { // 回调整个下载完成
             mInitParam.mCallback.onDownloaderDone(mInitParam);
@@ -435,6 +892,11 @@ public class AvMediaDownloader extends AvCompBase
         }
     }
 
+    @Override
+    public void onInputFrameConsumed(IAvCompEncoder.CompEncodeParam encodeParam) {
+        signalHandoff();
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////////////
     //////////////////////////////// Inner Methods ////////////////////////////////////
@@ -448,7 +910,7 @@ public class AvMediaDownloader extends AvCompBase
         decodeParam.mCallback = this;
         decodeParam.mDecParam = new AvDecParam();
         decodeParam.mDecParam.mContext = mInitParam.mContext;
-        decodeParam.mDecParam.mInFileUrl = mInitParam.mInFileUrl;
+        decodeParam.mDecParam.mInFileUrl = mSourceUrl;
         decodeParam.mDecParam.mOutVidFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
         decodeParam.mDecParam.mOutVidWidth = 0;     // 0: 表示使用原始大小
         decodeParam.mDecParam.mOutVidHeight = 0;
@@ -456,6 +918,14 @@ public class AvMediaDownloader extends AvCompBase
         decodeParam.mDecParam.mOutAudChannels = AUDIO_CHANNELS;
         decodeParam.mDecParam.mOutAudSampleRate = AUDIO_SAMPLE_RATE;
 
+        // 本地文件按照测速结果设置软解码线程数，结果按编码类型和分辨率缓存，网络流不测速，由CPU核数自动选择
+        // 下载器只有软解码组件，硬解码的选择结果这里不使用
+        if (!isNetworkUrl(mSourceUrl)) {
+            AvUtility.DecoderChoice decoderChoice = AvUtility.chooseVideoDecoder(mInitParam.mContext, mSourceUrl);
+            decodeParam.mDecParam.mDecodeThreads = decoderChoice.mSoftThreads;
+            Log.d(TAG, "<decodeCompCreate> decoderChoice=" + decoderChoice);
+        }
+
         mAvDecoder = new AvCompSwDecoder();
         int ret = mAvDecoder.initialize(decodeParam);
         if (ret != ErrCode.XERR_NONE) {
@@ -487,6 +957,73 @@ public class AvMediaDownloader extends AvCompBase
 
 
 
+    /**
+     * @brief 创建 Surface 硬件转码器，在组件线程中调用
+     *        源文件 MediaExtractor 不能打开(例如加密流)，或者设备编解码器不支持时返回失败，由调用者回退到转码处理
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    int surfaceTranscoderCreate() {
+        AvSurfaceTranscoder surfaceTranscoder = new AvSurfaceTranscoder();
+        int ret = surfaceTranscoder.open(mInitParam.mContext, mSourceUrl, mInitParam.mOutFilePath);
+        if (ret != ErrCode.XOK) {
+            Log.d(TAG, "<surfaceTranscoderCreate> source not supported, ret=" + ret);
+            return ret;
+        }
+
+        AvMediaInfo mediaInfo = surfaceTranscoder.getMediaInfo();
+        AvEncParam encParam = buildEncParam(surfaceTranscoder.getOutputWidth(),
+                surfaceTranscoder.getOutputHeight(), mediaInfo.mFrameRate);
+        ret = surfaceTranscoder.prepare(encParam);
+        if (ret != ErrCode.XOK) {
+            Log.d(TAG, "<surfaceTranscoderCreate> fail to prepare, ret=" + ret);
+            surfaceTranscoder.close();
+            return ret;
+        }
+
+        mSurfaceTranscoder = surfaceTranscoder;
+        mSurfaceStats = surfaceTranscoder.getStats();
+        synchronized (mDataLock) {
+            mMediaInfo = mediaInfo;
+        }
+        return ErrCode.XOK;
+    }
+
+    /**
+     * @brief 关闭 Surface 硬件转码器
+     */
+    void closeSurfaceTranscoder() {
+        if ((mSurfaceTranscoder != null) && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)) {
+            mSurfaceTranscoder.close();
+            mSurfaceTranscoder = null;
+        }
+    }
+
+    /**
+     * @brief 根据输出视频大小和帧率生成编码参数，音频参数固定
+     */
+    AvEncParam buildEncParam(int width, int height, int frameRate) {
+        AvEncParam encParam = new AvEncParam();
+        encParam.mOutFilePath = mInitParam.mOutFilePath;
+
+        encParam.mVideoCodec = DNLOAD_VIDEO_CODEC;
+        encParam.mColorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
+        encParam.mVideoWidth = width;
+        encParam.mVideoHeight = height;
+        encParam.mRotation = 0;
+        encParam.mFrameRate = frameRate;
+        encParam.mGopFrame = frameRate;        // 每秒1个GOP
+        encParam.mVideoBitRate = calcVideoBitrate(width, height, frameRate);
+        encParam.mVBitRateMode = calcVideoBitrateMode(encParam.mVideoBitRate);
+
+        encParam.mAudioCodec = DNLOAD_AUDIO_CODEC;
+        encParam.mSampleFmt = AUDIO_SAMPLE_FMT;
+        encParam.mChannels = AUDIO_CHANNELS;
+        encParam.mSampleRate = AUDIO_SAMPLE_RATE;
+        encParam.mAudioBitRate = calcAudioBitrate(AUDIO_CHANNELS, AUDIO_SAMPLE_RATE);
+        encParam.mAsyncCodec = mInitParam.mAsyncCodec;
+        return encParam;
+    }
+
     /**
      * @brief 创建编码器组件
      */
@@ -494,24 +1031,7 @@ public class AvMediaDownloader extends AvCompBase
         IAvCompEncoder.CompEncodeParam encodeParam = new IAvCompEncoder.CompEncodeParam();
         encodeParam.mContext = mInitParam.mContext;
         encodeParam.mCallback = this;
-        encodeParam.mEncParam = new AvEncParam();
-        encodeParam.mEncParam.mOutFilePath = mInitParam.mOutFilePath;
-
-        encodeParam.mEncParam.mVideoCodec = DNLOAD_VIDEO_CODEC;
-        encodeParam.mEncParam.mColorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
-        encodeParam.mEncParam.mVideoWidth = width;
-        encodeParam.mEncParam.mVideoHeight = height;
-        encodeParam.mEncParam.mRotation = 0;
-        encodeParam.mEncParam.mFrameRate = frameRate;
-        encodeParam.mEncParam.mGopFrame = frameRate;        // 每秒1个GOP
-        encodeParam.mEncParam.mVideoBitRate = calcVideoBitrate(width, height, frameRate);
-        encodeParam.mEncParam.mVBitRateMode = calcVideoBitrateMode(encodeParam.mEncParam.mVideoBitRate);
-
-        encodeParam.mEncParam.mAudioCodec = DNLOAD_AUDIO_CODEC;
-        encodeParam.mEncParam.mSampleFmt = AUDIO_SAMPLE_FMT;
-        encodeParam.mEncParam.mChannels = AUDIO_CHANNELS;
-        encodeParam.mEncParam.mSampleRate = AUDIO_SAMPLE_RATE;
-        encodeParam.mEncParam.mAudioBitRate = calcAudioBitrate(AUDIO_CHANNELS, AUDIO_SAMPLE_RATE);
+        encodeParam.mEncParam = buildEncParam(width, height, frameRate);
 
         mAvEncoder = new AvCompHwEncoder();
         int ret = mAvEncoder.initialize(encodeParam);
@@ -79,6 +79,7 @@ public class AvMediaRecorder extends AvCompBase
         encodeParam.mCallback = this;
         encodeParam.mEncParam = new AvEncParam();
         encodeParam.mEncParam.mOutFilePath = mInitParam.mOutFilePath;
+        encodeParam.mEncParam.mMuxer = mInitParam.mMuxer;
         encodeParam.mEncParam.mVideoCodec = mInitParam.mVideoCodec;
         encodeParam.mEncParam.mColorFormat = mInitParam.mColorFormat;
         encodeParam.mEncParam.mVideoWidth = mInitParam.mVideoWidth;
@@ -93,6 +94,7 @@ public class AvMediaRecorder extends AvCompBase
         encodeParam.mEncParam.mChannels = mInitParam.mChannels;
         encodeParam.mEncParam.mSampleRate = mInitParam.mSampleRate;
         encodeParam.mEncParam.mAudioBitRate = mInitParam.mAudioBitRate;
+        encodeParam.mEncParam.mAsyncCodec = mInitParam.mAsyncCodec;
         mAvEncoder = new AvCompHwEncoder();
         ret = mAvEncoder.initialize(encodeParam);
         if (ret != ErrCode.XERR_NONE) {
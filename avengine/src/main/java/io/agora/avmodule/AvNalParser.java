@@ -0,0 +1,223 @@
+package io.agora.avmodule;
+
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+
+
+/*
+ * @brief H.264/H.265 Annex-B 码流的 NAL 单元解析工具
+ *        1. 按照起始码(00 00 01 或者 00 00 00 01)切分 NAL 单元，只读取不修改输入缓冲区
+ *        2. 提取关键帧中的 VPS/SPS/PPS 参数集，生成 MediaMuxer 需要的 csd-0/csd-1 视频格式
+ */
+public class AvNalParser {
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final byte[] START_CODE = { 0x00, 0x00, 0x00, 0x01 };
+
+    //
+    // H.264 NAL 单元类型
+    //
+    public static final int AVC_NAL_SLICE = 1;          ///< 1~5 是视频编码层(VCL) NAL 单元
+    public static final int AVC_NAL_IDR = 5;
+    public static final int AVC_NAL_SPS = 7;
+    public static final int AVC_NAL_PPS = 8;
+
+    //
+    // H.265 NAL 单元类型
+    //
+    public static final int HEVC_NAL_VCL_MAX = 31;      ///< 0~31 是视频编码层(VCL) NAL 单元
+    public static final int HEVC_NAL_VPS = 32;
+    public static final int HEVC_NAL_SPS = 33;
+    public static final int HEVC_NAL_PPS = 34;
+
+
+    /*
+     * @brief 从一帧码流中提取的参数集
+     */
+    public static class ParameterSets {
+        public byte[] mVps;                 ///< H.265 VPS，不带起始码
+        public byte[] mSps;                 ///< SPS，不带起始码
+        public byte[] mPps;                 ///< PPS，不带起始码
+        public int mPayloadOffset;          ///< 开头连续的参数集之后第一个 NAL 单元起始码的位置
+
+        /*
+         * @brief 判断解码需要的参数集是否完整
+         */
+        public boolean isComplete(final String mimeType) {
+            if ((mSps == null) || (mPps == null)) {
+                return false;
+            }
+            return (!isHevc(mimeType) || (mVps != null));
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 查找下一个起始码
+     * @param data : 码流数据
+     * @param offset : 开始查找的位置
+     * @param limit : 查找的结束位置
+     * @return 返回起始码的位置，没有找到返回 -1
+     */
+    public static int findStartCode(final ByteBuffer data, int offset, int limit) {
+        for (int i = offset; i + 2 < limit; i++) {
+            if ((data.get(i) == 0) && (data.get(i + 1) == 0) && (data.get(i + 2) == 1)) {
+                // 四字节起始码从前一个 0 开始
+                return ((i > offset) && (data.get(i - 1) == 0)) ? (i - 1) : i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * @brief 获取起始码的长度
+     * @param data : 码流数据
+     * @param startCodePos : findStartCode() 返回的位置
+     * @return 返回 3 或者 4
+     */
+    public static int getStartCodeLength(final ByteBuffer data, int startCodePos) {
+        return (data.get(startCodePos + 2) == 0) ? 4 : 3;
+    }
+
+    /*
+     * @brief 根据 NAL 单元头部的第一个字节获取 NAL 单元类型
+     */
+    public static int getNalType(final String mimeType, byte nalHeader) {
+        if (isHevc(mimeType)) {
+            return ((nalHeader >> 1) & 0x3F);
+        }
+        return (nalHeader & 0x1F);
+    }
+
+    /*
+     * @brief 判断 NAL 单元是否是参数集
+     */
+    public static boolean isParameterSet(final String mimeType, int nalType) {
+        if (isHevc(mimeType)) {
+            return ((nalType >= HEVC_NAL_VPS) && (nalType <= HEVC_NAL_PPS));
+        }
+        return ((nalType == AVC_NAL_SPS) || (nalType == AVC_NAL_PPS));
+    }
+
+    /*
+     * @brief 判断 NAL 单元是否是视频编码层(VCL)的条带数据
+     */
+    public static boolean isVclNal(final String mimeType, int nalType) {
+        if (isHevc(mimeType)) {
+            return ((nalType >= 0) && (nalType <= HEVC_NAL_VCL_MAX));
+        }
+        return ((nalType >= AVC_NAL_SLICE) && (nalType <= AVC_NAL_IDR));
+    }
+
+    /*
+     * @brief 判断是否是 H.265 编码格式，其他格式都按照 H.264 处理
+     */
+    public static boolean isHevc(final String mimeType) {
+        return MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mimeType);
+    }
+
+    /*
+     * @brief 提取一帧码流中的参数集，跳过 AUD/SEI 等非 VCL 单元，解析到第一个 VCL 单元为止
+     *        码流中多次出现同一种参数集时使用第一个
+     * @param mimeType : 视频编码格式
+     * @param data : 一帧 Annex-B 码流，从 position 到 limit
+     * @return 返回提取的参数集，mPayloadOffset 为参数集之后的数据位置
+     */
+    public static ParameterSets parseParameterSets(final String mimeType, final ByteBuffer data) {
+        ParameterSets paramSets = new ParameterSets();
+        int limit = data.limit();
+        int startPos = findStartCode(data, data.position(), limit);
+        paramSets.mPayloadOffset = (startPos >= 0) ? startPos : data.position();
+        boolean leadingParamSets = true;    // 是否还在开头连续的参数集中
+
+        while (startPos >= 0) {
+            int nalPos = startPos + getStartCodeLength(data, startPos);
+            if (nalPos >= limit) {
+                break;
+            }
+            int nalType = getNalType(mimeType, data.get(nalPos));
+            if (isVclNal(mimeType, nalType)) {
+                break;
+            }
+
+            int nextPos = findStartCode(data, nalPos, limit);
+            int nalEnd = (nextPos >= 0) ? nextPos : limit;
+            if (!isParameterSet(mimeType, nalType)) {   // AUD/SEI 等单元保留在码流中，继续查找后面的参数集
+                leadingParamSets = false;
+                startPos = nextPos;
+                continue;
+            }
+
+            byte[] nalData = new byte[nalEnd - nalPos];
+            ByteBuffer srcBuffer = data.duplicate();
+            srcBuffer.limit(nalEnd);
+            srcBuffer.position(nalPos);
+            srcBuffer.get(nalData);
+
+            if (isHevc(mimeType) && (nalType == HEVC_NAL_VPS)) {
+                if (paramSets.mVps == null) paramSets.mVps = nalData;
+            } else if (nalType == (isHevc(mimeType) ? HEVC_NAL_SPS : AVC_NAL_SPS)) {
+                if (paramSets.mSps == null) paramSets.mSps = nalData;
+            } else {
+                if (paramSets.mPps == null) paramSets.mPps = nalData;
+            }
+
+            if (leadingParamSets) {
+                paramSets.mPayloadOffset = nalEnd;
+            }
+            startPos = nextPos;
+        }
+
+        return paramSets;
+    }
+
+    /*
+     * @brief 根据参数集生成视频格式，H.264 使用 csd-0(SPS)/csd-1(PPS)，H.265 使用 csd-0(VPS+SPS+PPS)
+     * @param mimeType : 视频编码格式
+     * @param width : 视频宽度
+     * @param height : 视频高度
+     * @param paramSets : 完整的参数集
+     * @return 返回视频格式
+     */
+    public static MediaFormat createVideoFormat(final String mimeType, int width, int height,
+                                                final ParameterSets paramSets) {
+        MediaFormat format = MediaFormat.createVideoFormat(mimeType, width, height);
+        if (isHevc(mimeType)) {
+            format.setByteBuffer("csd-0", concatNalUnits(paramSets.mVps, paramSets.mSps, paramSets.mPps));
+        } else {
+            format.setByteBuffer("csd-0", concatNalUnits(paramSets.mSps));
+            format.setByteBuffer("csd-1", concatNalUnits(paramSets.mPps));
+        }
+        return format;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 将多个 NAL 单元加上四字节起始码后拼接在一起
+     */
+    private static ByteBuffer concatNalUnits(final byte[]... nalArray) {
+        int totalSize = 0;
+        for (byte[] nalData : nalArray) {
+            totalSize += START_CODE.length + nalData.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(totalSize);
+        for (byte[] nalData : nalArray) {
+            buffer.put(START_CODE);
+            buffer.put(nalData);
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -135,6 +135,19 @@ public class AvNativeCvter  {
         return progress;
     }
 
+    /**
+     * @brief 获取当前转换到的时间点
+     * @return 返回时间点，单位微秒
+     */
+    public long getConvertTimestamp() {
+        if (mCvterHandler == 0) {
+            return 0;
+        }
+
+        long timestamp = native_cvterGetTimestamp(mCvterHandler);
+        return timestamp;
+    }
+
 
 
     /**************************************************************/
@@ -145,5 +158,6 @@ public class AvNativeCvter  {
     public native int native_cvterGetMediaInfo(long hCvter, AvMediaInfo outMediaInfo);
     public native int native_cvterDoStep(long hCvter);
     public native int native_cvterGetProgress(long hCvter);
+    public native long native_cvterGetTimestamp(long hCvter);
 
 }
\ No newline at end of file
@@ -30,6 +30,8 @@ public class AvNativeDiagnose  {
     /////////////////////////// Constant Definition ////////////////////////
     ////////////////////////////////////////////////////////////////////////
     private static final String TAG = "AVMODULE/AvNatDiagnose";
+    private static final int FINDING_FIELDS = 4;        ///< 每个诊断结果在 native数组中占用的元素数量
+    private static final int FINDING_MAX_FETCH = 64;    ///< 每次最多取出的诊断结果数量
 
 
     static {
@@ -99,6 +101,50 @@ public class AvNativeDiagnose  {
         return mediaInfo;
     }
 
+    /**
+     * @brief 设置诊断模式，必须在 open()成功之后，第一次 doConvertStep() 之前调用
+     * @param mode : 诊断模式 AvDiagnoser.DIAGNOSE_MODE_XXX
+     * @param sampleCount : 快速模式下抽样的GOP数量，<=0 使用默认值
+     * @return 返回错误码
+     */
+    public int setMode(int mode, int sampleCount) {
+        if (mDiagnoseHandler == 0) {
+            Log.e(TAG, "<setMode> bad state");
+            return ErrCode.XERR_BAD_STATE;
+        }
+
+        int ret = native_diagnoseSetMode(mDiagnoseHandler, mode, sampleCount);
+        Log.d(TAG, "<setMode> done, ret=" + ret + ", mode=" + mode + ", sampleCount=" + sampleCount);
+        return ret;
+    }
+
+    /**
+     * @brief 取出到目前为止新产生的诊断结果，分析过程中可以随时调用
+     * @return 返回诊断结果列表，没有新结果时返回空列表
+     */
+    public ArrayList<AvDiagnoseFinding> fetchFindings() {
+        ArrayList<AvDiagnoseFinding> findingList = new ArrayList<>();
+        if (mDiagnoseHandler == 0) {
+            return findingList;
+        }
+
+        long[] findingData = new long[FINDING_FIELDS * FINDING_MAX_FETCH];
+        int count;
+        do {
+            count = native_diagnoseGetFindings(mDiagnoseHandler, findingData);
+            for (int i = 0; i < count; i++) {
+                AvDiagnoseFinding finding = new AvDiagnoseFinding();
+                finding.mStreamType = (int)findingData[i * FINDING_FIELDS];
+                finding.mFindingType = (int)findingData[i * FINDING_FIELDS + 1];
+                finding.mTimestamp = findingData[i * FINDING_FIELDS + 2];
+                finding.mValue = findingData[i * FINDING_FIELDS + 3];
+                findingList.add(finding);
+            }
+        } while (count >= FINDING_MAX_FETCH);
+
+        return findingList;
+    }
+
     /**
      * @brief 进行单步转换操作
      * @return 返回错误码
@@ -143,5 +189,7 @@ public class AvNativeDiagnose  {
     public native int native_diagnoseGetMediaInfo(long hDiagnoser, AvMediaInfo outMediaInfo);
     public native int native_diagnoseDoStep(long hDiagnoser);
     public native int native_diagnoseGetProgress(long hDiagnoser);
+    public native int native_diagnoseSetMode(long hDiagnoser, int mode, int sampleCount);
+    public native int native_diagnoseGetFindings(long hDiagnoser, long[] outFindingData);
 
 }
\ No newline at end of file
@@ -0,0 +1,325 @@
+package io.agora.avmodule;
+
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+
+/*
+ * @brief 已编码视频帧直接混流的混流器，视频不解码也不重新编码
+ *        1. 视频帧来源于 RTC SDK 的已编码视频流(H.264/H.265 Annex-B)，直接写入目标混流器
+ *        2. 音频仍然由 AvCompHwEncoder 编码成 AAC，通过 IAvMuxer 接口写入
+ *        3. 目标混流器在音频轨道就绪并且收到第一个带参数集的视频关键帧后才启动，
+ *           之前的视频帧和音频数据都丢弃，保证文件从视频关键帧开始；
+ *           视频就绪后音频轨道超过 AUDIO_WAIT_TIMEOUT 还没有就绪时，只写入视频轨道
+ *        4. 关键帧中和轨道格式相同的参数集不重复写入，参数集变化(例如分辨率变化)时保留在码流中
+ */
+public class AvPassthroughMuxer implements IAvMuxer {
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "AVMODULE/PassthroughMux";
+    private static final int AUDIO_TRACK_INDEX = 0;     ///< 提供给音频编码器的轨道索引
+    private static final long AUDIO_WAIT_TIMEOUT = 3000; ///< 视频就绪后等待音频轨道的最长时间(毫秒)
+
+
+    /*
+     * @brief 直接混流统计信息
+     */
+    public static class PassthroughStats {
+        public boolean mStarted;            ///< 目标混流器是否已经启动
+        public long mVideoFrames;           ///< 写入的视频帧数量
+        public long mVideoBytes;            ///< 写入的视频数据字节数
+        public long mWaitDropFrames;        ///< 等待关键帧或者音频轨道时丢弃的视频帧数量
+        public long mAudioDropCount;        ///< 视频开始之前丢弃的音频数据个数
+        public int mParamSetChanges;        ///< 参数集变化的次数
+
+        @Override
+        public String toString() {
+            String infoText = "{ mStarted=" + mStarted
+                    + ", mVideoFrames=" + mVideoFrames
+                    + ", mVideoBytes=" + mVideoBytes
+                    + ", mWaitDropFrames=" + mWaitDropFrames
+                    + ", mAudioDropCount=" + mAudioDropCount
+                    + ", mParamSetChanges=" + mParamSetChanges + " }";
+            return infoText;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final Object mMuxLock = new Object();
+    private final IAvMuxer mTargetMuxer;            ///< 实际写入的混流器，文件或者预录缓冲区
+    private final MediaCodec.BufferInfo mVideoBufferInfo = new MediaCodec.BufferInfo();
+
+    private MediaFormat mAudioFormat;               ///< 音频编码器输出的格式
+    private boolean mAudioReady = false;            ///< 音频编码器已经调用 start()
+    private String mVideoMimeType;
+    private MediaFormat mVideoFormat;               ///< 根据第一个关键帧参数集生成的视频格式
+    private long mVideoReadyTime = 0;               ///< 视频格式就绪的时间点，用于音频轨道等待超时
+    private AvNalParser.ParameterSets mTrackParamSets;  ///< 视频轨道格式中的参数集
+
+    private int mTargetVideoTrack = -1;
+    private int mTargetAudioTrack = -1;
+    private boolean mTargetStarted = false;
+    private boolean mVideoWritten = false;          ///< 是否已经写入第一个视频关键帧
+    private boolean mStopped = false;
+    private boolean mStartFailed = false;       ///< 目标混流器启动失败，之后的写入都返回 XERR_FILE_WRITE
+    private long mLastVideoTimestamp = -1;
+
+    private long mVideoFrames = 0;
+    private long mVideoBytes = 0;
+    private long mWaitDropFrames = 0;
+    private long mAudioDropCount = 0;
+    private int mParamSetChanges = 0;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 构造函数
+     * @param targetMuxer : 实际写入的混流器，stop()/release() 时一起停止和释放
+     */
+    public AvPassthroughMuxer(final IAvMuxer targetMuxer) {
+        mTargetMuxer = targetMuxer;
+    }
+
+    /*
+     * @brief 写入一帧已编码的视频帧，在 RTC SDK 回调线程中调用
+     *        数据直接写入目标混流器，不做拷贝
+     * @param mimeType : 视频编码格式，MIMETYPE_VIDEO_AVC 或者 MIMETYPE_VIDEO_HEVC
+     * @param width : 视频宽度
+     * @param height : 视频高度
+     * @param frameData : 一帧 Annex-B 码流，从 position 到 limit
+     * @param timestampUs : 视频帧时间戳(微秒)
+     * @param keyFrame : 是否是关键帧
+     * @return 错误码，还在等待关键帧或者音频轨道时也返回 XOK；
+     *         目标混流器启动失败或者写入失败时返回 XERR_FILE_WRITE
+     */
+    public int writeVideoFrame(final String mimeType, int width, int height, final ByteBuffer frameData,
+                               long timestampUs, boolean keyFrame) {
+        int dataPos = frameData.position();
+        int dataLimit = frameData.limit();
+        if (dataLimit <= dataPos) {
+            return ErrCode.XERR_INVALID_PARAM;
+        }
+
+        synchronized (mMuxLock) {
+            if (mStopped) {
+                return mStartFailed ? ErrCode.XERR_FILE_WRITE : ErrCode.XERR_BAD_STATE;
+            }
+
+            // 只有关键帧才解析参数集，普通帧直接写入
+            AvNalParser.ParameterSets paramSets = null;
+            if (keyFrame) {
+                paramSets = AvNalParser.parseParameterSets(mimeType, frameData);
+            }
+
+            if (mVideoFormat == null) {  // 根据第一个带完整参数集的关键帧生成视频格式
+                if ((paramSets == null) || !paramSets.isComplete(mimeType)) {
+                    mWaitDropFrames++;
+                    return ErrCode.XOK;
+                }
+                mVideoMimeType = mimeType;
+                mTrackParamSets = paramSets;
+                mVideoFormat = AvNalParser.createVideoFormat(mimeType, width, height, paramSets);
+                mVideoReadyTime = SystemClock.elapsedRealtime();
+                Log.d(TAG, "<writeVideoFrame> video format ready, mimeType=" + mimeType
+                        + ", width=" + width + ", height=" + height);
+                startTargetMuxer(false);
+            }
+
+            // 音频轨道等待超时，只启动视频轨道
+            if (!mTargetStarted && !mAudioReady
+                    && ((SystemClock.elapsedRealtime() - mVideoReadyTime) >= AUDIO_WAIT_TIMEOUT)) {
+                Log.w(TAG, "<writeVideoFrame> audio track not ready, start video only");
+                startTargetMuxer(true);
+            }
+            if (mStartFailed) {
+                return ErrCode.XERR_FILE_WRITE;
+            }
+
+            // 目标混流器还未启动，或者第一帧不是关键帧时丢弃
+            if (!mTargetStarted || (!mVideoWritten && !keyFrame)) {
+                mWaitDropFrames++;
+                return ErrCode.XOK;
+            }
+            if (!mimeType.equals(mVideoMimeType)) {
+                Log.e(TAG, "<writeVideoFrame> codec changed, mimeType=" + mimeType
+                        + ", mVideoMimeType=" + mVideoMimeType);
+                return ErrCode.XERR_UNSUPPORTED;
+            }
+
+            // 和轨道格式相同的参数集已经在 csd 中，跳过开头的参数集
+            int sampleOffset = dataPos;
+            if (paramSets != null) {
+                if (isSameParamSets(paramSets)) {
+                    sampleOffset = paramSets.mPayloadOffset;
+                } else if (paramSets.mSps != null) {
+                    mParamSetChanges++;
+                    Log.w(TAG, "<writeVideoFrame> parameter sets changed, keep in-band, width=" + width
+                            + ", height=" + height + ", mParamSetChanges=" + mParamSetChanges);
+                }
+            }
+            if (sampleOffset >= dataLimit) {
+                return ErrCode.XOK;
+            }
+
+            // 时间戳必须单调递增
+            if (timestampUs <= mLastVideoTimestamp) {
+                timestampUs = mLastVideoTimestamp + 1;
+            }
+            int flags = keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+            mVideoBufferInfo.set(sampleOffset, dataLimit - sampleOffset, timestampUs, flags);
+            try {
+                mTargetMuxer.writeSampleData(mTargetVideoTrack, frameData, mVideoBufferInfo);
+            } catch (IllegalStateException | IllegalArgumentException exp) {
+                exp.printStackTrace();
+                Log.e(TAG, "<writeVideoFrame> fail to write, exp=" + exp.toString());
+                return ErrCode.XERR_FILE_WRITE;
+            }
+
+            mLastVideoTimestamp = timestampUs;
+            mVideoWritten = true;
+            mVideoFrames++;
+            mVideoBytes += mVideoBufferInfo.size;
+        }
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 获取统计信息
+     */
+    public PassthroughStats getStats() {
+        PassthroughStats stats = new PassthroughStats();
+        synchronized (mMuxLock) {
+            stats.mStarted = mTargetStarted;
+            stats.mVideoFrames = mVideoFrames;
+            stats.mVideoBytes = mVideoBytes;
+            stats.mWaitDropFrames = mWaitDropFrames;
+            stats.mAudioDropCount = mAudioDropCount;
+            stats.mParamSetChanges = mParamSetChanges;
+        }
+        return stats;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Override Methods of IAvMuxer /////////////////
+    ////////////////////////////////////////////////////////////////////////
+    @Override
+    public int addTrack(MediaFormat format) {
+        synchronized (mMuxLock) {
+            String mimeType = format.getString(MediaFormat.KEY_MIME);
+            if ((mAudioFormat != null) || (mimeType == null) || !mimeType.startsWith("audio/")) {
+                throw new IllegalStateException("only one audio track supported, mimeType=" + mimeType);
+            }
+            mAudioFormat = format;
+            return AUDIO_TRACK_INDEX;
+        }
+    }
+
+    @Override
+    public void start() {
+        synchronized (mMuxLock) {
+            mAudioReady = true;
+            startTargetMuxer(false);
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        // 编解码配置数据已经在轨道格式中
+        if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            return;
+        }
+
+        synchronized (mMuxLock) {
+            if (mStopped) {
+                return;
+            }
+            if (!mVideoWritten || (mTargetAudioTrack < 0)) {   // 文件从视频关键帧开始，之前的音频丢弃；只有视频轨道时也丢弃
+                mAudioDropCount++;
+                return;
+            }
+            mTargetMuxer.writeSampleData(mTargetAudioTrack, byteBuf, bufferInfo);
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (mMuxLock) {
+            if (mStopped) {
+                return;
+            }
+            mStopped = true;
+            if (mTargetStarted) {
+                try {
+                    mTargetMuxer.stop();
+                } catch (IllegalStateException stateExp) {  // 没有写入任何数据时会导致该异常
+                    stateExp.printStackTrace();
+                }
+            }
+            Log.d(TAG, "<stop> done, stats=" + getStats());
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (mMuxLock) {
+            mStopped = true;
+            mTargetMuxer.release();
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 音视频轨道格式都已经就绪时启动目标混流器，需要在 mMuxLock 锁内调用
+     * @param videoOnly : 是否不等待音频轨道，只写入视频轨道
+     */
+    private void startTargetMuxer(boolean videoOnly) {
+        if (mTargetStarted || mStopped || (!videoOnly && !mAudioReady) || (mVideoFormat == null)) {
+            return;
+        }
+
+        try {
+            mTargetVideoTrack = mTargetMuxer.addTrack(mVideoFormat);
+            if (!videoOnly) {
+                mTargetAudioTrack = mTargetMuxer.addTrack(mAudioFormat);
+            }
+            mTargetMuxer.start();
+        } catch (IllegalStateException | IllegalArgumentException exp) {
+            exp.printStackTrace();
+            Log.e(TAG, "<startTargetMuxer> fail to start, exp=" + exp.toString());
+            mStartFailed = true;
+            mStopped = true;
+            return;
+        }
+        mTargetStarted = true;
+        Log.d(TAG, "<startTargetMuxer> done, mTargetVideoTrack=" + mTargetVideoTrack
+                + ", mTargetAudioTrack=" + mTargetAudioTrack);
+    }
+
+    /*
+     * @brief 判断关键帧中的参数集是否和轨道格式中的相同
+     */
+    private boolean isSameParamSets(final AvNalParser.ParameterSets paramSets) {
+        return (Arrays.equals(paramSets.mVps, mTrackParamSets.mVps)
+                && Arrays.equals(paramSets.mSps, mTrackParamSets.mSps)
+                && Arrays.equals(paramSets.mPps, mTrackParamSets.mPps));
+    }
+}
@@ -0,0 +1,455 @@
+package io.agora.avmodule;
+
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+
+
+/*
+ * @brief 预录缓冲区，作为编码器的混流器缓存最近一段时间编码后的音视频数据
+ *        1. 所有数据保存在一块预先分配的固定大小内存中，循环使用，超过时长或者内存不足时丢弃最旧的数据
+ *        2. 保存时从缓存中第一个视频关键帧开始，不重新编码直接写入 MP4 文件，
+ *           之后编码的实时数据继续写入该文件，直到达到指定的时长或者停止
+ *        3. 因为要从关键帧开始保存，实际保存的预录时长最多会比设定时长少一个 GOP
+ *        4. 保存是异步结束的，文件关闭后通过 IAvPreRollSaveCallback 回调保存结果
+ */
+public class AvPreRollBuffer implements IAvMuxer {
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "AVMODULE/PreRollBuffer";
+    private static final int MAX_TRACK_COUNT = 2;       ///< 最多一个视频轨道和一个音频轨道
+
+
+    /*
+     * @brief 保存文件结束的回调接口
+     */
+    public static interface IAvPreRollSaveCallback {
+
+        /*
+         * @brief 保存的文件已经关闭，在写入编码数据的线程中回调，回调中不能做耗时操作
+         * @param filePath : 保存的文件路径
+         * @param errCode : 错误码，XOK 表示保存成功；XERR_FILE_WRITE 表示写入失败，文件不完整
+         */
+        void onPreRollSaveDone(final String filePath, int errCode);
+    }
+
+    /*
+     * @brief 缓存的一个编码数据
+     */
+    private static final class SampleInfo {
+        int mTrackIndex;
+        int mOffset;            ///< 在缓冲区中的偏移
+        int mSize;
+        long mTimestamp;        ///< 时间戳(微秒)
+        int mFlags;
+    }
+
+    /*
+     * @brief 预录统计信息
+     */
+    public static class PreRollStats {
+        public int mCapacity;               ///< 缓冲区容量(字节)
+        public int mSampleCount;            ///< 当前缓存的数据个数
+        public int mSampleBytes;            ///< 当前缓存的数据字节数
+        public long mDurationUs;            ///< 当前缓存的时长(微秒)
+        public long mDropCount;             ///< 因为时长或者内存丢弃的数据个数
+        public long mOversizeCount;         ///< 因为单个数据超过容量丢弃的数据个数
+        public int mSavedFileCount;         ///< 已经保存的文件数量
+
+        @Override
+        public String toString() {
+            String infoText = "{ mCapacity=" + mCapacity
+                    + ", mSampleCount=" + mSampleCount
+                    + ", mSampleBytes=" + mSampleBytes
+                    + ", mDurationUs=" + mDurationUs
+                    + ", mDropCount=" + mDropCount
+                    + ", mOversizeCount=" + mOversizeCount
+                    + ", mSavedFileCount=" + mSavedFileCount + " }";
+            return infoText;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final Object mBufferLock = new Object();
+    private final byte[] mBuffer;                   ///< 预先分配的数据缓冲区
+    private final ByteBuffer mBufferWrapper;
+    private final long mMaxDurationUs;              ///< 最多缓存的时长
+    private final ArrayDeque<SampleInfo> mSampleQueue = new ArrayDeque<>();
+    private final ArrayDeque<SampleInfo> mFreeInfoList = new ArrayDeque<>();
+    private int mHead = 0;                          ///< 最旧的数据在缓冲区中的偏移
+    private int mTail = 0;                          ///< 下一个数据写入的偏移
+    private int mSampleBytes = 0;
+
+    private final MediaFormat[] mTrackFormats = new MediaFormat[MAX_TRACK_COUNT];
+    private int mTrackCount = 0;
+    private int mVideoTrackIndex = -1;
+    private boolean mStarted = false;
+    private long mDropCount = 0;
+    private long mOversizeCount = 0;
+    private int mSavedFileCount = 0;
+
+    //
+    // 正在保存的文件
+    //
+    private AvFileMuxer mSaveMuxer;
+    private String mSaveFilePath;
+    private final int[] mSaveTrackMap = new int[MAX_TRACK_COUNT];
+    private boolean mSaveWaitKeyFrame = false;      ///< 缓存中没有关键帧时等待实时的关键帧
+    private long mSaveEndTimestamp = 0;             ///< 视频时间戳达到该值时结束保存
+    private long mSavePostDurationUs = 0;
+    private IAvPreRollSaveCallback mSaveCallback;   ///< 保存结束的回调，saveStart() 成功后才设置
+    private final MediaCodec.BufferInfo mSaveBufferInfo = new MediaCodec.BufferInfo();
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 构造函数，预先分配所有缓冲区内存
+     * @param capacity : 缓冲区大小(字节)，也是内存占用的上限
+     * @param maxDurationUs : 最多缓存的时长(微秒)
+     */
+    public AvPreRollBuffer(int capacity, long maxDurationUs) {
+        mBuffer = new byte[capacity];
+        mBufferWrapper = ByteBuffer.wrap(mBuffer);
+        mMaxDurationUs = maxDurationUs;
+    }
+
+    /*
+     * @brief 开始保存文件，先写入缓存的预录数据，之后的实时数据也继续写入
+     * @param outFilePath : 输出的 MP4 文件全路径
+     * @param postDurationUs : 保存之后继续写入实时数据的时长(微秒)
+     * @param saveCallback : 文件关闭后的回调，可以为null；本函数返回错误时不回调
+     * @return 错误码
+     */
+    public int saveStart(final String outFilePath, long postDurationUs,
+                         final IAvPreRollSaveCallback saveCallback) {
+        synchronized (mBufferLock) {
+            if (mSaveMuxer != null) {
+                Log.e(TAG, "<saveStart> saving is ongoing, mSaveFilePath=" + mSaveFilePath);
+                return ErrCode.XERR_BAD_STATE;
+            }
+            if (!mStarted) {
+                Log.e(TAG, "<saveStart> encoder not ready");
+                return ErrCode.XERR_BAD_STATE;
+            }
+
+            try {
+                mSaveMuxer = new AvFileMuxer(outFilePath);
+                for (int i = 0; i < mTrackCount; i++) {
+                    mSaveTrackMap[i] = mSaveMuxer.addTrack(mTrackFormats[i]);
+                }
+                mSaveMuxer.start();
+            } catch (IOException | IllegalStateException | IllegalArgumentException exp) {
+                exp.printStackTrace();
+                Log.e(TAG, "<saveStart> fail to open muxer, exp=" + exp.toString());
+                if (mSaveMuxer != null) {
+                    mSaveMuxer.release();
+                    mSaveMuxer = null;
+                }
+                return ErrCode.XERR_FILE_OPEN;
+            }
+            mSaveFilePath = outFilePath;
+            mSavePostDurationUs = postDurationUs;
+            mSaveWaitKeyFrame = true;
+
+            // 从第一个视频关键帧开始写入缓存的数据，关键帧之前的音频数据也丢弃
+            long keyTimestamp = -1;
+            int writeCount = 0;
+            for (SampleInfo sampleInfo : mSampleQueue) {
+                if (keyTimestamp < 0) {
+                    if (!isVideoKeyFrame(sampleInfo.mTrackIndex, sampleInfo.mFlags)) {
+                        continue;
+                    }
+                    keyTimestamp = sampleInfo.mTimestamp;
+                    mSaveWaitKeyFrame = false;
+                }
+                if (sampleInfo.mTimestamp < keyTimestamp) {
+                    continue;
+                }
+                mSaveBufferInfo.set(sampleInfo.mOffset, sampleInfo.mSize, sampleInfo.mTimestamp, sampleInfo.mFlags);
+                if (!writeSaveSample(sampleInfo.mTrackIndex, mBufferWrapper, mSaveBufferInfo)) {
+                    return ErrCode.XERR_FILE_WRITE;
+                }
+                writeCount++;
+            }
+
+            SampleInfo lastSample = mSampleQueue.peekLast();
+            long lastTimestamp = (lastSample != null) ? lastSample.mTimestamp : 0;
+            mSaveEndTimestamp = lastTimestamp + postDurationUs;
+            mSaveCallback = saveCallback;
+            Log.d(TAG, "<saveStart> done, outFilePath=" + outFilePath
+                    + ", writeCount=" + writeCount + ", preRollUs=" + (lastTimestamp - keyTimestamp)
+                    + ", postDurationUs=" + postDurationUs);
+        }
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 结束保存文件
+     */
+    public void saveStop() {
+        synchronized (mBufferLock) {
+            closeSaveMuxer(ErrCode.XOK);
+        }
+    }
+
+    /*
+     * @brief 判断是否正在保存文件
+     */
+    public boolean isSaving() {
+        synchronized (mBufferLock) {
+            return (mSaveMuxer != null);
+        }
+    }
+
+    /*
+     * @brief 获取统计信息
+     */
+    public PreRollStats getStats() {
+        PreRollStats stats = new PreRollStats();
+        synchronized (mBufferLock) {
+            stats.mCapacity = mBuffer.length;
+            stats.mSampleCount = mSampleQueue.size();
+            stats.mSampleBytes = mSampleBytes;
+            if (!mSampleQueue.isEmpty()) {
+                stats.mDurationUs = mSampleQueue.peekLast().mTimestamp - mSampleQueue.peekFirst().mTimestamp;
+            }
+            stats.mDropCount = mDropCount;
+            stats.mOversizeCount = mOversizeCount;
+            stats.mSavedFileCount = mSavedFileCount;
+        }
+        return stats;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Override Methods of IAvMuxer /////////////////
+    ////////////////////////////////////////////////////////////////////////
+    @Override
+    public int addTrack(MediaFormat format) {
+        synchronized (mBufferLock) {
+            if (mStarted || (mTrackCount >= MAX_TRACK_COUNT)) {
+                throw new IllegalStateException("bad state, mStarted=" + mStarted + ", mTrackCount=" + mTrackCount);
+            }
+            String mimeType = format.getString(MediaFormat.KEY_MIME);
+            if ((mimeType != null) && mimeType.startsWith("video/")) {
+                mVideoTrackIndex = mTrackCount;
+            }
+            mTrackFormats[mTrackCount] = format;
+            return mTrackCount++;
+        }
+    }
+
+    @Override
+    public void start() {
+        synchronized (mBufferLock) {
+            mStarted = true;
+        }
+        Log.d(TAG, "<start> done, capacity=" + mBuffer.length + ", mMaxDurationUs=" + mMaxDurationUs
+                + ", mTrackCount=" + mTrackCount);
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        // 编解码配置数据已经在轨道格式中，不需要缓存
+        if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            return;
+        }
+        int size = bufferInfo.size;
+        if (size <= 0) {
+            return;
+        }
+
+        synchronized (mBufferLock) {
+            if (!mStarted) {
+                throw new IllegalStateException("muxer not started");
+            }
+
+            // 实时数据同时写入正在保存的文件
+            if (mSaveMuxer != null) {
+                writeLiveSample(trackIndex, byteBuf, bufferInfo);
+            }
+
+            if (size > mBuffer.length) {
+                mOversizeCount++;
+                return;
+            }
+
+            // 丢弃超过时长的数据
+            SampleInfo oldest = mSampleQueue.peekFirst();
+            while ((oldest != null) && (bufferInfo.presentationTimeUs - oldest.mTimestamp > mMaxDurationUs)) {
+                dropOldest();
+                oldest = mSampleQueue.peekFirst();
+            }
+
+            // 内存不足时丢弃最旧的数据，直到有足够的连续空间
+            int offset = findSpace(size);
+            while (offset < 0) {
+                dropOldest();
+                offset = findSpace(size);
+            }
+
+            ByteBuffer srcBuffer = byteBuf.duplicate();
+            srcBuffer.limit(bufferInfo.offset + size);
+            srcBuffer.position(bufferInfo.offset);
+            srcBuffer.get(mBuffer, offset, size);
+
+            SampleInfo sampleInfo = mFreeInfoList.pollFirst();
+            if (sampleInfo == null) {
+                sampleInfo = new SampleInfo();
+            }
+            sampleInfo.mTrackIndex = trackIndex;
+            sampleInfo.mOffset = offset;
+            sampleInfo.mSize = size;
+            sampleInfo.mTimestamp = bufferInfo.presentationTimeUs;
+            sampleInfo.mFlags = bufferInfo.flags;
+            if (mSampleQueue.isEmpty()) {
+                mHead = offset;
+            }
+            mSampleQueue.addLast(sampleInfo);
+            mTail = offset + size;
+            mSampleBytes += size;
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (mBufferLock) {
+            closeSaveMuxer(ErrCode.XOK);
+            mStarted = false;
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (mBufferLock) {
+            closeSaveMuxer(ErrCode.XOK);
+            mFreeInfoList.addAll(mSampleQueue);
+            mSampleQueue.clear();
+            mHead = 0;
+            mTail = 0;
+            mSampleBytes = 0;
+            mStarted = false;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 查找可以写入 size 字节的连续空间，需要在 mBufferLock 锁内调用
+     * @return 返回写入的偏移，空间不足时返回 -1
+     */
+    private int findSpace(int size) {
+        if (mSampleQueue.isEmpty()) {
+            mHead = 0;
+            mTail = 0;
+            return 0;
+        }
+        if (mTail > mHead) {    // 数据没有回绕，先用尾部空间，不够时回绕到头部
+            if (mBuffer.length - mTail >= size) {
+                return mTail;
+            }
+            return (mHead >= size) ? 0 : -1;
+        }
+        // 数据已经回绕，mTail == mHead 表示已经写满
+        return (mHead - mTail >= size) ? mTail : -1;
+    }
+
+    /*
+     * @brief 丢弃最旧的一个数据，需要在 mBufferLock 锁内调用
+     */
+    private void dropOldest() {
+        SampleInfo sampleInfo = mSampleQueue.pollFirst();
+        if (sampleInfo == null) {
+            return;
+        }
+        mSampleBytes -= sampleInfo.mSize;
+        mDropCount++;
+        mFreeInfoList.addLast(sampleInfo);
+
+        SampleInfo nextSample = mSampleQueue.peekFirst();
+        mHead = (nextSample != null) ? nextSample.mOffset : mTail;
+    }
+
+    /*
+     * @brief 实时数据写入正在保存的文件，需要在 mBufferLock 锁内调用
+     */
+    private void writeLiveSample(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        boolean isVideo = (trackIndex == mVideoTrackIndex);
+        if (mSaveWaitKeyFrame) {   // 文件必须从视频关键帧开始
+            if (!isVideoKeyFrame(trackIndex, bufferInfo.flags)) {
+                return;
+            }
+            mSaveWaitKeyFrame = false;
+            mSaveEndTimestamp = bufferInfo.presentationTimeUs + mSavePostDurationUs;
+        }
+
+        if (!writeSaveSample(trackIndex, byteBuf, bufferInfo)) {
+            return;
+        }
+        if (isVideo && (bufferInfo.presentationTimeUs >= mSaveEndTimestamp)) {
+            Log.d(TAG, "<writeLiveSample> reach post duration, timestamp=" + bufferInfo.presentationTimeUs);
+            closeSaveMuxer(ErrCode.XOK);
+        }
+    }
+
+    /*
+     * @brief 写入一个数据到正在保存的文件，失败时关闭文件
+     */
+    private boolean writeSaveSample(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        try {
+            mSaveMuxer.writeSampleData(mSaveTrackMap[trackIndex], byteBuf, bufferInfo);
+        } catch (IllegalStateException | IllegalArgumentException exp) {
+            exp.printStackTrace();
+            Log.e(TAG, "<writeSaveSample> fail to write, exp=" + exp.toString());
+            closeSaveMuxer(ErrCode.XERR_FILE_WRITE);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * @brief 关闭正在保存的文件并回调保存结果，需要在 mBufferLock 锁内调用
+     * @param errCode : 关闭的原因，XOK 表示正常结束
+     */
+    private void closeSaveMuxer(int errCode) {
+        if (mSaveMuxer == null) {
+            return;
+        }
+        try {
+            mSaveMuxer.stop();
+        } catch (IllegalStateException stateExp) {  // 没有写入任何数据时会导致该异常
+            stateExp.printStackTrace();
+            errCode = ErrCode.XERR_FILE_WRITE;
+        }
+        mSaveMuxer.release();
+        mSaveMuxer = null;
+        mSavedFileCount++;
+        Log.d(TAG, "<closeSaveMuxer> done, mSaveFilePath=" + mSaveFilePath + ", errCode=" + errCode);
+
+        IAvPreRollSaveCallback saveCallback = mSaveCallback;
+        mSaveCallback = null;
+        if (saveCallback != null) {
+            saveCallback.onPreRollSaveDone(mSaveFilePath, errCode);
+        }
+    }
+
+    private boolean isVideoKeyFrame(int trackIndex, int flags) {
+        return ((trackIndex == mVideoTrackIndex) && ((flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0));
+    }
+}
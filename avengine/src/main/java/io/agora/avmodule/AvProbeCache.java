@@ -0,0 +1,660 @@
+package io.agora.avmodule;
+
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+
+/*
+ * @brief 媒体信息探测结果缓存，线程安全
+ *        1. 键值由 探测方式 + 文件路径/URL + 内容指纹 组成，本地文件的指纹是 文件大小+修改时间，
+ *           网络文件的指纹是 ETag(没有时用 文件大小+Last-Modified)，内容变化后自动失效
+ *        2. 内存中按照 LRU 淘汰，可以设置磁盘目录持久化，进程重启后仍然有效
+ *        3. 相同键值的并发探测只执行一次，其他线程等待同一个探测结果
+ *        4. 网络文件的指纹在后台线程中获取，不阻塞调用者；还没有指纹时直接探测(按去掉签名参数的地址合并并发探测)，
+ *           获取到指纹后再缓存探测结果，指纹按照去掉签名参数的地址在 REMOTE_FINGERPRINT_TTL 内复用
+ *        5. 持久化文件在后台线程中延迟 STORE_SAVE_DELAY 保存，短时间内的多次修改只写一次
+ *        Uri(content://) 等无法计算指纹的源不缓存，直接探测
+ */
+public class AvProbeCache {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 网络文件的内容指纹
+     */
+    private static class RemoteFingerprint {
+        String mSource;                     ///< 用于键值的源地址，有内容标识时去掉签名参数
+        String mFingerprint;                ///< 内容指纹
+        long mQueryTime;                    ///< 获取指纹的时间点
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "AVMODULE/AvProbeCache";
+
+    public static final String PROBE_HW = "hw";     ///< MediaExtractor 探测的结果
+    public static final String PROBE_SW = "sw";     ///< FFmpeg 探测的结果
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    private static final String STORE_NAME = "probe_cache.json";
+    private static final int STORE_VERSION = 1;
+    private static final long REMOTE_FINGERPRINT_TTL = (5 * 60 * 1000);    ///< 网络文件指纹复用5分钟
+    private static final int HTTP_TIMEOUT = 5000;
+    private static final long STORE_SAVE_DELAY = 2000;     ///< 修改后延迟保存持久化文件的时间(毫秒)
+    private static final Pattern PATTERN_CONTENT_RANGE = Pattern.compile("bytes\\s+\\d+-\\d+/(\\d+)");
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final AvProbeCache mInstance = new AvProbeCache();
+
+    private final Object mLock = new Object();
+    private final LinkedHashMap<String, AvMediaInfo> mEntryMap = new LinkedHashMap<String, AvMediaInfo>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AvMediaInfo> eldest) {
+            return (size() > mMaxEntries);
+        }
+    };
+    private final HashMap<String, FutureTask<AvMediaInfo>> mPendingMap = new HashMap<>();  ///< 正在进行的探测
+    ///< 网络文件指纹，键值是去掉签名参数的地址，数量上限和探测结果相同
+    private final LinkedHashMap<String, RemoteFingerprint> mRemoteMap = new LinkedHashMap<String, RemoteFingerprint>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RemoteFingerprint> eldest) {
+            return (size() > mMaxEntries);
+        }
+    };
+    private final HashSet<String> mRemoteQuerying = new HashSet<>();   ///< 正在后台获取指纹的地址
+    private final ScheduledExecutorService mWorkExecutor;               ///< 获取网络指纹和保存持久化文件的后台线程
+    private boolean mSaveScheduled = false;     ///< 是否已经安排了延迟保存
+    private final Object mStoreLock = new Object();
+    private File mStoreFile = null;             ///< 持久化文件，null表示只在内存中缓存
+    private int mMaxEntries = DEFAULT_MAX_ENTRIES;
+    private long mHitCount = 0;                 ///< 命中次数
+    private long mMissCount = 0;                ///< 实际探测次数
+    private long mMergeCount = 0;               ///< 等待其他线程探测结果的次数
+
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public static AvProbeCache getInstance() {
+        return mInstance;
+    }
+
+    private AvProbeCache() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "AvProbeCache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        mWorkExecutor = executor;
+    }
+
+    /*
+     * @brief 设置持久化目录，并且加载之前保存的探测结果
+     * @param cacheDir : 持久化目录，为空表示只在内存中缓存
+     * @return 错误码
+     */
+    public int setDiskStore(final String cacheDir) {
+        if ((cacheDir == null) || cacheDir.isEmpty()) {
+            synchronized (mStoreLock) {
+                mStoreFile = null;
+            }
+            return ErrCode.XOK;
+        }
+
+        File dir = new File(cacheDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "<setDiskStore> fail to create dir, cacheDir=" + cacheDir);
+            return ErrCode.XERR_FILE_OPEN;
+        }
+        synchronized (mStoreLock) {
+            mStoreFile = new File(dir, STORE_NAME);
+        }
+        loadStore();
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 设置内存中最多缓存的探测结果数量，超出时淘汰最久没有使用的
+     */
+    public void setMaxEntries(int maxEntries) {
+        synchronized (mLock) {
+            mMaxEntries = Math.max(maxEntries, 1);
+            trimLocked();
+            while (mRemoteMap.size() > mMaxEntries) {
+                mRemoteMap.remove(mRemoteMap.keySet().iterator().next());
+            }
+        }
+    }
+
+    /*
+     * @brief 获取探测结果，没有缓存时在当前线程中执行探测，相同源的并发探测只执行一次
+     *        网络文件还没有指纹(或者已经过期)时直接探测，去掉签名参数后地址相同的并发探测也只执行一次，
+     *        并且在后台获取指纹，获取成功后缓存本次的探测结果
+     * @param probeType : 探测方式 PROBE_XXX，不同探测方式的结果分开缓存
+     * @param source : 文件路径或者 URL
+     * @param prober : 实际探测操作，返回null表示探测失败，失败的结果不缓存
+     * @return 探测结果的副本，调用者可以修改
+     */
+    public AvMediaInfo getOrProbe(final String probeType, final String source,
+                                  final Callable<AvMediaInfo> prober) {
+        String key;
+        boolean fingerprintPending = false;
+        if ((source != null) && isRemoteSource(source) && (getRemoteFingerprint(source) == null)) {
+            // 还没有指纹时按照去掉签名参数的地址合并并发探测，获取到指纹后才缓存探测结果
+            key = probeType + "|" + normalizeSource(source) + "|";
+            fingerprintPending = true;
+        } else {
+            key = buildKey(probeType, source);
+        }
+        if (key == null) {  // 无法计算内容指纹，直接探测
+            return callProber(prober);
+        }
+
+        FutureTask<AvMediaInfo> probeTask;
+        boolean probeOwner = false;
+        synchronized (mLock) {
+            AvMediaInfo cachedInfo = fingerprintPending ? null : mEntryMap.get(key);
+            if (cachedInfo != null) {
+                mHitCount++;
+                return copyMediaInfo(cachedInfo, source);
+            }
+            probeTask = mPendingMap.get(key);
+            if (probeTask == null) {
+                probeTask = new FutureTask<>(() -> callProber(prober));
+                mPendingMap.put(key, probeTask);
+                probeOwner = true;
+                mMissCount++;
+            } else {
+                mMergeCount++;
+            }
+        }
+
+        AvMediaInfo mediaInfo = null;
+        try {
+            if (probeOwner) {
+                probeTask.run();
+            }
+            mediaInfo = probeTask.get();
+        } catch (InterruptedException interruptExp) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException execExp) {
+            Log.e(TAG, "<getOrProbe> fail to probe, exp=" + execExp.getCause());
+        }
+
+        boolean stored = false;
+        if (probeOwner) {
+            synchronized (mLock) {
+                mPendingMap.remove(key);
+                if (!fingerprintPending && isCacheable(mediaInfo)) {
+                    mEntryMap.put(key, copyMediaInfo(mediaInfo, null));
+                    stored = true;
+                }
+            }
+            if (fingerprintPending) {
+                queryRemoteAsync(probeType, source, mediaInfo);
+            }
+        }
+        if (stored) {
+            scheduleSave();
+        }
+
+        return (mediaInfo != null) ? copyMediaInfo(mediaInfo, source) : null;
+    }
+
+    /*
+     * @brief 删除指定源的所有探测结果，源文件被覆盖写入时调用
+     */
+    public void invalidate(final String source) {
+        String sourceTag = "|" + normalizeSource(source) + "|";
+        synchronized (mLock) {
+            Iterator<String> keyIt = mEntryMap.keySet().iterator();
+            while (keyIt.hasNext()) {
+                if (keyIt.next().contains(sourceTag)) {
+                    keyIt.remove();
+                }
+            }
+            mRemoteMap.remove(normalizeSource(source));
+        }
+        scheduleSave();
+    }
+
+    /*
+     * @brief 清除所有探测结果，包括持久化文件
+     */
+    public void clear() {
+        synchronized (mLock) {
+            mEntryMap.clear();
+            mRemoteMap.clear();
+        }
+        scheduleSave();
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "{ entries=" + mEntryMap.size() + ", hit=" + mHitCount
+                    + ", miss=" + mMissCount + ", merge=" + mMergeCount + " }";
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static AvMediaInfo callProber(final Callable<AvMediaInfo> prober) {
+        try {
+            return prober.call();
+        } catch (Exception exp) {
+            Log.e(TAG, "<callProber> probe exception, exp=" + exp);
+            return null;
+        }
+    }
+
+    /*
+     * @brief 没有任何音视频轨道的结果当作探测失败，不缓存
+     */
+    private static boolean isCacheable(final AvMediaInfo mediaInfo) {
+        return (mediaInfo != null) && ((mediaInfo.mVideoTrackId >= 0) || (mediaInfo.mAudioTrackId >= 0));
+    }
+
+    private static boolean isRemoteSource(final String source) {
+        String lowerSource = source.toLowerCase();
+        return lowerSource.startsWith("http://") || lowerSource.startsWith("https://");
+    }
+
+    private static String normalizeSource(final String source) {
+        if (source == null) {
+            return "";
+        }
+        if (source.startsWith("file://")) {
+            return source.substring("file://".length());
+        }
+        return isRemoteSource(source) ? AvSegmentFetcher.stripQuery(source) : source;
+    }
+
+    /*
+     * @brief 生成缓存键值：探测方式|源地址|内容指纹
+     * @return 键值，null表示无法计算内容指纹
+     */
+    private String buildKey(final String probeType, final String source) {
+        if ((source == null) || source.isEmpty()) {
+            return null;
+        }
+
+        if (isRemoteSource(source)) {
+            RemoteFingerprint remote = getRemoteFingerprint(source);
+            return (remote != null) ? buildRemoteKey(probeType, remote) : null;
+        }
+
+        String localPath = normalizeSource(source);
+        if (localPath.contains("://")) {    // 其他协议不缓存
+            return null;
+        }
+        File localFile = new File(localPath);
+        if (!localFile.isFile()) {
+            return null;
+        }
+        return probeType + "|" + localPath + "|" + localFile.length() + "@" + localFile.lastModified();
+    }
+
+    private static String buildRemoteKey(final String probeType, final RemoteFingerprint remote) {
+        return probeType + "|" + remote.mSource + "|" + remote.mFingerprint;
+    }
+
+    /*
+     * @brief 获取已经缓存并且在 TTL 内的网络文件指纹，不发起网络请求
+     * @return 指纹，null表示还没有获取或者已经过期
+     */
+    private RemoteFingerprint getRemoteFingerprint(final String url) {
+        long nowTime = System.currentTimeMillis();
+        synchronized (mLock) {
+            RemoteFingerprint remote = mRemoteMap.get(normalizeSource(url));
+            if ((remote != null) && ((nowTime - remote.mQueryTime) < REMOTE_FINGERPRINT_TTL)) {
+                return remote;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * @brief 在后台线程中获取网络文件指纹，获取成功后缓存调用者刚刚得到的探测结果
+     *        同一个地址同时只有一个请求
+     * @param mediaInfo : 刚刚得到的探测结果，null表示只获取指纹
+     */
+    private void queryRemoteAsync(final String probeType, final String url, final AvMediaInfo mediaInfo) {
+        final String remoteKey = normalizeSource(url);
+        final AvMediaInfo probedInfo = isCacheable(mediaInfo) ? copyMediaInfo(mediaInfo, null) : null;
+        synchronized (mLock) {
+            if (!mRemoteQuerying.add(remoteKey)) {
+                return;
+            }
+        }
+
+        mWorkExecutor.execute(() -> {
+            RemoteFingerprint remote = queryRemoteFingerprint(url);
+            boolean stored = false;
+            synchronized (mLock) {
+                mRemoteQuerying.remove(remoteKey);
+                if (remote != null) {
+                    mRemoteMap.put(remoteKey, remote);
+                    if (probedInfo != null) {
+                        mEntryMap.put(buildRemoteKey(probeType, remote), probedInfo);
+                        stored = true;
+                    }
+                }
+            }
+            if (stored) {
+                scheduleSave();
+            }
+        });
+    }
+
+    /*
+     * @brief 请求网络文件的内容指纹，在后台线程中调用
+     *        只请求第一个字节，不下载文件内容；服务器不返回任何内容标识时不缓存
+     */
+    private static RemoteFingerprint queryRemoteFingerprint(final String url) {
+        long nowTime = System.currentTimeMillis();
+        String etag;
+        String lastModified;
+        long totalBytes = -1;
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(HTTP_TIMEOUT);
+            connection.setReadTimeout(HTTP_TIMEOUT);
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            connection.setRequestProperty("Range", "bytes=0-0");
+            int respCode = connection.getResponseCode();
+            if (respCode == HttpURLConnection.HTTP_PARTIAL) {
+                String contentRange = connection.getHeaderField("Content-Range");
+                Matcher matcher = PATTERN_CONTENT_RANGE.matcher((contentRange != null) ? contentRange : "");
+                totalBytes = matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+            } else if (respCode == HttpURLConnection.HTTP_OK) {
+                String contentLength = connection.getHeaderField("Content-Length");
+                totalBytes = (contentLength != null) ? Long.parseLong(contentLength.trim()) : -1;
+            } else {
+                Log.w(TAG, "<queryRemoteFingerprint> response error, respCode=" + respCode);
+                return null;
+            }
+            etag = connection.getHeaderField("ETag");
+            lastModified = connection.getHeaderField("Last-Modified");
+
+        } catch (IOException | NumberFormatException exp) {
+            Log.w(TAG, "<queryRemoteFingerprint> fail to query, exp=" + exp);
+            return null;
+
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+
+        RemoteFingerprint remote = new RemoteFingerprint();
+        remote.mQueryTime = nowTime;
+        if ((etag != null) && !etag.isEmpty()) {
+            remote.mSource = normalizeSource(url);
+            remote.mFingerprint = etag;
+        } else if ((totalBytes > 0) && (lastModified != null)) {
+            remote.mSource = normalizeSource(url);
+            remote.mFingerprint = totalBytes + "@" + lastModified;
+        } else if (totalBytes > 0) {   // 只有文件大小，不能去掉签名参数
+            remote.mSource = url;
+            remote.mFingerprint = String.valueOf(totalBytes);
+        } else {
+            Log.d(TAG, "<queryRemoteFingerprint> no content identity, url=" + normalizeSource(url));
+            return null;
+        }
+        return remote;
+    }
+
+    private void trimLocked() {
+        while (mEntryMap.size() > mMaxEntries) {
+            String eldestKey = mEntryMap.keySet().iterator().next();
+            mEntryMap.remove(eldestKey);
+        }
+    }
+
+    /*
+     * @brief 复制探测结果，缓存中的对象不会被调用者修改
+     * @param source : 调用者传入的源地址，null表示保留原值
+     */
+    private static AvMediaInfo copyMediaInfo(final AvMediaInfo srcInfo, final String source) {
+        AvMediaInfo dstInfo = new AvMediaInfo();
+        dstInfo.mContext = srcInfo.mContext;
+        dstInfo.mFileUri = srcInfo.mFileUri;
+        dstInfo.mFilePath = (source != null) ? source : srcInfo.mFilePath;
+        dstInfo.mFileDuration = srcInfo.mFileDuration;
+        dstInfo.mVideoTrackId = srcInfo.mVideoTrackId;
+        dstInfo.mVideoDuration = srcInfo.mVideoDuration;
+        dstInfo.mVideoCodec = srcInfo.mVideoCodec;
+        dstInfo.mColorFormat = srcInfo.mColorFormat;
+        dstInfo.mColorRange = srcInfo.mColorRange;
+        dstInfo.mColorSpace = srcInfo.mColorSpace;
+        dstInfo.mDataWidth = srcInfo.mDataWidth;
+        dstInfo.mDataHeight = srcInfo.mDataHeight;
+        dstInfo.mDisplayWidth = srcInfo.mDisplayWidth;
+        dstInfo.mDisplayHeight = srcInfo.mDisplayHeight;
+        dstInfo.mVideoWidth = srcInfo.mVideoWidth;
+        dstInfo.mVideoHeight = srcInfo.mVideoHeight;
+        dstInfo.mRotation = srcInfo.mRotation;
+        dstInfo.mFrameRate = srcInfo.mFrameRate;
+        dstInfo.mVideoBitrate = srcInfo.mVideoBitrate;
+        dstInfo.mVideoMaxBitrate = srcInfo.mVideoMaxBitrate;
+        dstInfo.mAudioTrackId = srcInfo.mAudioTrackId;
+        dstInfo.mAudioDuration = srcInfo.mAudioDuration;
+        dstInfo.mAudioCodec = srcInfo.mAudioCodec;
+        dstInfo.mSampleFmt = srcInfo.mSampleFmt;
+        dstInfo.mChannels = srcInfo.mChannels;
+        dstInfo.mSampleRate = srcInfo.mSampleRate;
+        dstInfo.mAudioBitrate = srcInfo.mAudioBitrate;
+        dstInfo.mAudioMaxBitrate = srcInfo.mAudioMaxBitrate;
+        return dstInfo;
+    }
+
+    private static JSONObject mediaInfoToJson(final AvMediaInfo mediaInfo) throws JSONException {
+        JSONObject infoObj = new JSONObject();
+        infoObj.put("fileDuration", mediaInfo.mFileDuration);
+        infoObj.put("videoTrackId", mediaInfo.mVideoTrackId);
+        infoObj.put("videoDuration", mediaInfo.mVideoDuration);
+        infoObj.put("videoCodec", (mediaInfo.mVideoCodec != null) ? mediaInfo.mVideoCodec : JSONObject.NULL);
+        infoObj.put("colorFormat", mediaInfo.mColorFormat);
+        infoObj.put("colorRange", mediaInfo.mColorRange);
+        infoObj.put("colorSpace", mediaInfo.mColorSpace);
+        infoObj.put("dataWidth", mediaInfo.mDataWidth);
+        infoObj.put("dataHeight", mediaInfo.mDataHeight);
+        infoObj.put("displayWidth", mediaInfo.mDisplayWidth);
+        infoObj.put("displayHeight", mediaInfo.mDisplayHeight);
+        infoObj.put("videoWidth", mediaInfo.mVideoWidth);
+        infoObj.put("videoHeight", mediaInfo.mVideoHeight);
+        infoObj.put("rotation", mediaInfo.mRotation);
+        infoObj.put("frameRate", mediaInfo.mFrameRate);
+        infoObj.put("videoBitrate", mediaInfo.mVideoBitrate);
+        infoObj.put("videoMaxBitrate", mediaInfo.mVideoMaxBitrate);
+        infoObj.put("audioTrackId", mediaInfo.mAudioTrackId);
+        infoObj.put("audioDuration", mediaInfo.mAudioDuration);
+        infoObj.put("audioCodec", (mediaInfo.mAudioCodec != null) ? mediaInfo.mAudioCodec : JSONObject.NULL);
+        infoObj.put("sampleFmt", mediaInfo.mSampleFmt);
+        infoObj.put("channels", mediaInfo.mChannels);
+        infoObj.put("sampleRate", mediaInfo.mSampleRate);
+        infoObj.put("audioBitrate", mediaInfo.mAudioBitrate);
+        infoObj.put("audioMaxBitrate", mediaInfo.mAudioMaxBitrate);
+        return infoObj;
+    }
+
+    private static AvMediaInfo mediaInfoFromJson(final JSONObject infoObj) throws JSONException {
+        AvMediaInfo mediaInfo = new AvMediaInfo();
+        mediaInfo.mFileDuration = infoObj.getLong("fileDuration");
+        mediaInfo.mVideoTrackId = infoObj.getInt("videoTrackId");
+        mediaInfo.mVideoDuration = infoObj.getLong("videoDuration");
+        mediaInfo.mVideoCodec = infoObj.isNull("videoCodec") ? null : infoObj.getString("videoCodec");
+        mediaInfo.mColorFormat = infoObj.getInt("colorFormat");
+        mediaInfo.mColorRange = infoObj.getInt("colorRange");
+        mediaInfo.mColorSpace = infoObj.getInt("colorSpace");
+        mediaInfo.mDataWidth = infoObj.getInt("dataWidth");
+        mediaInfo.mDataHeight = infoObj.getInt("dataHeight");
+        mediaInfo.mDisplayWidth = infoObj.getInt("displayWidth");
+        mediaInfo.mDisplayHeight = infoObj.getInt("displayHeight");
+        mediaInfo.mVideoWidth = infoObj.getInt("videoWidth");
+        mediaInfo.mVideoHeight = infoObj.getInt("videoHeight");
+        mediaInfo.mRotation = infoObj.getInt("rotation");
+        mediaInfo.mFrameRate = infoObj.getInt("frameRate");
+        mediaInfo.mVideoBitrate = infoObj.getInt("videoBitrate");
+        mediaInfo.mVideoMaxBitrate = infoObj.getInt("videoMaxBitrate");
+        mediaInfo.mAudioTrackId = infoObj.getInt("audioTrackId");
+        mediaInfo.mAudioDuration = infoObj.getLong("audioDuration");
+        mediaInfo.mAudioCodec = infoObj.isNull("audioCodec") ? null : infoObj.getString("audioCodec");
+        mediaInfo.mSampleFmt = infoObj.getInt("sampleFmt");
+        mediaInfo.mChannels = infoObj.getInt("channels");
+        mediaInfo.mSampleRate = infoObj.getInt("sampleRate");
+        mediaInfo.mAudioBitrate = infoObj.getInt("audioBitrate");
+        mediaInfo.mAudioMaxBitrate = infoObj.getInt("audioMaxBitrate");
+        return mediaInfo;
+    }
+
+    /*
+     * @brief 从持久化文件加载探测结果，按照保存时的 LRU 顺序插入，版本不一致时丢弃
+     */
+    private void loadStore() {
+        File storeFile;
+        synchronized (mStoreLock) {
+            storeFile = mStoreFile;
+        }
+        if ((storeFile == null) || !storeFile.exists()) {
+            return;
+        }
+
+        int loadCount = 0;
+        try {
+            JSONObject storeObj = new JSONObject(readLocalText(storeFile));
+            if (storeObj.getInt("version") != STORE_VERSION) {
+                Log.d(TAG, "<loadStore> version changed, ignore store");
+                return;
+            }
+            JSONArray entryArray = storeObj.getJSONArray("entries");
+            synchronized (mLock) {
+                for (int i = 0; i < entryArray.length(); i++) {
+                    JSONObject entryObj = entryArray.getJSONObject(i);
+                    String key = entryObj.getString("key");
+                    if (!mEntryMap.containsKey(key)) {
+                        mEntryMap.put(key, mediaInfoFromJson(entryObj.getJSONObject("info")));
+                        loadCount++;
+                    }
+                }
+            }
+        } catch (IOException | JSONException exp) {
+            Log.e(TAG, "<loadStore> invalid store, exp=" + exp.toString());
+        }
+        Log.d(TAG, "<loadStore> done, loadCount=" + loadCount + ", cache=" + this);
+    }
+
+    /*
+     * @brief 安排在后台线程中延迟保存，已经安排过时不重复安排
+     */
+    private void scheduleSave() {
+        synchronized (mStoreLock) {
+            if ((mStoreFile == null) || mSaveScheduled) {
+                return;
+            }
+            mSaveScheduled = true;
+        }
+        mWorkExecutor.schedule(this::saveStore, STORE_SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * @brief 保存所有探测结果，在后台线程中调用，先写临时文件再改名，保证持久化文件总是完整的
+     */
+    private void saveStore() {
+        synchronized (mStoreLock) {
+            mSaveScheduled = false;
+        }
+
+        ArrayList<Map.Entry<String, AvMediaInfo>> entryList;
+        synchronized (mLock) {
+            entryList = new ArrayList<>(mEntryMap.entrySet());
+        }
+
+        synchronized (mStoreLock) {
+            if (mStoreFile == null) {
+                return;
+            }
+            try {
+                JSONObject storeObj = new JSONObject();
+                storeObj.put("version", STORE_VERSION);
+                JSONArray entryArray = new JSONArray();
+                for (Map.Entry<String, AvMediaInfo> entry : entryList) {
+                    JSONObject entryObj = new JSONObject();
+                    entryObj.put("key", entry.getKey());
+                    entryObj.put("info", mediaInfoToJson(entry.getValue()));
+                    entryArray.put(entryObj);
+                }
+                storeObj.put("entries", entryArray);
+
+                File tmpFile = new File(mStoreFile.getParentFile(), STORE_NAME + ".tmp");
+                writeLocalText(tmpFile, storeObj.toString());
+                if (!tmpFile.renameTo(mStoreFile)) {
+                    Log.e(TAG, "<saveStore> fail to rename store");
+                }
+            } catch (IOException | JSONException exp) {
+                Log.e(TAG, "<saveStore> fail to save, exp=" + exp.toString());
+            }
+        }
+    }
+
+    private static String readLocalText(final File file) throws IOException {
+        try (InputStream inStream = new FileInputStream(file)) {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int readSize;
+            while ((readSize = inStream.read(buffer)) > 0) {
+                byteStream.write(buffer, 0, readSize);
+            }
+            return new String(byteStream.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void writeLocalText(final File file, final String text) throws IOException {
+        try (OutputStream outStream = new FileOutputStream(file)) {
+            outStream.write(text.getBytes(StandardCharsets.UTF_8));
+            outStream.flush();
+        }
+    }
+}
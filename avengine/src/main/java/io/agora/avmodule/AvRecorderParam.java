@@ -32,6 +32,7 @@ public class AvRecorderParam {
     public IAvRecorderCallback mCallback;   ///< 录像回调接口
 
     public String mOutFilePath;     ///< 输出媒体文件全路径
+    public IAvMuxer mMuxer;         ///< 外部指定的混流器，为null时直接写入 mOutFilePath
 
     public String mVideoCodec = ""; ///< 输出文件视频视频编码格式，默认是 AVC
     public int mColorFormat;        ///< 输出视频帧色彩格式
@@ -49,6 +50,8 @@ public class AvRecorderParam {
     public int mSampleRate;         ///< 输出文件要编码的音频采样率，默认可以沿用输入文件的
     public int mAudioBitRate;       ///< 输出文件音频编码码率，默认可以沿用输入文件的
 
+    public boolean mAsyncCodec;     ///< 是否使用 MediaCodec 异步回调模式，仅 Android 6.0 及以上有效
+
     @Override
     public String toString() {
         String strInfo = "{ videoCodec=" + mVideoCodec
@@ -58,7 +61,7 @@ public class AvRecorderParam {
 
                 + "{ audioCodec=" + mAudioCodec
                 + ", smplFmt=" + mSampleFmt + ", mChannels=" + mChannels + ", smplRate=" + mSampleRate
-                + ", audioBitrate=" + mAudioBitRate + " }\n";
+                + ", audioBitrate=" + mAudioBitRate + ", asyncCodec=" + mAsyncCodec + " }\n";
         return strInfo;
     }
 }
\ No newline at end of file
@@ -0,0 +1,765 @@
+package io.agora.avmodule;
+
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+
+/*
+ * @brief 云录文件分段下载器，先并行下载到本地缓存目录，再由 FFmpeg 从本地文件解封装
+ *        1. HLS 源：解析播放列表(主播放列表选择码率最高的子流)，并行下载分片、密钥和初始化分片，
+ *           生成引用本地文件的播放列表
+ *        2. 其他文件：服务器支持 Range 请求时按照固定大小分块，并行下载到同一个本地文件
+ *        3. 每个分块完成后更新缓存目录中的续传清单，下载中断后再次 fetch() 只下载未完成的分块
+ *        4. 签名 URL 每次请求都可能不同，续传清单使用去掉查询参数的 URL 进行匹配
+ */
+public class AvSegmentFetcher {
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 分段下载参数
+     */
+    public static class FetchParam {
+        public String mSrcUrl;                          ///< 云录文件 URL，可以包含签名参数
+        public String mCacheDir;                        ///< 本地缓存目录，续传清单也保存在该目录中
+        public int mParallelCount = DEFAULT_PARALLEL;   ///< 并行下载的分块数量
+        public int mRangeSize = DEFAULT_RANGE_SIZE;     ///< 非 HLS 文件每个分块的字节数
+
+        @Override
+        public String toString() {
+            String infoText = "{ mSrcUrl=" + mSrcUrl + ", mCacheDir=" + mCacheDir
+                    + ", mParallelCount=" + mParallelCount + ", mRangeSize=" + mRangeSize + " }";
+            return infoText;
+        }
+    }
+
+    /*
+     * @brief 一个下载分块，HLS 分片/密钥/初始化分片，或者文件中的一段字节范围
+     */
+    private static class FetchPart {
+        String mUrl;                    ///< 下载地址
+        String mFileName;               ///< 缓存目录中的本地文件名
+        long mStart = 0;                ///< 字节范围起始位置，仅非 HLS 文件有效
+        long mEnd = -1;                 ///< 字节范围结束位置(包含)，-1 表示下载到结尾
+        long mSize = 0;                 ///< 下载完成的字节数
+        volatile boolean mDone = false; ///< 是否已经下载完成
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "AVMODULE/SegFetcher";
+
+    public static final int DEFAULT_PARALLEL = 4;
+    public static final int DEFAULT_RANGE_SIZE = (1024 * 1024);
+
+    private static final String MANIFEST_NAME = "fetch_manifest.json";
+    private static final int MANIFEST_VERSION = 1;
+    private static final String PLAYLIST_NAME = "index.m3u8";
+    private static final String TYPE_HLS = "hls";
+    private static final String TYPE_FILE = "file";
+
+    private static final int HTTP_TIMEOUT = 10000;          ///< HTTP 连接和读取超时10秒
+    private static final int RETRY_COUNT = 3;               ///< 每个分块的最大尝试次数
+    private static final long RETRY_INTERVAL = 500;         ///< 重试间隔，每次重试递增
+    private static final int IO_BUFFER_SIZE = (64 * 1024);
+    private static final long CANCEL_CHECK_INTERVAL = 100;  ///< 等待下载线程时检测取消的间隔(毫秒)
+
+    private static final Pattern PATTERN_URI = Pattern.compile("URI=\"([^\"]*)\"");
+    private static final Pattern PATTERN_BANDWIDTH = Pattern.compile("BANDWIDTH=(\\d+)");
+    private static final Pattern PATTERN_CONTENT_RANGE = Pattern.compile("bytes\\s+\\d+-\\d+/(\\d+)");
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final FetchParam mParam;
+    private final Object mManifestLock = new Object();
+    private final HashSet<HttpURLConnection> mActiveConnections = new HashSet<>();
+    private final ArrayList<FetchPart> mPartList = new ArrayList<>();
+    private String mType;                           ///< TYPE_HLS 或者 TYPE_FILE
+    private String mEntryName;                      ///< 提供给解封装的本地文件名
+    private long mTotalBytes = -1;                  ///< 非 HLS 文件的总字节数，-1 表示未知
+
+    private volatile boolean mCancelled = false;
+    private volatile boolean mFailed = false;
+    private final AtomicLong mFetchedBytes = new AtomicLong(0);
+    private final AtomicInteger mDonePartCount = new AtomicInteger(0);
+    private int mResumedPartCount = 0;              ///< 从续传清单中恢复的已完成分块数量
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 构造函数
+     * @param fetchParam : 下载参数
+     */
+    public AvSegmentFetcher(final FetchParam fetchParam) {
+        mParam = fetchParam;
+    }
+
+    /*
+     * @brief 同步下载所有分块到缓存目录，已经完成的分块不再下载，在工作线程中调用
+     *        实际下载在单独的线程中进行，调用 cancel() 后最多 CANCEL_CHECK_INTERVAL 就返回，
+     *        不用等待正在建立的连接超时
+     * @return 错误码，XERR_UNSUPPORTED 表示没有结束标记的直播流，调用者应该直接读取网络流；
+     *         XERR_BAD_STATE 表示已经被取消
+     */
+    public int fetch() {
+        FutureTask<Integer> fetchTask = new FutureTask<>(this::doFetch);
+        Thread fetchThread = new Thread(fetchTask, "AvSegmentFetcher");
+        fetchThread.start();
+
+        for (;;) {
+            try {
+                return fetchTask.get(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException timeoutExp) {
+                if (mCancelled) {   // 下载线程检测到取消标记后自己退出
+                    fetchThread.interrupt();
+                    Log.d(TAG, "<fetch> cancelled");
+                    return ErrCode.XERR_BAD_STATE;
+                }
+            } catch (InterruptedException interruptExp) {
+                cancel();
+                fetchThread.interrupt();
+                Thread.currentThread().interrupt();
+                return ErrCode.XERR_BAD_STATE;
+            } catch (ExecutionException execExp) {
+                Log.e(TAG, "<fetch> fetch exception, exp=" + execExp.getCause());
+                return mCancelled ? ErrCode.XERR_BAD_STATE : ErrCode.XERR_NETWORK;
+            }
+        }
+    }
+
+    /*
+     * @brief 实际的下载处理，在下载线程中运行
+     */
+    private int doFetch() {
+        long beginTime = System.currentTimeMillis();
+        File cacheDir = new File(mParam.mCacheDir);
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            Log.e(TAG, "<doFetch> fail to create cache dir, param=" + mParam);
+            return ErrCode.XERR_FILE_OPEN;
+        }
+
+        int ret;
+        try {
+            if (isHlsUrl(mParam.mSrcUrl)) {
+                ret = prepareHls();
+            } else {
+                ret = prepareFile();
+            }
+        } catch (IOException ioExp) {
+            Log.e(TAG, "<doFetch> fail to prepare, exp=" + ioExp.toString());
+            ret = mCancelled ? ErrCode.XERR_BAD_STATE : ErrCode.XERR_NETWORK;
+        }
+        if (ret != ErrCode.XOK) {
+            return ret;
+        }
+
+        loadManifest();
+        saveManifest();
+        ret = fetchParts();
+
+        long costTime = System.currentTimeMillis() - beginTime;
+        Log.d(TAG, "<doFetch> done, ret=" + ret + ", type=" + mType
+                + ", parts=" + mDonePartCount.get() + "/" + mPartList.size()
+                + ", resumedParts=" + mResumedPartCount
+                + ", fetchedBytes=" + mFetchedBytes.get() + ", costTime=" + costTime);
+        return ret;
+    }
+
+    /*
+     * @brief 取消下载，正在进行的 fetch() 尽快返回，已经完成的分块保留在续传清单中
+     */
+    public void cancel() {
+        mCancelled = true;
+        synchronized (mActiveConnections) {
+            for (HttpURLConnection connection : mActiveConnections) {
+                connection.disconnect();
+            }
+        }
+        Log.d(TAG, "<cancel> done");
+    }
+
+    /*
+     * @brief 获取提供给 FFmpeg 解封装的本地文件路径，fetch() 成功后有效
+     */
+    public String getLocalUrl() {
+        return new File(mParam.mCacheDir, mEntryName).getAbsolutePath();
+    }
+
+    /*
+     * @brief 获取已经下载的字节数，包含从续传清单恢复的部分
+     */
+    public long getFetchedBytes() {
+        return mFetchedBytes.get();
+    }
+
+    public int getPartCount() {
+        return mPartList.size();
+    }
+
+    public int getDonePartCount() {
+        return mDonePartCount.get();
+    }
+
+    /*
+     * @brief 判断是否是 HLS 播放列表地址
+     */
+    public static boolean isHlsUrl(final String url) {
+        String path = stripQuery(url).toLowerCase();
+        return path.endsWith(".m3u8");
+    }
+
+    /*
+     * @brief 删除缓存目录中续传清单记录的所有文件，目录为空时一起删除
+     * @param cacheDir : 缓存目录
+     */
+    public static void clearCache(final String cacheDir) {
+        File manifestFile = new File(cacheDir, MANIFEST_NAME);
+        try {
+            JSONObject manifestObj = new JSONObject(readLocalText(manifestFile));
+            new File(cacheDir, manifestObj.getString("entry")).delete();
+            JSONArray partArray = manifestObj.getJSONArray("parts");
+            for (int i = 0; i < partArray.length(); i++) {
+                String fileName = partArray.getJSONObject(i).getString("file");
+                new File(cacheDir, fileName).delete();
+                new File(cacheDir, fileName + ".tmp").delete();
+            }
+        } catch (IOException | JSONException exp) {
+            Log.w(TAG, "<clearCache> no manifest, cacheDir=" + cacheDir);
+        }
+        manifestFile.delete();
+        new File(cacheDir).delete();
+        Log.d(TAG, "<clearCache> done, cacheDir=" + cacheDir);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 下载并解析 HLS 播放列表，生成下载分块和本地播放列表
+     */
+    private int prepareHls() throws IOException {
+        String playlistUrl = mParam.mSrcUrl;
+        String playlist = readHttpText(playlistUrl);
+
+        // 主播放列表，选择码率最高的子流
+        if (playlist.contains("#EXT-X-STREAM-INF")) {
+            String variantUrl = selectVariant(playlistUrl, playlist);
+            if (variantUrl == null) {
+                Log.e(TAG, "<prepareHls> no variant in master playlist");
+                return ErrCode.XERR_FILE_NO_STREAM;
+            }
+            playlistUrl = variantUrl;
+            playlist = readHttpText(playlistUrl);
+        }
+        if (!playlist.contains("#EXT-X-ENDLIST")) {
+            Log.w(TAG, "<prepareHls> live playlist not supported");
+            return ErrCode.XERR_UNSUPPORTED;
+        }
+
+        // 所有分片、密钥和初始化分片都改成引用本地文件
+        mType = TYPE_HLS;
+        mEntryName = PLAYLIST_NAME;
+        mPartList.clear();
+        StringBuilder localPlaylist = new StringBuilder();
+        int segmentIndex = 0;
+        int keyIndex = 0;
+        for (String rawLine : playlist.split("\n")) {
+            String line = rawLine.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            if (line.startsWith("#EXT-X-KEY") || line.startsWith("#EXT-X-MAP")) {
+                Matcher matcher = PATTERN_URI.matcher(line);
+                if (matcher.find()) {
+                    String fileName = line.startsWith("#EXT-X-KEY")
+                            ? String.format("key_%03d.bin", keyIndex)
+                            : String.format("init_%03d%s", keyIndex, getExtension(matcher.group(1), ".mp4"));
+                    keyIndex++;
+                    addPart(resolveUrl(playlistUrl, matcher.group(1)), fileName, 0, -1);
+                    line = line.substring(0, matcher.start(1)) + fileName + line.substring(matcher.end(1));
+                }
+
+            } else if (!line.startsWith("#")) {
+                String fileName = String.format("seg_%05d%s", segmentIndex, getExtension(line, ".ts"));
+                segmentIndex++;
+                addPart(resolveUrl(playlistUrl, line), fileName, 0, -1);
+                line = fileName;
+            }
+            localPlaylist.append(line).append('\n');
+        }
+
+        writeLocalText(new File(mParam.mCacheDir, PLAYLIST_NAME), localPlaylist.toString());
+        Log.d(TAG, "<prepareHls> done, segments=" + segmentIndex + ", parts=" + mPartList.size());
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 从主播放列表中选择码率最高的子流
+     * @return 子流播放列表地址，没有找到返回 null
+     */
+    private static String selectVariant(final String masterUrl, final String playlist) {
+        String bestUrl = null;
+        long bestBandwidth = -1;
+        long bandwidth = -1;
+        boolean streamInf = false;
+        for (String rawLine : playlist.split("\n")) {
+            String line = rawLine.trim();
+            if (line.startsWith("#EXT-X-STREAM-INF")) {
+                Matcher matcher = PATTERN_BANDWIDTH.matcher(line);
+                bandwidth = matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+                streamInf = true;
+            } else if (streamInf && !line.isEmpty() && !line.startsWith("#")) {
+                if (bandwidth > bestBandwidth) {
+                    bestBandwidth = bandwidth;
+                    bestUrl = resolveUrl(masterUrl, line);
+                }
+                streamInf = false;
+            }
+        }
+        Log.d(TAG, "<selectVariant> bestBandwidth=" + bestBandwidth);
+        return bestUrl;
+    }
+
+    /*
+     * @brief 获取文件大小，服务器支持 Range 请求时按照 mRangeSize 分块，否则整个文件作为一个分块
+     */
+    private int prepareFile() throws IOException {
+        mType = TYPE_FILE;
+        mEntryName = "media" + getExtension(mParam.mSrcUrl, ".mp4");
+        mPartList.clear();
+
+        HttpURLConnection connection = openConnection(mParam.mSrcUrl, 0, 0);
+        try {
+            int respCode = connection.getResponseCode();
+            if (respCode == HttpURLConnection.HTTP_PARTIAL) {
+                String contentRange = connection.getHeaderField("Content-Range");
+                Matcher matcher = PATTERN_CONTENT_RANGE.matcher((contentRange != null) ? contentRange : "");
+                mTotalBytes = matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+            } else if (respCode == HttpURLConnection.HTTP_OK) {
+                mTotalBytes = -1;   // 不支持 Range 请求
+            } else {
+                Log.e(TAG, "<prepareFile> response error, respCode=" + respCode);
+                return ErrCode.XERR_HTTP_RESP_CODE;
+            }
+        } finally {
+            closeConnection(connection);
+        }
+
+        if (mTotalBytes <= 0) {
+            addPart(mParam.mSrcUrl, mEntryName, 0, -1);
+        } else {
+            int rangeSize = Math.max(mParam.mRangeSize, IO_BUFFER_SIZE);
+            for (long start = 0; start < mTotalBytes; start += rangeSize) {
+                long end = Math.min(start + rangeSize, mTotalBytes) - 1;
+                addPart(mParam.mSrcUrl, mEntryName, start, end);
+            }
+        }
+        Log.d(TAG, "<prepareFile> done, totalBytes=" + mTotalBytes + ", parts=" + mPartList.size());
+        return ErrCode.XOK;
+    }
+
+    private void addPart(final String url, final String fileName, long start, long end) {
+        FetchPart part = new FetchPart();
+        part.mUrl = url;
+        part.mFileName = fileName;
+        part.mStart = start;
+        part.mEnd = end;
+        mPartList.add(part);
+    }
+
+    /*
+     * @brief 并行下载所有未完成的分块，任意一个分块失败时其他分块也尽快结束
+     */
+    private int fetchParts() {
+        ArrayList<FetchPart> pendingList = new ArrayList<>();
+        for (FetchPart part : mPartList) {
+            if (!part.mDone) {
+                pendingList.add(part);
+            }
+        }
+        if (pendingList.isEmpty()) {
+            return ErrCode.XOK;
+        }
+
+        // 非 HLS 文件先设置好文件大小，各个分块直接写入对应位置
+        if (TYPE_FILE.equals(mType) && (mTotalBytes > 0)) {
+            try (RandomAccessFile raf = new RandomAccessFile(new File(mParam.mCacheDir, mEntryName), "rw")) {
+                raf.setLength(mTotalBytes);
+            } catch (IOException ioExp) {
+                Log.e(TAG, "<fetchParts> fail to allocate file, exp=" + ioExp.toString());
+                return ErrCode.XERR_FILE_WRITE;
+            }
+        }
+
+        int threadCount = Math.max(1, Math.min(mParam.mParallelCount, pendingList.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<Integer>> futureList = new ArrayList<>();
+        for (final FetchPart part : pendingList) {
+            futureList.add(executor.submit(() -> fetchPart(part)));
+        }
+
+        int result = ErrCode.XOK;
+        for (Future<Integer> future : futureList) {
+            int ret;
+            try {
+                ret = future.get();
+            } catch (InterruptedException | ExecutionException exp) {
+                Log.e(TAG, "<fetchParts> task exception, exp=" + exp.toString());
+                ret = ErrCode.XERR_NETWORK;
+            }
+            if ((ret != ErrCode.XOK) && (result == ErrCode.XOK)) {
+                result = ret;
+                mFailed = true;
+            }
+        }
+        executor.shutdownNow();
+        return mCancelled ? ErrCode.XERR_BAD_STATE : result;
+    }
+
+    /*
+     * @brief 下载一个分块，失败时间隔重试，HTTP 4xx 错误不再重试
+     */
+    private int fetchPart(final FetchPart part) {
+        int ret = ErrCode.XERR_NETWORK;
+        for (int tryCount = 0; tryCount < RETRY_COUNT; tryCount++) {
+            if (mCancelled || mFailed) {
+                return ErrCode.XERR_BAD_STATE;
+            }
+            if (tryCount > 0) {
+                try {
+                    Thread.sleep(RETRY_INTERVAL * tryCount);
+                } catch (InterruptedException interruptExp) {
+                    return ErrCode.XERR_BAD_STATE;
+                }
+            }
+
+            ret = downloadPart(part);
+            if (ret == ErrCode.XOK) {
+                part.mDone = true;
+                mDonePartCount.incrementAndGet();
+                saveManifest();
+                return ErrCode.XOK;
+            }
+            if (ret == ErrCode.XERR_HTTP_RESP_CODE) {
+                break;
+            }
+            Log.w(TAG, "<fetchPart> retry, file=" + part.mFileName + ", start=" + part.mStart
+                    + ", tryCount=" + tryCount + ", ret=" + ret);
+        }
+        Log.e(TAG, "<fetchPart> fail to download, file=" + part.mFileName
+                + ", start=" + part.mStart + ", ret=" + ret);
+        return ret;
+    }
+
+    /*
+     * @brief 下载一个分块的数据
+     *        HLS 分块先写入临时文件，完成后再改名；文件分块直接写入对应位置，完成后刷新到存储
+     */
+    private int downloadPart(final FetchPart part) {
+        boolean rangeRequest = (part.mEnd >= 0);
+        File localFile = new File(mParam.mCacheDir, part.mFileName);
+        File tmpFile = new File(mParam.mCacheDir, part.mFileName + ".tmp");
+        HttpURLConnection connection = null;
+        long partBytes = 0;
+
+        try {
+            connection = openConnection(part.mUrl, part.mStart, part.mEnd);
+            int respCode = connection.getResponseCode();
+            int expectCode = rangeRequest ? HttpURLConnection.HTTP_PARTIAL : HttpURLConnection.HTTP_OK;
+            if (respCode != expectCode) {
+                Log.e(TAG, "<downloadPart> response error, respCode=" + respCode + ", file=" + part.mFileName);
+                return ((respCode >= 400) && (respCode < 500)) ? ErrCode.XERR_HTTP_RESP_CODE : ErrCode.XERR_NETWORK;
+            }
+
+            byte[] buffer = new byte[IO_BUFFER_SIZE];
+            try (InputStream inStream = connection.getInputStream()) {
+                if (rangeRequest) {
+                    try (RandomAccessFile raf = new RandomAccessFile(localFile, "rw")) {
+                        raf.seek(part.mStart);
+                        int readSize;
+                        while (!mCancelled && ((readSize = inStream.read(buffer)) > 0)) {
+                            raf.write(buffer, 0, readSize);
+                            partBytes += readSize;
+                            mFetchedBytes.addAndGet(readSize);
+                        }
+                        raf.getChannel().force(false);
+                    }
+                } else {
+                    try (OutputStream outStream = new FileOutputStream(tmpFile)) {
+                        int readSize;
+                        while (!mCancelled && ((readSize = inStream.read(buffer)) > 0)) {
+                            outStream.write(buffer, 0, readSize);
+                            partBytes += readSize;
+                            mFetchedBytes.addAndGet(readSize);
+                        }
+                    }
+                }
+            }
+
+            if (mCancelled) {
+                mFetchedBytes.addAndGet(-partBytes);
+                return ErrCode.XERR_BAD_STATE;
+            }
+            if (rangeRequest && (partBytes != (part.mEnd - part.mStart + 1))) {
+                Log.e(TAG, "<downloadPart> incomplete range, file=" + part.mFileName
+                        + ", start=" + part.mStart + ", partBytes=" + partBytes);
+                mFetchedBytes.addAndGet(-partBytes);
+                return ErrCode.XERR_NETWORK;
+            }
+            if (!rangeRequest) {
+                localFile.delete();
+                if (!tmpFile.renameTo(localFile)) {
+                    Log.e(TAG, "<downloadPart> fail to rename, file=" + part.mFileName);
+                    mFetchedBytes.addAndGet(-partBytes);
+                    return ErrCode.XERR_FILE_WRITE;
+                }
+            }
+            part.mSize = partBytes;
+            return ErrCode.XOK;
+
+        } catch (IOException ioExp) {
+            Log.e(TAG, "<downloadPart> exception, file=" + part.mFileName + ", exp=" + ioExp.toString());
+            mFetchedBytes.addAndGet(-partBytes);
+            return ErrCode.XERR_NETWORK;
+
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    /*
+     * @brief 从续传清单中恢复已经完成的分块，清单和当前下载计划不一致时全部重新下载
+     */
+    private void loadManifest() {
+        mResumedPartCount = 0;
+        File manifestFile = new File(mParam.mCacheDir, MANIFEST_NAME);
+        if (!manifestFile.exists()) {
+            return;
+        }
+
+        try {
+            JSONObject manifestObj = new JSONObject(readLocalText(manifestFile));
+            if ((manifestObj.getInt("version") != MANIFEST_VERSION)
+                    || !stripQuery(mParam.mSrcUrl).equals(manifestObj.getString("source"))
+                    || !mType.equals(manifestObj.getString("type"))
+                    || (mTotalBytes != manifestObj.getLong("totalBytes"))) {
+                Log.d(TAG, "<loadManifest> manifest changed, fetch all parts");
+                return;
+            }
+
+            JSONArray partArray = manifestObj.getJSONArray("parts");
+            if (partArray.length() != mPartList.size()) {
+                Log.d(TAG, "<loadManifest> part count changed, fetch all parts");
+                return;
+            }
+
+            for (int i = 0; i < partArray.length(); i++) {
+                JSONObject partObj = partArray.getJSONObject(i);
+                FetchPart part = mPartList.get(i);
+                if (!partObj.getBoolean("done")
+                        || !part.mFileName.equals(partObj.getString("file"))
+                        || (part.mStart != partObj.getLong("start"))
+                        || (part.mEnd != partObj.getLong("end"))) {
+                    continue;
+                }
+
+                // 本地文件必须还在并且大小正确
+                long partSize = partObj.getLong("size");
+                File localFile = new File(mParam.mCacheDir, part.mFileName);
+                long expectLength = TYPE_FILE.equals(mType) && (mTotalBytes > 0) ? mTotalBytes : partSize;
+                if (!localFile.exists() || (localFile.length() != expectLength)) {
+                    continue;
+                }
+                part.mSize = partSize;
+                part.mDone = true;
+                mDonePartCount.incrementAndGet();
+                mFetchedBytes.addAndGet(partSize);
+                mResumedPartCount++;
+            }
+        } catch (IOException | JSONException exp) {
+            Log.e(TAG, "<loadManifest> invalid manifest, exp=" + exp.toString());
+        }
+        Log.d(TAG, "<loadManifest> done, resumedParts=" + mResumedPartCount + "/" + mPartList.size());
+    }
+
+    /*
+     * @brief 保存续传清单，先写临时文件再改名，保证清单文件总是完整的
+     */
+    private void saveManifest() {
+        synchronized (mManifestLock) {
+            try {
+                JSONObject manifestObj = new JSONObject();
+                manifestObj.put("version", MANIFEST_VERSION);
+                manifestObj.put("source", stripQuery(mParam.mSrcUrl));
+                manifestObj.put("type", mType);
+                manifestObj.put("entry", mEntryName);
+                manifestObj.put("totalBytes", mTotalBytes);
+                JSONArray partArray = new JSONArray();
+                for (FetchPart part : mPartList) {
+                    JSONObject partObj = new JSONObject();
+                    partObj.put("file", part.mFileName);
+                    partObj.put("start", part.mStart);
+                    partObj.put("end", part.mEnd);
+                    partObj.put("size", part.mSize);
+                    partObj.put("done", part.mDone);
+                    partArray.put(partObj);
+                }
+                manifestObj.put("parts", partArray);
+
+                File tmpFile = new File(mParam.mCacheDir, MANIFEST_NAME + ".tmp");
+                writeLocalText(tmpFile, manifestObj.toString());
+                if (!tmpFile.renameTo(new File(mParam.mCacheDir, MANIFEST_NAME))) {
+                    Log.e(TAG, "<saveManifest> fail to rename manifest");
+                }
+            } catch (IOException | JSONException exp) {
+                Log.e(TAG, "<saveManifest> fail to save, exp=" + exp.toString());
+            }
+        }
+    }
+
+    /*
+     * @brief 创建 HTTP 连接，rangeEnd 小于 0 时不带 Range 请求头
+     */
+    private HttpURLConnection openConnection(final String url, long rangeStart, long rangeEnd)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(HTTP_TIMEOUT);
+        connection.setReadTimeout(HTTP_TIMEOUT);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (rangeEnd >= 0) {
+            connection.setRequestProperty("Range", "bytes=" + rangeStart + "-" + rangeEnd);
+        }
+        synchronized (mActiveConnections) {
+            if (mCancelled) {
+                throw new IOException("fetch cancelled");
+            }
+            mActiveConnections.add(connection);
+        }
+        return connection;
+    }
+
+    private void closeConnection(final HttpURLConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        synchronized (mActiveConnections) {
+            mActiveConnections.remove(connection);
+        }
+        connection.disconnect();
+    }
+
+    private String readHttpText(final String url) throws IOException {
+        HttpURLConnection connection = openConnection(url, 0, -1);
+        try {
+            int respCode = connection.getResponseCode();
+            if (respCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("response code " + respCode);
+            }
+            try (InputStream inStream = connection.getInputStream()) {
+                return new String(readAll(inStream), StandardCharsets.UTF_8);
+            }
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    private static String readLocalText(final File file) throws IOException {
+        try (InputStream inStream = new FileInputStream(file)) {
+            return new String(readAll(inStream), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void writeLocalText(final File file, final String text) throws IOException {
+        try (OutputStream outStream = new FileOutputStream(file)) {
+            outStream.write(text.getBytes(StandardCharsets.UTF_8));
+            outStream.flush();
+        }
+    }
+
+    private static byte[] readAll(final InputStream inStream) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[IO_BUFFER_SIZE];
+        int readSize;
+        while ((readSize = inStream.read(buffer)) > 0) {
+            byteStream.write(buffer, 0, readSize);
+        }
+        return byteStream.toByteArray();
+    }
+
+    /*
+     * @brief 去掉 URL 中的查询参数和片段
+     */
+    static String stripQuery(final String url) {
+        int endPos = url.length();
+        int queryPos = url.indexOf('?');
+        int fragmentPos = url.indexOf('#');
+        if (queryPos >= 0) endPos = Math.min(endPos, queryPos);
+        if (fragmentPos >= 0) endPos = Math.min(endPos, fragmentPos);
+        return url.substring(0, endPos);
+    }
+
+    /*
+     * @brief 获取 URL 路径中的文件扩展名，带前面的点号
+     */
+    private static String getExtension(final String url, final String defaultExt) {
+        String path = stripQuery(url);
+        int slashPos = path.lastIndexOf('/');
+        int dotPos = path.lastIndexOf('.');
+        if ((dotPos <= slashPos) || ((path.length() - dotPos) > 6)) {
+            return defaultExt;
+        }
+        return path.substring(dotPos);
+    }
+
+    /*
+     * @brief 根据播放列表地址解析相对地址
+     */
+    private static String resolveUrl(final String baseUrl, final String refUrl) {
+        try {
+            return new URL(new URL(baseUrl), refUrl).toString();
+        } catch (IOException urlExp) {
+            return refUrl;
+        }
+    }
+}
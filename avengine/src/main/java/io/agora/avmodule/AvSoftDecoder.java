@@ -27,6 +27,8 @@ public class AvSoftDecoder {
     //////////////////////// Constant Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
     private static final String TAG = "AVMODULE/SoftDecoder";
+    private static final int VIDEO_POOL_FREE_MAX = 12;      ///< 视频帧缓冲区空闲上限，覆盖解码输出队列、转交和编码输入队列
+    private static final int AUDIO_POOL_FREE_MAX = 32;      ///< 音频帧缓冲区空闲上限
 
 
     ////////////////////////////////////////////////////////////////////////
@@ -37,6 +39,11 @@ public class AvSoftDecoder {
     private AvDecParam mDecParam;        ///< 编解码器初始化参数
     private long mParserHandler = 0;
 
+    private final AvBufferPool mVideoPool = new AvBufferPool(VIDEO_POOL_FREE_MAX);  ///< 解码视频帧缓冲区
+    private final AvBufferPool mAudioPool = new AvBufferPool(AUDIO_POOL_FREE_MAX);  ///< 解码音频帧缓冲区
+    private int mVideoDataSize = 0;         ///< 上一个视频帧的数据大小，用于预先获取缓冲区
+    private int mAudioDataSize = 0;         ///< 上一个音频帧的数据大小，用于预先获取缓冲区
+
     static {
         System.loadLibrary("SoftDecoder");
     }
@@ -51,11 +58,13 @@ public class AvSoftDecoder {
             return null;
         }
 
-        AvMediaInfo mediaInfo = new AvMediaInfo();
-        int ret = native_distillMediaInfo(filePath, mediaInfo);
-        Log.d(TAG, "<distillMediaInfo> done, ret=" + ret
-                + ", mediaInfo=" + mediaInfo.toString());
-        return mediaInfo;
+        return AvProbeCache.getInstance().getOrProbe(AvProbeCache.PROBE_SW, filePath, () -> {
+            AvMediaInfo mediaInfo = new AvMediaInfo();
+            int ret = native_distillMediaInfo(filePath, mediaInfo);
+            Log.d(TAG, "<distillMediaInfo> done, ret=" + ret
+                    + ", mediaInfo=" + mediaInfo.toString());
+            return mediaInfo;
+        });
     }
 
 
@@ -77,6 +86,8 @@ public class AvSoftDecoder {
             return ErrCode.XERR_FILE_OPEN;
         }
         int ret = native_getInMediaInfo(mParserHandler, mMediaInfo);
+        mVideoDataSize = Math.max(mMediaInfo.mVideoWidth * mMediaInfo.mVideoHeight * 3 / 2, 0);
+        mAudioDataSize = 0;
 
         Log.d(TAG, "<parserOpen> done, decParam=" + decParam.toString()
                 + ", mParserHandler=" + mParserHandler + ", ret=" + ret);
@@ -93,10 +104,27 @@ public class AvSoftDecoder {
 
         native_parserClose(mParserHandler);
         mParserHandler = 0;
-        Log.d(TAG, "<parserClose> done");
+        Log.d(TAG, "<parserClose> done, videoPool=" + mVideoPool.getStats()
+                + ", audioPool=" + mAudioPool.getStats());
+        mVideoPool.clear();
+        mAudioPool.clear();
         return ErrCode.XOK;
     }
 
+    /**
+     * @brief 获取视频帧缓冲区对象池的统计信息，复用次数接近获取次数说明解码过程中没有分配新的缓冲区
+     */
+    public AvBufferPool.PoolStats getVideoPoolStats() {
+        return mVideoPool.getStats();
+    }
+
+    /**
+     * @brief 获取音频帧缓冲区对象池的统计信息
+     */
+    public AvBufferPool.PoolStats getAudioPoolStats() {
+        return mAudioPool.getStats();
+    }
+
     /**
      * @brief 获取解析后的文件信息
      */
@@ -121,7 +149,10 @@ public class AvSoftDecoder {
     }
 
     /**
-     * @brief 解码一帧视频帧
+     * @brief 解码一帧视频帧，帧数据直接解码到对象池的缓冲区中
+     *        按照上一帧的大小预先获取缓冲区，一次 JNI 调用完成解码和拷贝；
+     *        大小变化时(第一帧或者分辨率变化)重新获取缓冲区后再拷贝一次
+     *        编码器送入数据后调用 releaseBuffer() 将缓冲区归还到对象池
      * @return Integer : 错误码，XERR_CODEC_DECODING 表示解码失败，并且不能继续
      *                         XERR_CODEC_DEC_EOS 表示所有的解码都已经完成
      *         AvVideoFrame : 如果解码成功，返回解码输出的视频帧数据
@@ -133,7 +164,14 @@ public class AvSoftDecoder {
         }
 
         AvVideoFrame videoFrame = new AvVideoFrame();
-        int retDec = native_parserDecVideoFrame(mParserHandler, videoFrame);
+        AvBufferPool.PooledBuffer pooledBuffer = (mVideoDataSize > 0) ? mVideoPool.obtain(mVideoDataSize) : null;
+        int retDec = native_parserDecVideoFrameTo(mParserHandler, videoFrame,
+                (pooledBuffer != null) ? pooledBuffer.mData : null);
+        if (videoFrame.mLastFrame || videoFrame.mWidth <= 0 || videoFrame.mHeight <= 0) {
+            if (pooledBuffer != null) {
+                pooledBuffer.release();
+            }
+        }
         if (videoFrame.mLastFrame) {
             Log.d(TAG, "<parserDecVideoFrame> done, last frame, retDec=" + retDec
                     + ", timestamp=" + videoFrame.mTimestamp
@@ -146,8 +184,17 @@ public class AvSoftDecoder {
         }
 
         int dataSize = (videoFrame.mWidth * videoFrame.mHeight * 3 / 2);
-        videoFrame.mDataBuffer = new byte[dataSize];
-        int retGet = native_parserGetVideoFrame(mParserHandler, videoFrame.mDataBuffer);
+        int retGet = retDec;
+        if ((pooledBuffer == null) || (pooledBuffer.mData.length != dataSize)) {  // 大小变化，没有拷贝
+            if (pooledBuffer != null) {
+                pooledBuffer.release();
+            }
+            mVideoDataSize = dataSize;
+            pooledBuffer = mVideoPool.obtain(dataSize);
+            retGet = native_parserGetVideoFrame(mParserHandler, pooledBuffer.mData);
+        }
+        videoFrame.mDataBuffer = pooledBuffer.mData;
+        videoFrame.mPooledBuffer = pooledBuffer;
 //        Log.d(TAG, "<parserDecVideoFrame> done, retGet=" + retGet
 //                + ", timestamp=" + videoFrame.mTimestamp
 //                + ", width=" + videoFrame.mWidth + ", height=" + videoFrame.mHeight
@@ -156,10 +203,10 @@ public class AvSoftDecoder {
     }
 
     /**
-     * @brief 解码一帧视频帧
+     * @brief 解码一帧音频帧，帧数据直接解码到对象池的缓冲区中，处理方式和视频帧相同
      * @return Integer : 错误码，XERR_CODEC_DECODING 表示解码失败，并且不能继续
      *                         XERR_CODEC_DEC_EOS 表示所有的解码都已经完成
-     *         AvVideoFrame : 如果解码成功，返回解码输出的视频帧数据
+     *         AvAudioFrame : 如果解码成功，返回解码输出的音频帧数据
      */
     public Pair<Integer, AvAudioFrame> parserDecAudioFrame() {
         if (mParserHandler == 0) {
@@ -168,7 +215,14 @@ public class AvSoftDecoder {
         }
 
         AvAudioFrame audioFrame = new AvAudioFrame();
-        int retDec = native_parserDecAudioFrame(mParserHandler, audioFrame);
+        AvBufferPool.PooledBuffer pooledBuffer = (mAudioDataSize > 0) ? mAudioPool.obtain(mAudioDataSize) : null;
+        int retDec = native_parserDecAudioFrameTo(mParserHandler, audioFrame,
+                (pooledBuffer != null) ? pooledBuffer.mData : null);
+        if (audioFrame.mLastFrame || audioFrame.mSampleNumber <= 0) {
+            if (pooledBuffer != null) {
+                pooledBuffer.release();
+            }
+        }
         if (audioFrame.mLastFrame) {
             Log.d(TAG, "<parserDecAudioFrame> done, last frame, retDec=" + retDec
                     + ", timestamp=" + audioFrame.mTimestamp
@@ -183,8 +237,17 @@ public class AvSoftDecoder {
         }
 
         int dataSize = (audioFrame.mBytesPerSample * audioFrame.mChannels * audioFrame.mSampleNumber);
-        audioFrame.mDataBuffer = new byte[dataSize];
-        int retGet = native_parserGetAudioFrame(mParserHandler, audioFrame.mDataBuffer);
+        int retGet = retDec;
+        if ((pooledBuffer == null) || (pooledBuffer.mData.length != dataSize)) {  // 大小变化，没有拷贝
+            if (pooledBuffer != null) {
+                pooledBuffer.release();
+            }
+            mAudioDataSize = dataSize;
+            pooledBuffer = mAudioPool.obtain(dataSize);
+            retGet = native_parserGetAudioFrame(mParserHandler, pooledBuffer.mData);
+        }
+        audioFrame.mDataBuffer = pooledBuffer.mData;
+        audioFrame.mPooledBuffer = pooledBuffer;
 //        Log.d(TAG, "<parserDecAudioFrame> done, ret=" + retGet
 //                + ", timestamp=" + audioFrame.mTimestamp
 //                + ", sampleFormat=" + audioFrame.mSampleFormat
@@ -339,6 +402,8 @@ public class AvSoftDecoder {
     public native int native_parserGetVideoFrame(long hParser, byte[] videoFrame);
     public native int native_parserDecAudioFrame(long hDecoder, AvAudioFrame outAudioFrame);
     public native int native_parserGetAudioFrame(long hParser, byte[] audioFrame);
+    public native int native_parserDecVideoFrameTo(long hParser, AvVideoFrame outVideoFrame, byte[] outBuffer);
+    public native int native_parserDecAudioFrameTo(long hParser, AvAudioFrame outAudioFrame, byte[] outBuffer);
 
     public native int native_yuvToBitmap(byte[] yuvData, int yuvFormat, int width, int height, int stride, Object outBmp);
     public native int native_bitmapToYuv(Object inBmp, int outYuvFmt, byte[] outYuvBuffer);
@@ -0,0 +1,164 @@
+package io.agora.avmodule;
+
+
+import android.os.SystemClock;
+
+
+
+/*
+ * @brief 流水线中单个处理阶段的统计信息，线程安全
+ *        1. 处理帧数和处理时长，计算每秒处理帧数
+ *        2. 阻塞时长：下游队列满时等待的时间
+ *        3. 饥饿时长：上游没有数据时空等的时间
+ */
+public class AvStageStats {
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final String mStageName;
+    private long mFrameCount = 0;               ///< 已经处理的帧数量
+    private long mBeginTime = 0;                ///< 第一帧处理的时间点(毫秒)
+    private long mLastTime = 0;                 ///< 最后一帧处理的时间点(毫秒)
+    private long mStallTime = 0;                ///< 下游阻塞累计时长(毫秒)
+    private long mStallBegin = 0;               ///< 当前阻塞开始的时间点，0表示当前没有阻塞
+    private long mStallCount = 0;               ///< 阻塞次数
+    private long mStarveTime = 0;               ///< 上游饥饿累计时长(毫秒)
+    private long mStarveBegin = 0;              ///< 当前饥饿开始的时间点，0表示当前没有饥饿
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 构造函数
+     * @param stageName : 阶段名称，仅用于日志输出
+     */
+    public AvStageStats(final String stageName) {
+        mStageName = stageName;
+    }
+
+    /*
+     * @brief 清除所有统计数据
+     */
+    public synchronized void reset() {
+        mFrameCount = 0;
+        mBeginTime = 0;
+        mLastTime = 0;
+        mStallTime = 0;
+        mStallBegin = 0;
+        mStallCount = 0;
+        mStarveTime = 0;
+        mStarveBegin = 0;
+    }
+
+    /*
+     * @brief 记录处理完成的帧数，同时结束当前的饥饿计时
+     * @param frameCount : 本次处理的帧数量
+     */
+    public synchronized void addFrames(int frameCount) {
+        if (frameCount <= 0) {
+            return;
+        }
+        long currTime = SystemClock.elapsedRealtime();
+        if (mBeginTime == 0) {
+            mBeginTime = currTime;
+        }
+        mLastTime = currTime;
+        mFrameCount += frameCount;
+        starveEnd();
+    }
+
+    /*
+     * @brief 下游队列已满开始阻塞，重复调用只记录第一次
+     */
+    public synchronized void stallBegin() {
+        if (mStallBegin == 0) {
+            mStallBegin = SystemClock.elapsedRealtime();
+            mStallCount++;
+        }
+    }
+
+    /*
+     * @brief 下游队列有空闲，阻塞结束
+     */
+    public synchronized void stallEnd() {
+        if (mStallBegin != 0) {
+            mStallTime += (SystemClock.elapsedRealtime() - mStallBegin);
+            mStallBegin = 0;
+        }
+    }
+
+    /*
+     * @brief 上游没有数据开始空等，重复调用只记录第一次
+     */
+    public synchronized void starveBegin() {
+        if (mStarveBegin == 0) {
+            mStarveBegin = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /*
+     * @brief 上游有数据了，空等结束
+     */
+    public synchronized void starveEnd() {
+        if (mStarveBegin != 0) {
+            mStarveTime += (SystemClock.elapsedRealtime() - mStarveBegin);
+            mStarveBegin = 0;
+        }
+    }
+
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /*
+     * @brief 获取阻塞累计时长，包含正在进行的阻塞
+     */
+    public synchronized long getStallTime() {
+        long stallTime = mStallTime;
+        if (mStallBegin != 0) {
+            stallTime += (SystemClock.elapsedRealtime() - mStallBegin);
+        }
+        return stallTime;
+    }
+
+    public synchronized long getStallCount() {
+        return mStallCount;
+    }
+
+    /*
+     * @brief 获取饥饿累计时长，包含正在进行的空等
+     */
+    public synchronized long getStarveTime() {
+        long starveTime = mStarveTime;
+        if (mStarveBegin != 0) {
+            starveTime += (SystemClock.elapsedRealtime() - mStarveBegin);
+        }
+        return starveTime;
+    }
+
+    /*
+     * @brief 获取第一帧到最后一帧的处理速度
+     * @return 每秒处理的帧数
+     */
+    public synchronized float getFrameRate() {
+        long duration = mLastTime - mBeginTime;
+        if ((mFrameCount <= 1) || (duration <= 0)) {
+            return 0.0f;
+        }
+        return ((mFrameCount - 1) * 1000.0f / duration);
+    }
+
+    @Override
+    public String toString() {
+        String infoText = "{ " + mStageName
+                + ": frames=" + getFrameCount()
+                + ", fps=" + String.format("%.1f", getFrameRate())
+                + ", stallMs=" + getStallTime()
+                + ", stallCount=" + getStallCount()
+                + ", starveMs=" + getStarveTime() + " }";
+        return infoText;
+    }
+}
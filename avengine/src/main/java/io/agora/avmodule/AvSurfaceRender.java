@@ -0,0 +1,409 @@
+package io.agora.avmodule;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+
+
+/*
+ * @brief 硬解码输出到硬编码输入的 GPU 渲染器
+ *        1. 在编码器输入 Surface 上创建 EGL 窗口表面，EGL 上下文绑定在调用 initialize() 的线程上
+ *        2. 在同一个 EGL 上下文中创建 OES 外部纹理和 SurfaceTexture，包装成 Surface 作为解码器的输出
+ *        3. 每帧在顶点着色器中完成旋转和等比缩放，片元着色器直接采样外部纹理，像素数据不经过 Java 堆
+ *        除 getDecoderSurface() 外，所有方法都必须在调用 initialize() 的线程中调用
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class AvSurfaceRender {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "AVMODULE/SurfaceRender";
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;   ///< EGLExt 中没有定义的属性
+    private static final int FLOAT_SIZE = 4;
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n" +
+            "uniform mat4 uTexMatrix;\n" +
+            "attribute vec4 aPosition;\n" +
+            "attribute vec4 aTextureCoord;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = uMVPMatrix * aPosition;\n" +
+            "    vTextureCoord = (uTexMatrix * aTextureCoord).xy;\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform samplerExternalOES sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+            "}\n";
+
+    ///< 全屏矩形的顶点坐标(x,y)和纹理坐标(s,t)，按照 TRIANGLE_STRIP 顺序
+    private static final float[] QUAD_VERTICES = {
+            -1.0f, -1.0f,   0.0f, 0.0f,
+             1.0f, -1.0f,   1.0f, 0.0f,
+            -1.0f,  1.0f,   0.0f, 1.0f,
+             1.0f,  1.0f,   1.0f, 1.0f,
+    };
+    private static final int VERTEX_STRIDE = 4 * FLOAT_SIZE;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private EGLDisplay mEglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mEglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface mEglSurface = EGL14.EGL_NO_SURFACE;  ///< 编码器输入 Surface 对应的窗口表面
+    private int mProgram = 0;
+    private int mTextureId = 0;                 ///< 解码器输出的 OES 外部纹理
+    private int mPositionLoc = -1;
+    private int mTexCoordLoc = -1;
+    private int mMvpMatrixLoc = -1;
+    private int mTexMatrixLoc = -1;
+    private FloatBuffer mVertexBuffer;
+
+    private SurfaceTexture mSurfaceTexture;     ///< 接收解码器输出的纹理
+    private Surface mDecoderSurface;            ///< 解码器输出 Surface
+    private HandlerThread mFrameThread;         ///< SurfaceTexture 新帧通知的回调线程
+    private final Object mFrameLock = new Object();
+    private boolean mFrameAvailable = false;    ///< 是否有新帧还未更新到纹理
+
+    private int mOutWidth = 0;                  ///< 编码输出宽度
+    private int mOutHeight = 0;                 ///< 编码输出高度
+    private final float[] mMvpMatrix = new float[16];   ///< 旋转和等比缩放矩阵
+    private final float[] mTexMatrix = new float[16];   ///< SurfaceTexture 的纹理坐标变换矩阵
+
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 创建 EGL 环境、着色器程序和解码器输出 Surface，EGL 上下文绑定到当前线程
+     * @param encoderSurface : 编码器输入 Surface，由 MediaCodec.createInputSurface() 创建
+     * @param outWidth : 编码输出宽度
+     * @param outHeight : 编码输出高度
+     * @return 错误码
+     */
+    public int initialize(Surface encoderSurface, int outWidth, int outHeight) {
+        mOutWidth = outWidth;
+        mOutHeight = outHeight;
+        Matrix.setIdentityM(mMvpMatrix, 0);
+        Matrix.setIdentityM(mTexMatrix, 0);
+
+        int ret = eglSetup(encoderSurface);
+        if (ret != ErrCode.XOK) {
+            release();
+            return ret;
+        }
+
+        ret = glSetup();
+        if (ret != ErrCode.XOK) {
+            release();
+            return ret;
+        }
+
+        // 新帧通知在独立线程中回调，当前线程阻塞等待新帧时也能收到
+        mFrameThread = new HandlerThread("SurfaceRender");
+        mFrameThread.start();
+        mSurfaceTexture = new SurfaceTexture(mTextureId);
+        mSurfaceTexture.setOnFrameAvailableListener(new SurfaceTexture.OnFrameAvailableListener() {
+            @Override
+            public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+                synchronized (mFrameLock) {
+                    mFrameAvailable = true;
+                    mFrameLock.notifyAll();
+                }
+            }
+        }, new Handler(mFrameThread.getLooper()));
+        mDecoderSurface = new Surface(mSurfaceTexture);
+
+        Log.d(TAG, "<initialize> done, outWidth=" + mOutWidth + ", outHeight=" + mOutHeight);
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 释放所有 EGL 和 GL 资源
+     */
+    public void release() {
+        if (mDecoderSurface != null) {
+            mDecoderSurface.release();
+            mDecoderSurface = null;
+        }
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.setOnFrameAvailableListener(null);
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+        }
+        if (mFrameThread != null) {
+            mFrameThread.quitSafely();
+            mFrameThread = null;
+        }
+
+        if (mEglDisplay != EGL14.EGL_NO_DISPLAY) {
+            if (mProgram != 0) {
+                GLES20.glDeleteProgram(mProgram);
+                mProgram = 0;
+            }
+            if (mTextureId != 0) {
+                int[] textures = { mTextureId };
+                GLES20.glDeleteTextures(1, textures, 0);
+                mTextureId = 0;
+            }
+            EGL14.eglMakeCurrent(mEglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+                    EGL14.EGL_NO_CONTEXT);
+            if (mEglSurface != EGL14.EGL_NO_SURFACE) {
+                EGL14.eglDestroySurface(mEglDisplay, mEglSurface);
+            }
+            if (mEglContext != EGL14.EGL_NO_CONTEXT) {
+                EGL14.eglDestroyContext(mEglDisplay, mEglContext);
+            }
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(mEglDisplay);
+        }
+        mEglDisplay = EGL14.EGL_NO_DISPLAY;
+        mEglContext = EGL14.EGL_NO_CONTEXT;
+        mEglSurface = EGL14.EGL_NO_SURFACE;
+        Log.d(TAG, "<release> done");
+    }
+
+    /*
+     * @brief 获取解码器输出 Surface，在解码器 configure() 时使用
+     */
+    public Surface getDecoderSurface() {
+        return mDecoderSurface;
+    }
+
+    /*
+     * @brief 设置源视频帧的大小和旋转角度，计算旋转和等比缩放矩阵，多出的区域填充黑色
+     * @param srcWidth : 源视频帧显示宽度
+     * @param srcHeight : 源视频帧显示高度
+     * @param rotation : 源视频帧需要顺时针旋转的角度，0/90/180/270
+     */
+    public void setTransform(int srcWidth, int srcHeight, int rotation) {
+        boolean swapSize = ((rotation % 180) != 0);
+        float rotatedWidth = swapSize ? srcHeight : srcWidth;
+        float rotatedHeight = swapSize ? srcWidth : srcHeight;
+        float scale = Math.min(mOutWidth / rotatedWidth, mOutHeight / rotatedHeight);
+        float scaleX = rotatedWidth * scale / mOutWidth;
+        float scaleY = rotatedHeight * scale / mOutHeight;
+
+        // GL 坐标系中正角度是逆时针旋转，先旋转再缩放
+        Matrix.setIdentityM(mMvpMatrix, 0);
+        Matrix.scaleM(mMvpMatrix, 0, scaleX, scaleY, 1.0f);
+        Matrix.rotateM(mMvpMatrix, 0, -rotation, 0.0f, 0.0f, 1.0f);
+
+        Log.d(TAG, "<setTransform> srcWidth=" + srcWidth + ", srcHeight=" + srcHeight
+                + ", rotation=" + rotation + ", scaleX=" + scaleX + ", scaleY=" + scaleY);
+    }
+
+    /*
+     * @brief 等待解码器渲染的新帧到达 SurfaceTexture
+     * @param timeout : 最长等待时间(毫秒)
+     * @return true 表示有新帧；false 表示超时
+     */
+    public boolean awaitFrame(long timeout) {
+        synchronized (mFrameLock) {
+            long deadline = SystemClock.elapsedRealtime() + timeout;
+            while (!mFrameAvailable) {
+                long remain = deadline - SystemClock.elapsedRealtime();
+                if (remain <= 0) {
+                    return false;
+                }
+                try {
+                    mFrameLock.wait(remain);
+                } catch (InterruptedException interruptExp) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            mFrameAvailable = false;
+            return true;
+        }
+    }
+
+    /*
+     * @brief 将新帧更新到纹理，绘制到编码器输入 Surface 并提交给编码器
+     * @param timestampUs : 视频帧时间戳(微秒)
+     * @return 错误码
+     */
+    public int drawFrame(long timestampUs) {
+        mSurfaceTexture.updateTexImage();
+        mSurfaceTexture.getTransformMatrix(mTexMatrix);
+
+        GLES20.glViewport(0, 0, mOutWidth, mOutHeight);
+        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+        GLES20.glUseProgram(mProgram);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+        GLES20.glUniformMatrix4fv(mMvpMatrixLoc, 1, false, mMvpMatrix, 0);
+        GLES20.glUniformMatrix4fv(mTexMatrixLoc, 1, false, mTexMatrix, 0);
+
+        mVertexBuffer.position(0);
+        GLES20.glVertexAttribPointer(mPositionLoc, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, mVertexBuffer);
+        GLES20.glEnableVertexAttribArray(mPositionLoc);
+        mVertexBuffer.position(2);
+        GLES20.glVertexAttribPointer(mTexCoordLoc, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, mVertexBuffer);
+        GLES20.glEnableVertexAttribArray(mTexCoordLoc);
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+        GLES20.glDisableVertexAttribArray(mPositionLoc);
+        GLES20.glDisableVertexAttribArray(mTexCoordLoc);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
+        GLES20.glUseProgram(0);
+
+        EGLExt.eglPresentationTimeANDROID(mEglDisplay, mEglSurface, timestampUs * 1000);
+        if (!EGL14.eglSwapBuffers(mEglDisplay, mEglSurface)) {
+            Log.e(TAG, "<drawFrame> fail to eglSwapBuffers(), error=" + EGL14.eglGetError());
+            return ErrCode.XERR_CODEC_ENCODING;
+        }
+        return ErrCode.XOK;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 创建 EGL 上下文和编码器输入 Surface 对应的窗口表面，并且绑定到当前线程
+     */
+    private int eglSetup(Surface encoderSurface) {
+        mEglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (mEglDisplay == EGL14.EGL_NO_DISPLAY) {
+            Log.e(TAG, "<eglSetup> fail to eglGetDisplay()");
+            return ErrCode.XERR_UNSUPPORTED;
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mEglDisplay, version, 0, version, 1)) {
+            Log.e(TAG, "<eglSetup> fail to eglInitialize()");
+            mEglDisplay = EGL14.EGL_NO_DISPLAY;
+            return ErrCode.XERR_UNSUPPORTED;
+        }
+
+        // 编码器输入 Surface 需要 RECORDABLE 属性
+        int[] configAttribs = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mEglDisplay, configAttribs, 0, configs, 0, configs.length,
+                numConfigs, 0) || (numConfigs[0] <= 0)) {
+            Log.e(TAG, "<eglSetup> fail to eglChooseConfig()");
+            return ErrCode.XERR_UNSUPPORTED;
+        }
+
+        int[] contextAttribs = { EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE };
+        mEglContext = EGL14.eglCreateContext(mEglDisplay, configs[0], EGL14.EGL_NO_CONTEXT,
+                contextAttribs, 0);
+        if (mEglContext == EGL14.EGL_NO_CONTEXT) {
+            Log.e(TAG, "<eglSetup> fail to eglCreateContext(), error=" + EGL14.eglGetError());
+            return ErrCode.XERR_UNSUPPORTED;
+        }
+
+        int[] surfaceAttribs = { EGL14.EGL_NONE };
+        mEglSurface = EGL14.eglCreateWindowSurface(mEglDisplay, configs[0], encoderSurface,
+                surfaceAttribs, 0);
+        if (mEglSurface == EGL14.EGL_NO_SURFACE) {
+            Log.e(TAG, "<eglSetup> fail to eglCreateWindowSurface(), error=" + EGL14.eglGetError());
+            return ErrCode.XERR_UNSUPPORTED;
+        }
+
+        if (!EGL14.eglMakeCurrent(mEglDisplay, mEglSurface, mEglSurface, mEglContext)) {
+            Log.e(TAG, "<eglSetup> fail to eglMakeCurrent(), error=" + EGL14.eglGetError());
+            return ErrCode.XERR_UNSUPPORTED;
+        }
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 创建着色器程序、外部纹理和顶点数据
+     */
+    private int glSetup() {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER);
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+        if ((vertexShader == 0) || (fragmentShader == 0)) {
+            return ErrCode.XERR_UNSUPPORTED;
+        }
+
+        mProgram = GLES20.glCreateProgram();
+        GLES20.glAttachShader(mProgram, vertexShader);
+        GLES20.glAttachShader(mProgram, fragmentShader);
+        GLES20.glLinkProgram(mProgram);
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(mProgram, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.e(TAG, "<glSetup> fail to link program, info=" + GLES20.glGetProgramInfoLog(mProgram));
+            GLES20.glDeleteProgram(mProgram);
+            mProgram = 0;
+            return ErrCode.XERR_UNSUPPORTED;
+        }
+        mPositionLoc = GLES20.glGetAttribLocation(mProgram, "aPosition");
+        mTexCoordLoc = GLES20.glGetAttribLocation(mProgram, "aTextureCoord");
+        mMvpMatrixLoc = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
+        mTexMatrixLoc = GLES20.glGetUniformLocation(mProgram, "uTexMatrix");
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        mTextureId = textures[0];
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
+
+        mVertexBuffer = ByteBuffer.allocateDirect(QUAD_VERTICES.length * FLOAT_SIZE)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mVertexBuffer.put(QUAD_VERTICES).position(0);
+        return ErrCode.XOK;
+    }
+
+    private static int loadShader(int shaderType, final String source) {
+        int shader = GLES20.glCreateShader(shaderType);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            Log.e(TAG, "<loadShader> fail to compile shader, type=" + shaderType
+                    + ", info=" + GLES20.glGetShaderInfoLog(shader));
+            GLES20.glDeleteShader(shader);
+            return 0;
+        }
+        return shader;
+    }
+}
@@ -0,0 +1,515 @@
+package io.agora.avmodule;
+
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+
+
+/**
+ * @brief Surface 到 Surface 的硬件转码器
+ *        硬解码器输出到 SurfaceTexture，在 GPU 上完成旋转和缩放后绘制到硬编码器的输入 Surface，
+ *        视频帧数据不经过 Java 堆；音频是 AAC 时直接拷贝数据包，不重新编码
+ *        和 AvNativeCvter 一样由调用者在同一个线程中分步驱动：open() -> prepare() -> doTranscodeStep() -> close()
+ *        EGL 上下文绑定在调用 prepare() 的线程上，后续所有调用都必须在该线程中
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class AvSurfaceTranscoder {
+
+    ////////////////////////////////////////////////////////////////////////
+    /////////////////////////// Constant Definition ////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "AVMODULE/SurfaceTranscoder";
+
+    private static final long FRAME_WAIT_TIMEOUT = 500;         ///< 等待解码帧渲染到纹理的超时时间(毫秒)
+    private static final long AUDIO_LEAD_US = 500 * 1000;       ///< 音频数据包最多领先视频的时长
+    private static final int AUDIO_BUFFER_SIZE = 256 * 1024;    ///< 音频数据包缓冲区默认大小
+    private static final int ENCODE_DRAIN_MAX = 8;              ///< 每一步最多取出的编码输出数量
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private Context mContext;
+    private String mSrcFileUrl;             ///< 源文件路径
+    private String mDstFilePath;            ///< 输出文件路径
+    private AvMediaInfo mMediaInfo;         ///< 源文件媒体信息
+    private MediaFormat mAudioFormat;       ///< 源文件音频轨道格式，null表示没有音频
+    private int mOutWidth = 0;              ///< 编码输出宽度，已经按照旋转角度交换过宽高
+    private int mOutHeight = 0;             ///< 编码输出高度
+
+    private AvDecoder mVideoDecoder;        ///< 视频硬解码器，输出到 mSurfaceRender
+    private AvSurfaceRender mSurfaceRender; ///< 解码输出到编码输入的渲染器
+    private AvEncoder mVideoEncoder;        ///< 视频硬编码器，Surface 输入
+    private MediaExtractor mAudioExtractor; ///< 音频数据包读取器
+    private ByteBuffer mAudioBuffer;        ///< 音频数据包缓冲区
+    private final MediaCodec.BufferInfo mAudioInfo = new MediaCodec.BufferInfo();
+    private IAvMuxer mMuxer;                ///< 输出文件混流器
+    private int mAudioTrackIndex = -1;      ///< 混流器中的音频轨道索引
+    private boolean mMuxerStarted = false;  ///< 混流器已经启动并且还没有停止
+
+    private boolean mInputEos = false;      ///< 视频数据已经全部送入解码器
+    private boolean mDecodeEos = false;     ///< 视频已经全部解码并且通知编码器输入结束
+    private boolean mEncodeEos = false;     ///< 视频已经全部编码
+    private boolean mAudioEos = false;      ///< 音频已经全部拷贝
+    private volatile long mVideoTimestamp = 0;  ///< 当前编码视频帧时间戳
+    private volatile long mAudioTimestamp = 0;  ///< 当前拷贝音频包时间戳
+    private final AvStageStats mTranscodeStats = new AvStageStats("surface");  ///< 渲染帧数统计
+
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 探测源文件，需要有视频轨道，音频轨道必须是 AAC 或者没有音频
+     *        根据旋转后的显示大小计算编码输出大小，超出编码器能力时等比缩小
+     * @param ctx : 上下文
+     * @param srcFileUrl : 源文件路径，必须是 MediaExtractor 可以直接打开的
+     * @param dstFilePath : 输出文件路径
+     * @return 返回错误代码，XERR_UNSUPPORTED 表示源文件不能走该转码路径
+     */
+    public int open(Context ctx, final String srcFileUrl, final String dstFilePath) {
+        mContext = ctx;
+        mSrcFileUrl = srcFileUrl;
+        mDstFilePath = dstFilePath;
+        mMediaInfo = null;
+        mAudioFormat = null;
+
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(srcFileUrl);
+            AvMediaInfo mediaInfo = new AvMediaInfo();
+            mediaInfo.mContext = ctx;
+            mediaInfo.mFilePath = srcFileUrl;
+
+            int trackCount = extractor.getTrackCount();
+            for (int i = 0; i < trackCount; i++) {
+                MediaFormat trackFormat = extractor.getTrackFormat(i);
+                String mimeType = trackFormat.getString(MediaFormat.KEY_MIME);
+                if ((mimeType == null) || mimeType.isEmpty()) {
+                    continue;
+                }
+                if (mimeType.startsWith(GlobalConst.MIME_TYPE_VIDEO) && (mediaInfo.mVideoTrackId < 0)) {
+                    mediaInfo.mVideoTrackId = i;
+                    mediaInfo.mVideoCodec = mimeType;
+                    mediaInfo.mDataWidth = AvUtility.getAvMediaInteger(trackFormat, MediaFormat.KEY_WIDTH, -1);
+                    mediaInfo.mDataHeight = AvUtility.getAvMediaInteger(trackFormat, MediaFormat.KEY_HEIGHT, -1);
+                    mediaInfo.mDisplayWidth = AvUtility.getAvMediaInteger(trackFormat, GlobalConst.KEY_DISPLAY_WIDTH, mediaInfo.mDataWidth);
+                    mediaInfo.mDisplayHeight = AvUtility.getAvMediaInteger(trackFormat, GlobalConst.KEY_DISPLAY_HEIGHT, mediaInfo.mDataHeight);
+                    mediaInfo.mVideoWidth = mediaInfo.mDisplayWidth;
+                    mediaInfo.mVideoHeight = mediaInfo.mDisplayHeight;
+                    mediaInfo.mRotation = AvUtility.getAvMediaInteger(trackFormat, MediaFormat.KEY_ROTATION, 0);
+                    mediaInfo.mFrameRate = AvUtility.getAvMediaInteger(trackFormat, MediaFormat.KEY_FRAME_RATE, 30);
+                    mediaInfo.mVideoBitrate = AvUtility.getAvMediaInteger(trackFormat, MediaFormat.KEY_BIT_RATE, 0);
+                    mediaInfo.mVideoDuration = trackFormat.containsKey(MediaFormat.KEY_DURATION)
+                            ? trackFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+
+                } else if (mimeType.startsWith(GlobalConst.MIME_TYPE_AUDIO) && (mediaInfo.mAudioTrackId < 0)) {
+                    mediaInfo.mAudioTrackId = i;
+                    mediaInfo.mAudioCodec = mimeType;
+                    mediaInfo.mChannels = AvUtility.getAvMediaInteger(trackFormat, MediaFormat.KEY_CHANNEL_COUNT, 2);
+                    mediaInfo.mSampleRate = AvUtility.getAvMediaInteger(trackFormat, MediaFormat.KEY_SAMPLE_RATE, 44100);
+                    mediaInfo.mAudioBitrate = AvUtility.getAvMediaInteger(trackFormat, MediaFormat.KEY_BIT_RATE, 0);
+                    mediaInfo.mAudioDuration = trackFormat.containsKey(MediaFormat.KEY_DURATION)
+                            ? trackFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+                    mAudioFormat = trackFormat;
+                }
+            }
+            mediaInfo.mFileDuration = Math.max(mediaInfo.mVideoDuration, mediaInfo.mAudioDuration);
+
+            if ((mediaInfo.mVideoTrackId < 0) || (mediaInfo.mVideoWidth <= 0) || (mediaInfo.mVideoHeight <= 0)) {
+                Log.d(TAG, "<open> no video track, mediaInfo=" + mediaInfo);
+                return ErrCode.XERR_UNSUPPORTED;
+            }
+            if ((mediaInfo.mAudioTrackId >= 0)
+                    && (!MediaFormat.MIMETYPE_AUDIO_AAC.equals(mediaInfo.mAudioCodec))) {
+                Log.d(TAG, "<open> audio cannot passthrough, audioCodec=" + mediaInfo.mAudioCodec);
+                return ErrCode.XERR_UNSUPPORTED;
+            }
+            mMediaInfo = mediaInfo;
+
+        } catch (Exception exp) {
+            Log.w(TAG, "<open> fail to open source, exp=" + exp);
+            return ErrCode.XERR_FILE_OPEN;
+
+        } finally {
+            extractor.release();
+        }
+
+        calcOutputSize(null);
+        Log.d(TAG, "<open> done, outWidth=" + mOutWidth + ", outHeight=" + mOutHeight
+                + ", mediaInfo=" + mMediaInfo);
+        return ErrCode.XOK;
+    }
+
+    /**
+     * @brief 获取源文件媒体信息，必须要在 open()成功之后调用
+     */
+    public AvMediaInfo getMediaInfo() {
+        return mMediaInfo;
+    }
+
+    public int getOutputWidth() {
+        return mOutWidth;
+    }
+
+    public int getOutputHeight() {
+        return mOutHeight;
+    }
+
+    /**
+     * @brief 检测编解码器能力，创建编码器、渲染器、解码器和混流器，必须要在 open()成功之后调用
+     * @param encParam : 视频编码参数，宽高为 getOutputWidth()/getOutputHeight()，超出编码器能力时会被缩小
+     * @return 返回错误代码，XERR_UNSUPPORTED 表示设备不支持该转码路径
+     */
+    public int prepare(AvEncParam encParam) {
+        if (mMediaInfo == null) {
+            Log.e(TAG, "<prepare> bad state");
+            return ErrCode.XERR_BAD_STATE;
+        }
+        // 按照实际的编码格式限制输出大小，缩小后同步更新编码参数
+        calcOutputSize(encParam.mVideoCodec);
+        encParam.mVideoWidth = mOutWidth;
+        encParam.mVideoHeight = mOutHeight;
+        if (!AvUtility.isSurfaceTranscodeSupported(mMediaInfo.mVideoCodec, mMediaInfo.mDataWidth,
+                mMediaInfo.mDataHeight, encParam.mVideoCodec, encParam.mVideoWidth, encParam.mVideoHeight)) {
+            return ErrCode.XERR_UNSUPPORTED;
+        }
+
+        try {
+            mMuxer = new AvFileMuxer(mDstFilePath);
+        } catch (Exception exp) {
+            Log.e(TAG, "<prepare> fail to create muxer, exp=" + exp);
+            return ErrCode.XERR_FILE_OPEN;
+        }
+
+        // 编码器的输入 Surface 必须先于渲染器创建
+        encParam.mSurfaceInput = true;
+        mVideoEncoder = new AvEncoder();
+        int ret = mVideoEncoder.initialize(encParam, AvEncoder.ENCODER_TYPE_VIDEO);
+        if (ret != ErrCode.XOK) {
+            Log.e(TAG, "<prepare> fail to initialize encoder, ret=" + ret);
+            mVideoEncoder = null;
+            close();
+            return ret;
+        }
+        mVideoEncoder.setMediaMuxer(mMuxer);
+
+        mSurfaceRender = new AvSurfaceRender();
+        ret = mSurfaceRender.initialize(mVideoEncoder.getInputSurface(), mOutWidth, mOutHeight);
+        if (ret != ErrCode.XOK) {
+            Log.e(TAG, "<prepare> fail to initialize render, ret=" + ret);
+            mSurfaceRender = null;
+            close();
+            return ret;
+        }
+        mSurfaceRender.setTransform(mMediaInfo.mDisplayWidth, mMediaInfo.mDisplayHeight, mMediaInfo.mRotation);
+
+        mVideoDecoder = new AvDecoder();
+        mVideoDecoder.setOutputSurface(mSurfaceRender.getDecoderSurface());
+        ret = mVideoDecoder.initialize(mContext, null, mSrcFileUrl, AvDecoder.STREAM_TYPE_VIDEO);
+        if (ret != ErrCode.XOK) {
+            Log.e(TAG, "<prepare> fail to initialize decoder, ret=" + ret);
+            mVideoDecoder = null;
+            close();
+            return ret;
+        }
+
+        if (mAudioFormat != null) {
+            try {
+                mAudioExtractor = new MediaExtractor();
+                mAudioExtractor.setDataSource(mSrcFileUrl);
+                mAudioExtractor.selectTrack(mMediaInfo.mAudioTrackId);
+            } catch (Exception exp) {
+                Log.e(TAG, "<prepare> fail to open audio extractor, exp=" + exp);
+                close();
+                return ErrCode.XERR_FILE_OPEN;
+            }
+            int bufferSize = AvUtility.getAvMediaInteger(mAudioFormat, MediaFormat.KEY_MAX_INPUT_SIZE,
+                    AUDIO_BUFFER_SIZE);
+            mAudioBuffer = ByteBuffer.allocateDirect(Math.max(bufferSize, AUDIO_BUFFER_SIZE));
+        }
+
+        mInputEos = false;
+        mDecodeEos = false;
+        mEncodeEos = false;
+        mAudioEos = (mAudioFormat == null);
+        mMuxerStarted = false;
+        mAudioTrackIndex = -1;
+        mVideoTimestamp = 0;
+        mAudioTimestamp = 0;
+        mTranscodeStats.reset();
+        Log.d(TAG, "<prepare> done, encParam=" + encParam);
+        return ErrCode.XOK;
+    }
+
+    /**
+     * @brief 关闭转码器，释放所有资源，必须在调用 prepare() 的线程中调用
+     */
+    public void close() {
+        if (mVideoDecoder != null) {
+            mVideoDecoder.release();
+            mVideoDecoder = null;
+        }
+        if (mSurfaceRender != null) {
+            mSurfaceRender.release();
+            mSurfaceRender = null;
+        }
+        if (mVideoEncoder != null) {
+            mVideoEncoder.release();
+            mVideoEncoder = null;
+        }
+        if (mAudioExtractor != null) {
+            mAudioExtractor.release();
+            mAudioExtractor = null;
+        }
+        mAudioBuffer = null;
+        if (mMuxer != null) {
+            try {
+                if (mMuxerStarted) {   // 中途停止时也要保证已经写入的数据可以播放
+                    mMuxer.stop();
+                }
+                mMuxer.release();
+            } catch (Exception exp) {
+                Log.e(TAG, "<close> fail to release muxer, exp=" + exp);
+            }
+            mMuxer = null;
+        }
+        mMuxerStarted = false;
+        Log.d(TAG, "<close> done, stats=" + mTranscodeStats);
+    }
+
+    /**
+     * @brief 进行单步转码操作：送入一个视频包，渲染一帧解码输出，取出编码输出，拷贝音频包
+     * @return 返回错误码
+     *          XERR_FILE_EOF 表示转码完成，输出文件已经写完
+     *          XERR_CODEC_DECODING: 表示解码失败
+     *          XERR_CODEC_ENCODING: 表示编码失败
+     */
+    public int doTranscodeStep() {
+        if (mVideoDecoder == null) {
+            Log.e(TAG, "<doTranscodeStep> bad state");
+            return ErrCode.XERR_BAD_STATE;
+        }
+
+        // 送入视频数据包
+        if (!mInputEos) {
+            int ret = mVideoDecoder.inputFrame();
+            if (ret == ErrCode.XERR_CODEC_DEC_EOS) {
+                mInputEos = true;
+            } else if (ret == ErrCode.XERR_CODEC_DECODING) {
+                return ret;
+            }
+        }
+
+        // 解码输出渲染到编码器输入 Surface 上
+        if (!mDecodeEos) {
+            int ret = renderDecodedFrame();
+            if (ret != ErrCode.XOK) {
+                return ret;
+            }
+        }
+
+        // 取出编码输出写入文件
+        int ret = drainEncoder();
+        if (ret != ErrCode.XOK) {
+            return ret;
+        }
+
+        // 拷贝音频数据包，视频全部编码完成后拷贝剩余的音频
+        if (mMuxerStarted && (!mAudioEos)) {
+            long limitTimestamp = mEncodeEos ? Long.MAX_VALUE : (mVideoTimestamp + AUDIO_LEAD_US);
+            ret = copyAudioPackets(limitTimestamp);
+            if (ret != ErrCode.XOK) {
+                return ret;
+            }
+        }
+
+        if (mEncodeEos && mAudioEos) {
+            try {
+                mMuxerStarted = false;
+                mMuxer.stop();
+            } catch (Exception exp) {
+                Log.e(TAG, "<doTranscodeStep> fail to stop muxer, exp=" + exp);
+                return ErrCode.XERR_FILE_WRITE;
+            }
+            Log.d(TAG, "<doTranscodeStep> done, videoTimestamp=" + mVideoTimestamp
+                    + ", audioTimestamp=" + mAudioTimestamp + ", stats=" + mTranscodeStats);
+            return ErrCode.XERR_FILE_EOF;
+        }
+        return ErrCode.XOK;
+    }
+
+    /**
+     * @brief 获取当前编码视频帧时间戳
+     */
+    public long getVideoTimestamp() {
+        return mVideoTimestamp;
+    }
+
+    /**
+     * @brief 获取当前拷贝音频包时间戳
+     */
+    public long getAudioTimestamp() {
+        return mAudioTimestamp;
+    }
+
+    /**
+     * @brief 获取渲染帧数统计
+     */
+    public AvStageStats getStats() {
+        return mTranscodeStats;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 根据旋转后的显示大小计算编码输出大小，宽高按2对齐
+     *        超出编码器支持的最大宽高时等比缩小，宽高按16对齐
+     * @param encMimeType : 编码格式，为空时不检测编码器能力
+     */
+    private void calcOutputSize(final String encMimeType) {
+        boolean swapSize = ((mMediaInfo.mRotation % 180) != 0);
+        int outWidth = swapSize ? mMediaInfo.mVideoHeight : mMediaInfo.mVideoWidth;
+        int outHeight = swapSize ? mMediaInfo.mVideoWidth : mMediaInfo.mVideoHeight;
+
+        MediaCodecInfo.CodecCapabilities capabilities = (encMimeType == null) ? null :
+                AvUtility.getAvCodecCapabilities(encMimeType);
+        if (capabilities != null) {
+            MediaCodecInfo.VideoCapabilities videoCaps = capabilities.getVideoCapabilities();
+            int maxWidth = videoCaps.getSupportedWidths().getUpper();
+            int maxHeight = videoCaps.getSupportedHeights().getUpper();
+            if ((outWidth > maxWidth) || (outHeight > maxHeight)) {
+                float scale = Math.min((float)maxWidth / outWidth, (float)maxHeight / outHeight);
+                outWidth = ((int)(outWidth * scale)) & (~15);
+                outHeight = ((int)(outHeight * scale)) & (~15);
+                Log.d(TAG, "<calcOutputSize> scale down, maxWidth=" + maxWidth + ", maxHeight=" + maxHeight);
+            }
+        }
+
+        mOutWidth = outWidth & (~1);
+        mOutHeight = outHeight & (~1);
+    }
+
+    /*
+     * @brief 取一个解码输出，渲染到纹理后绘制到编码器输入 Surface 上
+     *        解码完成时通知编码器输入结束
+     */
+    private int renderDecodedFrame() {
+        Pair<Integer, AvVideoFrame> pair = mVideoDecoder.renderVideoFrame();
+        int ret = pair.first;
+        AvVideoFrame videoFrame = pair.second;
+        if ((ret != ErrCode.XOK) && (ret != ErrCode.XERR_CODEC_DEC_EOS)
+                && (ret != ErrCode.XERR_CODEC_MOREINDATA)) {
+            Log.e(TAG, "<renderDecodedFrame> fail to decode, ret=" + ret);
+            return ErrCode.XERR_CODEC_DECODING;
+        }
+
+        if ((videoFrame != null) && videoFrame.mRendered) {
+            if (!mSurfaceRender.awaitFrame(FRAME_WAIT_TIMEOUT)) {
+                Log.e(TAG, "<renderDecodedFrame> frame wait timeout, timestamp=" + videoFrame.mTimestamp);
+                return ErrCode.XERR_TIMEOUT;
+            }
+            int drawRet = mSurfaceRender.drawFrame(videoFrame.mTimestamp);
+            if (drawRet != ErrCode.XOK) {
+                return drawRet;
+            }
+            mTranscodeStats.addFrames(1);
+        }
+
+        if (ret == ErrCode.XERR_CODEC_DEC_EOS) {
+            Log.d(TAG, "<renderDecodedFrame> decode EOS, frames=" + mTranscodeStats.getFrameCount());
+            mDecodeEos = true;
+            int eosRet = mVideoEncoder.signalEndOfInput();
+            if (eosRet != ErrCode.XOK) {
+                return ErrCode.XERR_CODEC_ENCODING;
+            }
+        }
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 取出编码输出写入文件，直到编码器没有输出
+     *        编码输出格式就绪时添加音频轨道并启动混流器
+     */
+    private int drainEncoder() {
+        for (int i = 0; (i < ENCODE_DRAIN_MAX) && (!mEncodeEos); i++) {
+            int ret = mVideoEncoder.encodeVideoFrame();
+            if (ret == ErrCode.XERR_CODEC_MOREINDATA) {
+                break;
+            }
+            if (ret == ErrCode.XERR_CODEC_ENCODING) {
+                return ret;
+            }
+
+            if (ret == ErrCode.XERR_CODEC_OUTFMT_READY) {
+                try {
+                    if (mAudioFormat != null) {
+                        mAudioTrackIndex = mMuxer.addTrack(mAudioFormat);
+                    }
+                    mMuxer.start();
+                    mMuxerStarted = true;
+                } catch (Exception exp) {
+                    Log.e(TAG, "<drainEncoder> fail to start muxer, exp=" + exp);
+                    return ErrCode.XERR_FILE_WRITE;
+                }
+                Log.d(TAG, "<drainEncoder> muxer started, audioTrackIndex=" + mAudioTrackIndex);
+
+            } else if (ret == ErrCode.XERR_CODEC_DEC_EOS) {
+                mEncodeEos = true;
+                if (!mMuxerStarted) {   // 一帧都没有编码出来
+                    Log.e(TAG, "<drainEncoder> encode EOS without output");
+                    return ErrCode.XERR_CODEC_ENCODING;
+                }
+            }
+            mVideoTimestamp = mVideoEncoder.getVideoTimestamp();
+        }
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 拷贝音频数据包到混流器，直到数据包时间戳超过 limitTimestamp 或者音频结束
+     */
+    private int copyAudioPackets(long limitTimestamp) {
+        try {
+            while (true) {
+                long sampleTime = mAudioExtractor.getSampleTime();
+                if (sampleTime < 0) {
+                    mAudioEos = true;
+                    Log.d(TAG, "<copyAudioPackets> audio EOS, audioTimestamp=" + mAudioTimestamp);
+                    break;
+                }
+                if (sampleTime > limitTimestamp) {
+                    break;
+                }
+
+                int sampleSize = mAudioExtractor.readSampleData(mAudioBuffer, 0);
+                if (sampleSize >= 0) {
+                    int flags = ((mAudioExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0)
+                            ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                    mAudioInfo.set(0, sampleSize, sampleTime, flags);
+                    mMuxer.writeSampleData(mAudioTrackIndex, mAudioBuffer, mAudioInfo);
+                    mAudioTimestamp = sampleTime;
+                }
+                mAudioExtractor.advance();
+            }
+        } catch (Exception exp) {
+            Log.e(TAG, "<copyAudioPackets> fail to copy audio, exp=" + exp);
+            return ErrCode.XERR_FILE_WRITE;
+        }
+        return ErrCode.XOK;
+    }
+}
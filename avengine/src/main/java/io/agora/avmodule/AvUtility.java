@@ -11,6 +11,7 @@ import android.media.MediaCodecList;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Pair;
 
@@ -21,6 +22,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
 
 
 /*
@@ -35,6 +37,37 @@ public class AvUtility {
     private static final String MIME_TYPE_VIDEO = "video/";
     private static final String MIME_TYPE_AUDIO = "audio/";
 
+    private static final int BENCH_FRAME_COUNT = 30;        ///< 解码测速时解码的视频帧数量
+    private static final float HW_PREFER_RATIO = 0.8f;      ///< 硬解码速度达到软解码的这个比例就选择硬解码，硬解码更省CPU和功耗
+    private static final int PKT_TYPE_VIDEO = 1;            ///< parserInputPacket() 送入的是视频包
+    private static final int PKT_TYPE_AUDIO = 2;            ///< parserInputPacket() 送入的是音频包
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 软硬解码选择结果
+     */
+    public static class DecoderChoice {
+        public boolean mUseHwDecoder;       ///< 是否使用硬解码
+        public int mSoftThreads;            ///< 软解码最快时的线程数量
+        public float mSoftFps;              ///< 软解码最快时的每秒解码帧数
+        public float mHwFps;                ///< 硬解码每秒解码帧数，0表示不支持硬解码
+
+        @Override
+        public String toString() {
+            String infoText = "{ mUseHwDecoder=" + mUseHwDecoder
+                    + ", mSoftThreads=" + mSoftThreads
+                    + ", mSoftFps=" + String.format("%.1f", mSoftFps)
+                    + ", mHwFps=" + String.format("%.1f", mHwFps) + " }";
+            return infoText;
+        }
+    }
+
+    ///< 选择结果缓存，键值是 视频编码类型+分辨率，相同类型的文件不用重复测速
+    private static final HashMap<String, DecoderChoice> mDecoderChoiceMap = new HashMap<>();
+
 
     ////////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods //////////////////////////////
@@ -42,10 +75,19 @@ public class AvUtility {
     /*
      * @brief 硬解码解析媒体文件相关的信息
      *        当前不考虑多音频轨道或者多视频轨道情况
+     *        探测结果由 AvProbeCache 缓存，文件内容不变时不会重复探测
      * @param mediaFilePath : 媒体文件路径
      * @retrun 媒体文件信息类
      */
     static public AvMediaInfo hwParseMediaInfo(String mediaFilePath)  {
+        return AvProbeCache.getInstance().getOrProbe(AvProbeCache.PROBE_HW, mediaFilePath,
+                () -> hwProbeMediaInfo(mediaFilePath));
+    }
+
+    /*
+     * @brief 使用 MediaExtractor 实际探测媒体文件信息
+     */
+    static private AvMediaInfo hwProbeMediaInfo(String mediaFilePath)  {
         //Log.d(TAG, "<hwParseMediaInfo> BEGIN, file=" + mediaFilePath);
 
         MediaFormat videoFormat = null;
@@ -127,18 +169,109 @@ public class AvUtility {
     }
 
     /*
-     * @brief 探测是否支持硬解码
+     * @brief 探测是否使用硬解码，根据软硬解码的实际测速结果自动选择
      * @param mediaFilePath : 媒体文件路径
-     * @retrun true : 表示支持硬解码；  false : 表示不支持硬解码
+     * @retrun true : 表示使用硬解码；  false : 表示使用软解码
      */
     static public boolean detectHwDecoder(Context ctx, String mediaFilePath)  {
-        Log.d(TAG, "<detectHwDecoder> BEGIN, file=" + mediaFilePath);
+        DecoderChoice choice = chooseVideoDecoder(ctx, mediaFilePath);
+        return choice.mUseHwDecoder;
+    }
+
+    /*
+     * @brief 分别测试硬解码和不同线程数量的软解码速度，自动选择解码方式
+     *        相同视频编码类型和分辨率的结果会缓存下来，不会重复测试
+     *        MediaExtractor 无法解析时(例如本地 HLS 播放列表)使用 FFmpeg 的探测结果作为键值，
+     *        都无法得到视频信息时不测速，不使用硬解码，软解码线程数由CPU核数自动选择
+     * @param mediaFilePath : 媒体文件路径
+     * @retrun 选择结果
+     */
+    static public DecoderChoice chooseVideoDecoder(Context ctx, String mediaFilePath)  {
+        String choiceKey = null;
+        AvMediaInfo mediaInfo = hwParseMediaInfo(mediaFilePath);
+        if ((mediaInfo != null) && (mediaInfo.mVideoCodec != null)) {
+            choiceKey = mediaInfo.mVideoCodec + "_" + mediaInfo.mVideoWidth + "x" + mediaInfo.mVideoHeight;
+        } else {
+            mediaInfo = new AvSoftDecoder().distillMediaInfo(mediaFilePath);
+            if ((mediaInfo != null) && (mediaInfo.mVideoTrackId >= 0) && (mediaInfo.mVideoCodec != null)) {
+                choiceKey = "sw_" + mediaInfo.mVideoCodec + "_" + mediaInfo.mVideoWidth + "x" + mediaInfo.mVideoHeight;
+            }
+        }
+
+        if (choiceKey == null) {
+            DecoderChoice choice = new DecoderChoice();
+            choice.mUseHwDecoder = false;
+            choice.mSoftThreads = 0;    // 0表示根据CPU核数自动选择
+            Log.w(TAG, "<chooseVideoDecoder> no video info, skip benchmark, file=" + mediaFilePath);
+            return choice;
+        }
+        synchronized (mDecoderChoiceMap) {
+            DecoderChoice cachedChoice = mDecoderChoiceMap.get(choiceKey);
+            if (cachedChoice != null) {
+                Log.d(TAG, "<chooseVideoDecoder> cached, key=" + choiceKey + ", choice=" + cachedChoice);
+                return cachedChoice;
+            }
+        }
+
+        DecoderChoice choice = new DecoderChoice();
+        choice.mHwFps = measureHwDecodeFps(ctx, mediaFilePath, BENCH_FRAME_COUNT);
+
+        // 软解码分别测试 1, 2, 4, CPU核数 个线程
+        int cpuCount = Runtime.getRuntime().availableProcessors();
+        int[] threadList = { 1, 2, 4, cpuCount };
+        StringBuilder fpsTable = new StringBuilder();
+        int lastThreads = 0;
+        for (int threads : threadList) {
+            if (threads <= lastThreads || threads > cpuCount) {
+                continue;
+            }
+            lastThreads = threads;
+            float softFps = measureSoftDecodeFps(ctx, mediaFilePath, threads, BENCH_FRAME_COUNT);
+            fpsTable.append(" soft[").append(threads).append("]=").append(String.format("%.1f", softFps));
+            if (softFps > choice.mSoftFps) {
+                choice.mSoftFps = softFps;
+                choice.mSoftThreads = threads;
+            }
+        }
+        fpsTable.append(" hw=").append(String.format("%.1f", choice.mHwFps));
+
+        choice.mUseHwDecoder = (choice.mHwFps > 0) && (choice.mHwFps >= choice.mSoftFps * HW_PREFER_RATIO);
+        synchronized (mDecoderChoiceMap) {
+            mDecoderChoiceMap.put(choiceKey, choice);
+        }
+
+        Log.d(TAG, "<chooseVideoDecoder> done, key=" + choiceKey + ", fps:" + fpsTable
+                + ", choice=" + choice);
+        return choice;
+    }
+
+    /*
+     * @brief 测试硬解码速度，Android 6.0 及以上使用异步回调模式
+     * @param mediaFilePath : 媒体文件路径
+     * @param frameCount : 需要解码的视频帧数量
+     * @retrun 每秒解码的帧数，0表示不支持硬解码
+     */
+    static public float measureHwDecodeFps(Context ctx, String mediaFilePath, int frameCount)  {
+        boolean asyncMode = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M);
+        return measureHwDecodeFps(ctx, mediaFilePath, frameCount, asyncMode);
+    }
+
+    /*
+     * @brief 测试硬解码速度
+     * @param mediaFilePath : 媒体文件路径
+     * @param frameCount : 需要解码的视频帧数量
+     * @param asyncMode : 是否使用 MediaCodec 异步回调模式
+     * @retrun 每秒解码的帧数，0表示不支持硬解码
+     */
+    static public float measureHwDecodeFps(Context ctx, String mediaFilePath, int frameCount,
+                                           boolean asyncMode)  {
+        Log.d(TAG, "<measureHwDecodeFps> BEGIN, file=" + mediaFilePath + ", asyncMode=" + asyncMode);
 
         AvDecoder videoDecoder = new AvDecoder();
-        int ret = videoDecoder.initialize(ctx, null, mediaFilePath, AvDecoder.STREAM_TYPE_VIDEO);
+        int ret = videoDecoder.initialize(ctx, null, mediaFilePath, AvDecoder.STREAM_TYPE_VIDEO, asyncMode);
         if (ret != ErrCode.XOK) {
-            Log.e(TAG, "<detectHwDecoder> fail to open video decoder, ret=" + ret);
-            return false;
+            Log.e(TAG, "<measureHwDecodeFps> fail to open video decoder, ret=" + ret);
+            return 0.0f;
         }
 
         boolean videoInputEos = false;
@@ -146,10 +279,12 @@ public class AvUtility {
         boolean supportHwDecoder = true;
         int tryCount = 0;           // 解码尝试次数
         int decodedFrameCnt = 0;    // 已经解码视频帧数
+        long firstFrameTime = 0;    // 第一帧解码出来的时间，不统计解码器启动时间
+        long lastFrameTime = 0;
 
-        while ((tryCount < 50) && (supportHwDecoder)) {
-
-            if (decodedFrameCnt >= 2) { // 已经解码到两帧视频帧了
+        while ((tryCount < frameCount * 25) && (supportHwDecoder) && (!videoDecodeEos)) {
+            tryCount++;
+            if (decodedFrameCnt >= frameCount) { // 已经解码到足够的视频帧了
                 break;
             }
 
@@ -158,13 +293,15 @@ public class AvUtility {
             // 读取原始码视频流数据，送入到解码器中
             //
             ret = ErrCode.XOK;
+            boolean inputFed = false;
             if (!videoInputEos) {
                 ret = videoDecoder.inputFrame();
+                inputFed = (ret != ErrCode.XERR_CODEC_NOBUFFER);
                 if (ret == ErrCode.XERR_CODEC_DEC_EOS) {  // 视频帧已经送入完成
-                    Log.d(TAG, "<detectHwDecoder> feeding EOS done!");
+                    Log.d(TAG, "<measureHwDecodeFps> feeding EOS done!");
                     videoInputEos = true;
                 } else if (ret == ErrCode.XERR_CODEC_DECODING) { // 解码器失败
-                    Log.e(TAG, "<detectHwDecoder> input frame failure");
+                    Log.e(TAG, "<measureHwDecodeFps> input frame failure");
                     supportHwDecoder = false;
                 }
             }
@@ -172,35 +309,139 @@ public class AvUtility {
             //
             // 进行解码操作，如果有解码后的数据输出会输出到 outFrame中
             //
-            if (!videoDecodeEos) {
-                Pair<Integer, AvVideoFrame> pair = videoDecoder.tryDecVideoFrame();
-                ret = pair.first;
-                AvVideoFrame videoFrame = pair.second;
-                if (videoFrame != null) {
+            Pair<Integer, AvVideoFrame> pair = videoDecoder.tryDecVideoFrame();
+            ret = pair.first;
+            AvVideoFrame videoFrame = pair.second;
+            if (videoFrame != null) {
+                videoFrame.releaseBuffer();
+            }
+
+            if (ret == ErrCode.XERR_CODEC_DECODING) { // 解码失败
+                Log.e(TAG, "<measureHwDecodeFps> decoding error");
+                supportHwDecoder = false;
+
+            } else if (ret == ErrCode.XERR_CODEC_DEC_EOS) {  // 所有解码都已经完成
+                Log.d(TAG, "<measureHwDecodeFps> decoding EOS done!");
+                videoDecodeEos = true;
+
+            } else if (ret == ErrCode.XERR_NONE) { // 有视频帧输出，可以继续进行解码操作
+                lastFrameTime = SystemClock.elapsedRealtime();
+                if (decodedFrameCnt == 0) {
+                    firstFrameTime = lastFrameTime;
                 }
+                decodedFrameCnt++;
 
-                if (ret == ErrCode.XERR_CODEC_DECODING) { // 解码失败
-                    Log.e(TAG, "<detectHwDecoder> decoding error");
-                    supportHwDecoder = false;
+            } else if (!inputFed) {  // 既没有送入也没有输出，异步模式下等待解码器事件，同步模式直接返回
+                videoDecoder.waitCodecEvent(10);
+            }
+        }
 
-                } else if (ret == ErrCode.XERR_CODEC_DEC_EOS) {  // 所有解码都已经完成
-                    Log.d(TAG, "<detectHwDecoder> decoding EOS done!");
-                    videoDecodeEos = true;
+        long firstOutputMs = videoDecoder.getFirstOutputDelay();
+        videoDecoder.release();
+        videoDecoder = null;
 
-                } else if (ret == ErrCode.XERR_NONE) { // 有视频帧输出，可以继续进行解码操作
-                    decodedFrameCnt++;
+        float fps = calculateFps(supportHwDecoder, decodedFrameCnt, firstFrameTime, lastFrameTime);
+        Log.d(TAG, "<measureHwDecodeFps> END, decodedFrameCnt=" + decodedFrameCnt
+                + ", fps=" + String.format("%.1f", fps)
+                + ", firstOutputMs=" + firstOutputMs + ", asyncMode=" + asyncMode);
+        return fps;
+    }
+
+    /*
+     * @brief 测试指定线程数量的软解码速度
+     * @param mediaFilePath : 媒体文件路径
+     * @param threads : 解码和格式转换的线程数量，0表示根据CPU核数自动选择
+     * @param frameCount : 需要解码的视频帧数量
+     * @retrun 每秒解码的帧数，0表示解码失败
+     */
+    static public float measureSoftDecodeFps(Context ctx, String mediaFilePath, int threads, int frameCount)  {
+        Log.d(TAG, "<measureSoftDecodeFps> BEGIN, threads=" + threads + ", file=" + mediaFilePath);
+
+        AvDecParam decParam = new AvDecParam();
+        decParam.mContext = ctx;
+        decParam.mInFileUrl = mediaFilePath;
+        decParam.mOutVidFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
+        decParam.mOutAudSampleFmt = AudioFormat.ENCODING_PCM_16BIT;
+        decParam.mOutAudChannels = 2;
+        decParam.mOutAudSampleRate = 44100;
+        decParam.mDecodeThreads = threads;
+        decParam.mConvertThreads = threads;
+
+        AvSoftDecoder softDecoder = new AvSoftDecoder();
+        int ret = softDecoder.parserOpen(decParam);
+        if (ret != ErrCode.XOK) {
+            Log.e(TAG, "<measureSoftDecodeFps> fail to open soft decoder, ret=" + ret);
+            return 0.0f;
+        }
 
-                } else { // 可以继续进行解码操作
+        int[] pktType = new int[1];
+        boolean inputEos = false;
+        boolean decodeOk = true;
+        int tryCount = 0;           // 送包尝试次数
+        int decodedFrameCnt = 0;    // 已经解码视频帧数
+        long firstFrameTime = 0;    // 第一帧解码出来的时间，不统计解码器启动时间
+        long lastFrameTime = 0;
 
+        while ((tryCount < frameCount * 25) && (decodeOk) && (decodedFrameCnt < frameCount)) {
+            tryCount++;
+
+            pktType[0] = 0;
+            if (!inputEos) {
+                ret = softDecoder.parserInputPacket(pktType);
+                if (ret == ErrCode.XERR_CODEC_DEC_EOS) {  // 数据包已经送入完成
+                    inputEos = true;
+                }
+            }
+
+            if (pktType[0] == PKT_TYPE_AUDIO) {  // 音频帧直接丢弃
+                for (;;) {
+                    Pair<Integer, AvAudioFrame> audioPair = softDecoder.parserDecAudioFrame();
+                    if (audioPair.second != null) {
+                        audioPair.second.releaseBuffer();
+                    }
+                    if (audioPair.first != ErrCode.XOK) {
+                        break;
+                    }
+                }
+                continue;
+            }
+            if ((pktType[0] != PKT_TYPE_VIDEO) && (!inputEos)) {
+                continue;
+            }
+
+            for (;;) {
+                Pair<Integer, AvVideoFrame> videoPair = softDecoder.parserDecVideoFrame();
+                AvVideoFrame videoFrame = videoPair.second;
+                if (videoFrame != null && videoFrame.mDataBuffer != null) {
+                    videoFrame.releaseBuffer();
+                    lastFrameTime = SystemClock.elapsedRealtime();
+                    if (decodedFrameCnt == 0) {
+                        firstFrameTime = lastFrameTime;
+                    }
+                    decodedFrameCnt++;
+                }
+
+                ret = videoPair.first;
+                if (ret == ErrCode.XERR_CODEC_DECODING) { // 解码失败
+                    Log.e(TAG, "<measureSoftDecodeFps> decoding error");
+                    decodeOk = false;
+                    break;
+                } else if (ret == ErrCode.XERR_CODEC_DEC_EOS) {  // 所有解码都已经完成
+                    tryCount = frameCount * 25;
+                    break;
+                } else if (ret != ErrCode.XOK) {
+                    break;
                 }
             }
         }
 
-        videoDecoder.release();
-        videoDecoder = null;
+        softDecoder.parserClose();
+        softDecoder = null;
 
-        Log.d(TAG, "<detectHwDecoder> END, supportHwDecoder=" + supportHwDecoder);
-        return supportHwDecoder;
+        float fps = calculateFps(decodeOk, decodedFrameCnt, firstFrameTime, lastFrameTime);
+        Log.d(TAG, "<measureSoftDecodeFps> END, threads=" + threads
+                + ", decodedFrameCnt=" + decodedFrameCnt + ", fps=" + String.format("%.1f", fps));
+        return fps;
     }
 
 
@@ -236,7 +477,7 @@ public class AvUtility {
 
         AvMediaInfo swMediaInfo = swParseMediaInfo(mediaFilePath);
         AvMediaInfo hwMediaInfo = hwParseMediaInfo(mediaFilePath);
-        if (hwMediaInfo != null) {
+        if ((hwMediaInfo != null) && (swMediaInfo != null)) {
             videoBitrate = swMediaInfo.mVideoBitrate;
             videoMaxBitrate = swMediaInfo.mVideoMaxBitrate;
             audioBitrate = swMediaInfo.mAudioBitrate;
@@ -491,6 +732,66 @@ public class AvUtility {
     }
 
 
+    /*
+     * @brief 判断是否可以走 Surface 到 Surface 的硬件转码
+     *        需要有支持源格式的硬件解码器，并且目标编码器支持 Surface 输入和输出的分辨率
+     * @param srcMime : 源视频流的mime
+     * @param srcWidth : 源视频帧宽度
+     * @param srcHeight : 源视频帧高度
+     * @param dstMime : 目标编码器的mime
+     * @param dstWidth : 编码输出宽度
+     * @param dstHeight : 编码输出高度
+     * @retrun true 表示支持
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public static boolean isSurfaceTranscodeSupported(String srcMime, int srcWidth, int srcHeight,
+                                                      String dstMime, int dstWidth, int dstHeight) {
+        try {
+            // Android 5.0 上 findDecoderForFormat() 不能带帧率，这里只用 mime 和宽高查找
+            MediaFormat srcFormat = MediaFormat.createVideoFormat(srcMime, srcWidth, srcHeight);
+            MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+            String decoderName = codecList.findDecoderForFormat(srcFormat);
+            if (decoderName == null) {
+                Log.d(TAG, "<isSurfaceTranscodeSupported> no decoder, srcMime=" + srcMime
+                        + ", srcWidth=" + srcWidth + ", srcHeight=" + srcHeight);
+                return false;
+            }
+
+            MediaCodecInfo.CodecCapabilities capabilities = getAvCodecCapabilities(dstMime);
+            if (capabilities == null) {
+                Log.d(TAG, "<isSurfaceTranscodeSupported> no encoder, dstMime=" + dstMime);
+                return false;
+            }
+            boolean surfaceInput = false;
+            for (int colorFormat : capabilities.colorFormats) {
+                if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface) {
+                    surfaceInput = true;
+                    break;
+                }
+            }
+            if (!surfaceInput) {
+                Log.d(TAG, "<isSurfaceTranscodeSupported> encoder not support surface input");
+                return false;
+            }
+            if (!capabilities.getVideoCapabilities().isSizeSupported(dstWidth, dstHeight)) {
+                Log.d(TAG, "<isSurfaceTranscodeSupported> encoder not support size, dstWidth="
+                        + dstWidth + ", dstHeight=" + dstHeight);
+                return false;
+            }
+
+            Log.d(TAG, "<isSurfaceTranscodeSupported> supported, decoder=" + decoderName
+                    + ", srcMime=" + srcMime + ", dstMime=" + dstMime
+                    + ", dstWidth=" + dstWidth + ", dstHeight=" + dstHeight);
+            return true;
+
+        } catch (Exception exp) {
+            exp.printStackTrace();
+            Log.e(TAG, "<isSurfaceTranscodeSupported> [EXCEPTION] exp=" + exp);
+            return false;
+        }
+    }
+
+
     /*
      * @brief 图像旋转操作
      * @param srcBmp : 原始图像
@@ -568,4 +869,18 @@ public class AvUtility {
         return dstBuffer;
     }
 
-}
\ No newline at end of file
+
+    /*
+     * @brief 根据第一帧到最后一帧的时间计算解码速度
+     */
+    private static float calculateFps(boolean success, int frameCount, long firstTime, long lastTime) {
+        long duration = lastTime - firstTime;
+        if ((!success) || (frameCount <= 1)) {
+            return 0.0f;
+        }
+        if (duration <= 0) {    // 解码速度快于时钟精度
+            duration = 1;
+        }
+        return ((frameCount - 1) * 1000.0f / duration);
+    }
+}
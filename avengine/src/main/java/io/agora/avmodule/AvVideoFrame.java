@@ -12,6 +12,7 @@ public class AvVideoFrame extends AvBaseFrame {
     public Bitmap mFrameBmp;                ///< 解码后的视频帧图像
     public int mWidth;                      ///< 视频帧宽度
     public int mHeight;                     ///< 视频帧高度
+    public boolean mRendered;               ///< 解码帧是否已经渲染到解码输出 Surface 上
 
     public AvVideoFrame() {
         mFrameType = FRAME_TYPE_VIDEO;
@@ -176,6 +176,20 @@ public interface IAvCompDecoder {
      */
     public int getAudioFrameCount();
 
+    /*
+     * @brief 通知解码组件输出帧已经被取走，输出队列满而等待的解码立即继续
+     * @param None
+     * @retrun None
+     */
+    public void notifyFramesConsumed();
+
+    /*
+     * @brief 获取解码阶段统计信息
+     * @param None
+     * @retrun 解码统计信息
+     */
+    public AvStageStats getDecodeStats();
+
 
 
 
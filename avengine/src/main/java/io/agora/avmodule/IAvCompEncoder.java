@@ -40,6 +40,12 @@ public interface IAvCompEncoder {
          * @param errCode : 错误代码
          */
         void onEncodeError(CompEncodeParam compEncodeParam, int errCode);
+
+        /*
+         * @brief 输入队列中的帧已经送入编码器，上游可以继续送入，在编码线程中回调
+         * @param encodeParam : 当前编码参数
+         */
+        default void onInputFrameConsumed(CompEncodeParam compEncodeParam) {}
     }
 
     /*
@@ -116,6 +122,12 @@ public interface IAvCompEncoder {
      */
     public int getInAudioCount();
 
+    /*
+     * @brief 获取编码阶段统计信息
+     * @return 编码统计信息
+     */
+    public AvStageStats getEncodeStats();
+
     /*
      * @brief 启动编码线程进行编码处理
      * @param None
@@ -0,0 +1,47 @@
+package io.agora.avmodule;
+
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+
+
+/*
+ * @brief 编码器输出的混流接口，编码器只通过该接口写入编码后的数据
+ *        可以直接写入文件(AvFileMuxer)，也可以写入内存中的预录缓冲区(AvPreRollBuffer)
+ *        接口方法和 MediaMuxer 保持一致，出错时同样抛出 IllegalStateException 等异常
+ */
+public interface IAvMuxer {
+
+    /*
+     * @brief 添加一个轨道，必须在 start() 之前调用
+     * @param format : 编码器输出的音视频格式
+     * @return 返回轨道索引
+     */
+    int addTrack(MediaFormat format);
+
+    /*
+     * @brief 所有轨道添加完成后启动混流
+     */
+    void start();
+
+    /*
+     * @brief 写入一个编码后的数据
+     * @param trackIndex : addTrack() 返回的轨道索引
+     * @param byteBuf : 编码后的数据，从 bufferInfo.offset 开始共 bufferInfo.size 字节
+     * @param bufferInfo : 数据的时间戳和标记
+     */
+    void writeSampleData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo);
+
+    /*
+     * @brief 停止混流
+     */
+    void stop();
+
+    /*
+     * @brief 释放混流器
+     */
+    void release();
+}
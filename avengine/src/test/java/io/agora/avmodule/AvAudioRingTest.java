@@ -0,0 +1,164 @@
+package io.agora.avmodule;
+
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+/*
+ * @brief AvAudioRing 时间戳和丢帧策略测试，模拟音频回调，不依赖设备
+ */
+public class AvAudioRingTest {
+
+    private static final long ONE_HOUR_US = 3600L * 1000L * 1000L;
+
+
+    /*
+     * @brief 一小时 10ms 回调(360000次)，每一帧的时间戳和真实时间的误差不超过一个采样周期
+     */
+    @Test
+    public void timestampNoDriftOneHour10ms() {
+        checkTimestampDrift(44100, 2, 441);
+        checkTimestampDrift(48000, 2, 480);
+        checkTimestampDrift(8000, 1, 80);
+    }
+
+    /*
+     * @brief 每帧时长不是整数毫秒的情况，按毫秒累加会产生累计误差
+     */
+    @Test
+    public void timestampNoDriftOneHourOddFrame() {
+        checkTimestampDrift(44100, 2, 1024);
+        checkTimestampDrift(16000, 1, 333);
+    }
+
+    /*
+     * @brief 编码器处理不过来时丢弃最旧的帧，被丢弃的帧仍然累计采样数
+     */
+    @Test
+    public void dropOldestKeepsTimeline() {
+        final int capacity = 50;
+        final int samplesPerChannel = 480;
+        AvAudioRing audioRing = new AvAudioRing(capacity, AvAudioRing.POLICY_DROP_OLDEST);
+        ByteBuffer pcmBuffer = ByteBuffer.allocate(samplesPerChannel * 2 * 2);
+
+        for (int i = 0; i < 200; i++) {
+            pcmBuffer.clear();
+            assertEquals(ErrCode.XOK, audioRing.write(pcmBuffer, samplesPerChannel, 2, 2, 48000));
+        }
+
+        AvAudioRing.RingStats stats = audioRing.getStats();
+        assertEquals(200, stats.mWriteCount);
+        assertEquals(150, stats.mDropOldestCount);
+        assertEquals(capacity, stats.mPendingCount);
+
+        // 保留的是最新的 50 帧，时间戳从第 150 帧开始
+        for (int i = 150; i < 200; i++) {
+            AvAudioFrame audioFrame = audioRing.read();
+            assertNotNull(audioFrame);
+            assertEquals(i * 10000L, audioFrame.mTimestamp);
+            audioFrame.releaseBuffer();
+        }
+        assertNull(audioRing.read());
+    }
+
+    /*
+     * @brief 所有缓冲区都被编码器持有时，丢弃当前写入的帧
+     */
+    @Test
+    public void dropNewestWhenAllHeld() {
+        final int capacity = 50;
+        AvAudioRing audioRing = new AvAudioRing(capacity, AvAudioRing.POLICY_DROP_OLDEST);
+        ByteBuffer pcmBuffer = ByteBuffer.allocate(480 * 4);
+
+        AvAudioFrame[] heldFrames = new AvAudioFrame[capacity];
+        for (int i = 0; i < capacity; i++) {
+            pcmBuffer.clear();
+            assertEquals(ErrCode.XOK, audioRing.write(pcmBuffer, 480, 2, 2, 48000));
+            heldFrames[i] = audioRing.read();
+        }
+
+        pcmBuffer.clear();
+        assertEquals(ErrCode.XERR_BUFFER_OVERFLOW, audioRing.write(pcmBuffer, 480, 2, 2, 48000));
+        assertEquals(1, audioRing.getStats().mDropNewestCount);
+
+        // 归还一个缓冲区后可以继续写入，时间戳包含被丢弃的那一帧
+        heldFrames[0].releaseBuffer();
+        pcmBuffer.clear();
+        assertEquals(ErrCode.XOK, audioRing.write(pcmBuffer, 480, 2, 2, 48000));
+        AvAudioFrame audioFrame = audioRing.read();
+        assertNotNull(audioFrame);
+        assertEquals((capacity + 1) * 10000L, audioFrame.mTimestamp);
+    }
+
+    /*
+     * @brief 采样率变化时从当前时间继续，不会跳变
+     */
+    @Test
+    public void sampleRateChangeContinues() {
+        AvAudioRing audioRing = new AvAudioRing(8, AvAudioRing.POLICY_DROP_OLDEST);
+        ByteBuffer pcmBuffer = ByteBuffer.allocate(480 * 4);
+
+        for (int i = 0; i < 100; i++) {     // 1秒 44100Hz
+            pcmBuffer.clear();
+            audioRing.write(pcmBuffer, 441, 2, 2, 44100);
+            audioRing.read().releaseBuffer();
+        }
+        pcmBuffer.clear();
+        audioRing.write(pcmBuffer, 480, 2, 2, 48000);
+        AvAudioFrame audioFrame = audioRing.read();
+        assertEquals(1000000L, audioFrame.mTimestamp);
+        audioFrame.releaseBuffer();
+
+        pcmBuffer.clear();
+        audioRing.write(pcmBuffer, 480, 2, 2, 48000);
+        audioFrame = audioRing.read();
+        assertEquals(1010000L, audioFrame.mTimestamp);
+        audioFrame.releaseBuffer();
+    }
+
+
+    /*
+     * @brief 模拟一小时的音频回调，比较每一帧时间戳和精确时间
+     */
+    private void checkTimestampDrift(int sampleRate, int channels, int samplesPerChannel) {
+        AvAudioRing audioRing = new AvAudioRing(AvAudioRing.DEFAULT_CAPACITY, AvAudioRing.POLICY_DROP_OLDEST);
+        ByteBuffer pcmBuffer = ByteBuffer.allocate(samplesPerChannel * channels * 2);
+        audioRing.preallocate(pcmBuffer.capacity());
+
+        double samplePeriodUs = 1000000.0 / sampleRate;
+        long frameCount = (ONE_HOUR_US * sampleRate) / (1000000L * samplesPerChannel);
+        double maxErrorUs = 0;
+        long lastTimestamp = -1;
+
+        for (long i = 0; i < frameCount; i++) {
+            pcmBuffer.clear();
+            int ret = audioRing.write(pcmBuffer, samplesPerChannel, channels, 2, sampleRate);
+            assertEquals(ErrCode.XOK, ret);
+
+            AvAudioFrame audioFrame = audioRing.read();
+            assertNotNull(audioFrame);
+            double exactUs = (double)i * samplesPerChannel * 1000000.0 / sampleRate;
+            maxErrorUs = Math.max(maxErrorUs, Math.abs(audioFrame.mTimestamp - exactUs));
+            assertTrue(audioFrame.mTimestamp > lastTimestamp);
+            lastTimestamp = audioFrame.mTimestamp;
+            audioFrame.releaseBuffer();
+        }
+
+        assertTrue("sampleRate=" + sampleRate + ", samplesPerChannel=" + samplesPerChannel
+                        + ", maxErrorUs=" + maxErrorUs,
+                maxErrorUs <= samplePeriodUs);
+        // 模拟的时长覆盖了一小时，最多相差一帧
+        assertTrue(lastTimestamp + samplesPerChannel * samplePeriodUs >= ONE_HOUR_US - samplesPerChannel * samplePeriodUs);
+
+        AvAudioRing.RingStats stats = audioRing.getStats();
+        assertEquals(frameCount, stats.mWriteCount);
+        assertEquals(0, stats.mDropOldestCount + stats.mDropNewestCount);
+    }
+}
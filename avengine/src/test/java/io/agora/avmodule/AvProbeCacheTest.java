@@ -0,0 +1,145 @@
+package io.agora.avmodule;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+
+/*
+ * @brief AvProbeCache 网络文件探测合并测试，使用本地 HTTP 服务器提供内容指纹
+ */
+public class AvProbeCacheTest {
+
+    private static final int CALLER_COUNT = 8;
+    private static final long WAIT_TIMEOUT = 10000;
+
+    private AvTestHttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final AtomicInteger mProbeCount = new AtomicInteger(0);
+
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new AvTestHttpServer();
+        mServer.start();
+        AvProbeCache.getInstance().clear();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        mExecutor.shutdownNow();
+        AvProbeCache.getInstance().clear();
+    }
+
+
+    /*
+     * @brief 还没有指纹时，签名参数不同的并发探测只执行一次，获取到指纹后命中缓存
+     */
+    @Test
+    public void remoteProbeMergedBeforeFingerprint() throws Exception {
+        mServer.putContent("/probe/media.mp4", new byte[4096]);
+        final CountDownLatch probeLatch = new CountDownLatch(1);
+        final CountDownLatch startLatch = new CountDownLatch(CALLER_COUNT);
+        final Callable<AvMediaInfo> blockProber = () -> {
+            mProbeCount.incrementAndGet();
+            probeLatch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+            return makeMediaInfo();
+        };
+
+        List<Future<AvMediaInfo>> futureList = new ArrayList<>();
+        for (int i = 0; i < CALLER_COUNT; i++) {
+            final String url = mServer.getUrl("/probe/media.mp4?sign=" + i);
+            futureList.add(mExecutor.submit(() -> {
+                startLatch.countDown();
+                return AvProbeCache.getInstance().getOrProbe(AvProbeCache.PROBE_HW, url, blockProber);
+            }));
+        }
+        assertTrue(startLatch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(200);      // 让所有调用者都进入等待
+        probeLatch.countDown();
+
+        for (int i = 0; i < CALLER_COUNT; i++) {
+            AvMediaInfo mediaInfo = futureList.get(i).get(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull(mediaInfo);
+            assertEquals(mServer.getUrl("/probe/media.mp4?sign=" + i), mediaInfo.mFilePath);
+        }
+        assertEquals(1, mProbeCount.get());
+        assertTrue(mServer.getRequests("/probe/media.mp4").size() <= 1);   // 只获取一次指纹
+
+        // 后台获取到指纹后，同一个地址不再探测
+        final String url = mServer.getUrl("/probe/media.mp4?sign=0");
+        final Callable<AvMediaInfo> countProber = () -> {
+            mProbeCount.incrementAndGet();
+            return makeMediaInfo();
+        };
+        long beginTime = System.currentTimeMillis();
+        for (;;) {
+            int probeCount = mProbeCount.get();
+            assertNotNull(AvProbeCache.getInstance().getOrProbe(AvProbeCache.PROBE_HW, url, countProber));
+            if (mProbeCount.get() == probeCount) {
+                break;
+            }
+            assertTrue("wait timeout", System.currentTimeMillis() - beginTime < WAIT_TIMEOUT);
+            Thread.sleep(10);
+        }
+    }
+
+    /*
+     * @brief 探测失败的结果不缓存，等待同一个探测的调用者都得到失败结果
+     */
+    @Test
+    public void remoteProbeFailureShared() throws Exception {
+        mServer.putContent("/probe/broken.mp4", new byte[4096]);
+        final CountDownLatch probeLatch = new CountDownLatch(1);
+        final CountDownLatch startLatch = new CountDownLatch(CALLER_COUNT);
+        final Callable<AvMediaInfo> failProber = () -> {
+            mProbeCount.incrementAndGet();
+            probeLatch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+            return null;
+        };
+
+        final String url = mServer.getUrl("/probe/broken.mp4");
+        List<Future<AvMediaInfo>> futureList = new ArrayList<>();
+        for (int i = 0; i < CALLER_COUNT; i++) {
+            futureList.add(mExecutor.submit(() -> {
+                startLatch.countDown();
+                return AvProbeCache.getInstance().getOrProbe(AvProbeCache.PROBE_SW, url, failProber);
+            }));
+        }
+        assertTrue(startLatch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(200);
+        probeLatch.countDown();
+
+        for (Future<AvMediaInfo> future : futureList) {
+            assertEquals(null, future.get(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(1, mProbeCount.get());
+    }
+
+
+    private static AvMediaInfo makeMediaInfo() {
+        AvMediaInfo mediaInfo = new AvMediaInfo();
+        mediaInfo.mVideoTrackId = 0;
+        mediaInfo.mVideoCodec = "video/avc";
+        mediaInfo.mVideoWidth = 1280;
+        mediaInfo.mVideoHeight = 720;
+        return mediaInfo;
+    }
+}
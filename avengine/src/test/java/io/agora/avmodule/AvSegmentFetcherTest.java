@@ -0,0 +1,321 @@
+package io.agora.avmodule;
+
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/*
+ * @brief AvSegmentFetcher 测试，使用本地 HTTP 服务器代替云录存储
+ *        覆盖取消后续传、Range 分块和 HLS 分块的处理、4xx 不重试和 5xx 重试
+ */
+public class AvSegmentFetcherTest {
+
+    private static final int RANGE_SIZE = 64 * 1024;        ///< 分块的最小字节数
+    private static final int RANGE_PART_COUNT = 10;
+    private static final int HLS_SEGMENT_COUNT = 6;
+    private static final long WAIT_TIMEOUT = 10000;
+
+    private AvTestHttpServer mServer;
+    private File mCacheDir;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new AvTestHttpServer();
+        mServer.start();
+        mCacheDir = Files.createTempDirectory("segfetch").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        mExecutor.shutdownNow();
+        deleteDir(mCacheDir);
+    }
+
+
+    /*
+     * @brief Range 文件：下载中途取消，续传时只请求没有完成的字节范围
+     */
+    @Test
+    public void rangeResumeAfterCancel() throws Exception {
+        byte[] content = makeContent(RANGE_SIZE * RANGE_PART_COUNT, 1);
+        mServer.putContent("/record/media.mp4", content);
+
+        // 前 4 个分块正常返回，之后的分块挂起
+        final int doneBeforeCancel = 4;
+        mServer.closeGate((path, rangeStart) -> (rangeStart >= (long)RANGE_SIZE * doneBeforeCancel));
+        AvSegmentFetcher fetcher = new AvSegmentFetcher(makeParam("/record/media.mp4?sign=first"));
+        Future<Integer> future = mExecutor.submit(fetcher::fetch);
+        waitUntil(() -> (fetcher.getDonePartCount() >= doneBeforeCancel) && (mServer.getHoldingCount() >= 2));
+
+        long cancelTime = System.currentTimeMillis();
+        fetcher.cancel();
+        assertEquals(ErrCode.XERR_BAD_STATE, (int)future.get(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(System.currentTimeMillis() - cancelTime < 1000);
+
+        // 续传清单：每个分块是同一个文件中的一段字节范围
+        JSONObject manifestObj = readManifest();
+        assertEquals("file", manifestObj.getString("type"));
+        assertEquals(content.length, manifestObj.getLong("totalBytes"));
+        JSONArray partArray = manifestObj.getJSONArray("parts");
+        assertEquals(RANGE_PART_COUNT, partArray.length());
+        HashSet<Long> doneStarts = new HashSet<>();
+        for (int i = 0; i < partArray.length(); i++) {
+            JSONObject partObj = partArray.getJSONObject(i);
+            assertEquals("media.mp4", partObj.getString("file"));
+            assertEquals((long)i * RANGE_SIZE, partObj.getLong("start"));
+            assertEquals((long)(i + 1) * RANGE_SIZE - 1, partObj.getLong("end"));
+            if (partObj.getBoolean("done")) {
+                doneStarts.add(partObj.getLong("start"));
+            }
+        }
+        assertEquals(doneBeforeCancel, doneStarts.size());
+
+        // 签名参数变化也能匹配续传清单，只下载缺少的分块
+        mServer.openGate();
+        Thread.sleep(200);
+        mServer.clearRequests();
+        AvSegmentFetcher resumeFetcher = new AvSegmentFetcher(makeParam("/record/media.mp4?sign=second"));
+        assertEquals(ErrCode.XOK, resumeFetcher.fetch());
+        assertEquals(RANGE_PART_COUNT, resumeFetcher.getDonePartCount());
+        assertEquals(content.length, resumeFetcher.getFetchedBytes());
+
+        List<AvTestHttpServer.RequestRecord> requestList = mServer.getRequests("/record/media.mp4");
+        assertEquals("bytes=0-0", requestList.get(0).mRange);     // 获取文件大小
+        assertEquals(1 + RANGE_PART_COUNT - doneBeforeCancel, requestList.size());
+        for (int i = 1; i < requestList.size(); i++) {
+            long start = parseRangeStart(requestList.get(i).mRange);
+            assertFalse("already fetched range " + start, doneStarts.contains(start));
+        }
+
+        File localFile = new File(resumeFetcher.getLocalUrl());
+        assertEquals(new File(mCacheDir, "media.mp4"), localFile);
+        assertArrayEquals(content, Files.readAllBytes(localFile.toPath()));
+        for (int i = 0; i < partArray.length(); i++) {
+            assertTrue(readManifest().getJSONArray("parts").getJSONObject(i).getBoolean("done"));
+        }
+    }
+
+    /*
+     * @brief HLS：每个分片/密钥/初始化分片是单独的文件，取消后续传只下载缺少的分片
+     */
+    @Test
+    public void hlsResumeAfterCancel() throws Exception {
+        List<byte[]> segmentList = putHlsContent();
+
+        final int doneSegments = 3;
+        mServer.closeGate((path, rangeStart) -> isSegmentAtLeast(path, doneSegments));
+        AvSegmentFetcher fetcher = new AvSegmentFetcher(makeParam("/hls/master.m3u8?token=a"));
+        Future<Integer> future = mExecutor.submit(fetcher::fetch);
+        // 密钥 + 初始化分片 + 前3个分片
+        waitUntil(() -> (fetcher.getDonePartCount() >= doneSegments + 2) && (mServer.getHoldingCount() >= 2));
+        fetcher.cancel();
+        assertEquals(ErrCode.XERR_BAD_STATE, (int)future.get(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        JSONObject manifestObj = readManifest();
+        assertEquals("hls", manifestObj.getString("type"));
+        assertEquals("index.m3u8", manifestObj.getString("entry"));
+        JSONArray partArray = manifestObj.getJSONArray("parts");
+        assertEquals(HLS_SEGMENT_COUNT + 2, partArray.length());
+        HashSet<String> doneFiles = new HashSet<>();
+        for (int i = 0; i < partArray.length(); i++) {
+            JSONObject partObj = partArray.getJSONObject(i);
+            assertEquals(0, partObj.getLong("start"));
+            assertEquals(-1, partObj.getLong("end"));
+            if (partObj.getBoolean("done")) {
+                doneFiles.add(partObj.getString("file"));
+            }
+        }
+        assertEquals(doneSegments + 2, doneFiles.size());
+
+        mServer.openGate();
+        Thread.sleep(200);
+        mServer.clearRequests();
+        AvSegmentFetcher resumeFetcher = new AvSegmentFetcher(makeParam("/hls/master.m3u8?token=b"));
+        assertEquals(ErrCode.XOK, resumeFetcher.fetch());
+        assertEquals(HLS_SEGMENT_COUNT + 2, resumeFetcher.getDonePartCount());
+
+        // 播放列表每次都重新获取，已经完成的密钥、初始化分片和分片不再请求
+        assertTrue(mServer.getRequests("/hls/key.bin").isEmpty());
+        assertTrue(mServer.getRequests("/hls/init.mp4").isEmpty());
+        assertTrue(mServer.getRequests("/hls/low.m3u8").isEmpty());    // 选择码率最高的子流
+        for (int i = 0; i < HLS_SEGMENT_COUNT; i++) {
+            int expectCount = (i < doneSegments) ? 0 : 1;
+            assertEquals("segment " + i, expectCount, mServer.getRequests("/hls/high/s" + i + ".m4s").size());
+        }
+
+        // 本地播放列表引用本地文件
+        String localPlaylist = new String(Files.readAllBytes(new File(resumeFetcher.getLocalUrl()).toPath()),
+                StandardCharsets.UTF_8);
+        assertTrue(localPlaylist.contains("URI=\"key_000.bin\""));
+        assertTrue(localPlaylist.contains("URI=\"init_001.mp4\""));
+        assertFalse(localPlaylist.contains("http://"));
+        for (int i = 0; i < HLS_SEGMENT_COUNT; i++) {
+            String fileName = String.format("seg_%05d.m4s", i);
+            assertTrue(localPlaylist.contains(fileName));
+            assertArrayEquals(segmentList.get(i), Files.readAllBytes(new File(mCacheDir, fileName).toPath()));
+        }
+    }
+
+    /*
+     * @brief 4xx 错误不重试，直接返回 XERR_HTTP_RESP_CODE
+     */
+    @Test
+    public void clientErrorNoRetry() throws Exception {
+        putHlsContent();
+        mServer.setFailure("/hls/high/s2.m4s", 404, 100);
+
+        AvSegmentFetcher fetcher = new AvSegmentFetcher(makeParam("/hls/high.m3u8"));
+        assertEquals(ErrCode.XERR_HTTP_RESP_CODE, fetcher.fetch());
+        assertEquals(1, mServer.getRequests("/hls/high/s2.m4s").size());
+        assertFalse(readManifest().getJSONArray("parts").getJSONObject(4).getBoolean("done"));
+    }
+
+    /*
+     * @brief 5xx 错误按照间隔重试，重试成功后整体下载成功
+     */
+    @Test
+    public void serverErrorRetry() throws Exception {
+        List<byte[]> segmentList = putHlsContent();
+        mServer.setFailure("/hls/high/s1.m4s", 503, 2);
+
+        AvSegmentFetcher fetcher = new AvSegmentFetcher(makeParam("/hls/high.m3u8"));
+        assertEquals(ErrCode.XOK, fetcher.fetch());
+        assertEquals(3, mServer.getRequests("/hls/high/s1.m4s").size());
+        assertArrayEquals(segmentList.get(1),
+                Files.readAllBytes(new File(mCacheDir, "seg_00001.m4s").toPath()));
+        assertFalse(new File(mCacheDir, "seg_00001.m4s.tmp").exists());
+    }
+
+    /*
+     * @brief 服务器不支持 Range 请求时整个文件作为一个分块
+     */
+    @Test
+    public void noRangeSinglePart() throws Exception {
+        byte[] content = makeContent(RANGE_SIZE * 3 + 100, 3);
+        mServer.putContent("/record/plain.mp4", content);
+        mServer.setRangeSupported(false);
+
+        AvSegmentFetcher fetcher = new AvSegmentFetcher(makeParam("/record/plain.mp4"));
+        assertEquals(ErrCode.XOK, fetcher.fetch());
+        assertEquals(1, fetcher.getPartCount());
+        assertEquals(-1, readManifest().getLong("totalBytes"));
+        assertArrayEquals(content, Files.readAllBytes(new File(fetcher.getLocalUrl()).toPath()));
+
+        // 再次下载时全部来自缓存
+        mServer.clearRequests();
+        fetcher = new AvSegmentFetcher(makeParam("/record/plain.mp4"));
+        assertEquals(ErrCode.XOK, fetcher.fetch());
+        assertEquals(1, mServer.getRequests().size());     // 只有获取文件大小的请求
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private interface ICondition {
+        boolean check();
+    }
+
+    private AvSegmentFetcher.FetchParam makeParam(final String path) {
+        AvSegmentFetcher.FetchParam fetchParam = new AvSegmentFetcher.FetchParam();
+        fetchParam.mSrcUrl = mServer.getUrl(path);
+        fetchParam.mCacheDir = mCacheDir.getAbsolutePath();
+        fetchParam.mParallelCount = 2;
+        fetchParam.mRangeSize = RANGE_SIZE;
+        return fetchParam;
+    }
+
+    /*
+     * @brief 主播放列表包含两个子流，高码率子流有密钥、初始化分片和 HLS_SEGMENT_COUNT 个分片
+     * @return 每个分片的内容
+     */
+    private List<byte[]> putHlsContent() {
+        mServer.putText("/hls/master.m3u8", "#EXTM3U\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=400000\nlow.m3u8\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=2000000\nhigh.m3u8?token=x\n");
+        mServer.putText("/hls/low.m3u8", "#EXTM3U\n#EXT-X-ENDLIST\n");
+
+        StringBuilder playlist = new StringBuilder();
+        playlist.append("#EXTM3U\n#EXT-X-VERSION:7\n#EXT-X-TARGETDURATION:2\n");
+        playlist.append("#EXT-X-KEY:METHOD=AES-128,URI=\"/hls/key.bin\",IV=0x01\n");
+        playlist.append("#EXT-X-MAP:URI=\"init.mp4\"\n");
+        List<byte[]> segmentList = new ArrayList<>();
+        for (int i = 0; i < HLS_SEGMENT_COUNT; i++) {
+            byte[] segment = makeContent(20000 + i * 1000, 100 + i);
+            segmentList.add(segment);
+            mServer.putContent("/hls/high/s" + i + ".m4s", segment);
+            playlist.append("#EXTINF:2.0,\nhigh/s").append(i).append(".m4s\n");
+        }
+        playlist.append("#EXT-X-ENDLIST\n");
+        mServer.putText("/hls/high.m3u8", playlist.toString());
+        mServer.putContent("/hls/key.bin", makeContent(16, 50));
+        mServer.putContent("/hls/init.mp4", makeContent(800, 51));
+        return segmentList;
+    }
+
+    private static boolean isSegmentAtLeast(final String path, int index) {
+        if (!path.startsWith("/hls/high/s")) {
+            return false;
+        }
+        String indexText = path.substring("/hls/high/s".length(), path.length() - ".m4s".length());
+        return Integer.parseInt(indexText) >= index;
+    }
+
+    private JSONObject readManifest() throws Exception {
+        File manifestFile = new File(mCacheDir, "fetch_manifest.json");
+        return new JSONObject(new String(Files.readAllBytes(manifestFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private static long parseRangeStart(final String range) {
+        return Long.parseLong(range.substring("bytes=".length(), range.indexOf('-')));
+    }
+
+    private static byte[] makeContent(int size, long seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private static void waitUntil(final ICondition condition) throws InterruptedException {
+        long beginTime = System.currentTimeMillis();
+        while (!condition.check()) {
+            assertTrue("wait timeout", System.currentTimeMillis() - beginTime < WAIT_TIMEOUT);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void deleteDir(final File dir) {
+        File[] fileArray = dir.listFiles();
+        if (fileArray != null) {
+            for (File file : fileArray) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,258 @@
+package io.agora.avmodule;
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/*
+ * @brief 单元测试使用的本地 HTTP 服务器，代替云录存储
+ *        1. 静态内容支持 Range 请求，也可以关闭 Range 支持
+ *        2. 可以让某些请求一直挂起，直到调用 openGate()，用来模拟下载中途取消
+ *        3. 可以让某个路径先返回若干次错误码
+ *        4. 记录所有请求的路径和 Range 头，用来检查续传时实际下载的内容
+ */
+public class AvTestHttpServer {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 一次请求的记录
+     */
+    public static class RequestRecord {
+        public String mPath;            ///< 请求路径，不包含查询参数
+        public String mRange;           ///< Range 请求头，没有时为null
+
+        @Override
+        public String toString() {
+            return "{ mPath=" + mPath + ", mRange=" + mRange + " }";
+        }
+    }
+
+    /*
+     * @brief 判断请求是否需要挂起
+     */
+    public interface IGateFilter {
+        boolean shouldHold(final String path, long rangeStart);
+    }
+
+    /*
+     * @brief 路径返回的错误码，mCount 次之后正常返回
+     */
+    private static class FailRule {
+        int mRespCode;
+        int mCount;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final long GATE_MAX_WAIT = 10000;       ///< 挂起请求的最长时间(毫秒)
+    private static final Pattern PATTERN_RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final Object mDataLock = new Object();
+    private final HashMap<String, byte[]> mContentMap = new HashMap<>();
+    private final HashMap<String, FailRule> mFailMap = new HashMap<>();
+    private final List<RequestRecord> mRequestList = new ArrayList<>();
+    private final AtomicInteger mHoldingCount = new AtomicInteger(0);
+    private volatile CountDownLatch mGateLatch = new CountDownLatch(0);
+    private volatile IGateFilter mGateFilter;
+    private volatile boolean mRangeSupported = true;
+    private HttpServer mHttpServer;
+    private ExecutorService mExecutor;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public void start() throws IOException {
+        mHttpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        mExecutor = Executors.newCachedThreadPool();
+        mHttpServer.setExecutor(mExecutor);    // 挂起的请求不能阻塞其他请求
+        mHttpServer.createContext("/", this::handleRequest);
+        mHttpServer.start();
+    }
+
+    public void stop() {
+        openGate();
+        if (mHttpServer != null) {
+            mHttpServer.stop(0);
+            mHttpServer = null;
+        }
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    /*
+     * @brief 获取路径对应的完整 URL
+     */
+    public String getUrl(final String path) {
+        return "http://127.0.0.1:" + mHttpServer.getAddress().getPort() + path;
+    }
+
+    public void putContent(final String path, final byte[] content) {
+        synchronized (mDataLock) {
+            mContentMap.put(path, content);
+        }
+    }
+
+    public void putText(final String path, final String text) {
+        putContent(path, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void setRangeSupported(boolean supported) {
+        mRangeSupported = supported;
+    }
+
+    /*
+     * @brief 设置路径先返回 failCount 次 respCode 错误码
+     */
+    public void setFailure(final String path, int respCode, int failCount) {
+        FailRule rule = new FailRule();
+        rule.mRespCode = respCode;
+        rule.mCount = failCount;
+        synchronized (mDataLock) {
+            mFailMap.put(path, rule);
+        }
+    }
+
+    /*
+     * @brief 关闭闸门，之后满足条件的请求都挂起，直到 openGate()
+     */
+    public void closeGate(final IGateFilter gateFilter) {
+        mGateFilter = gateFilter;
+        mGateLatch = new CountDownLatch(1);
+    }
+
+    public void openGate() {
+        mGateFilter = null;
+        mGateLatch.countDown();
+    }
+
+    /*
+     * @brief 当前挂起的请求数量
+     */
+    public int getHoldingCount() {
+        return mHoldingCount.get();
+    }
+
+    public List<RequestRecord> getRequests() {
+        synchronized (mDataLock) {
+            return new ArrayList<>(mRequestList);
+        }
+    }
+
+    /*
+     * @brief 获取某个路径的请求记录
+     */
+    public List<RequestRecord> getRequests(final String path) {
+        List<RequestRecord> recordList = new ArrayList<>();
+        for (RequestRecord record : getRequests()) {
+            if (record.mPath.equals(path)) {
+                recordList.add(record);
+            }
+        }
+        return recordList;
+    }
+
+    public void clearRequests() {
+        synchronized (mDataLock) {
+            mRequestList.clear();
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private void handleRequest(final HttpExchange exchange) throws IOException {
+        try {
+            RequestRecord record = new RequestRecord();
+            record.mPath = exchange.getRequestURI().getPath();
+            record.mRange = exchange.getRequestHeaders().getFirst("Range");
+
+            byte[] content;
+            int failCode = 0;
+            synchronized (mDataLock) {
+                mRequestList.add(record);
+                content = mContentMap.get(record.mPath);
+                FailRule rule = mFailMap.get(record.mPath);
+                if ((rule != null) && (rule.mCount > 0)) {
+                    rule.mCount--;
+                    failCode = rule.mRespCode;
+                }
+            }
+            if (content == null) {
+                failCode = 404;
+            }
+            if (failCode != 0) {
+                exchange.sendResponseHeaders(failCode, -1);
+                return;
+            }
+
+            long start = 0;
+            long end = content.length - 1;
+            boolean partial = false;
+            if (mRangeSupported && (record.mRange != null)) {
+                Matcher matcher = PATTERN_RANGE.matcher(record.mRange);
+                if (matcher.matches()) {
+                    start = Long.parseLong(matcher.group(1));
+                    if (!matcher.group(2).isEmpty()) {
+                        end = Math.min(end, Long.parseLong(matcher.group(2)));
+                    }
+                    partial = true;
+                }
+            }
+
+            IGateFilter gateFilter = mGateFilter;
+            if ((gateFilter != null) && gateFilter.shouldHold(record.mPath, start)) {
+                mHoldingCount.incrementAndGet();
+                try {
+                    mGateLatch.await(GATE_MAX_WAIT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException interruptExp) {
+                    return;
+                } finally {
+                    mHoldingCount.decrementAndGet();
+                }
+            }
+
+            int length = (int)(end - start + 1);
+            if (partial) {
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + end + "/" + content.length);
+            }
+            exchange.sendResponseHeaders(partial ? 206 : 200, length);
+            try (OutputStream outStream = exchange.getResponseBody()) {
+                outStream.write(content, (int)start, length);
+            }
+        } catch (IOException ioExp) {
+            // 客户端取消时连接已经断开
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -258,3 +258,77 @@ JNIEXPORT jint JNICALL Java_io_agora_iotlink_utils_ImageConvert_ImgCvt_1YuvToI42
 
     return 0;
 }
+
+/*
+ * Class:     io_agora_iotlink_utils_ImageConvert
+ * Method:    ImgCvt_I420ToNv12
+ * Signature: (Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;IIIII[B)I
+ * 直接从带 stride 的 I420 DirectBuffer 转换到 NV12 字节数组，不需要中间的 Y/U/V 数组
+ */
+JNIEXPORT jint JNICALL Java_io_agora_iotlink_utils_ImageConvert_ImgCvt_1I420ToNv12(
+    JNIEnv*			env,
+    jobject thiz,
+    jobject yBufferObj,
+    jobject uBufferObj,
+    jobject vBufferObj,
+    jint width,
+    jint height,
+    jint yStride,
+    jint uStride,
+    jint vStride,
+    jbyteArray jb_nv12Data        )
+{
+    uint8_t* in_y_buffer = (uint8_t*)env->GetDirectBufferAddress( yBufferObj);
+    uint8_t* in_u_buffer = (uint8_t*)env->GetDirectBufferAddress( uBufferObj);
+    uint8_t* in_v_buffer = (uint8_t*)env->GetDirectBufferAddress( vBufferObj);
+    if (NULL == in_y_buffer || NULL == in_u_buffer || NULL == in_v_buffer) {
+        LOGE("<ImgCvt_1I420ToNv12> not direct buffer");
+        return -1;
+    }
+
+    int half_wdith = (width + 1) / 2;
+    int half_height = (height + 1) / 2;
+    jsize nv12DataSize = width * height + half_wdith * half_height * 2;
+    if (env->GetArrayLength(jb_nv12Data) < nv12DataSize) {
+        LOGE("<ImgCvt_1I420ToNv12> output buffer too small");
+        return -2;
+    }
+
+    // 只做内存拷贝，不会调用其他JNI方法，可以使用 Critical 方式锁定避免数组拷贝
+    uint8_t* out_nv12_buffer = (uint8_t*)env->GetPrimitiveArrayCritical(jb_nv12Data, 0);
+    if (NULL == out_nv12_buffer) {
+        LOGE("<ImgCvt_1I420ToNv12> fail to lock NV12 data");
+        return -3;
+    }
+    int i, j;
+
+    // Y数据按行拷贝
+    uint8_t* src_y_buffer = in_y_buffer;
+    uint8_t* dst_y_buffer = out_nv12_buffer;
+    if (yStride == width) {
+        memcpy(dst_y_buffer, src_y_buffer, width * height);
+    } else {
+        for (i = 0; i < height; i++) {
+            memcpy(dst_y_buffer, src_y_buffer, width);
+            src_y_buffer += yStride;
+            dst_y_buffer += width;
+        }
+    }
+
+    // UV数据按行交叉存放
+    uint8_t* dst_uv_buffer = out_nv12_buffer + (width * height);
+    uint8_t* src_u_buffer = in_u_buffer;
+    uint8_t* src_v_buffer = in_v_buffer;
+    for (i = 0; i < half_height; i++) {
+        for (j = 0; j < half_wdith; j++) {
+            dst_uv_buffer[2*j] = src_u_buffer[j];
+            dst_uv_buffer[2*j + 1] = src_v_buffer[j];
+        }
+        dst_uv_buffer += (half_wdith * 2);
+        src_u_buffer += uStride;
+        src_v_buffer += vStride;
+    }
+
+    env->ReleasePrimitiveArrayCritical(jb_nv12Data, out_nv12_buffer, 0);
+    return 0;
+}
@@ -33,6 +33,14 @@ JNIEXPORT jint JNICALL Java_io_agora_iotlink_utils_ImageConvert_ImgCvt_1YuvToNv1
 JNIEXPORT jint JNICALL Java_io_agora_iotlink_utils_ImageConvert_ImgCvt_1YuvToI420
         (JNIEnv *, jobject, jobject, jobject, jobject, jint, jint, jint, jint, jint, jbyteArray, jbyteArray, jbyteArray);
 
+/*
+ * Class:     io_agora_iotlink_utils_ImageConvert
+ * Method:    ImgCvt_I420ToNv12
+ * Signature: (Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;IIIII[B)I
+ */
+JNIEXPORT jint JNICALL Java_io_agora_iotlink_utils_ImageConvert_ImgCvt_1I420ToNv12
+        (JNIEnv *, jobject, jobject, jobject, jobject, jint, jint, jint, jint, jint, jbyteArray);
+
 #ifdef __cplusplus
 }
 #endif
@@ -105,6 +105,20 @@ public class AlarmVideoDownloader implements IAvDownloaderCallback {
      * @return 错误码
      */
     public int open(final String cloudVideoUrl, final String localFilePath, ICallback callback) {
+        return open(cloudVideoUrl, localFilePath, null, callback);
+    }
+
+    /**
+     * @brief 打开下载流程，先将云视频文件分段并行下载到缓存目录，再从本地转码
+     *        下载中断后使用相同的缓存目录重新打开，只下载剩余的分段；下载完成后自动删除缓存文件
+     * @param cloudVideoUrl : 要下载的云视频文件路径
+     * @param localFilePath : 下载到本地保存的文件路径
+     * @param cacheDir : 分段下载缓存目录，每个云视频文件使用单独的目录，为空表示直接读取网络流
+     * @param callback : 下载回调
+     * @return 错误码
+     */
+    public int open(final String cloudVideoUrl, final String localFilePath, final String cacheDir,
+                    ICallback callback) {
         int ret;
 
         mCloudVideoUrl = cloudVideoUrl;
@@ -117,6 +131,7 @@ public class AlarmVideoDownloader implements IAvDownloaderCallback {
         mDownloaderParam.mContext = null;
         mDownloaderParam.mInFileUrl = cloudVideoUrl;
         mDownloaderParam.mOutFilePath = localFilePath;
+        mDownloaderParam.mCacheDir = cacheDir;
         mDownloaderParam.mCallback = this;
 
         //
@@ -211,6 +226,18 @@ public class AlarmVideoDownloader implements IAvDownloaderCallback {
         return mVideoDownloader.getAudioTimestamp();
     }
 
+    /**
+     * @brief 获取下载转码流水线各阶段的处理帧率和阻塞时长统计
+     * @return 统计信息，未打开时返回 null
+     */
+    public AvMediaDownloader.PipelineStats getPipelineStats() {
+        if (mVideoDownloader == null) {
+            return null;
+        }
+
+        return mVideoDownloader.getPipelineStats();
+    }
+
     ///////////////////////////////////////////////////////////////////////////////
     //////////////////////// Override Methods of IAvDownloaderCallback ////////////
     ///////////////////////////////////////////////////////////////////////////////
@@ -10,6 +10,7 @@
 package io.agora.iotlink;
 
 
+import android.graphics.Bitmap;
 import android.view.View;
 
 import java.util.ArrayList;
@@ -132,6 +133,16 @@ public interface IDevMediaMgr  {
          * @param undeletedList : 输出未成功删除的媒体项列表
          */
         default void onDevMediaDeleteDone(int errCode, final List<DevMediaDelResult> undeletedList) {}
+
+        /**
+         * @brief 分批删除时，每一批删除完成事件，所有批次完成后再回调 onDevMediaDeleteDone()
+         * @param errCode : 当前批次的删除结果错误码
+         * @param undeletedList : 当前批次未成功删除的媒体项列表
+         * @param finishedCount : 已经处理完成的文件数量
+         * @param totalCount : 要删除的文件总数量
+         */
+        default void onDevMediaDeleteProgress(int errCode, final List<DevMediaDelResult> undeletedList,
+                                              int finishedCount, int totalCount) {}
     }
 
     /**
@@ -166,6 +177,72 @@ public interface IDevMediaMgr  {
     int getMediaCoverData(final String imgUrl, final OnCoverDataListener coverDataListener);
 
 
+    /**
+     * @brief 封面图像回调监听器
+     */
+    public static interface OnCoverBitmapListener {
+        /**
+         * @brief 封面图像获取完成事件
+         * @param errCode : 结果错误码，0表示成功
+         * @param imgUrl : 封面文件路径
+         * @param coverBmp : 解码后的封面图像，多次获取可能返回同一个缓存的图像，不能回收或者修改
+         */
+        default void onDevMediaCoverBitmapDone(int errCode, final String imgUrl, final Bitmap coverBmp) {}
+    }
+
+    /**
+     * @brief 获取媒体文件封面图像，优先从内存缓存、磁盘缓存中获取，都没有时才从设备端获取，
+     *        相同封面的多个请求会合并成一次设备端请求。
+     *        内存缓存命中时在调用线程中直接回调，其他情况在内部线程中回调
+     * @param imgUrl: 封面文件路径
+     * @param coverBmpListener : 结果回调监听器
+     * @return 返回错误码
+     */
+    int getMediaCoverBitmap(final String imgUrl, final OnCoverBitmapListener coverBmpListener);
+
+    /**
+     * @brief 取消获取封面图像，例如列表项已经滑出屏幕，取消后不再回调该监听器；
+     *        如果该封面已经没有其他等待者并且还未发送到设备端，则不再发送请求
+     * @param imgUrl: 封面文件路径
+     * @param coverBmpListener : 之前调用 getMediaCoverBitmap() 时的监听器
+     * @return 返回错误码
+     */
+    int cancelMediaCoverBitmap(final String imgUrl, final OnCoverBitmapListener coverBmpListener);
+
+    /**
+     * @brief 封面缓存统计信息
+     */
+    public static class CoverCacheStats {
+        public long mMemHitCount;       ///< 内存缓存命中次数
+        public long mDiskHitCount;      ///< 磁盘缓存命中次数
+        public long mMissCount;         ///< 从设备端获取的次数
+        public long mCoalescedCount;    ///< 合并到正在进行的相同请求的次数
+        public long mCancelledCount;    ///< 取消后没有发送到设备端的请求次数
+        public long mMemBytes;          ///< 内存缓存当前字节数
+        public long mMemMaxBytes;       ///< 内存缓存最大字节数
+        public long mDiskBytes;         ///< 磁盘缓存当前字节数
+        public long mDiskMaxBytes;      ///< 磁盘缓存最大字节数
+
+        @Override
+        public String toString() {
+            String infoText = "{ mMemHitCount=" + mMemHitCount
+                    + ", mDiskHitCount=" + mDiskHitCount
+                    + ", mMissCount=" + mMissCount
+                    + ", mCoalescedCount=" + mCoalescedCount
+                    + ", mCancelledCount=" + mCancelledCount
+                    + ", mMemBytes=" + mMemBytes + "/" + mMemMaxBytes
+                    + ", mDiskBytes=" + mDiskBytes + "/" + mDiskMaxBytes + " }";
+            return infoText;
+        }
+    }
+
+    /**
+     * @brief 获取封面缓存统计信息
+     * @return 返回统计信息
+     */
+    CoverCacheStats getCoverCacheStats();
+
+
 
     /**
      * @brief 每一个文件项下载命令的结果
@@ -192,6 +269,16 @@ public interface IDevMediaMgr  {
          * @param downloadList : 各个媒体项下载结果列表
          */
         default void onDevFileDownloadDone(int errCode, final List<DevFileDownloadResult> downloadList) {}
+
+        /**
+         * @brief 分批下载时，每一批下载命令完成事件，所有批次完成后再回调 onDevFileDownloadDone()
+         * @param errCode : 当前批次的结果错误码
+         * @param downloadList : 当前批次各个媒体项下载结果列表
+         * @param finishedCount : 已经处理完成的文件数量
+         * @param totalCount : 要下载的文件总数量
+         */
+        default void onDevFileDownloadProgress(int errCode, final List<DevFileDownloadResult> downloadList,
+                                               int finishedCount, int totalCount) {}
     }
 
     /**
@@ -203,6 +290,16 @@ public interface IDevMediaMgr  {
      */
     int downloadFileList(final List<String> downloadList, final OnDownloadListener downloadListener);
 
+    /**
+     * @brief 设置批量删除和下载的分批参数，文件数量超过 chunkSize 时自动分批发送，
+     *        每一批完成时通过 onDevMediaDeleteProgress() / onDevFileDownloadProgress() 回调结果，
+     *        部分批次失败时最终错误码为 XERR_MEDIAMGR_DEL_PARTIAL / XERR_MEDIAMGR_DOWNLOAD_PARTIAL
+     * @param chunkSize : 每一批的文件数量
+     * @param maxInflight : 同时发送的最大批次数量
+     * @return 返回错误码
+     */
+    int setBatchParam(int chunkSize, int maxInflight);
+
 
 
     /**
@@ -225,6 +322,57 @@ public interface IDevMediaMgr  {
     int queryEventTimeline(final OnQueryEventListener queryListener);
 
 
+    /**
+     * @brief 媒体查询缓存统计信息，命中缓存和合并到正在进行的相同查询都不需要额外的RTM请求
+     */
+    public static class QueryCacheStats {
+        public long mHitCount;          ///< 直接命中缓存的次数
+        public long mMissCount;         ///< 实际发送查询请求的次数
+        public long mCoalescedCount;    ///< 合并到正在进行的相同查询的次数
+        public int mEntryCount;         ///< 当前缓存的查询结果数量
+
+        /**
+         * @brief 获取命中率，命中缓存和合并查询都算作命中
+         */
+        public float getHitRatio() {
+            long total = mHitCount + mMissCount + mCoalescedCount;
+            return (total > 0) ? ((float)(mHitCount + mCoalescedCount) / total) : 0.0f;
+        }
+
+        /**
+         * @brief 获取节省的RTM请求次数
+         */
+        public long getSavedRoundTrips() {
+            return (mHitCount + mCoalescedCount);
+        }
+
+        @Override
+        public String toString() {
+            String infoText = "{ mHitCount=" + mHitCount
+                    + ", mMissCount=" + mMissCount
+                    + ", mCoalescedCount=" + mCoalescedCount
+                    + ", mEntryCount=" + mEntryCount
+                    + ", hitRatio=" + getHitRatio() + " }";
+            return infoText;
+        }
+    }
+
+    /**
+     * @brief 设置媒体查询缓存参数，queryMediaList() 和 queryEventTimeline() 的成功结果会被缓存，
+     *        删除媒体文件成功后缓存自动失效
+     * @param ttl : 缓存有效时间(毫秒)，小于等于0 表示不缓存，只合并相同的并发查询
+     * @param maxEntries : 最多缓存的查询结果数量，超过时淘汰最久未使用的结果
+     * @return 返回错误码
+     */
+    int setQueryCacheParam(long ttl, int maxEntries);
+
+    /**
+     * @brief 获取媒体查询缓存统计信息
+     * @return 返回统计信息
+     */
+    QueryCacheStats getQueryCacheStats();
+
+
     ////////////////////////////////////////////////////////////////////////
     ////////////////// Methods for Device Media Playing ////////////////////
     ////////////////////////////////////////////////////////////////////////
@@ -28,6 +28,12 @@ public interface IDevPreviewMgr {
         NORMAL, OLDMAN, BABYBOY, BABYGIRL, ZHUBAJIE, ETHEREAL, HULK
     }
 
+    /**
+     * @brief 录像模式
+     */
+    public static final int RECORD_MODE_TRANSCODE = 0;      ///< 解码后的视频帧重新编码，多路录像时可以降低帧率和分辨率
+    public static final int RECORD_MODE_PASSTHROUGH = 1;    ///< 设备端已编码的视频流(H.264/H.265)直接写入文件，只编码音频
+
 
 
     /**
@@ -59,6 +65,27 @@ public interface IDevPreviewMgr {
         public int memoryAppUsageInKbytes;
     }
 
+    /**
+     * @brief 设备视频流渲染回调的耗时统计，统计最近512帧
+     */
+    public static class RenderCallbackStats {
+        public long mFrameCount;        ///< 累计渲染的视频帧数
+        public int mVideoWidth;         ///< 当前视频帧宽度
+        public int mVideoHeight;        ///< 当前视频帧高度
+        public long mP50CostUs;         ///< 回调耗时的中位数(微秒)
+        public long mP99CostUs;         ///< 回调耗时的99分位数(微秒)
+        public long mMaxCostUs;         ///< 回调的最大耗时(微秒)
+
+        @Override
+        public String toString() {
+            String infoText = "{ mFrameCount=" + mFrameCount
+                    + ", mVideoWidth=" + mVideoWidth + ", mVideoHeight=" + mVideoHeight
+                    + ", mP50CostUs=" + mP50CostUs + ", mP99CostUs=" + mP99CostUs
+                    + ", mMaxCostUs=" + mMaxCostUs + " }";
+            return infoText;
+        }
+    }
+
     /**
      * @brief 预览监听器
      */
@@ -92,6 +119,20 @@ public interface IDevPreviewMgr {
                                     final String filePath, int width, int height) {}
     }
 
+    /**
+     * @brief 预录保存监听器
+     */
+    public static interface OnPreRecordSaveListener {
+
+        /**
+         * @brief 预录保存完成事件，写入 postDurationSec 秒实时数据、停止预录或者写入失败时文件关闭
+         * @param sessionId : 会话唯一标识
+         * @param errCode : 错误码：0表示保存成功；XERR_FILE_WRITE 表示写入失败，文件不完整
+         * @param filePath : 保存的文件路径
+         */
+        default void onPreRecordSaveDone(final UUID sessionId, int errCode, final String filePath) {}
+    }
+
 
     ////////////////////////////////////////////////////////////////////////
     //////////////////////////// Public Methods ///////////////////////////
@@ -124,12 +165,22 @@ public interface IDevPreviewMgr {
 
     /**
      * @brief 开始录制当前预览（包括音视频流），仅在预览状态下才能调用
-     *         同一时刻只能启动一路录像功能
+     *         每个设备单独录像，多个设备可以同时录像，同时录像过多时会降低录像的帧率和分辨率
      * @param outFilePath : 输出保存的视频文件路径（应用层确保文件有可写权限）
      * @return 错误码
      */
     int recordingStart(final String outFilePath);
 
+    /**
+     * @brief 按照指定的录像模式开始录制当前预览，仅在预览状态下才能调用
+     *         RECORD_MODE_PASSTHROUGH 模式不解码也不重新编码视频，CPU和功耗更低，录像和设备端码流的画质一致，
+     *         文件从设备端的第一个视频关键帧开始
+     * @param outFilePath : 输出保存的视频文件路径（应用层确保文件有可写权限）
+     * @param recordMode : 录像模式，RECORD_MODE_XXX
+     * @return 错误码
+     */
+    int recordingStart(final String outFilePath, int recordMode);
+
     /**
      * @brief 停止录制当前预览，仅在预览状态下才能调用
      * @return 错误码
@@ -142,6 +193,53 @@ public interface IDevPreviewMgr {
      */
     boolean isRecording();
 
+    /**
+     * @brief 开始预录当前预览，在内存中循环缓存最近 durationSec 秒已编码的音视频数据，仅在预览状态下才能调用
+     *         预录和录像相互独立，可以同时进行
+     * @param durationSec : 预录缓存的时长(秒)，范围 1~60
+     * @return 错误码
+     */
+    int preRecordStart(int durationSec);
+
+    /**
+     * @brief 按照指定的录像模式开始预录当前预览，仅在预览状态下才能调用
+     * @param durationSec : 预录缓存的时长(秒)，范围 1~60
+     * @param recordMode : 录像模式，RECORD_MODE_XXX
+     * @return 错误码
+     */
+    int preRecordStart(int durationSec, int recordMode);
+
+    /**
+     * @brief 停止预录，缓存的数据会被丢弃，正在保存的文件也会结束
+     * @return 错误码
+     */
+    int preRecordStop();
+
+    /**
+     * @brief 保存预录数据，从缓存中最早的关键帧开始写入文件，之后继续写入 postDurationSec 秒的实时数据
+     *         保存时不重新编码，保存过程中预录不会中断
+     * @param outFilePath : 输出保存的视频文件路径（应用层确保文件有可写权限）
+     * @param postDurationSec : 事件发生后继续写入的时长(秒)
+     * @return 错误码
+     */
+    int preRecordSave(final String outFilePath, int postDurationSec);
+
+    /**
+     * @brief 保存预录数据，文件关闭后回调 onPreRecordSaveDone()
+     *         返回错误时不会回调
+     * @param outFilePath : 输出保存的视频文件路径（应用层确保文件有可写权限）
+     * @param postDurationSec : 事件发生后继续写入的时长(秒)
+     * @param saveListener : 保存完成监听器
+     * @return 错误码
+     */
+    int preRecordSave(final String outFilePath, int postDurationSec, final OnPreRecordSaveListener saveListener);
+
+    /**
+     * @brief 判断当前是否正在预录
+     * @return true 表示正在预录； false: 不在预录
+     */
+    boolean isPreRecording();
+
     /**
      * @brief 截屏设备端视频帧图像
      * @param saveFilePath : 保存的文件（应用层确保文件有可写权限）
@@ -184,6 +282,12 @@ public interface IDevPreviewMgr {
      */
     RtcNetworkStatus getNetworkStatus();
 
+    /**
+     * @brief 获取设备视频流渲染回调的耗时统计
+     * @return 返回统计信息，还没有渲染过视频帧时返回null
+     */
+    RenderCallbackStats getRenderCallbackStats();
+
     /**
      * @brief 设置本地播放所有混音后音频的音量
      * @param volumeLevel: 音量级别
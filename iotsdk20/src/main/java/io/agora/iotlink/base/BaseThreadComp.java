@@ -4,13 +4,24 @@ package io.agora.iotlink.base;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import io.agora.iotlink.ErrCode;
 
 
 /*
- * @brief 组件基类，包含一个消息队列线程
+ * @brief 组件基类，包含一个消息队列
+ *        默认每个组件使用独立的 HandlerThread；
+ *        也可以使用共享线程池的 CompEventLoop，不依赖 Looper；
+ *        只用到 Message 的公开字段和 Log，在 unitTests.returnDefaultValues 的JVM单元测试中可以运行，
+ *        见 BaseThreadCompTest。
+ *        两种方式都会统计每个消息Id的排队延迟、处理时间和队列深度
  */
 public class BaseThreadComp {
 
@@ -27,29 +38,79 @@ public class BaseThreadComp {
     //
     protected static final int MSGID_WORK_EXIT = 0xFFFF;
 
+    //
+    // 消息循环的实现方式
+    //
+    public static final int LOOP_BACKEND_HANDLER = 0;       ///< 每个组件一个 HandlerThread
+    public static final int LOOP_BACKEND_EXECUTOR = 1;      ///< 所有组件共用线程池
+
 
 
 
     ////////////////////////////////////////////////////////////////////////
     //////////////////////// Variable Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
+    private static volatile int mDefaultBackend = LOOP_BACKEND_HANDLER;  ///< 新启动组件使用的消息循环实现
+
     protected final BaseEvent mWorkExitEvent = new BaseEvent();
     protected final Object mMsgQueueLock = new Object();
     protected HandlerThread mWorkThread;
     protected Handler mWorkHandler;
+    protected volatile CompEventLoop mEventLoop;        ///< 使用线程池方式时的消息循环
     protected String mComponentName;
 
+    private final Object mStatsLock = new Object();
+    private final HashMap<Integer, MsgLoopStats> mStatsMap = new HashMap<>();  ///< 各个消息Id的统计信息
+
 
     ////////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods //////////////////////////////
     ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 设置之后启动的组件默认使用的消息循环实现
+     * @param backend : LOOP_BACKEND_HANDLER 或者 LOOP_BACKEND_EXECUTOR
+     */
+    public static void setDefaultLoopBackend(int backend) {
+        mDefaultBackend = backend;
+    }
+
+    public static int getDefaultLoopBackend() {
+        return mDefaultBackend;
+    }
+
     /*
-     * @brief 启动组件线程运行
+     * @brief 启动组件线程运行，使用默认的消息循环实现
      * @param compName : 组件名称
      * @return error code
      */
     protected int runStart(String compName) {
+        return runStart(compName, mDefaultBackend);
+    }
+
+    /*
+     * @brief 启动组件线程运行
+     * @param compName : 组件名称
+     * @param backend : 消息循环实现方式
+     * @return error code
+     */
+    protected int runStart(String compName, int backend) {
         mComponentName = compName;
+        synchronized (mStatsLock) {
+            mStatsMap.clear();
+        }
+
+        if (backend == LOOP_BACKEND_EXECUTOR) {
+            // 在共享线程池上运行，消息处理仍然是串行的
+            mEventLoop = new CompEventLoop(compName, new CompEventLoop.IMsgHandler() {
+                @Override
+                public void onLoopMessage(Message msg, long queueLatencyNs) {
+                    dispatchWorkMessage(msg, queueLatencyNs);
+                }
+            });
+
+            Log.d(TAG, "<runStart> done with executor, compName=" + compName);
+            return ErrCode.XOK;
+        }
 
         // 启动工作线程
         mWorkThread = new HandlerThread(compName);
@@ -58,19 +119,8 @@ public class BaseThreadComp {
             @Override
             public void handleMessage(Message msg) {
                 super.handleMessage(msg);
-
-                switch (msg.what)
-                {
-                    case MSGID_WORK_EXIT: {  // 工作线程退出消息
-                        removeAllMessages();
-                        processTaskFinsh();
-                        mWorkExitEvent.setEvent(0);
-                    } break;
-
-                    default: {
-                        processWorkMessage(msg);
-                    }  break;
-                }
+                long latencyMs = SystemClock.uptimeMillis() - msg.getWhen();
+                dispatchWorkMessage(msg, TimeUnit.MILLISECONDS.toNanos(Math.max(latencyMs, 0)));
             }
         };
 
@@ -82,6 +132,17 @@ public class BaseThreadComp {
      * @brief 停止组件线程运行
      */
     public void runStop()   {
+        CompEventLoop eventLoop = mEventLoop;
+        if (eventLoop != null) {
+            removeAllMessages();
+            eventLoop.post(eventLoop.obtainMessage(MSGID_WORK_EXIT, 0, 0, null), 0, false, true);
+            mWorkExitEvent.waitEvent(EXIT_WAIT_TIMEOUT);
+            eventLoop.quit();
+            mEventLoop = null;
+            Log.d(TAG, "<runStop> done with executor");
+            return;
+        }
+
         if (mWorkHandler != null) {
             // 同步等待线程中所有任务处理完成后，才能正常退出线程
             removeAllMessages();
@@ -101,36 +162,110 @@ public class BaseThreadComp {
      * @brief 发送消息，如果队列中有相同的消息则删除
      */
     public void sendSingleMessage(Message msg) {
+        CompEventLoop eventLoop = mEventLoop;
+        if (eventLoop != null) {
+            if (eventLoop.post(msg, 0, true, false)) {
+                onMessagePosted(msg.what, true);
+            }
+            return;
+        }
+
         synchronized (mMsgQueueLock) {
             if (mWorkHandler != null) {
                 mWorkHandler.removeMessages(msg.what);
                 mWorkHandler.sendMessage(msg);
+                onMessagePosted(msg.what, true);
             }
         }
     }
 
     public void sendSingleMessage(int what, int arg1, int arg2, Object obj, long delayTime) {
-        Message msg = new Message();
-        msg.what = what;
-        msg.arg1 = arg1;
-        msg.arg2 = arg2;
-        msg.obj = obj;
+        postMessage(what, arg1, arg2, obj, delayTime, true);
+    }
+
+    public void sendMessage(int what, int arg1, int arg2, Object obj, long delayTime) {
+        postMessage(what, arg1, arg2, obj, delayTime, false);
+    }
+
+    /**
+     * @brief 从消息队列中移除相应的消息
+     */
+    public void removeMessage(int what) {
+        CompEventLoop eventLoop = mEventLoop;
+        if (eventLoop != null) {
+            eventLoop.removeMessages(what);
+            onMessageRemoved(what);
+            return;
+        }
 
         synchronized (mMsgQueueLock) {
             if (mWorkHandler != null) {
-                if (delayTime > 0) {
-                    mWorkHandler.removeMessages(what);
-                    mWorkHandler.sendMessageDelayed(msg, delayTime);
-                } else {
-                    mWorkHandler.removeMessages(what);
-                    mWorkHandler.sendMessage(msg);
-                }
+                mWorkHandler.removeMessages(what);
+                onMessageRemoved(what);
             }
         }
     }
 
-    public void sendMessage(int what, int arg1, int arg2, Object obj, long delayTime) {
-        Message msg = new Message();
+    /**
+     * @brief 获取各个消息Id的统计信息：排队延迟、处理时间、队列深度
+     */
+    public List<MsgLoopStats> getMessageStats() {
+        ArrayList<MsgLoopStats> statsList = new ArrayList<>();
+        synchronized (mStatsLock) {
+            for (MsgLoopStats stats : mStatsMap.values()) {
+                statsList.add(new MsgLoopStats(stats));
+            }
+        }
+        return statsList;
+    }
+
+    /**
+     * @brief 清除统计信息
+     */
+    public void clearMessageStats() {
+        synchronized (mStatsLock) {
+            mStatsMap.clear();
+        }
+    }
+
+
+
+    /**
+     * @brief 退出前清空消息队列，子类应该重写该方法
+     */
+    protected void removeAllMessages() {
+    }
+
+    /**
+     * @brief 消息处理，运行在组件线程上，子类可以重写该方法实现自己的消息处理
+     */
+    protected void processWorkMessage(Message msg)   {
+    }
+
+    /**
+     * @brief 退出前的释放处理，运行在组件线程上，子类可以重写该方法实现自己的结束处理
+     */
+    protected void processTaskFinsh()   {
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 发送消息到当前使用的消息循环中
+     */
+    private void postMessage(int what, int arg1, int arg2, Object obj, long delayTime, boolean single) {
+        CompEventLoop eventLoop = mEventLoop;
+        if (eventLoop != null) {
+            Message msg = eventLoop.obtainMessage(what, arg1, arg2, obj);
+            if (eventLoop.post(msg, delayTime, single, true)) {
+                onMessagePosted(what, single);
+            }
+            return;
+        }
+
+        Message msg = Message.obtain();
         msg.what = what;
         msg.arg1 = arg1;
         msg.arg2 = arg2;
@@ -138,44 +273,87 @@ public class BaseThreadComp {
 
         synchronized (mMsgQueueLock) {
             if (mWorkHandler != null) {
+                if (single) {
+                    mWorkHandler.removeMessages(what);
+                }
                 if (delayTime > 0) {
                     mWorkHandler.sendMessageDelayed(msg, delayTime);
                 } else {
                     mWorkHandler.sendMessage(msg);
                 }
+                onMessagePosted(what, single);
             }
         }
     }
 
     /**
-     * @brief 从消息队列中移除相应的消息
+     * @brief 消息循环中处理消息，同时统计排队延迟和处理时间
      */
-    public void removeMessage(int what) {
-        synchronized (mMsgQueueLock) {
-            if (mWorkHandler != null) {
-                mWorkHandler.removeMessages(what);
-            }
+    private void dispatchWorkMessage(Message msg, long queueLatencyNs) {
+        int what = msg.what;
+        if (what == MSGID_WORK_EXIT) {  // 工作线程退出消息
+            removeAllMessages();
+            processTaskFinsh();
+            mWorkExitEvent.setEvent(0);
+            return;
         }
-    }
 
+        long beginTime = System.nanoTime();
+        processWorkMessage(msg);
+        long handleNs = System.nanoTime() - beginTime;
 
+        synchronized (mStatsLock) {
+            MsgLoopStats stats = getStatsLocked(what);
+            stats.mHandledCount++;
+            if (stats.mQueueDepth > 0) {
+                stats.mQueueDepth--;
+            }
+            long latencyUs = queueLatencyNs / 1000;
+            stats.mTotalLatencyUs += latencyUs;
+            if (latencyUs > stats.mMaxLatencyUs) {
+                stats.mMaxLatencyUs = latencyUs;
+            }
+            long handleUs = handleNs / 1000;
+            stats.mTotalHandleUs += handleUs;
+            if (handleUs > stats.mMaxHandleUs) {
+                stats.mMaxHandleUs = handleUs;
+            }
+        }
+    }
 
     /**
-     * @brief 退出前清空消息队列，子类应该重写该方法
+     * @brief 消息已经放入队列，更新队列深度
      */
-    protected void removeAllMessages() {
+    private void onMessagePosted(int what, boolean single) {
+        synchronized (mStatsLock) {
+            MsgLoopStats stats = getStatsLocked(what);
+            stats.mQueueDepth = single ? 1 : (stats.mQueueDepth + 1);
+            if (stats.mQueueDepth > stats.mMaxQueueDepth) {
+                stats.mMaxQueueDepth = stats.mQueueDepth;
+            }
+        }
     }
 
     /**
-     * @brief 消息处理，运行在组件线程上，子类可以重写该方法实现自己的消息处理
+     * @brief 消息已经从队列中全部删除
      */
-    protected void processWorkMessage(Message msg)   {
+    private void onMessageRemoved(int what) {
+        synchronized (mStatsLock) {
+            MsgLoopStats stats = mStatsMap.get(what);
+            if (stats != null) {
+                stats.mQueueDepth = 0;
+            }
+        }
     }
 
-    /**
-     * @brief 退出前的释放处理，运行在组件线程上，子类可以重写该方法实现自己的结束处理
-     */
-    protected void processTaskFinsh()   {
+    private MsgLoopStats getStatsLocked(int what) {
+        MsgLoopStats stats = mStatsMap.get(what);
+        if (stats == null) {
+            stats = new MsgLoopStats();
+            stats.mWhat = what;
+            mStatsMap.put(what, stats);
+        }
+        return stats;
     }
 
-}
\ No newline at end of file
+}
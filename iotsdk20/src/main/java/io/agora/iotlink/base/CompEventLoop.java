@@ -0,0 +1,353 @@
+package io.agora.iotlink.base;
+
+
+import android.os.Message;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/*
+ * @brief 运行在共享线程池上的组件消息循环，不依赖 Looper
+ *        每个组件的消息严格按照 (到期时间, 发送顺序) 串行处理，与 Handler 的顺序语义相同，
+ *        但是所有组件共用一个有上限的线程池，而不是每个组件一个线程。
+ *        Message 对象来自每个消息循环内部的对象池，只使用其公开字段 what/arg1/arg2/obj
+ */
+public class CompEventLoop {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/CompEventLoop";
+    private static final int MAX_BATCH_COUNT = 32;          ///< 每次最多连续处理的消息数量，之后让出线程
+    private static final int MAX_POOL_SIZE = 64;            ///< 每个消息循环最多缓存的 Message 对象数量
+
+
+    /**
+     * @brief 消息处理回调，运行在共享线程池中，同一个消息循环不会并发回调
+     */
+    public interface IMsgHandler {
+        /**
+         * @param msg : 要处理的消息
+         * @param queueLatencyNs : 消息从到期到开始处理的时间(纳秒)
+         */
+        void onLoopMessage(Message msg, long queueLatencyNs);
+    }
+
+    /**
+     * @brief 消息队列中的节点
+     */
+    private static class MsgEntry {
+        Message mMsg;
+        long mDueTime;          ///< 到期时间(System.nanoTime)
+        long mSeq;              ///< 发送顺序，相同到期时间时按照发送顺序处理
+        boolean mPooled;        ///< Message 是否来自对象池，处理完成后归还
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final Object mSharedLock = new Object();
+    private static Executor mSharedExecutor;                        ///< 所有消息循环共用的线程池
+    private static ScheduledThreadPoolExecutor mTimerExecutor;      ///< 延时消息的唤醒定时器
+
+    private final Object mQueueLock = new Object();
+    private final String mName;
+    private final IMsgHandler mHandler;
+    private final Executor mExecutor;
+    private final PriorityQueue<MsgEntry> mQueue = new PriorityQueue<>(16, (entry1, entry2) -> {
+        int cmp = Long.compare(entry1.mDueTime, entry2.mDueTime);
+        return (cmp != 0) ? cmp : Long.compare(entry1.mSeq, entry2.mSeq);
+    });
+    private final ArrayDeque<Message> mMsgPool = new ArrayDeque<>();    ///< Message 对象池
+    private final ArrayDeque<MsgEntry> mEntryPool = new ArrayDeque<>(); ///< 队列节点对象池
+    private long mNextSeq = 0;
+    private boolean mDrainScheduled = false;        ///< 是否已经提交到线程池中等待处理
+    private ScheduledFuture<?> mWakeFuture;         ///< 延时消息的唤醒任务
+    private long mWakeTime = Long.MAX_VALUE;        ///< 唤醒任务的时间
+    private boolean mQuit = false;
+
+    private final Runnable mDrainTask = this::drainQueue;
+    private final Runnable mWakeTask = this::onWakeup;
+
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 设置所有消息循环共用的线程池，只对之后创建的消息循环生效
+     * @param executor : 线程池，为null时使用默认的有上限线程池
+     */
+    public static void setSharedExecutor(final Executor executor) {
+        synchronized (mSharedLock) {
+            mSharedExecutor = executor;
+        }
+    }
+
+    /**
+     * @brief 获取共用的线程池，没有设置时创建默认线程池：线程数量为CPU核数，最少2个，最多4个
+     */
+    public static Executor getSharedExecutor() {
+        synchronized (mSharedLock) {
+            if (mSharedExecutor == null) {
+                int threadCount = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+                ThreadPoolExecutor poolExecutor = new ThreadPoolExecutor(threadCount, threadCount,
+                        30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory("IOTSDK/CompLoop"));
+                poolExecutor.allowCoreThreadTimeOut(true);
+                mSharedExecutor = poolExecutor;
+            }
+            return mSharedExecutor;
+        }
+    }
+
+    public CompEventLoop(final String name, final IMsgHandler handler) {
+        this(name, handler, getSharedExecutor());
+    }
+
+    public CompEventLoop(final String name, final IMsgHandler handler, final Executor executor) {
+        mName = name;
+        mHandler = handler;
+        mExecutor = executor;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @brief 从对象池中获取 Message 对象
+     */
+    public Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+        Message msg;
+        synchronized (mQueueLock) {
+            msg = mMsgPool.pollFirst();
+        }
+        if (msg == null) {
+            msg = new Message();
+        }
+        msg.what = what;
+        msg.arg1 = arg1;
+        msg.arg2 = arg2;
+        msg.obj = obj;
+        return msg;
+    }
+
+    /**
+     * @brief 发送消息
+     * @param msg : 要发送的消息
+     * @param delayTime : 延时时间(毫秒)
+     * @param removeSame : 是否先删除队列中相同 what 的消息
+     * @param pooled : 消息是否来自 obtainMessage()，处理完成后归还对象池
+     * @return 是否成功放入队列，消息循环已经退出时返回false
+     */
+    public boolean post(final Message msg, long delayTime, boolean removeSame, boolean pooled) {
+        long now = System.nanoTime();
+        boolean needDrain = false;
+        synchronized (mQueueLock) {
+            if (mQuit) {
+                return false;
+            }
+            if (removeSame) {
+                removeLocked(msg.what);
+            }
+
+            MsgEntry entry = mEntryPool.pollFirst();
+            if (entry == null) {
+                entry = new MsgEntry();
+            }
+            entry.mMsg = msg;
+            entry.mDueTime = now + ((delayTime > 0) ? TimeUnit.MILLISECONDS.toNanos(delayTime) : 0);
+            entry.mSeq = mNextSeq++;
+            entry.mPooled = pooled;
+            mQueue.offer(entry);
+
+            if (delayTime <= 0) {
+                if (!mDrainScheduled) {
+                    mDrainScheduled = true;
+                    needDrain = true;
+                }
+            } else if (!mDrainScheduled) {
+                scheduleWakeLocked(entry.mDueTime, now);
+            }
+        }
+
+        if (needDrain) {
+            mExecutor.execute(mDrainTask);
+        }
+        return true;
+    }
+
+    /**
+     * @brief 删除队列中所有指定 what 的消息
+     * @return 删除的消息数量
+     */
+    public int removeMessages(int what) {
+        synchronized (mQueueLock) {
+            return removeLocked(what);
+        }
+    }
+
+    /**
+     * @brief 获取当前队列中的消息数量
+     */
+    public int getQueueSize() {
+        synchronized (mQueueLock) {
+            return mQueue.size();
+        }
+    }
+
+    /**
+     * @brief 退出消息循环，丢弃所有还未处理的消息
+     */
+    public void quit() {
+        synchronized (mQueueLock) {
+            mQuit = true;
+            mQueue.clear();
+            mMsgPool.clear();
+            mEntryPool.clear();
+            if (mWakeFuture != null) {
+                mWakeFuture.cancel(false);
+                mWakeFuture = null;
+            }
+            mWakeTime = Long.MAX_VALUE;
+        }
+    }
+
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 在共享线程池中运行，串行处理所有已经到期的消息
+     */
+    private void drainQueue() {
+        int handledCount = 0;
+        while (true) {
+            MsgEntry entry;
+            long now = System.nanoTime();
+            synchronized (mQueueLock) {
+                entry = mQueue.peek();
+                if (mQuit || (entry == null) || (entry.mDueTime > now)) {
+                    // 没有到期的消息，为最早的延时消息设置唤醒
+                    mDrainScheduled = false;
+                    if (!mQuit && (entry != null)) {
+                        scheduleWakeLocked(entry.mDueTime, now);
+                    }
+                    return;
+                }
+
+                if (handledCount >= MAX_BATCH_COUNT) {
+                    // 连续处理了较多消息，重新提交到线程池，让其他组件也能得到处理
+                    break;
+                }
+                mQueue.poll();
+            }
+
+            Message msg = entry.mMsg;
+            mHandler.onLoopMessage(msg, now - entry.mDueTime);
+            handledCount++;
+
+            synchronized (mQueueLock) {
+                if (entry.mPooled && (mMsgPool.size() < MAX_POOL_SIZE)) {
+                    msg.what = 0;
+                    msg.arg1 = 0;
+                    msg.arg2 = 0;
+                    msg.obj = null;
+                    mMsgPool.addLast(msg);
+                }
+                entry.mMsg = null;
+                if (mEntryPool.size() < MAX_POOL_SIZE) {
+                    mEntryPool.addLast(entry);
+                }
+            }
+        }
+
+        mExecutor.execute(mDrainTask);
+    }
+
+    /**
+     * @brief 延时消息到期，提交到线程池中处理
+     */
+    private void onWakeup() {
+        synchronized (mQueueLock) {
+            mWakeFuture = null;
+            mWakeTime = Long.MAX_VALUE;
+            if (mQuit || mDrainScheduled) {
+                return;
+            }
+            mDrainScheduled = true;
+        }
+        mExecutor.execute(mDrainTask);
+    }
+
+    /**
+     * @brief 设置唤醒定时器，已经有更早的唤醒时不需要重新设置，需要在 mQueueLock 锁内调用
+     */
+    private void scheduleWakeLocked(long dueTime, long now) {
+        if ((mWakeFuture != null) && (mWakeTime <= dueTime)) {
+            return;
+        }
+        if (mWakeFuture != null) {
+            mWakeFuture.cancel(false);
+        }
+        mWakeTime = dueTime;
+        mWakeFuture = getTimerExecutor().schedule(mWakeTask, Math.max(dueTime - now, 0), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @brief 删除指定 what 的消息，需要在 mQueueLock 锁内调用
+     */
+    private int removeLocked(int what) {
+        int removedCount = 0;
+        Iterator<MsgEntry> it = mQueue.iterator();
+        while (it.hasNext()) {
+            MsgEntry entry = it.next();
+            if (entry.mMsg.what == what) {
+                it.remove();
+                removedCount++;
+            }
+        }
+        return removedCount;
+    }
+
+    private static ScheduledThreadPoolExecutor getTimerExecutor() {
+        synchronized (mSharedLock) {
+            if (mTimerExecutor == null) {
+                mTimerExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("IOTSDK/CompTimer"));
+                mTimerExecutor.setRemoveOnCancelPolicy(true);
+            }
+            return mTimerExecutor;
+        }
+    }
+
+    /**
+     * @brief 后台线程工厂，线程不阻止进程退出
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String mPrefix;
+        private final AtomicInteger mIndex = new AtomicInteger(0);
+
+        NamedThreadFactory(final String prefix) {
+            mPrefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mPrefix + "-" + mIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package io.agora.iotlink.base;
+
+
+/*
+ * @brief 组件消息循环中某个消息Id的统计信息
+ */
+public class MsgLoopStats {
+
+    public int mWhat;                   ///< 消息Id
+    public long mHandledCount;          ///< 已经处理的消息数量
+    public int mQueueDepth;             ///< 当前队列中该消息的数量
+    public int mMaxQueueDepth;          ///< 队列中该消息的最大数量
+    public long mTotalLatencyUs;        ///< 累计排队延迟(微秒)，即从到期到开始处理的时间
+    public long mMaxLatencyUs;          ///< 最大排队延迟(微秒)
+    public long mTotalHandleUs;         ///< 累计处理时间(微秒)
+    public long mMaxHandleUs;           ///< 最大处理时间(微秒)
+
+
+    public MsgLoopStats() {
+    }
+
+    public MsgLoopStats(final MsgLoopStats other) {
+        mWhat = other.mWhat;
+        mHandledCount = other.mHandledCount;
+        mQueueDepth = other.mQueueDepth;
+        mMaxQueueDepth = other.mMaxQueueDepth;
+        mTotalLatencyUs = other.mTotalLatencyUs;
+        mMaxLatencyUs = other.mMaxLatencyUs;
+        mTotalHandleUs = other.mTotalHandleUs;
+        mMaxHandleUs = other.mMaxHandleUs;
+    }
+
+    public long getAvgLatencyUs() {
+        return (mHandledCount > 0) ? (mTotalLatencyUs / mHandledCount) : 0;
+    }
+
+    public long getAvgHandleUs() {
+        return (mHandledCount > 0) ? (mTotalHandleUs / mHandledCount) : 0;
+    }
+
+    @Override
+    public String toString() {
+        String infoText = "{ mWhat=0x" + Integer.toHexString(mWhat)
+                + ", mHandledCount=" + mHandledCount
+                + ", mQueueDepth=" + mQueueDepth
+                + ", mMaxQueueDepth=" + mMaxQueueDepth
+                + ", avgLatencyUs=" + getAvgLatencyUs()
+                + ", mMaxLatencyUs=" + mMaxLatencyUs
+                + ", avgHandleUs=" + getAvgHandleUs()
+                + ", mMaxHandleUs=" + mMaxHandleUs + " }";
+        return infoText;
+    }
+}
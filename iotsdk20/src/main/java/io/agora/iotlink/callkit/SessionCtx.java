@@ -55,6 +55,7 @@ public class SessionCtx  {
     public IDeviceSessionMgr.ISessionCallback mSeesionCallback;       ///< 会话相关的回调
     public IDevPreviewMgr.OnPreviewListener mPreviewListener;
     public IDevPreviewMgr.OnCaptureFrameListener mCaptureListener;
+    public IDevPreviewMgr.OnPreRecordSaveListener mPreRecordSaveListener;
 
     public boolean mPubLocalAudio;  ///< 是否推送本地音频流
     public boolean mSubDevAudio;    ///< 当前是否订阅设备端音频流
@@ -1,20 +1,21 @@
-
 package io.agora.iotlink.callkit;
 
 
-import android.text.TextUtils;
-
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 
-import io.agora.iotlink.IDeviceSessionMgr;
 
 
 /**
  * @brief 会话管理器
+ *        所有会话和索引保存在一个不可变的快照中，增删改时在写锁内重新生成快照并整体替换，
+ *        查询时只读取 volatile 快照，不加锁，因此 RTC 回调中的频繁查询不会和其他线程竞争。
+ *        索引：设备Id、频道名、(频道名, 设备端RtcUid)，频道名和设备Id都不区分大小写
  */
 public class SessionMgr {
 
@@ -25,11 +26,76 @@ public class SessionMgr {
     private static final String TAG = "IOTSDK/SessionMgr";
 
 
+    /**
+     * @brief 频道索引中的节点，记录建立索引时的设备端 RtcUid
+     */
+    private static final class ChnlEntry {
+        final SessionCtx mSession;
+        final int mDeviceRtcUid;
+
+        ChnlEntry(final SessionCtx sessionCtx) {
+            mSession = sessionCtx;
+            mDeviceRtcUid = sessionCtx.mDeviceRtcUid;
+        }
+    }
+
+    /**
+     * @brief 会话映射表和各个索引的快照，生成之后不再修改
+     *        每个索引都有两层：先按照原始字符串精确查找(不需要生成新字符串)，
+     *        找不到时再按照不区分大小写的方式查找
+     */
+    private static final class Snapshot {
+        final LinkedHashMap<UUID, SessionCtx> mSessionMap;     ///< 会话映射表，按照添加顺序
+        final HashMap<String, SessionCtx> mDevIdMap = new HashMap<>();
+        final TreeMap<String, SessionCtx> mDevIdNoCaseMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final HashMap<String, ChnlEntry[]> mChnlMap = new HashMap<>();
+        final TreeMap<String, ChnlEntry[]> mChnlNoCaseMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final List<SessionCtx> mSessionList;
+
+        Snapshot(final LinkedHashMap<UUID, SessionCtx> sessionMap) {
+            mSessionMap = sessionMap;
+            mSessionList = new ArrayList<>(sessionMap.values());
+
+            for (SessionCtx sessionCtx : mSessionList) {
+                if (sessionCtx.mDeviceId != null) {
+                    // 相同设备Id有多个会话时，保留最早添加的会话
+                    if (!mDevIdMap.containsKey(sessionCtx.mDeviceId)) {
+                        mDevIdMap.put(sessionCtx.mDeviceId, sessionCtx);
+                    }
+                    if (!mDevIdNoCaseMap.containsKey(sessionCtx.mDeviceId)) {
+                        mDevIdNoCaseMap.put(sessionCtx.mDeviceId, sessionCtx);
+                    }
+                }
+
+                if (sessionCtx.mChnlName != null) {
+                    ChnlEntry chnlEntry = new ChnlEntry(sessionCtx);
+                    mChnlMap.put(sessionCtx.mChnlName,
+                            appendEntry(mChnlMap.get(sessionCtx.mChnlName), chnlEntry));
+                    mChnlNoCaseMap.put(sessionCtx.mChnlName,
+                            appendEntry(mChnlNoCaseMap.get(sessionCtx.mChnlName), chnlEntry));
+                }
+            }
+        }
+
+        private static ChnlEntry[] appendEntry(final ChnlEntry[] entryArray, final ChnlEntry newEntry) {
+            if (entryArray == null) {
+                return new ChnlEntry[] { newEntry };
+            }
+            ChnlEntry[] newArray = new ChnlEntry[entryArray.length + 1];
+            System.arraycopy(entryArray, 0, newArray, 0, entryArray.length);
+            newArray[entryArray.length] = newEntry;
+            return newArray;
+        }
+    }
+
+    private static final Snapshot EMPTY_SNAPSHOT = new Snapshot(new LinkedHashMap<>());
+
 
     ////////////////////////////////////////////////////////////////////////
     //////////////////////// Variable Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
-    private HashMap<UUID, SessionCtx> mSessionMap = new HashMap<>();  ///< 会话映射表
+    private final Object mWriteLock = new Object();             ///< 串行化所有的修改操作
+    private volatile Snapshot mSnapshot = EMPTY_SNAPSHOT;       ///< 当前的会话映射表快照
 
 
     ////////////////////////////////////////////////////////////////////////
@@ -41,23 +107,26 @@ public class SessionMgr {
      * @return None
      */
     public void addSession(final SessionCtx sessionCtx) {
-        synchronized (mSessionMap) {
-            mSessionMap.put(sessionCtx.mSessionId, sessionCtx);
+        synchronized (mWriteLock) {
+            LinkedHashMap<UUID, SessionCtx> sessionMap = new LinkedHashMap<>(mSnapshot.mSessionMap);
+            sessionMap.put(sessionCtx.mSessionId, sessionCtx);
+            mSnapshot = new Snapshot(sessionMap);
         }
     }
 
     /**
-     * @brief 更新已经存在的节点信息
+     * @brief 更新已经存在的节点信息，同时根据会话最新的设备Id、频道名、RtcUid 重建索引
      * @param sessionCtx : 要更新的会话
      * @return None
      */
     public void updateSession(final SessionCtx sessionCtx) {
-        synchronized (mSessionMap) {
-            SessionCtx tmpSession = mSessionMap.get(sessionCtx.mSessionId);
-            if (tmpSession == null) {
+        synchronized (mWriteLock) {
+            if (!mSnapshot.mSessionMap.containsKey(sessionCtx.mSessionId)) {
                 return;
             }
-            mSessionMap.put(sessionCtx.mSessionId, sessionCtx);
+            LinkedHashMap<UUID, SessionCtx> sessionMap = new LinkedHashMap<>(mSnapshot.mSessionMap);
+            sessionMap.put(sessionCtx.mSessionId, sessionCtx);
+            mSnapshot = new Snapshot(sessionMap);
         }
     }
 
@@ -66,10 +135,10 @@ public class SessionMgr {
      * @return 返回提取到的session，如果未提取到则返回null
      */
     public SessionCtx getSession(final UUID sessionId) {
-        synchronized (mSessionMap) {
-            SessionCtx sessionCtx = mSessionMap.get(sessionId);
-            return sessionCtx;
+        if (sessionId == null) {
+            return null;
         }
+        return mSnapshot.mSessionMap.get(sessionId);
     }
 
     /**
@@ -77,16 +146,15 @@ public class SessionMgr {
      * @return 返回提取到的session，如果未提取到则返回null
      */
     public SessionCtx findSessionByDeviceId(final String deviceId) {
-        synchronized (mSessionMap) {
-            for (Map.Entry<UUID, SessionCtx> entry : mSessionMap.entrySet()) {
-                SessionCtx sessionCtx = entry.getValue();
-                if (deviceId.compareToIgnoreCase(sessionCtx.mDeviceId) == 0) {
-                    return sessionCtx;
-                }
-            }
+        if (deviceId == null) {
+            return null;
         }
-
-        return null;
+        Snapshot snapshot = mSnapshot;
+        SessionCtx sessionCtx = snapshot.mDevIdMap.get(deviceId);
+        if (sessionCtx != null) {
+            return sessionCtx;
+        }
+        return snapshot.mDevIdNoCaseMap.get(deviceId);
     }
 
 
@@ -95,19 +163,15 @@ public class SessionMgr {
      * @return 返回提取到的session，如果未提取到则返回null
      */
     public SessionCtx findSessionByChannelName(final String chnName) {
-        synchronized (mSessionMap) {
-            for (Map.Entry<UUID, SessionCtx> entry : mSessionMap.entrySet()) {
-                SessionCtx sessionCtx = entry.getValue();
-                if (sessionCtx.mChnlName == null) {
-                    continue;
-                }
-                if (chnName.compareToIgnoreCase(sessionCtx.mChnlName) == 0) {
-                    return sessionCtx;
-                }
-            }
+        if (chnName == null) {
+            return null;
         }
-
-        return null;
+        Snapshot snapshot = mSnapshot;
+        ChnlEntry[] entryArray = snapshot.mChnlMap.get(chnName);
+        if (entryArray == null) {
+            entryArray = snapshot.mChnlNoCaseMap.get(chnName);
+        }
+        return (entryArray != null) ? entryArray[0].mSession : null;
     }
 
     /**
@@ -115,20 +179,19 @@ public class SessionMgr {
      * @return 返回提取到的session，如果未提取到则返回null
      */
     public SessionCtx findSessionByChannelInfo(final String chnName, int peerUid) {
-        synchronized (mSessionMap) {
-            for (Map.Entry<UUID, SessionCtx> entry : mSessionMap.entrySet()) {
-                SessionCtx sessionCtx = entry.getValue();
-                if (sessionCtx.mChnlName == null) {
-                    continue;
-                }
-                if ((chnName.compareToIgnoreCase(sessionCtx.mChnlName) == 0) &&
-                    (sessionCtx.mDeviceRtcUid == peerUid)) {
-                    return sessionCtx;
-                }
-            }
+        if (chnName == null) {
+            return null;
+        }
+        Snapshot snapshot = mSnapshot;
+        if (snapshot.mSessionList.isEmpty()) {
+            return null;
         }
 
-        return null;
+        SessionCtx sessionCtx = findInEntries(snapshot.mChnlMap.get(chnName), peerUid);
+        if (sessionCtx != null) {
+            return sessionCtx;
+        }
+        return findInEntries(snapshot.mChnlNoCaseMap.get(chnName), peerUid);
     }
 
 
@@ -140,8 +203,14 @@ public class SessionMgr {
         if (sessionId == null) {
             return null;
         }
-        synchronized (mSessionMap) {
-            SessionCtx sessionCtx = mSessionMap.remove(sessionId);
+        synchronized (mWriteLock) {
+            SessionCtx sessionCtx = mSnapshot.mSessionMap.get(sessionId);
+            if (sessionCtx == null) {
+                return null;
+            }
+            LinkedHashMap<UUID, SessionCtx> sessionMap = new LinkedHashMap<>(mSnapshot.mSessionMap);
+            sessionMap.remove(sessionId);
+            mSnapshot = new Snapshot(sessionMap);
             return sessionCtx;
         }
     }
@@ -155,15 +224,11 @@ public class SessionMgr {
         ArrayList<SessionCtx> timeoutList = new ArrayList<>();
         long currTimestamp = System.currentTimeMillis();
 
-        synchronized (mSessionMap) {
-            for (Map.Entry<UUID, SessionCtx> entry : mSessionMap.entrySet()) {
-                SessionCtx sessionCtx = entry.getValue();
-
-                if (!sessionCtx.mDevOnline) {  // 设备未上线状态
-                    long timeDiff = currTimestamp - sessionCtx.mConnectTimestamp;
-                    if (timeDiff > connectTimeout) {  // 呼叫超时
-                        timeoutList.add(sessionCtx);
-                    }
+        for (SessionCtx sessionCtx : mSnapshot.mSessionList) {
+            if (!sessionCtx.mDevOnline) {  // 设备未上线状态
+                long timeDiff = currTimestamp - sessionCtx.mConnectTimestamp;
+                if (timeDiff > connectTimeout) {  // 呼叫超时
+                    timeoutList.add(sessionCtx);
                 }
             }
         }
@@ -177,15 +242,7 @@ public class SessionMgr {
      * @return 返回所有会话列表
      */
     public List<SessionCtx> getAllSessionList() {
-        ArrayList<SessionCtx> sessionList = new ArrayList<>();
-        synchronized (mSessionMap) {
-            for (Map.Entry<UUID, SessionCtx> entry : mSessionMap.entrySet()) {
-                SessionCtx sessionCtx = entry.getValue();
-                sessionList.add(sessionCtx);
-            }
-        }
-
-        return sessionList;
+        return new ArrayList<>(mSnapshot.mSessionList);
     }
 
 
@@ -194,10 +251,7 @@ public class SessionMgr {
      * @return
      */
     public int size() {
-        synchronized (mSessionMap) {
-            int count = mSessionMap.size();
-            return count;
-        }
+        return mSnapshot.mSessionList.size();
     }
 
     /**
@@ -205,12 +259,28 @@ public class SessionMgr {
      * @return None
      */
     public void clear() {
-        synchronized (mSessionMap) {
-            mSessionMap.clear();
+        synchronized (mWriteLock) {
+            mSnapshot = EMPTY_SNAPSHOT;
         }
     }
 
 
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 在同一个频道的会话中查找设备端 RtcUid 匹配的会话
+     */
+    private static SessionCtx findInEntries(final ChnlEntry[] entryArray, int peerUid) {
+        if (entryArray == null) {
+            return null;
+        }
+        for (ChnlEntry entry : entryArray) {
+            if (entry.mDeviceRtcUid == peerUid) {
+                return entry.mSession;
+            }
+        }
+        return null;
+    }
 
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,391 @@
+/**
+ * @file SessionRecorder.java
+ * @brief This file implement the local recording of one session
+ *        每个会话单独的录像状态：视频帧缓存、音频环形缓冲区、录像器和时间戳，多个会话可以同时录像
+ *        预录时编码后的数据写入内存中的预录缓冲区，需要时再保存到文件
+ *        直接混流模式时订阅已编码的视频流直接写入文件，只编码音频
+ */
+package io.agora.iotlink.rtcsdk;
+
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import io.agora.avmodule.AvAudioFrame;
+import io.agora.avmodule.AvAudioRing;
+import io.agora.avmodule.AvBufferPool;
+import io.agora.avmodule.AvEncoderScheduler;
+import io.agora.avmodule.AvFileMuxer;
+import io.agora.avmodule.AvMediaRecorder;
+import io.agora.avmodule.AvPassthroughMuxer;
+import io.agora.avmodule.AvPreRollBuffer;
+import io.agora.avmodule.AvRecorderParam;
+import io.agora.avmodule.AvVideoFrame;
+import io.agora.avmodule.IAvMuxer;
+import io.agora.avmodule.IAvRecorderCallback;
+import io.agora.base.VideoFrame;
+import io.agora.iotlink.ErrCode;
+import io.agora.iotlink.logger.ALog;
+import io.agora.iotlink.utils.ImageConvert;
+import io.agora.rtc2.Constants;
+import io.agora.rtc2.video.EncodedVideoFrameInfo;
+
+
+class SessionRecorder implements AvRecorderParam.IAvFrameReader, IAvRecorderCallback {
+
+    ///////////////////////////////////////////////////////////////////////////
+    ///////////////////// Constant Definition /////////////////////////////////
+    ////////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/SessionRecorder";
+
+
+    ///////////////////////////////////////////////////////////////////////////
+    ///////////////////// Variable Definition /////////////////////////////////
+    ////////////////////////////////////////////////////////////////////////////
+    private final UUID mSessionId;              ///< 录像的会话
+    private final String mChnlName;             ///< 录像视频流的频道名，为null表示录制任意视频流
+    private final int mUid;                     ///< 录像视频流的对端uid
+    private final TalkingEngine.ICallback mCallback;
+    private final AvEncoderScheduler.EncodeSlot mEncodeSlot;   ///< 分配到的编码器资源
+    private final AvPreRollBuffer mPreRollBuffer;   ///< 预录缓冲区，为null表示直接录像到文件
+    private final boolean mPassthrough;             ///< 是否直接混流已编码的视频帧
+
+    private final Object mVideoDataLock = new Object();
+    private final AvBufferPool mVideoBufferPool = new AvBufferPool();  ///< 录像视频帧 NV12 缓冲区对象池
+    private AvBufferPool.PooledBuffer mInVideoNv12;    ///< 最新的录像视频帧 NV12 数据，持有一个引用
+    private int mInVideoWidth;              ///< 缓存的视频帧宽度
+    private int mInVideoHeight;             ///< 缓存的视频帧高度
+    private int mVideoFrameIndex = 0;       ///< 当前视频帧索引，用于计算视频时间戳
+
+    private final AvAudioRing mInAudioRing = new AvAudioRing(AvAudioRing.DEFAULT_CAPACITY,
+            AvAudioRing.POLICY_DROP_OLDEST);    ///< 音频回调和编码器之间的 PCM 环形缓冲区
+
+    private AvRecorderParam mRecorderParam;     ///< 录像参数
+    private volatile AvMediaRecorder mRecorder; ///< 音视频录像器
+
+    private volatile AvPassthroughMuxer mPassthroughMuxer;   ///< 直接混流时的混流器
+    private long mStartTimeNs = 0;          ///< 开始录像的时刻，用于计算已编码视频帧的时间戳
+    private long mVideoBaseTimeUs = -1;     ///< 视频帧采集时间到录像时间戳的偏移
+    private int mUnsupportedCodec = -1;     ///< 已经打印过日志的不支持的编码格式
+
+
+
+    ///////////////////////////////////////////////////////////////////////////
+    //////////////////////// Public Methods ///////////////////////////////////
+    ////////////////////////////////////////////////////////////////////////////
+    SessionRecorder(final UUID sessionId, final String chnlName, int uid,
+                    final AvEncoderScheduler.EncodeSlot encodeSlot, final AvPreRollBuffer preRollBuffer,
+                    boolean passthrough, final TalkingEngine.ICallback callback) {
+        mSessionId = sessionId;
+        mChnlName = chnlName;
+        mUid = uid;
+        mEncodeSlot = encodeSlot;
+        mPreRollBuffer = preRollBuffer;
+        mPassthrough = passthrough;
+        mCallback = callback;
+    }
+
+    UUID getSessionId() {
+        return mSessionId;
+    }
+
+    AvEncoderScheduler.EncodeSlot getEncodeSlot() {
+        return mEncodeSlot;
+    }
+
+    AvPreRollBuffer getPreRollBuffer() {
+        return mPreRollBuffer;
+    }
+
+    boolean isPreRecord() {
+        return (mPreRollBuffer != null);
+    }
+
+    boolean isPassthrough() {
+        return mPassthrough;
+    }
+
+    /**
+     * @brief 判断视频流或者音频流是否属于当前录像
+     */
+    boolean matches(final String chnlName, int uid) {
+        if (mChnlName == null) {    // 没有指定视频流时录制任意视频流
+            return true;
+        }
+        return ((uid == mUid) && mChnlName.equals(chnlName));
+    }
+
+    /**
+     * @brief 判断已编码视频流是否属于当前录像，已编码视频帧回调中没有频道名，只按照uid匹配
+     */
+    boolean matchesUid(int uid) {
+        return ((mChnlName == null) || (uid == mUid));
+    }
+
+    /**
+     * @brief 开始录像
+     * @param recorderParam : 录像参数，音视频帧输入和回调由当前对象实现
+     *                        直接混流时 mVideoCodec 需要为空，只编码音频
+     * @param audioFrameSize : 每一帧 PCM 数据的字节数，用于预先分配音频缓冲区
+     * @return 返回错误码
+     */
+    int start(final AvRecorderParam recorderParam, int audioFrameSize) {
+        mRecorderParam = recorderParam;
+        mRecorderParam.mAvReader = this;
+        mRecorderParam.mCallback = this;
+        mRecorderParam.mMuxer = mPreRollBuffer;
+
+        mVideoFrameIndex = 0;
+        mStartTimeNs = System.nanoTime();
+        mVideoBaseTimeUs = -1;
+        mInAudioRing.reset();
+        mInAudioRing.preallocate(audioFrameSize);
+
+        // 直接混流时视频帧不经过编码器，编码器只写入音频
+        if (mPassthrough) {
+            IAvMuxer targetMuxer = mPreRollBuffer;
+            if (targetMuxer == null) {
+                try {
+                    targetMuxer = new AvFileMuxer(mRecorderParam.mOutFilePath);
+                } catch (IOException | IllegalArgumentException exp) {
+                    exp.printStackTrace();
+                    ALog.getInstance().e(TAG, "<start> fail to open file, exp=" + exp.toString()
+                            + ", sessionId=" + mSessionId);
+                    return ErrCode.XERR_FILE_OPEN;
+                }
+            }
+            mPassthroughMuxer = new AvPassthroughMuxer(targetMuxer);
+            mRecorderParam.mMuxer = mPassthroughMuxer;
+        }
+
+        AvMediaRecorder recorder = new AvMediaRecorder();
+        int ret = recorder.initialize(mRecorderParam);
+        if (ret != ErrCode.XOK) {
+            ALog.getInstance().e(TAG, "<start> initialize() error, ret=" + ret
+                    + ", sessionId=" + mSessionId);
+            if (mPassthroughMuxer != null) {
+                mPassthroughMuxer.release();
+                mPassthroughMuxer = null;
+            }
+            return ret;
+        }
+        mRecorder = recorder;
+        ret = recorder.recordingStart();
+
+        ALog.getInstance().i(TAG, "<start> done, ret=" + ret + ", sessionId=" + mSessionId
+                + ", chnlName=" + mChnlName + ", uid=" + mUid + ", encodeSlot=" + mEncodeSlot
+                + ", passthrough=" + mPassthrough);
+        return ret;
+    }
+
+    /**
+     * @brief 停止录像，释放所有缓存的音视频帧
+     */
+    void stop() {
+        AvMediaRecorder recorder = mRecorder;
+        mRecorder = null;
+        if (mPreRollBuffer != null) {
+            ALog.getInstance().i(TAG, "<stop> sessionId=" + mSessionId
+                    + ", preRollStats=" + mPreRollBuffer.getStats());
+        }
+        if (recorder != null) {
+            recorder.recordingStop();
+            recorder.release();
+        }
+        if (mPassthroughMuxer != null) {
+            ALog.getInstance().i(TAG, "<stop> sessionId=" + mSessionId
+                    + ", passthroughStats=" + mPassthroughMuxer.getStats());
+            mPassthroughMuxer = null;
+        }
+
+        AvBufferPool.PooledBuffer lastNv12Buffer;
+        synchronized (mVideoDataLock) {
+            lastNv12Buffer = mInVideoNv12;
+            mInVideoNv12 = null;
+        }
+        if (lastNv12Buffer != null) {
+            lastNv12Buffer.release();
+        }
+
+        ALog.getInstance().i(TAG, "<stop> done, sessionId=" + mSessionId
+                + ", videoPoolStats=" + mVideoBufferPool.getStats()
+                + ", audioRingStats=" + mInAudioRing.getStats());
+        mVideoBufferPool.clear();
+        mInAudioRing.reset();
+    }
+
+    /**
+     * @brief 缓存订阅的视频帧数据，在渲染线程中调用
+     *        视频帧缩放到编码器的宽高，编码宽高未知时缩放到 fitWidth x fitHeight
+     * @param inVideoFrame : 订阅的视频帧
+     * @return 是否缓存成功
+     */
+    boolean cacheVideoFrame(final VideoFrame inVideoFrame, int fitWidth, int fitHeight) {
+        if ((mRecorder == null) || mPassthrough) {
+            return false;
+        }
+        VideoFrame.Buffer videoBuffer = inVideoFrame.getBuffer();
+        if (videoBuffer == null) {
+            ALog.getInstance().e(TAG, "<cacheVideoFrame> videoBuffer is NULL");
+            return false;
+        }
+
+        int frameWidth = videoBuffer.getWidth();
+        int frameHeight = videoBuffer.getHeight();
+        int targetWidth = (mEncodeSlot.mWidth > 0) ? mEncodeSlot.mWidth : fitWidth;
+        int targetHeight = (mEncodeSlot.mHeight > 0) ? mEncodeSlot.mHeight : fitHeight;
+
+        VideoFrame.Buffer scaledBuffer = null;
+        VideoFrame.I420Buffer i420Buffer;
+        if ((targetWidth != frameWidth) || (targetHeight != frameHeight)) {
+            scaledBuffer = videoBuffer.cropAndScale(0, 0, frameWidth, frameHeight, targetWidth, targetHeight);
+            i420Buffer = scaledBuffer.toI420();
+        } else {
+            i420Buffer = videoBuffer.toI420();
+        }
+        if (i420Buffer == null) {
+            ALog.getInstance().e(TAG, "<cacheVideoFrame> i420Buffer is NULL");
+            if (scaledBuffer != null) {
+                scaledBuffer.release();
+            }
+            return false;
+        }
+
+        int width = i420Buffer.getWidth();
+        int height = i420Buffer.getHeight();
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int nv12DataSize = (width * height) + (chromaWidth * chromaHeight * 2);
+
+        // 直接转换到对象池中的 NV12 缓冲区
+        AvBufferPool.PooledBuffer nv12Buffer = mVideoBufferPool.obtain(nv12DataSize);
+        int ret = ImageConvert.getInstance().ImgCvt_I420ToNv12(
+                i420Buffer.getDataY(), i420Buffer.getDataU(), i420Buffer.getDataV(), width, height,
+                i420Buffer.getStrideY(), i420Buffer.getStrideU(), i420Buffer.getStrideV(), nv12Buffer.mData);
+        if (ret != 0) {
+            ALog.getInstance().e(TAG, "<cacheVideoFrame> fail to convert NV12, ret=" + ret);
+            nv12Buffer.release();
+        } else {
+            // 替换最新的视频帧，只在锁内交换引用
+            AvBufferPool.PooledBuffer oldNv12Buffer;
+            synchronized (mVideoDataLock) {
+                mInVideoWidth = width;
+                mInVideoHeight = height;
+                oldNv12Buffer = mInVideoNv12;
+                mInVideoNv12 = nv12Buffer;
+            }
+            if (oldNv12Buffer != null) {
+                oldNv12Buffer.release();
+            }
+        }
+
+        i420Buffer.release();
+        if (scaledBuffer != null) {
+            scaledBuffer.release();
+        }
+        return (ret == 0);
+    }
+
+    /**
+     * @brief 直接混流一帧已编码的视频帧，在 RTC SDK 的已编码视频帧回调线程中调用
+     *        时间戳使用采集时间的间隔，第一帧对齐到录像开始之后经过的时间，和音频时间戳保持同一基准
+     * @param frameBuffer : 已编码的视频帧，只在回调期间有效
+     * @param frameInfo : 视频帧信息
+     */
+    void writeEncodedVideoFrame(final ByteBuffer frameBuffer, final EncodedVideoFrameInfo frameInfo) {
+        AvPassthroughMuxer passthroughMuxer = mPassthroughMuxer;
+        if ((mRecorder == null) || (passthroughMuxer == null)) {
+            return;
+        }
+
+        String mimeType;
+        if (frameInfo.codecType == Constants.VIDEO_CODEC_H264) {
+            mimeType = MediaFormat.MIMETYPE_VIDEO_AVC;
+        } else if (frameInfo.codecType == Constants.VIDEO_CODEC_H265) {
+            mimeType = MediaFormat.MIMETYPE_VIDEO_HEVC;
+        } else {
+            if (mUnsupportedCodec != frameInfo.codecType) {
+                mUnsupportedCodec = frameInfo.codecType;
+                ALog.getInstance().e(TAG, "<writeEncodedVideoFrame> unsupported codec, codecType="
+                        + frameInfo.codecType + ", sessionId=" + mSessionId);
+            }
+            return;
+        }
+
+        long elapsedUs = (System.nanoTime() - mStartTimeNs) / 1000L;
+        long timestampUs = elapsedUs;
+        if (frameInfo.captureTimeMs > 0) {
+            if (mVideoBaseTimeUs < 0) {
+                mVideoBaseTimeUs = elapsedUs - (frameInfo.captureTimeMs * 1000L);
+            }
+            timestampUs = (frameInfo.captureTimeMs * 1000L) + mVideoBaseTimeUs;
+        }
+
+        boolean keyFrame = (frameInfo.frameType == Constants.VIDEO_FRAME_TYPE_KEY_FRAME);
+        int ret = passthroughMuxer.writeVideoFrame(mimeType, frameInfo.width, frameInfo.height,
+                frameBuffer.duplicate(), timestampUs, keyFrame);
+        if (ret == io.agora.avmodule.ErrCode.XERR_FILE_WRITE) {  // 混流器启动或者写入失败后不再写入视频帧，只回调一次错误
+            mPassthroughMuxer = null;
+            onRecorderError(mRecorderParam, ret);
+        }
+    }
+
+    /**
+     * @brief 写入一帧 PCM 数据，在音频回调线程中调用
+     */
+    void writeAudioFrame(final ByteBuffer pcmBuffer, int samplesPerChannel, int channels,
+                         int bytesPerSample, int sampleRate) {
+        if (mRecorder == null) {
+            return;
+        }
+        // 多个录像共享同一个音频回调缓冲区，只读取副本不修改原始的 position
+        mInAudioRing.write(pcmBuffer.duplicate(), samplesPerChannel, channels, bytesPerSample, sampleRate);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////
+    ////////////////// Override Methods of IAvFrameReader //////////////////////
+    ////////////////////////////////////////////////////////////////////////////
+    @Override
+    public AvVideoFrame onReadVideoFrame() {
+        synchronized (mVideoDataLock) {
+            if (mInVideoNv12 == null) {
+                return null;
+            }
+
+            // 直接引用缓存的 NV12 缓冲区，编码器送入数据后释放引用，不再拷贝
+            AvBufferPool.PooledBuffer nv12Buffer = mInVideoNv12.retain();
+            AvVideoFrame videoFrame = new AvVideoFrame();
+            videoFrame.mColorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
+            videoFrame.mWidth = mInVideoWidth;
+            videoFrame.mHeight = mInVideoHeight;
+            videoFrame.mDataBuffer = nv12Buffer.mData;
+            videoFrame.mPooledBuffer = nv12Buffer;
+            videoFrame.mFrameIndex = mVideoFrameIndex;
+            videoFrame.mTimestamp = (mVideoFrameIndex * 1000L * 1000L / mRecorderParam.mFrameRate);
+            videoFrame.mKeyFrame = false;
+            videoFrame.mLastFrame = false;
+            videoFrame.mFlags = 0;
+
+            mVideoFrameIndex++;
+            return videoFrame;
+        }
+    }
+
+    @Override
+    public AvAudioFrame onReadAudioFrame() {
+        return mInAudioRing.read();
+    }
+
+    @Override
+    public void onRecorderError(AvRecorderParam recorderParam, int errCode) {
+        ALog.getInstance().e(TAG, "<onRecorderError> sessionId=" + mSessionId + ", errCode=" + errCode);
+        if (mCallback != null) {
+            mCallback.onRecordingError(mSessionId, errCode);
+        }
+    }
+}
@@ -21,24 +21,22 @@ import android.util.Log;
 import android.view.View;
 
 
-import io.agora.avmodule.AvAudioFrame;
 import io.agora.avmodule.AvCapability;
-import io.agora.avmodule.AvFrameQueue;
-import io.agora.avmodule.AvMediaRecorder;
+import io.agora.avmodule.AvEncoderScheduler;
+import io.agora.avmodule.AvPreRollBuffer;
 import io.agora.avmodule.AvRecorderParam;
-import io.agora.avmodule.AvVideoFrame;
-import io.agora.avmodule.IAvRecorderCallback;
 import io.agora.iotlink.ErrCode;
 import io.agora.iotlink.IDevPreviewMgr;
 import io.agora.iotlink.callkit.SessionCtx;
 import io.agora.iotlink.logger.ALog;
-import io.agora.iotlink.utils.ImageConvert;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.agora.base.VideoFrame;
 import io.agora.rtc2.AgoraMediaRecorder;
@@ -53,6 +51,8 @@ import io.agora.rtc2.RtcConnection;
 import io.agora.rtc2.RtcEngine;
 import io.agora.rtc2.RtcEngineEx;
 import io.agora.rtc2.audio.AudioParams;
+import io.agora.rtc2.video.EncodedVideoFrameInfo;
+import io.agora.rtc2.video.IVideoEncodedFrameObserver;
 import io.agora.rtc2.video.IVideoFrameObserver;
 import io.agora.rtc2.video.VideoCanvas;
 import io.agora.rtc2.video.VideoEncoderConfiguration;
@@ -60,8 +60,7 @@ import io.agora.rtc2.video.VideoEncoderConfiguration;
 
 
 public class TalkingEngine implements AGEventHandler,
-        IVideoFrameObserver, IAudioFrameObserver,
-        AvRecorderParam.IAvFrameReader, IAvRecorderCallback {
+        IVideoFrameObserver, IAudioFrameObserver, IVideoEncodedFrameObserver {
 
     ////////////////////////////////////////////////////////////////////////
     //////////////////////// Data Structure Definition /////////////////////
@@ -105,6 +104,11 @@ public class TalkingEngine implements AGEventHandler,
          */
         default void onRecordingError(final UUID sessionId, int errCode) {  }
 
+        /**
+         * @brief 预录保存的文件已经关闭
+         */
+        default void onPreRecordSaveDone(final UUID sessionId, final String filePath, int errCode) {  }
+
         /**
          * @brief 录像时产生错误
          */
@@ -122,6 +126,11 @@ public class TalkingEngine implements AGEventHandler,
     private static final int RECORD_TARGET_HEIGHT = 720;
     private static final int RECORD_AUDIO_SAMPLERATE = 44100;
     private static final int RECORD_AUDIO_CHANNELS = 2;
+    private static final int RECORD_FRAME_RATE = 15;    ///< 录像帧率，跟RTC保持一致
+    private static final int PLAYBACK_AUDIO_FRAME_MS = 30;  ///< 回放音频每次回调的时长(毫秒)
+    private static final int PRE_RECORD_MAX_DURATION = 60;              ///< 预录最长时长(秒)
+    private static final int PRE_RECORD_MIN_BYTES = 1024 * 1024;        ///< 每个会话预录缓冲区下限
+    private static final int PRE_RECORD_MAX_BYTES = 16 * 1024 * 1024;   ///< 每个会话预录缓冲区上限
 
     private static final int SET_AUD_CODEC = 0;         ///< 设置音频格式, 9:：G722;  8：G711A； 0：G711U；
     private static final int SET_AUD_SAMPLERATE = 8000; ///< 设置音频采样率
@@ -137,6 +146,56 @@ public class TalkingEngine implements AGEventHandler,
         public ICallback mCallback;
     }
 
+    private static final int RENDER_STATS_WINDOW = 512;    ///< 渲染回调耗时统计的采样窗口(帧数)
+
+    /*
+     * @brief 视频流可以录像的参数，只在视频帧尺寸或者旋转角度变化时重新生成，生成后不再修改
+     */
+    private static final class RenderParam {
+        final int mFrameWidth;      ///< 原始视频帧宽度
+        final int mFrameHeight;     ///< 原始视频帧高度
+        final int mRotation;        ///< 视频旋转角度
+        final int mWidth;           ///< 缩放到编码范围内的宽度
+        final int mHeight;          ///< 缩放到编码范围内的高度
+
+        RenderParam(int frameWidth, int frameHeight, int rotation, int maxWidth, int maxHeight) {
+            mFrameWidth = frameWidth;
+            mFrameHeight = frameHeight;
+            mRotation = rotation;
+            if ((frameWidth > maxWidth) || (frameHeight > maxHeight)) {
+                float scaleRateW = (float)frameWidth / (float)maxWidth;
+                float scaleRateH = (float)frameHeight / (float)maxHeight;
+                float scaleRate = (scaleRateW > scaleRateH) ? scaleRateW : scaleRateH;
+                mWidth = (int)(frameWidth / scaleRate);
+                mHeight = (int)(frameHeight / scaleRate);
+            } else {
+                mWidth = frameWidth;
+                mHeight = frameHeight;
+            }
+        }
+
+        boolean isSame(int frameWidth, int frameHeight, int rotation) {
+            return ((mFrameWidth == frameWidth) && (mFrameHeight == frameHeight) && (mRotation == rotation));
+        }
+    }
+
+    /*
+     * @brief 一路渲染视频流(频道名 + 对端uid)的状态，首帧时创建，退出频道时删除
+     *        只在该视频流的渲染线程中修改，耗时统计允许查询时读到不完全一致的数据
+     */
+    private static final class RenderStream {
+        final String mChnlName;
+        final int mUid;
+        volatile RenderParam mParam;                        ///< 当前的录像参数快照
+        final long[] mCostRing = new long[RENDER_STATS_WINDOW];     ///< 最近的回调耗时(纳秒)
+        volatile long mFrameCount;
+        volatile long mMaxCostNs;
+
+        RenderStream(final String chnlName, int uid) {
+            mChnlName = chnlName;
+            mUid = uid;
+        }
+    }
 
     ///////////////////////////////////////////////////////////////////////////
     ///////////////////// Variable Definition /////////////////////////////////
@@ -150,28 +209,25 @@ public class TalkingEngine implements AGEventHandler,
     private long mRtcInitTime;
     private int mVoiceChanger = Constants.AUDIO_EFFECT_OFF;
 
-    private final Object mVideoDataLock = new Object();
-    private byte[] mInVideoYData;           ///< 订阅的视频帧YUV数据
-    private byte[] mInVideoUData;
-    private byte[] mInVideoVData;
-    private volatile int mInVideoWidth;     ///< 订阅的视频帧宽度
-    private volatile int mInVideoHeight;    ///< 订阅的视频帧高度
-    private volatile int mInVideoRotation;  ///< 订阅的视频旋转角度
-    private boolean mCacheVideoFrame = false;   ///< 标记当前是否缓存视频帧
+    private volatile RenderParam mLastRenderParam;  ///< 最近一路渲染视频流的录像参数
+    private final ConcurrentHashMap<String, RenderStream[]> mRenderStreamMap = new ConcurrentHashMap<>();
 
     private final Object mAudioDataLock = new Object();
     private int mInAudioBytesPerSample = 2;               ///< 订阅的音频每个采样字节数
     private int mInAudioChannels = SET_AUD_CHANNELS;      ///< 订阅的音频通道数
     private int mInAudioSampleRate = SET_AUD_SAMPLERATE;  ///< 订阅的音频采样率
-    private AvFrameQueue mInAudioFrameQueue = new AvFrameQueue();
+    private volatile int mInAudioFrameSize = 0;           ///< 混音前音频每次回调的 PCM 字节数，0表示还没有回调
 
     //private AgoraMediaRecorder mAgoraRecorder;
 
-    private AvMediaRecorder mRecorder;          ///< 音视频录像器
-    private AvRecorderParam  mRecorderParam;    ///< 录像参数
-    private int mVideoFrameIndex = 0;           ///< 当前视频帧索引
-    private int mAudioFrameIndex = 0;           ///< 当前音频帧索引
-    private long mAudioTimestamp = 0;           ///< 音频时长的累计
+    //
+    // 每个会话单独录像，修改时在 mRecorderLock 锁内整体替换数组，音视频回调中只读取数组不加锁
+    //
+    private static final SessionRecorder[] EMPTY_RECORDERS = new SessionRecorder[0];
+    private final Object mRecorderLock = new Object();
+    private volatile SessionRecorder[] mRecorderArray = EMPTY_RECORDERS;
+    private AvEncoderScheduler mEncoderScheduler;     ///< 多路录像共享的编码器调度
+    private boolean mEncodedObserverRegistered = false;   ///< 是否注册了已编码视频帧观察者
 
     private AvCapability.VideoCaps mVideoCaps;
     private int mMaxEncodeWidth = RECORD_TARGET_WIDTH;
@@ -196,6 +252,9 @@ public class TalkingEngine implements AGEventHandler,
                 mMaxEncodeHeight = mVideoCaps.mHeightRange.getUpper();
             }
         }
+        int maxInstances = (mVideoCaps != null) ? mVideoCaps.mMaxInstances : 1;
+        long maxPixelRate = (mVideoCaps != null) ? mVideoCaps.mMaxPixelRate : 0;
+        mEncoderScheduler = new AvEncoderScheduler(maxInstances, maxPixelRate);
 
         //
         // 初始RtcEngine配置信息
@@ -275,6 +334,11 @@ public class TalkingEngine implements AGEventHandler,
 
         mRtcEngine.registerVideoFrameObserver(this);
         mRtcEngine.registerAudioFrameObserver(this);
+        // 每个会话单独录像时使用混音前各个设备的音频，格式和回放音频保持一致
+        ret = mRtcEngine.setPlaybackAudioFrameBeforeMixingParameters(RECORD_AUDIO_SAMPLERATE, RECORD_AUDIO_CHANNELS);
+        if (ret != 0) {
+            ALog.getInstance().e(TAG, "<initialize> fail to set before mixing params, ret=" + ret);
+        }
 
 
         mRtcInitTime = System.currentTimeMillis();
@@ -303,6 +367,8 @@ public class TalkingEngine implements AGEventHandler,
             mRtcEngEventHandler = null;
             ALog.getInstance().i(TAG, "<release> done");
         }
+        mRenderStreamMap.clear();
+        recordingStopAll();
     }
 
     /**
@@ -489,6 +555,9 @@ public class TalkingEngine implements AGEventHandler,
         rtcConnection.channelId = sessionCtx.mChnlName;
         rtcConnection.localUid = sessionCtx.mLocalRtcUid;
         int ret = mRtcEngine.leaveChannelEx(rtcConnection);
+        if (sessionCtx.mChnlName != null) {
+            mRenderStreamMap.remove(sessionCtx.mChnlName);
+        }
         if (ret != Constants.ERR_OK) {
             ALog.getInstance().e(TAG, "<leaveChannel> Exit with error, ret=" + ret);
             return false;
@@ -794,120 +863,16 @@ public class TalkingEngine implements AGEventHandler,
     /**
      * @brief 开始频道内录像
      * @param outputFile : 录像保存的文件路径
+     * @param recordMode : 录像模式，IDevPreviewMgr.RECORD_MODE_XXX
      * @return 返回错误码
      */
     //@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    public int recordingStart(final SessionCtx sessionCtx, final String outputFile) {
-        if (mRecorder != null) {
-            ALog.getInstance().e(TAG, "<recordingStart> recording is ongoing!");
+    public int recordingStart(final SessionCtx sessionCtx, final String outputFile, int recordMode) {
+        if (findRecorder(sessionCtx.mSessionId, false) != null) {
+            ALog.getInstance().e(TAG, "<recordingStart> recording is ongoing, sessionId=" + sessionCtx.mSessionId);
             return ErrCode.XERR_BAD_STATE;
         }
-
-        int videoWidth, videoHeight, videoRotation;
-        int bytesPerSample, channels, sampleRate;
-
-        synchronized (mVideoDataLock) {
-            videoWidth = mInVideoWidth;
-            videoHeight = mInVideoHeight;
-            videoRotation = mInVideoRotation;
-            mCacheVideoFrame = true;
-        }
-
-        synchronized (mAudioDataLock) {
-            bytesPerSample = mInAudioBytesPerSample;
-            channels = mInAudioChannels;
-            sampleRate = mInAudioSampleRate;
-        }
-
-        mRecorderParam = new AvRecorderParam();
-        mRecorderParam.mContext = mInitParam.mContext;
-        mRecorderParam.mAvReader = this;
-        mRecorderParam.mOutFilePath = outputFile;
-        mRecorderParam.mCallback = this;
-
-        //
-        // 设置视频编码参数
-        //
-        mRecorderParam.mVideoCodec = RECORD_VIDEO_CODEC;
-        mRecorderParam.mColorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
-        mRecorderParam.mVideoWidth = videoWidth;
-        mRecorderParam.mVideoHeight = videoHeight;
-        mRecorderParam.mRotation = 0;
-        mRecorderParam.mFrameRate = 15;      // 15FPS，跟RTC保持一致
-        mRecorderParam.mGopFrame = mRecorderParam.mFrameRate; // 每秒一个GOP
-
-        // 根据视频宽高和帧率计算的模板视频的码率
-        int calcVideoBitRate = calcVideoBitrate(mRecorderParam.mVideoWidth, mRecorderParam.mVideoHeight,
-                mRecorderParam.mFrameRate);
-        mRecorderParam.mVideoBitRate = calcVideoBitRate;
-
-        // 获取Video编码模式
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
-            AvCapability.VideoCaps videoCaps = AvCapability.getVideoCapability(RECORD_VIDEO_CODEC);
-            String videoCapsText = videoCaps.toString();
-            Log.d(TAG, "<recordingStart> videoCapability=" + videoCapsText);
-            if (videoCaps.mBitrateCqSupported) {
-                mRecorderParam.mVBitRateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ;
-                Log.d(TAG, "<recordingStart> BITRATE_MODE_CQ, mVideoBitRate=" + mRecorderParam.mVideoBitRate);
-            } else {
-                mRecorderParam.mVBitRateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
-                Log.d(TAG, "<recordingStart> BITRATE_MODE_VBR, mVideoBitRate=" + mRecorderParam.mVideoBitRate);
-            }
-
-            // 判断码率范围并进行调整
-            int bitrateLower = videoCaps.mBitrateRange.getLower();
-            int bitrateUpper = videoCaps.mBitrateRange.getUpper();
-            int bitrateAdjust = (mRecorderParam.mVideoWidth * mRecorderParam.mVideoHeight);
-            if (mRecorderParam.mVideoBitRate < bitrateLower) { // 码率小于下限
-                while (mRecorderParam.mVideoBitRate < bitrateLower) {
-                    mRecorderParam.mVideoBitRate += bitrateAdjust;
-                }
-                Log.d(TAG, "<recordingStart> videobitrate lower, Adjust videoBitrate=" + mRecorderParam.mVideoBitRate);
-
-            } else if (mRecorderParam.mVideoBitRate > bitrateUpper) { // 码率大于上限
-                while (mRecorderParam.mVideoBitRate > bitrateUpper) {
-                    mRecorderParam.mVideoBitRate -= bitrateAdjust;
-                }
-                Log.d(TAG, "<recordingStart> videobitrate upper, Adjust videoBitrate=" + mRecorderParam.mVideoBitRate);
-            }
-
-        } else {
-            mRecorderParam.mVBitRateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
-        }
-
-
-        //
-        // 设置音频流编码
-        //
-        mRecorderParam.mAudioCodec = RECORD_AUDIO_CODEC;
-        mRecorderParam.mSampleFmt = AudioFormat.ENCODING_PCM_16BIT;
-        mRecorderParam.mChannels = channels;
-        mRecorderParam.mSampleRate = sampleRate;
-        int calcAudioBitRate = (int)(sampleRate * channels * 2 * 0.2f);
-        mRecorderParam.mAudioBitRate = calcAudioBitRate;
-
-        // 初始化录像变量信息
-        mVideoFrameIndex = 0;
-        mAudioFrameIndex = 0;
-        mAudioTimestamp = 0;
-        mInAudioFrameQueue.clear();
-
-        mRecorder = new AvMediaRecorder();
-        int ret = mRecorder.initialize(mRecorderParam);
-        if (ret != ErrCode.XOK) {
-            ALog.getInstance().e(TAG, "<recordingStart> initialize() error, ret=" + ret);
-            mRecorder = null;
-            synchronized (mVideoDataLock) {
-                mCacheVideoFrame = false;
-            }
-            return ret;
-        }
-        ret = mRecorder.recordingStart();
-
-        ALog.getInstance().i(TAG, "<recordingStart> done, ret=" + ret
-            + ", width=" + videoWidth + ", height=" + videoHeight + ", rotation=" + videoRotation
-            + ", channels=" + channels + ", bytesPerSmpl=" + bytesPerSample + ", sampleRate=" + sampleRate);
-        return ret;
+        return startSessionRecorder(sessionCtx, outputFile, 0, recordMode);
 
 /*
         RecorderStreamInfo streamInfo = new RecorderStreamInfo();
@@ -946,17 +911,14 @@ public class TalkingEngine implements AGEventHandler,
      * @return 返回错误码
      */
     public int recordingStop(final SessionCtx sessionCtx) {
-        if (mRecorder != null) {
-            mRecorder.recordingStop();
-            mRecorder.release();
-            mRecorder = null;
-            ALog.getInstance().i(TAG, "<recordingStop> done");
+        SessionRecorder recorder = removeRecorder(sessionCtx.mSessionId, false);
+        if (recorder != null) {
+            updateEncodedFrameObserver();
+            recorder.stop();
+            mEncoderScheduler.release(recorder.getEncodeSlot());
+            ALog.getInstance().i(TAG, "<recordingStop> done, sessionId=" + sessionCtx.mSessionId
+                    + ", recordingCount=" + mRecorderArray.length);
         }
-        synchronized (mVideoDataLock) {
-            mCacheVideoFrame = false;
-        }
-
-        mInAudioFrameQueue.clear();
         return ErrCode.XOK;
 
 /*
@@ -975,59 +937,250 @@ public class TalkingEngine implements AGEventHandler,
      * @return true : 当前正在录制； false: 当前不再录制
      */
     public boolean isRecording(final SessionCtx sessionCtx) {
-        return (mRecorder != null);
+        return (findRecorder(sessionCtx.mSessionId, false) != null);
         //return (mAgoraRecorder != null);
     }
 
-    @Override
-    public AvVideoFrame onReadVideoFrame() {
-        synchronized (mVideoDataLock) {
-            if (mInVideoYData == null || mInVideoUData == null || mInVideoVData == null) {
-                return null;
+    /**
+     * @brief 开始预录，持续编码并且在内存中缓存最近 durationSec 秒的音视频数据
+     * @param durationSec : 预录缓存的时长(秒)
+     * @param recordMode : 录像模式，IDevPreviewMgr.RECORD_MODE_XXX
+     * @return 返回错误码
+     */
+    public int preRecordStart(final SessionCtx sessionCtx, int durationSec, int recordMode) {
+        if (findRecorder(sessionCtx.mSessionId, true) != null) {
+            ALog.getInstance().e(TAG, "<preRecordStart> pre-recording is ongoing, sessionId=" + sessionCtx.mSessionId);
+            return ErrCode.XERR_BAD_STATE;
+        }
+        if ((durationSec <= 0) || (durationSec > PRE_RECORD_MAX_DURATION)) {
+            ALog.getInstance().e(TAG, "<preRecordStart> invalid duration, durationSec=" + durationSec);
+            return ErrCode.XERR_INVALID_PARAM;
+        }
+        return startSessionRecorder(sessionCtx, null, durationSec, recordMode);
+    }
+
+    /**
+     * @brief 停止预录，正在保存的文件也会结束
+     * @return 返回错误码
+     */
+    public int preRecordStop(final SessionCtx sessionCtx) {
+        SessionRecorder recorder = removeRecorder(sessionCtx.mSessionId, true);
+        if (recorder != null) {
+            updateEncodedFrameObserver();
+            recorder.stop();
+            mEncoderScheduler.release(recorder.getEncodeSlot());
+            ALog.getInstance().i(TAG, "<preRecordStop> done, sessionId=" + sessionCtx.mSessionId
+                    + ", recordingCount=" + mRecorderArray.length);
+        }
+        return ErrCode.XOK;
+    }
+
+    /**
+     * @brief 保存预录数据，缓存的数据和之后 postDurationSec 秒的实时数据不重新编码直接写入文件
+     * @param outputFile : 保存的文件路径
+     * @param postDurationSec : 继续写入实时数据的时长(秒)
+     * @return 返回错误码，返回成功时文件关闭后回调 onPreRecordSaveDone()
+     */
+    public int preRecordSave(final SessionCtx sessionCtx, final String outputFile, int postDurationSec) {
+        SessionRecorder recorder = findRecorder(sessionCtx.mSessionId, true);
+        if (recorder == null) {
+            ALog.getInstance().e(TAG, "<preRecordSave> not pre-recording, sessionId=" + sessionCtx.mSessionId);
+            return ErrCode.XERR_BAD_STATE;
+        }
+        long postDurationUs = Math.max(postDurationSec, 0) * 1000L * 1000L;
+        final UUID sessionId = sessionCtx.mSessionId;
+        int ret = recorder.getPreRollBuffer().saveStart(outputFile, postDurationUs,
+                (filePath, errCode) -> onPreRecordSaveDone(sessionId, filePath, errCode));
+        ALog.getInstance().i(TAG, "<preRecordSave> done, sessionId=" + sessionCtx.mSessionId
+                + ", ret=" + ret + ", outputFile=" + outputFile + ", postDurationSec=" + postDurationSec);
+        return ret;
+    }
+
+    /**
+     * @brief 判断当前是否在预录
+     */
+    public boolean isPreRecording(final SessionCtx sessionCtx) {
+        return (findRecorder(sessionCtx.mSessionId, true) != null);
+    }
+
+    /**
+     * @brief 启动会话的录像，直接录像到文件或者预录到内存
+     * @param outputFile : 录像保存的文件路径，预录时为null
+     * @param preRecordSec : 预录缓存的时长(秒)，0表示直接录像到文件
+     * @param recordMode : 录像模式，直接混流时不占用视频编码器，只编码音频
+     * @return 返回错误码
+     */
+    private int startSessionRecorder(final SessionCtx sessionCtx, final String outputFile, int preRecordSec,
+                                     int recordMode) {
+        if ((recordMode != IDevPreviewMgr.RECORD_MODE_TRANSCODE)
+                && (recordMode != IDevPreviewMgr.RECORD_MODE_PASSTHROUGH)) {
+            ALog.getInstance().e(TAG, "<recordingStart> invalid record mode, recordMode=" + recordMode);
+            return ErrCode.XERR_INVALID_PARAM;
+        }
+        boolean passthrough = (recordMode == IDevPreviewMgr.RECORD_MODE_PASSTHROUGH);
+        int videoWidth = 0, videoHeight = 0, videoRotation = 0;
+        int bytesPerSample, channels, sampleRate;
+
+        // 优先使用会话对应视频流的参数，还没有渲染时使用最近一路视频流的参数
+        RenderStream renderStream = findRenderStream(sessionCtx.mChnlName, sessionCtx.mDeviceRtcUid);
+        RenderParam renderParam = (renderStream != null) ? renderStream.mParam : mLastRenderParam;
+        if (renderParam != null) {
+            videoWidth = renderParam.mWidth;
+            videoHeight = renderParam.mHeight;
+            videoRotation = renderParam.mRotation;
+        }
+
+        synchronized (mAudioDataLock) {
+            bytesPerSample = mInAudioBytesPerSample;
+            channels = mInAudioChannels;
+            sampleRate = mInAudioSampleRate;
+        }
+
+        // 申请编码器，多路同时录像超过编码器性能时降低帧率和分辨率，直接混流时不需要视频编码器
+        AvEncoderScheduler.EncodeSlot encodeSlot = null;
+        if (!passthrough) {
+            encodeSlot = mEncoderScheduler.acquire(videoWidth, videoHeight, RECORD_FRAME_RATE);
+            if (encodeSlot == null) {
+                ALog.getInstance().e(TAG, "<recordingStart> no more encoder, sessionId=" + sessionCtx.mSessionId);
+                return ErrCode.XERR_UNSUPPORTED;
+            }
+        }
+        int recordWidth = (encodeSlot != null) ? encodeSlot.mWidth : videoWidth;
+        int recordHeight = (encodeSlot != null) ? encodeSlot.mHeight : videoHeight;
+        int recordFrameRate = (encodeSlot != null) ? encodeSlot.mFrameRate : RECORD_FRAME_RATE;
+
+        AvRecorderParam recorderParam = new AvRecorderParam();
+        recorderParam.mContext = mInitParam.mContext;
+        recorderParam.mOutFilePath = outputFile;
+
+        //
+        // 设置视频编码参数
+        //
+        recorderParam.mVideoCodec = passthrough ? "" : RECORD_VIDEO_CODEC;  // 直接混流时不编码视频
+        recorderParam.mColorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
+        recorderParam.mVideoWidth = recordWidth;
+        recorderParam.mVideoHeight = recordHeight;
+        recorderParam.mRotation = 0;
+        recorderParam.mFrameRate = recordFrameRate;
+        recorderParam.mGopFrame = recorderParam.mFrameRate; // 每秒一个GOP
+
+        // 根据视频宽高和帧率计算的模板视频的码率
+        int calcVideoBitRate = calcVideoBitrate(recorderParam.mVideoWidth, recorderParam.mVideoHeight,
+                recorderParam.mFrameRate);
+        recorderParam.mVideoBitRate = calcVideoBitRate;
+
+        // 获取Video编码模式
+        if (mVideoCaps != null) {
+            Log.d(TAG, "<recordingStart> videoCapability=" + mVideoCaps.toString());
+            if (mVideoCaps.mBitrateCqSupported) {
+                recorderParam.mVBitRateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ;
+                Log.d(TAG, "<recordingStart> BITRATE_MODE_CQ, mVideoBitRate=" + recorderParam.mVideoBitRate);
+            } else {
+                recorderParam.mVBitRateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+                Log.d(TAG, "<recordingStart> BITRATE_MODE_VBR, mVideoBitRate=" + recorderParam.mVideoBitRate);
             }
 
-            // YUV 数据格式转换成 NV12 格式
-            int yDataSize = mInVideoYData.length;
-            int uDataSize = mInVideoUData.length;
-            int vDataSize = mInVideoVData.length;
-            int yuvDataSize = yDataSize + uDataSize + vDataSize;
-            byte[] yuvBuffer = new byte[yuvDataSize];
-            ImageConvert.getInstance().ImgCvt_YuvToNv12(mInVideoYData, mInVideoUData, mInVideoVData,
-                    mInVideoWidth, mInVideoHeight, yuvBuffer);
+            // 判断码率范围并进行调整
+            int bitrateLower = mVideoCaps.mBitrateRange.getLower();
+            int bitrateUpper = mVideoCaps.mBitrateRange.getUpper();
+            int bitrateAdjust = (recorderParam.mVideoWidth * recorderParam.mVideoHeight);
+            if (recorderParam.mVideoBitRate < bitrateLower) { // 码率小于下限
+                while (recorderParam.mVideoBitRate < bitrateLower) {
+                    recorderParam.mVideoBitRate += bitrateAdjust;
+                }
+                Log.d(TAG, "<recordingStart> videobitrate lower, Adjust videoBitrate=" + recorderParam.mVideoBitRate);
 
-            AvVideoFrame videoFrame = new AvVideoFrame();
-            videoFrame.mColorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
-            videoFrame.mDataBuffer = yuvBuffer;
-            videoFrame.mFrameIndex = mVideoFrameIndex;
-            videoFrame.mTimestamp = (mVideoFrameIndex * 1000L * 1000L / mRecorderParam.mFrameRate);
-            videoFrame.mKeyFrame = false;
-            videoFrame.mLastFrame = false;
-            videoFrame.mFlags = 0;
+            } else if (recorderParam.mVideoBitRate > bitrateUpper) { // 码率大于上限
+                while (recorderParam.mVideoBitRate > bitrateUpper) {
+                    recorderParam.mVideoBitRate -= bitrateAdjust;
+                }
+                Log.d(TAG, "<recordingStart> videobitrate upper, Adjust videoBitrate=" + recorderParam.mVideoBitRate);
+            }
 
-            mVideoFrameIndex++;
-            return videoFrame;
+        } else {
+            recorderParam.mVBitRateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
         }
-    }
 
-    @Override
-    public AvAudioFrame onReadAudioFrame() {
-        synchronized (mVideoDataLock) {
-            AvAudioFrame audioFrame = (AvAudioFrame) mInAudioFrameQueue.dequeue();
-            return audioFrame;
+
+        //
+        // 设置音频流编码
+        //
+        recorderParam.mAudioCodec = RECORD_AUDIO_CODEC;
+        recorderParam.mSampleFmt = AudioFormat.ENCODING_PCM_16BIT;
+        recorderParam.mChannels = channels;
+        recorderParam.mSampleRate = sampleRate;
+        int calcAudioBitRate = (int)(sampleRate * channels * 2 * 0.2f);
+        recorderParam.mAudioBitRate = calcAudioBitRate;
+
+        // 预录时编码数据写入固定大小的内存缓冲区，大小根据码率和时长估算，不超过每个会话的上限
+        AvPreRollBuffer preRollBuffer = null;
+        if (preRecordSec > 0) {
+            long estimateBytes = (long)(recorderParam.mVideoBitRate + recorderParam.mAudioBitRate)
+                    / 8 * preRecordSec * 3 / 2;
+            int capacity = (int)Math.max(PRE_RECORD_MIN_BYTES, Math.min(estimateBytes, PRE_RECORD_MAX_BYTES));
+            preRollBuffer = new AvPreRollBuffer(capacity, preRecordSec * 1000L * 1000L);
+        }
+
+        // 先加入录像列表再启动，保证录像器读取时已经有缓存的音视频帧
+        SessionRecorder recorder = new SessionRecorder(sessionCtx.mSessionId, sessionCtx.mChnlName,
+                sessionCtx.mDeviceRtcUid, encodeSlot, preRollBuffer, passthrough, mInitParam.mCallback);
+        addRecorder(recorder);
+        updateEncodedFrameObserver();
+        // 按照混音前音频回调的实际帧大小预分配缓冲区，还没有回调时按照 PLAYBACK_AUDIO_FRAME_MS 估算
+        int audioFrameSize = mInAudioFrameSize;
+        if (audioFrameSize <= 0) {
+            audioFrameSize = (sampleRate * PLAYBACK_AUDIO_FRAME_MS / 1000) * channels * bytesPerSample;
+        }
+        int ret = recorder.start(recorderParam, audioFrameSize);
+        if (ret != ErrCode.XOK) {
+            ALog.getInstance().e(TAG, "<recordingStart> start error, ret=" + ret);
+            removeRecorder(sessionCtx.mSessionId, recorder.isPreRecord());
+            updateEncodedFrameObserver();
+            recorder.stop();
+            mEncoderScheduler.release(encodeSlot);
+            return ret;
         }
+
+        ALog.getInstance().i(TAG, "<recordingStart> done, sessionId=" + sessionCtx.mSessionId
+            + ", width=" + recordWidth + ", height=" + recordHeight + ", fps=" + recordFrameRate
+            + ", encodeSlot=" + encodeSlot + ", passthrough=" + passthrough
+            + ", rotation=" + videoRotation + ", channels=" + channels
+            + ", bytesPerSmpl=" + bytesPerSample + ", sampleRate=" + sampleRate
+            + ", preRecordSec=" + preRecordSec + ", recordingCount=" + mRecorderArray.length);
+        return ret;
     }
 
-    @Override
-    public void onRecorderError(AvRecorderParam recorderParam, int errCode) {
-        Log.e(TAG, "<onRecorderError> errCode=" + errCode);
+    /**
+     * @brief 获取会话对应视频流的渲染回调耗时统计
+     * @return 返回统计信息，还没有渲染过视频帧时返回null
+     */
+    public IDevPreviewMgr.RenderCallbackStats getRenderStats(final SessionCtx sessionCtx) {
+        RenderStream stream = findRenderStream(sessionCtx.mChnlName, sessionCtx.mDeviceRtcUid);
+        if (stream == null) {
+            return null;
+        }
 
-        if (mInitParam.mCallback != null) {
-            mInitParam.mCallback.onRecordingError(null, errCode);
+        IDevPreviewMgr.RenderCallbackStats stats = new IDevPreviewMgr.RenderCallbackStats();
+        long frameCount = stream.mFrameCount;
+        int sampleCount = (int)Math.min(frameCount, RENDER_STATS_WINDOW);
+        long[] costArray = Arrays.copyOf(stream.mCostRing, sampleCount);
+        Arrays.sort(costArray);
+
+        RenderParam renderParam = stream.mParam;
+        if (renderParam != null) {
+            stats.mVideoWidth = renderParam.mFrameWidth;
+            stats.mVideoHeight = renderParam.mFrameHeight;
         }
+        stats.mFrameCount = frameCount;
+        if (sampleCount > 0) {
+            stats.mP50CostUs = costArray[(sampleCount - 1) / 2] / 1000L;
+            stats.mP99CostUs = costArray[(sampleCount - 1) * 99 / 100] / 1000L;
+        }
+        stats.mMaxCostUs = stream.mMaxCostNs / 1000L;
+        return stats;
     }
 
 
-
     ////////////////////////////////////////////////////////////////////////////
     ////////////////////// Rtc Channel Event Handler Methods ////////////////////
     ////////////////////////////////////////////////////////////////////////////
@@ -1159,6 +1312,18 @@ public class TalkingEngine implements AGEventHandler,
 //        ALog.getInstance().d(TAG, "<onRemoteVideoStats> sessionId=" + sessionId + ", stats=" + stats);
     }
 
+    /**
+     * @brief 预录文件保存结束，在编码线程中回调
+     */
+    void onPreRecordSaveDone(final UUID sessionId, final String filePath, int errCode) {
+        ALog.getInstance().d(TAG, "<onPreRecordSaveDone> sessionId=" + sessionId
+                + ", filePath=" + filePath + ", errCode=" + errCode);
+        int respCode = (errCode == io.agora.avmodule.ErrCode.XOK) ? ErrCode.XOK : ErrCode.XERR_FILE_WRITE;
+        if (mInitParam.mCallback != null) {
+            mInitParam.mCallback.onPreRecordSaveDone(sessionId, filePath, respCode);
+        }
+    }
+
      void onSnapshotTaken(final UUID sessionId, int uid, String filePath, int width, int height, int errCode) {
          ALog.getInstance().d(TAG, "<onSnapshotTaken> sessionId=" + sessionId
                  + ", uid=" + uid + ", filePath=" + filePath
@@ -1341,55 +1506,41 @@ public class TalkingEngine implements AGEventHandler,
 
     @Override
     public boolean onRenderVideoFrame(String channelId, int uid, VideoFrame videoFrame)  {
-        if (mRtcEngine == null) {
+        if ((mRtcEngine == null) || (channelId == null)) {
             return false;
         }
+        long beginTime = System.nanoTime();
+        RenderStream stream = getRenderStream(channelId, uid);
 
         if (mInitParam.mCallback != null) {  // 回调给上层
             mInitParam.mCallback.onRenderVideoFrame(channelId, uid, videoFrame);
         }
 
-        boolean isCacheVideo;
-        synchronized (mVideoDataLock) {
-            isCacheVideo = mCacheVideoFrame;
+        // 只在视频帧尺寸或者旋转角度变化时重新计算可以录像的参数
+        VideoFrame.Buffer videoBuffer = videoFrame.getBuffer();
+        if (videoBuffer == null) {
+            ALog.getInstance().e(TAG, "<onRenderVideoFrame> videoBuffer is NULL");
+            return false;
         }
-        if (isCacheVideo) {
-            // 录像时缓存当前预览视频帧
-            cacheInVideoFrame(videoFrame);
-
-        } else {
-            // 否则只计算可以录像的参数
-            VideoFrame.Buffer videoBuffer = videoFrame.getBuffer();
-            if (videoBuffer == null) {
-                ALog.getInstance().e(TAG, "<onRenderVideoFrame> videoBuffer is NULL");
-                return false;
-            }
-            int frameWidth = videoBuffer.getWidth();
-            int frameHeight = videoBuffer.getHeight();
-            if ((frameWidth > mMaxEncodeWidth) || (frameHeight > mMaxEncodeHeight)) {
-                float scaleRateW = (float)frameWidth / (float)mMaxEncodeWidth;
-                float scaleRateH = (float)frameHeight / (float)mMaxEncodeHeight;
-                float scaleRate = (scaleRateW > scaleRateH) ? scaleRateW : scaleRateH;
-                int scaledWidth = (int)(frameWidth / scaleRate);
-                int scaleHeight = (int)(frameHeight / scaleRate);
-
-                // 记录可录像的缩放后参数
-                synchronized (mVideoDataLock) {
-                    mInVideoWidth = scaledWidth;
-                    mInVideoHeight = scaleHeight;
-                    mInVideoRotation = videoFrame.getRotation();
-                }
-                
-            } else {
-                // 记录可录像的原始参数
-                synchronized (mVideoDataLock) {
-                    mInVideoWidth = frameWidth;
-                    mInVideoHeight = frameHeight;
-                    mInVideoRotation = videoFrame.getRotation();
-                }
+        int frameWidth = videoBuffer.getWidth();
+        int frameHeight = videoBuffer.getHeight();
+        int rotation = videoFrame.getRotation();
+        RenderParam renderParam = stream.mParam;
+        if ((renderParam == null) || (!renderParam.isSame(frameWidth, frameHeight, rotation))) {
+            renderParam = new RenderParam(frameWidth, frameHeight, rotation, mMaxEncodeWidth, mMaxEncodeHeight);
+            stream.mParam = renderParam;
+            mLastRenderParam = renderParam;
+        }
+
+        // 当前视频流正在录像时缓存视频帧
+        SessionRecorder[] recorderArray = mRecorderArray;
+        for (SessionRecorder recorder : recorderArray) {
+            if (recorder.matches(channelId, uid)) {
+                recorder.cacheVideoFrame(videoFrame, renderParam.mWidth, renderParam.mHeight);
             }
         }
 
+        recordRenderCost(stream, System.nanoTime() - beginTime);
         return false;
     }
 
@@ -1429,6 +1580,26 @@ public class TalkingEngine implements AGEventHandler,
     }
 
 
+    ////////////////////////////////////////////////////////////////////////////
+    //////////////// Override Methods of IVideoEncodedFrameObserver /////////////
+    ////////////////////////////////////////////////////////////////////////////
+    @Override
+    public boolean onEncodedVideoFrameReceived(ByteBuffer buffer, EncodedVideoFrameInfo info) {
+        if ((buffer == null) || (info == null)) {
+            return true;
+        }
+
+        // 已编码视频帧回调中只有设备端uid，直接混流的录像按照uid匹配
+        SessionRecorder[] recorderArray = mRecorderArray;
+        for (SessionRecorder recorder : recorderArray) {
+            if (recorder.isPassthrough() && recorder.matchesUid(info.uid)) {
+                recorder.writeEncodedVideoFrame(buffer, info);
+            }
+        }
+        return true;
+    }
+
+
 
 
     ////////////////////////////////////////////////////////////////////////////
@@ -1465,38 +1636,6 @@ public class TalkingEngine implements AGEventHandler,
             mInAudioSampleRate = samplesPerSec;
         }
 
-        if (mRecorder != null) {
-            // 读取到音频帧，送入编码器组件
-            AvAudioFrame audioFrame = new AvAudioFrame();
-            audioFrame.mBytesPerSample = mInAudioBytesPerSample;
-            audioFrame.mChannels = channels;
-            audioFrame.mSampleNumber = (samplesPerChannel*channels);
-            audioFrame.mDataBuffer = byteBuffer2ByteArray(buffer);
-            audioFrame.mFrameIndex = mAudioFrameIndex;
-            audioFrame.mTimestamp = (mAudioTimestamp * 1000L);
-            audioFrame.mKeyFrame = true;
-            audioFrame.mLastFrame = false;
-            audioFrame.mFlags = 0;
-            mInAudioFrameQueue.inqueue(audioFrame);
-
-            // 计算当前数据块的时长
-            long dataLength = (long)audioFrame.mDataBuffer.length;
-            long bytesPerSec = (long)(channels * bytesPerSample * RECORD_AUDIO_SAMPLERATE);
-            long bufferDuration = (long)(dataLength * 1000 / bytesPerSec);
-
-            // 累计数据块时长 和 音频帧数
-            mAudioTimestamp += bufferDuration;
-            mAudioFrameIndex++;
-
-//            ALog.getInstance().d(TAG, "<onPlaybackAudioFrame> bytesPerSample=" + bytesPerSample
-//                    + ", channels=" + channels + ", samplesPerChannel=" + samplesPerChannel
-//                    + ", mDataBuffer.length=" + audioFrame.mDataBuffer.length
-//                    + ", mInAudioFrameQueue.size=" + mInAudioFrameQueue.size()
-//                    + ", mAudioFrameIndex=" + mAudioFrameIndex
-//                    + ", renderTimeMs=" + renderTimeMs
-//                    + ", bufferDuration=" + bufferDuration + ", mAudioTimestamp=" + mAudioTimestamp);
-        }
-
         return false;
     }
 
@@ -1513,6 +1652,18 @@ public class TalkingEngine implements AGEventHandler,
             int samplesPerChannel, int bytesPerSample,
             int channels, int samplesPerSec,
             ByteBuffer buffer, long renderTimeMs, int avsync_type) {
+        mInAudioFrameSize = samplesPerChannel * channels * bytesPerSample;
+        SessionRecorder[] recorderArray = mRecorderArray;
+        if ((recorderArray.length <= 0) || (channelId == null)) {
+            return false;
+        }
+
+        // 混音前的音频只属于一个设备，拷贝到对应录像的环形缓冲区中，时间戳根据累计采样数计算
+        for (SessionRecorder recorder : recorderArray) {
+            if (recorder.matches(channelId, userId)) {
+                recorder.writeAudioFrame(buffer, samplesPerChannel, channels, bytesPerSample, samplesPerSec);
+            }
+        }
         return false;
     }
 
@@ -1523,7 +1674,7 @@ public class TalkingEngine implements AGEventHandler,
 
     @Override
     public int getObservedAudioFramePosition() {
-        return AgoraAudioFramePositionPlayback;
+        return (AgoraAudioFramePositionPlayback | AgoraAudioFramePositionBeforeMixing);
     }
 
     @Override
@@ -1537,7 +1688,7 @@ public class TalkingEngine implements AGEventHandler,
     public AudioParams getPlaybackAudioParams() {
         // 设置回放的音频格式，这里固定设置：双通道；44100采样率
         // 每次回调个 2646 个样本数据， 正好30ms
-        int samplesPerCall = (RECORD_AUDIO_SAMPLERATE * RECORD_AUDIO_CHANNELS * 30) / 1000;
+        int samplesPerCall = (RECORD_AUDIO_SAMPLERATE * RECORD_AUDIO_CHANNELS * PLAYBACK_AUDIO_FRAME_MS) / 1000;
         AudioParams params = new AudioParams(RECORD_AUDIO_SAMPLERATE, RECORD_AUDIO_CHANNELS,
                 Constants.RAW_AUDIO_FRAME_OP_MODE_READ_ONLY, samplesPerCall );
         return params;
@@ -1545,7 +1696,7 @@ public class TalkingEngine implements AGEventHandler,
 
     @Override
     public AudioParams getMixedAudioParams() {
-        int samplesPerCall = (RECORD_AUDIO_SAMPLERATE * RECORD_AUDIO_CHANNELS * 30) / 1000;
+        int samplesPerCall = (RECORD_AUDIO_SAMPLERATE * RECORD_AUDIO_CHANNELS * PLAYBACK_AUDIO_FRAME_MS) / 1000;
         AudioParams params = new AudioParams(RECORD_AUDIO_SAMPLERATE, RECORD_AUDIO_CHANNELS,
                 Constants.RAW_AUDIO_FRAME_OP_MODE_READ_ONLY, samplesPerCall );
         return params;
@@ -1553,7 +1704,7 @@ public class TalkingEngine implements AGEventHandler,
 
     @Override
     public AudioParams getEarMonitoringAudioParams() {
-        int samplesPerCall = (RECORD_AUDIO_SAMPLERATE * RECORD_AUDIO_CHANNELS * 30) / 1000;
+        int samplesPerCall = (RECORD_AUDIO_SAMPLERATE * RECORD_AUDIO_CHANNELS * PLAYBACK_AUDIO_FRAME_MS) / 1000;
         AudioParams params = new AudioParams(RECORD_AUDIO_SAMPLERATE, RECORD_AUDIO_CHANNELS,
                 Constants.RAW_AUDIO_FRAME_OP_MODE_READ_ONLY, samplesPerCall );
         return params;
@@ -1563,97 +1714,147 @@ public class TalkingEngine implements AGEventHandler,
     //////////////////////////// Internal Methods //////////////////////////////
     ////////////////////////////////////////////////////////////////////////////
     /**
-     * @brief 缓存订阅的视频帧数据
-     * @param inVideoFrame : 订阅的视频帧
+     * @brief 查找视频流状态
+     * @return 返回找到的视频流，没有找到返回null
      */
-    boolean cacheInVideoFrame(VideoFrame inVideoFrame) {
-        long t1 = System.currentTimeMillis();
-        if (inVideoFrame == null) {
-            ALog.getInstance().e(TAG, "<cacheInVideoFrame> invalid param");
-            return false;
+    private RenderStream findRenderStream(final String chnlName, int uid) {
+        if (chnlName == null) {
+            return null;
         }
-        VideoFrame.Buffer videoBuffer = inVideoFrame.getBuffer();
-        if (videoBuffer == null) {
-            ALog.getInstance().e(TAG, "<cacheInVideoFrame> videoBuffer is NULL");
-            return false;
+        RenderStream[] streamArray = mRenderStreamMap.get(chnlName);
+        if (streamArray == null) {
+            return null;
         }
+        for (RenderStream stream : streamArray) {
+            if (stream.mUid == uid) {
+                return stream;
+            }
+        }
+        return null;
+    }
 
-        VideoFrame.Buffer scaledBuffer = null;
-        VideoFrame.I420Buffer i420Buffer = null;
-
-        int frameWidth = videoBuffer.getWidth();
-        int frameHeight = videoBuffer.getHeight();
-        if ((frameWidth > mMaxEncodeWidth) || (frameHeight > mMaxEncodeHeight)) {
-            float scaleRateW = (float)frameWidth / (float)mMaxEncodeWidth;
-            float scaleRateH = (float)frameHeight / (float)mMaxEncodeHeight;
-            float scaleRate = (scaleRateW > scaleRateH) ? scaleRateW : scaleRateH;
-            int scaledWidth = (int)(frameWidth / scaleRate);
-            int scaleHeight = (int)(frameHeight / scaleRate);
-            scaledBuffer = videoBuffer.cropAndScale(0, 0, frameWidth, frameHeight, scaledWidth, scaleHeight);
-            i420Buffer = scaledBuffer.toI420();
-//            ALog.getInstance().d(TAG, "<cacheInVideoFrame> scale frame, frameWidth=" + frameWidth
-//                        + ", frameHeight=" + frameHeight + ", scaledWidth=" + scaledWidth + ", scaleHeight=" + scaleHeight);
-        } else {
-            i420Buffer = videoBuffer.toI420();
+    /**
+     * @brief 获取视频流状态，没有时创建一个新的，只有每路视频流的首帧会进入加锁创建
+     */
+    private RenderStream getRenderStream(final String chnlName, int uid) {
+        RenderStream stream = findRenderStream(chnlName, uid);
+        if (stream != null) {
+            return stream;
         }
-        if (i420Buffer == null) {
-            ALog.getInstance().e(TAG, "<cacheInVideoFrame> i420Buffer is NULL");
-            if (scaledBuffer != null) {
-                scaledBuffer.release();
+
+        synchronized (mRenderStreamMap) {
+            stream = findRenderStream(chnlName, uid);
+            if (stream != null) {
+                return stream;
             }
-            return false;
+            stream = new RenderStream(chnlName, uid);
+            RenderStream[] streamArray = mRenderStreamMap.get(chnlName);
+            RenderStream[] newArray;
+            if (streamArray == null) {
+                newArray = new RenderStream[] { stream };
+            } else {
+                newArray = Arrays.copyOf(streamArray, streamArray.length + 1);
+                newArray[streamArray.length] = stream;
+            }
+            mRenderStreamMap.put(chnlName, newArray);
         }
+        ALog.getInstance().d(TAG, "<getRenderStream> new render stream, chnlName=" + chnlName + ", uid=" + uid);
+        return stream;
+    }
 
+    /**
+     * @brief 记录一次渲染回调的耗时，只在该视频流的渲染线程中调用
+     */
+    private void recordRenderCost(final RenderStream stream, long costNs) {
+        long frameCount = stream.mFrameCount;
+        stream.mCostRing[(int)(frameCount % RENDER_STATS_WINDOW)] = costNs;
+        if (costNs > stream.mMaxCostNs) {
+            stream.mMaxCostNs = costNs;
+        }
+        stream.mFrameCount = frameCount + 1;
+    }
 
-        ByteBuffer yBuffer = i420Buffer.getDataY();
-        ByteBuffer uBuffer = i420Buffer.getDataU();
-        ByteBuffer vBuffer = i420Buffer.getDataV();
-        int yStride = i420Buffer.getStrideY();
-        int uStride = i420Buffer.getStrideU();
-        int vStride = i420Buffer.getStrideV();
-        int width = i420Buffer.getWidth();
-        int height = i420Buffer.getHeight();
-        int chromaWidth = (width + 1) / 2;
-        int chromaHeight = (height + 1) / 2;
-        int yDataSize = width * height;
-        int uDataSize = chromaWidth * chromaHeight;
-        int vDataSize = uDataSize;
-        byte[] yBytes = new byte[yDataSize];
-        byte[] uBytes = new byte[uDataSize];
-        byte[] vBytes = new byte[vDataSize];
-        ImageConvert.getInstance().ImgCvt_YuvToI420(yBuffer, uBuffer, vBuffer, width, height,
-                yStride, uStride, vStride, yBytes, uBytes, vBytes);
-        
-        // 数据拷贝和赋值需要加锁
-        synchronized (mVideoDataLock) {
-            mInVideoWidth = i420Buffer.getWidth();
-            mInVideoHeight = i420Buffer.getHeight();
-            mInVideoRotation = inVideoFrame.getRotation();
-
-            if ((mInVideoYData == null) || (mInVideoYData.length != yDataSize)) {
-                mInVideoYData = new byte[yDataSize];
+    /**
+     * @brief 查找会话对应的录像
+     * @return 返回找到的录像，没有找到返回null
+     */
+    private SessionRecorder findRecorder(final UUID sessionId, boolean preRecord) {
+        for (SessionRecorder recorder : mRecorderArray) {
+            if (recorder.getSessionId().equals(sessionId) && (recorder.isPreRecord() == preRecord)) {
+                return recorder;
             }
-            System.arraycopy(yBytes, 0, mInVideoYData, 0, yDataSize);
+        }
+        return null;
+    }
 
-            if ((mInVideoUData == null) || (mInVideoUData.length != uDataSize)) {
-                mInVideoUData = new byte[uDataSize];
+    /**
+     * @brief 增加一路录像，在锁内生成新的数组整体替换
+     */
+    private void addRecorder(final SessionRecorder recorder) {
+        synchronized (mRecorderLock) {
+            SessionRecorder[] newArray = Arrays.copyOf(mRecorderArray, mRecorderArray.length + 1);
+            newArray[mRecorderArray.length] = recorder;
+            mRecorderArray = newArray;
+        }
+    }
+
+    /**
+     * @brief 删除会话对应的录像或者预录，在锁内生成新的数组整体替换
+     * @return 返回删除的录像，没有找到返回null
+     */
+    private SessionRecorder removeRecorder(final UUID sessionId, boolean preRecord) {
+        synchronized (mRecorderLock) {
+            SessionRecorder[] recorderArray = mRecorderArray;
+            for (int i = 0; i < recorderArray.length; i++) {
+                if (!recorderArray[i].getSessionId().equals(sessionId)
+                        || (recorderArray[i].isPreRecord() != preRecord)) {
+                    continue;
+                }
+                SessionRecorder[] newArray = new SessionRecorder[recorderArray.length - 1];
+                System.arraycopy(recorderArray, 0, newArray, 0, i);
+                System.arraycopy(recorderArray, i + 1, newArray, i, recorderArray.length - i - 1);
+                mRecorderArray = (newArray.length > 0) ? newArray : EMPTY_RECORDERS;
+                return recorderArray[i];
             }
-            System.arraycopy(uBytes, 0, mInVideoUData, 0, uDataSize);
+        }
+        return null;
+    }
+
+    /**
+     * @brief 停止所有会话的录像
+     */
+    private void recordingStopAll() {
+        SessionRecorder[] recorderArray;
+        synchronized (mRecorderLock) {
+            recorderArray = mRecorderArray;
+            mRecorderArray = EMPTY_RECORDERS;
+        }
+        updateEncodedFrameObserver();
+        for (SessionRecorder recorder : recorderArray) {
+            recorder.stop();
+            mEncoderScheduler.release(recorder.getEncodeSlot());
+        }
+    }
 
-            if ((mInVideoVData == null) || (mInVideoVData.length != vDataSize)) {
-                mInVideoVData = new byte[vDataSize];
+    /**
+     * @brief 有直接混流的录像时才注册已编码视频帧观察者，没有时取消注册，避免 SDK 额外回调已编码视频帧
+     *        录像列表变化之后调用
+     */
+    private void updateEncodedFrameObserver() {
+        boolean needObserver = false;
+        for (SessionRecorder recorder : mRecorderArray) {
+            if (recorder.isPassthrough()) {
+                needObserver = true;
+                break;
             }
-            System.arraycopy(vBytes, 0, mInVideoVData, 0, vDataSize);
         }
-        
-        i420Buffer.release();
-        if (scaledBuffer != null) {
-            scaledBuffer.release();
+        if ((mRtcEngine == null) || (needObserver == mEncodedObserverRegistered)) {
+            return;
         }
 
-        long t2 = System.currentTimeMillis();
-        //ALog.getInstance().e(TAG, "<cacheInVideoFrame> done, costTime=" + (t2-t1) + " ms");
-        return true;
+        int ret = mRtcEngine.registerVideoEncodedFrameObserver(needObserver ? this : null);
+        mEncodedObserverRegistered = needObserver;
+        ALog.getInstance().i(TAG, "<updateEncodedFrameObserver> done, register=" + needObserver + ", ret=" + ret);
     }
 
     /**
@@ -14,6 +14,8 @@ import io.agora.iotlink.IDeviceSessionMgr;
 
 /**
  * @brief RMT命令管理器
+ *        内部使用哈希时间轮跟踪每个命令的超时时间点，每次定时处理只需要访问到期的时间槽，
+ *        而不是遍历所有正在等待响应的命令
  */
 public class RtmCmdMgr {
 
@@ -22,26 +24,120 @@ public class RtmCmdMgr {
     //////////////////////// Constant Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
     private static final String TAG = "IOTSDK/RtmCmdMgr";
+    public static final long DEFAULT_TICK_INTERVAL = 50;       ///< 默认时间轮刻度 50ms，即超时触发的精度
+    public static final long DEFAULT_CMD_TIMEOUT = 10000;      ///< 默认命令响应超时 10秒
+    private static final int WHEEL_SIZE = 512;                  ///< 时间轮槽数量，必须是2的整数次幂
 
 
+    /**
+     * @brief 时间轮中的命令节点，每个时间槽是一个双向链表
+     */
+    private static class CmdNode {
+        IRtmCmd mCommand;
+        long mDeadlineTick;         ///< 超时的时间刻度
+        CmdNode mPrev;
+        CmdNode mNext;
+        boolean mInWheel;           ///< 当前是否挂在时间轮上
+    }
+
 
     ////////////////////////////////////////////////////////////////////////
     //////////////////////// Variable Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
-    private HashMap<Long, IRtmCmd> mCmdMap = new HashMap<>();  ///< 命令映射表
+    private HashMap<Long, CmdNode> mCmdMap = new HashMap<>();  ///< 命令映射表
+    private final HashMap<Integer, Long> mTimeoutMap = new HashMap<>();  ///< 各个命令Id单独的超时时间
+    private long mDefaultTimeout = DEFAULT_CMD_TIMEOUT;         ///< 默认超时时间
+    private final long mTickInterval;                           ///< 时间轮刻度
+    private final CmdNode[] mWheelSlots = new CmdNode[WHEEL_SIZE];  ///< 时间轮槽，保存链表头节点
+    private long mCurrTick;                                     ///< 时间轮已经处理到的刻度
+    private boolean mTickerRunning = false;                     ///< 外部的定时驱动是否在运行
 
 
     ////////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods //////////////////////////////
     ////////////////////////////////////////////////////////////////////////
+    public RtmCmdMgr() {
+        this(DEFAULT_TICK_INTERVAL);
+    }
+
     /**
-     * @brief 增加节点映射
+     * @brief 构造函数
+     * @param tickInterval : 时间轮刻度(毫秒)，即超时回调允许的最大延迟
+     */
+    public RtmCmdMgr(long tickInterval) {
+        mTickInterval = (tickInterval > 0) ? tickInterval : DEFAULT_TICK_INTERVAL;
+        mCurrTick = System.currentTimeMillis() / mTickInterval;
+    }
+
+    /**
+     * @brief 获取时间轮刻度
+     */
+    public long getTickInterval() {
+        return mTickInterval;
+    }
+
+    /**
+     * @brief 设置默认的命令超时时间
+     * @param timeout : 超时时间(毫秒)
+     */
+    public void setDefaultTimeout(long timeout) {
+        synchronized (mCmdMap) {
+            mDefaultTimeout = timeout;
+        }
+    }
+
+    /**
+     * @brief 设置某个命令Id单独的超时时间，只对之后添加的命令生效
+     * @param commandId : 命令Id
+     * @param timeout : 超时时间(毫秒)，小于等于0 表示使用默认超时时间
+     */
+    public void setCommandTimeout(int commandId, long timeout) {
+        synchronized (mCmdMap) {
+            if (timeout > 0) {
+                mTimeoutMap.put(commandId, timeout);
+            } else {
+                mTimeoutMap.remove(commandId);
+            }
+        }
+    }
+
+    /**
+     * @brief 增加节点映射，同时根据命令发送时间戳和超时时间挂到时间轮上
      * @param rtmCmd : 要映射的会话
-     * @return None
+     * @return 如果外部定时驱动未运行需要启动则返回true
      */
-    public void addCommand(final IRtmCmd rtmCmd) {
+    public boolean addCommand(final IRtmCmd rtmCmd) {
         synchronized (mCmdMap) {
-            mCmdMap.put(rtmCmd.getSequenceId(), rtmCmd);
+            CmdNode oldNode = mCmdMap.remove(rtmCmd.getSequenceId());
+            if (oldNode != null) {
+                unlinkNode(oldNode);
+            }
+
+            CmdNode cmdNode = new CmdNode();
+            cmdNode.mCommand = rtmCmd;
+            mCmdMap.put(rtmCmd.getSequenceId(), cmdNode);
+
+            if (rtmCmd.isResponseCmd()) {   // 响应命令不需要超时判断
+                return false;
+            }
+
+            long sendTimestamp = rtmCmd.getSendTimestamp();
+            if (sendTimestamp <= 0) {
+                sendTimestamp = System.currentTimeMillis();
+            }
+            long deadline = sendTimestamp + getTimeoutLocked(rtmCmd.getCommandId());
+            long deadlineTick = (deadline + mTickInterval - 1) / mTickInterval;
+            if (deadlineTick <= mCurrTick) {
+                deadlineTick = mCurrTick + 1;
+            }
+            cmdNode.mDeadlineTick = deadlineTick;
+            linkNode(cmdNode);
+
+            if (!mTickerRunning) {
+                mTickerRunning = true;
+                return true;
+            }
+            return false;
         }
     }
 
@@ -52,11 +148,11 @@ public class RtmCmdMgr {
      */
     public void updateCommand(final IRtmCmd rtmCmd) {
         synchronized (mCmdMap) {
-            IRtmCmd tmpSession = mCmdMap.get(rtmCmd.getSequenceId());
-            if (tmpSession == null) {
+            CmdNode cmdNode = mCmdMap.get(rtmCmd.getSequenceId());
+            if (cmdNode == null) {
                 return;
             }
-            mCmdMap.put(rtmCmd.getSequenceId(), rtmCmd);
+            cmdNode.mCommand = rtmCmd;
         }
     }
 
@@ -66,26 +162,79 @@ public class RtmCmdMgr {
      */
     public IRtmCmd getCommand(long sequenceId) {
         synchronized (mCmdMap) {
-            IRtmCmd IRtmCmd = mCmdMap.get(sequenceId);
-            return IRtmCmd;
+            CmdNode cmdNode = mCmdMap.get(sequenceId);
+            return (cmdNode != null) ? cmdNode.mCommand : null;
         }
     }
 
 
     /**
-     * @brief 根据 sequenceId 删除命令信息
+     * @brief 根据 sequenceId 删除命令信息，同时从时间轮上摘除
      * @return 返回删除的会话，如果未找到则返回null
      */
     public IRtmCmd removeCommand(final long sequenceId) {
         synchronized (mCmdMap) {
-            IRtmCmd IRtmCmd = mCmdMap.remove(sequenceId);
-            return IRtmCmd;
+            CmdNode cmdNode = mCmdMap.remove(sequenceId);
+            if (cmdNode == null) {
+                return null;
+            }
+            unlinkNode(cmdNode);
+            return cmdNode.mCommand;
+        }
+    }
+
+
+    /**
+     * @brief 推进时间轮到当前时间，提取并删除所有已经超时的命令
+     * @return 返回超时的命令列表
+     */
+    public List<IRtmCmd> pollTimeoutCommandList() {
+        ArrayList<IRtmCmd> timeoutList = new ArrayList<>();
+        long targetTick = System.currentTimeMillis() / mTickInterval;
+
+        synchronized (mCmdMap) {
+            if (targetTick <= mCurrTick) {
+                return timeoutList;
+            }
+
+            // 超过一圈的话，每个时间槽只需要访问一次
+            long steps = Math.min(targetTick - mCurrTick, WHEEL_SIZE);
+            for (long i = 1; i <= steps; i++) {
+                int slotIndex = (int)((mCurrTick + i) & (WHEEL_SIZE - 1));
+                CmdNode cmdNode = mWheelSlots[slotIndex];
+                while (cmdNode != null) {
+                    CmdNode nextNode = cmdNode.mNext;
+                    if (cmdNode.mDeadlineTick <= targetTick) {  // 已经超时
+                        unlinkNode(cmdNode);
+                        mCmdMap.remove(cmdNode.mCommand.getSequenceId());
+                        timeoutList.add(cmdNode.mCommand);
+                    }
+                    cmdNode = nextNode;
+                }
+            }
+            mCurrTick = targetTick;
+        }
+
+        return timeoutList;
+    }
+
+    /**
+     * @brief 如果已经没有等待响应的命令，则停止外部定时驱动
+     * @return 返回true表示外部定时驱动可以停止了
+     */
+    public boolean stopTickerIfIdle() {
+        synchronized (mCmdMap) {
+            if (mCmdMap.isEmpty()) {
+                mTickerRunning = false;
+                return true;
+            }
+            return false;
         }
     }
 
 
     /**
-     * @brief 查询所有响应超时的命令
+     * @brief 查询所有响应超时的命令，需要遍历所有命令，建议使用 pollTimeoutCommandList()
      * @return 返回超时的命令列表
      */
     public List<IRtmCmd> queryTimeoutCommandList(long timeout) {
@@ -93,8 +242,8 @@ public class RtmCmdMgr {
         long currTimestamp = System.currentTimeMillis();
 
         synchronized (mCmdMap) {
-            for (Map.Entry<Long, IRtmCmd> entry : mCmdMap.entrySet()) {
-                IRtmCmd rtmCmd = entry.getValue();
+            for (Map.Entry<Long, CmdNode> entry : mCmdMap.entrySet()) {
+                IRtmCmd rtmCmd = entry.getValue().mCommand;
 
                 if (!rtmCmd.isResponseCmd()) {
                     long timeDiff = currTimestamp - rtmCmd.getSendTimestamp();
@@ -116,8 +265,8 @@ public class RtmCmdMgr {
     public List<IRtmCmd> getAllCommandList() {
         ArrayList<IRtmCmd> commandList = new ArrayList<>();
         synchronized (mCmdMap) {
-            for (Map.Entry<Long, IRtmCmd> entry : mCmdMap.entrySet()) {
-                IRtmCmd rtmCmd = entry.getValue();
+            for (Map.Entry<Long, CmdNode> entry : mCmdMap.entrySet()) {
+                IRtmCmd rtmCmd = entry.getValue().mCommand;
                 commandList.add(rtmCmd);
             }
         }
@@ -144,7 +293,60 @@ public class RtmCmdMgr {
     public void clear() {
         synchronized (mCmdMap) {
             mCmdMap.clear();
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                mWheelSlots[i] = null;
+            }
+            mCurrTick = System.currentTimeMillis() / mTickInterval;
+            mTickerRunning = false;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 获取命令的超时时间，需要在 mCmdMap 锁内调用
+     */
+    private long getTimeoutLocked(int commandId) {
+        Long timeout = mTimeoutMap.get(commandId);
+        return (timeout != null) ? timeout : mDefaultTimeout;
+    }
+
+    /**
+     * @brief 将节点插入到对应时间槽的链表头
+     */
+    private void linkNode(CmdNode cmdNode) {
+        int slotIndex = (int)(cmdNode.mDeadlineTick & (WHEEL_SIZE - 1));
+        CmdNode headNode = mWheelSlots[slotIndex];
+        cmdNode.mPrev = null;
+        cmdNode.mNext = headNode;
+        if (headNode != null) {
+            headNode.mPrev = cmdNode;
+        }
+        mWheelSlots[slotIndex] = cmdNode;
+        cmdNode.mInWheel = true;
+    }
+
+    /**
+     * @brief 将节点从时间槽链表中摘除
+     */
+    private void unlinkNode(CmdNode cmdNode) {
+        if (!cmdNode.mInWheel) {
+            return;
+        }
+        if (cmdNode.mPrev != null) {
+            cmdNode.mPrev.mNext = cmdNode.mNext;
+        } else {
+            int slotIndex = (int)(cmdNode.mDeadlineTick & (WHEEL_SIZE - 1));
+            mWheelSlots[slotIndex] = cmdNode.mNext;
+        }
+        if (cmdNode.mNext != null) {
+            cmdNode.mNext.mPrev = cmdNode.mPrev;
         }
+        cmdNode.mPrev = null;
+        cmdNode.mNext = null;
+        cmdNode.mInWheel = false;
     }
 
-}
\ No newline at end of file
+}
@@ -49,9 +49,12 @@ public class RtmMgrComp extends BaseThreadComp {
     ////////////////////////////////////////////////////////////////////////
     private static final String TAG = "IOTSDK/RtmMgrComp";
     private static final long COMMAND_TIMEOUT = 10000;               ///< 命令响应超时10秒
+    private static final long CMD_TIMEOUT_TOLERANCE = 50;           ///< 命令超时回调的精度 50ms
     private static final long TIMER_INTERVAL = 4000;                ///< 定时器间隔 4秒
     private static final long HEARTBEAT_INTVAL = 120000;            ///< 心跳包定时2分钟发送一次
     private static final String HEARTBEAT_CONTENT = "{ }";          ///< 心跳包数据
+    private static final int SEND_QUEUE_CAPACITY = 512;             ///< 发送队列容量
+    private static final int RECV_QUEUE_CAPACITY = 1024;            ///< 接收队列容量
 
 
     //
@@ -70,6 +73,7 @@ public class RtmMgrComp extends BaseThreadComp {
     private static final int MSGID_RTM_SEND_PKT = 0x2001;           ///< 处理数据包接收
     private static final int MSGID_RTM_RECV_PKT = 0x2002;           ///< 处理数据包接收
     private static final int MSGID_RTM_TIMER = 0x2003;              ///< 定时广播消息，防止无消息退出
+    private static final int MSGID_RTM_CMD_TICK = 0x2004;           ///< 命令超时时间轮的驱动消息
 
 
     ////////////////////////////////////////////////////////////////////////
@@ -83,9 +87,13 @@ public class RtmMgrComp extends BaseThreadComp {
     private long mHeartbeatTimestamp = 0;                       ///< 上次发送心跳包的时间戳
     private AtomicUuid mCurrSessionId = new AtomicUuid();       ///< 当前会话的 sessionId
 
-    private RtmPktQueue mRecvPktQueue = new RtmPktQueue();  ///< 接收数据包队列
-    private RtmPktQueue mSendPktQueue = new RtmPktQueue();  ///< 发送数据包队列
-    private RtmCmdMgr mReqCmdMgr = new RtmCmdMgr();        ///< 请求命令管理器
+    private RtmPktQueue mRecvPktQueue = new RtmPktQueue(RECV_QUEUE_CAPACITY,
+                                        RtmPktQueue.OVERFLOW_DROP_OLDEST);  ///< 接收数据包队列
+    private RtmPktQueue mSendPktQueue = new RtmPktQueue(SEND_QUEUE_CAPACITY,
+                                        RtmPktQueue.OVERFLOW_REJECT);       ///< 发送数据包队列
+    private RtmCmdMgr mReqCmdMgr = new RtmCmdMgr(CMD_TIMEOUT_TOLERANCE);  ///< 请求命令管理器
+    private RtmRspDecoder mRspDecoder = new RtmRspDecoder();   ///< 响应命令解码器，仅在工作线程中使用
+    private RtmSendScheduler mSendScheduler = new RtmSendScheduler();  ///< 按设备发送窗口调度
 
     private IDevController.OnDevMsgRecvListener mRawMsgRecvListener = null;
 
@@ -99,6 +107,7 @@ public class RtmMgrComp extends BaseThreadComp {
     public int initialize(final DeviceSessionMgr sessionMgr) {
         mSessionMgr = sessionMgr;
         mState.setValue(RTM_STATE_IDLE);  // 未登录空闲状态
+        mReqCmdMgr.setDefaultTimeout(COMMAND_TIMEOUT);
         mCurrSessionId.setValue(null);
 
         // 创建 RTM引擎对象
@@ -123,9 +132,13 @@ public class RtmMgrComp extends BaseThreadComp {
 
         rtmEngDestroy();          // 直接释放 RTM引擎对象
 
+        ALog.getInstance().d(TAG, "<release> mSendPktQueue=" + mSendPktQueue
+                + ", mRecvPktQueue=" + mRecvPktQueue);
+
         // 清除队列
         mRecvPktQueue.clear();
         mSendPktQueue.clear();
+        mSendScheduler.clear();
         mReqCmdMgr.clear();
         mCurrSessionId.setValue(null);
 
@@ -138,6 +151,7 @@ public class RtmMgrComp extends BaseThreadComp {
     public void connectToDevice(final SessionCtx sessionCtx) {
         mRecvPktQueue.clear();
         mSendPktQueue.clear();
+        mSendScheduler.clear();
         mReqCmdMgr.clear();
 
         // 设置当前新的会话 sessionId
@@ -175,6 +189,7 @@ public class RtmMgrComp extends BaseThreadComp {
         // 清除队列
         mRecvPktQueue.clear();
         mSendPktQueue.clear();
+        mSendScheduler.clear();
         mReqCmdMgr.clear();
     }
 
@@ -188,8 +203,10 @@ public class RtmMgrComp extends BaseThreadComp {
             return ErrCode.XERR_BAD_STATE;
         }
 
-        // 添加到命令处理器中
-        mReqCmdMgr.addCommand(command);
+        // 添加到命令处理器中，如果超时时间轮还未运行则启动
+        if (mReqCmdMgr.addCommand(command)) {
+            sendSingleMessage(MSGID_RTM_CMD_TICK, 0, 0, null, mReqCmdMgr.getTickInterval());
+        }
 
         // 发送消息处理
         RtmPacket packet = new RtmPacket();
@@ -197,8 +214,15 @@ public class RtmMgrComp extends BaseThreadComp {
         packet.mPeerId = command.getDeviceId();
         packet.mSendListener = null;
         packet.mPktType = RtmPacket.PKT_TYPE_COMMAND;
+        packet.mPriority = RtmSendScheduler.getCmdPriority(command.getCommandId());
+        packet.mInqueueTimestamp = System.currentTimeMillis();
         packet.mPktData = command.getReqCmdData();
-        mSendPktQueue.inqueue(packet);
+        int ret = mSendPktQueue.inqueue(packet);
+        if (ret != ErrCode.XOK) {   // 发送队列已满
+            mReqCmdMgr.removeCommand(command.getSequenceId());
+            ALog.getInstance().e(TAG, "<sendCommandToDev> send queue full, mSendPktQueue=" + mSendPktQueue);
+            return ret;
+        }
         sendSingleMessage(MSGID_RTM_SEND_PKT, 0, 0, null, 0);
 
         ALog.getInstance().d(TAG, "<sendMessageToDev> command=" + command);
@@ -222,8 +246,13 @@ public class RtmMgrComp extends BaseThreadComp {
         packet.mPeerId = deviceId;
         packet.mSendListener = sendListener;
         packet.mPktType = RtmPacket.PKT_TYPE_RAWMSG;
+        packet.mInqueueTimestamp = System.currentTimeMillis();
         packet.mPktData = sendingMsg;
-        mSendPktQueue.inqueue(packet);
+        int ret = mSendPktQueue.inqueue(packet);
+        if (ret != ErrCode.XOK) {   // 发送队列已满
+            ALog.getInstance().e(TAG, "<sendRawMsgToDev> send queue full, mSendPktQueue=" + mSendPktQueue);
+            return ret;
+        }
         sendSingleMessage(MSGID_RTM_SEND_PKT, 0, 0, null, 0);
 
         ALog.getInstance().d(TAG, "<sendRawMsgToDev> sendingMsg=" + sendingMsg);
@@ -240,6 +269,27 @@ public class RtmMgrComp extends BaseThreadComp {
     }
 
 
+    /**
+     * @brief 设置某个命令Id的响应超时时间，小于等于0 表示恢复默认超时时间
+     */
+    public void setCommandTimeout(int commandId, long timeout) {
+        mReqCmdMgr.setCommandTimeout(commandId, timeout);
+    }
+
+    /**
+     * @brief 设置每个设备同时在途(已发送但未完成)的数据包上限
+     */
+    public void setSendWindowSize(int windowSize) {
+        mSendScheduler.setWindowSize(windowSize);
+    }
+
+    /**
+     * @brief 获取各个设备的发送统计信息：排队数量、在途数量、排队时间
+     */
+    public List<RtmSendScheduler.DevSendStats> getSendStatsList() {
+        return mSendScheduler.getStatsList();
+    }
+
     /**
      * @brief 更新token，非阻塞调用
      */
@@ -273,18 +323,19 @@ public class RtmMgrComp extends BaseThreadComp {
             case MSGID_RTM_TIMER:
                 onMessageTimer(msg);
                 break;
+
+            case MSGID_RTM_CMD_TICK:
+                onMessageCmdTick(msg);
+                break;
         }
     }
 
     @Override
     protected void removeAllMessages() {
-        synchronized (mMsgQueueLock) {
-            if (mWorkHandler != null) {
-                mWorkHandler.removeMessages(MSGID_RTM_SEND_PKT);
-                mWorkHandler.removeMessages(MSGID_RTM_RECV_PKT);
-                mWorkHandler.removeMessages(MSGID_RTM_TIMER);
-            }
-        }
+        removeMessage(MSGID_RTM_SEND_PKT);
+        removeMessage(MSGID_RTM_RECV_PKT);
+        removeMessage(MSGID_RTM_TIMER);
+        removeMessage(MSGID_RTM_CMD_TICK);
         ALog.getInstance().d(TAG, "<removeAllMessages> done");
     }
 
@@ -297,16 +348,30 @@ public class RtmMgrComp extends BaseThreadComp {
      * @brief 工作线程中运行，处理发送RTM数据包
      */
     void onMessageSendPkt(Message msg) {
-        RtmPacket sendPkt = mSendPktQueue.dequeue();
-        if (sendPkt == null) {  // 发送队列为空，没有必要处理发送消息了
-            return;
+        // 将发送队列中的数据包都分配到各个设备的发送窗口中
+        for (;;) {
+            RtmPacket sendPkt = mSendPktQueue.dequeue();
+            if (sendPkt == null) {
+                break;
+            }
+            mSendScheduler.inqueue(sendPkt);
         }
 
-        // 发送数据包
-        rtmEngSendData(sendPkt);
+        // 在各个设备之间轮询发送，设备发送窗口满时等待在途数据包完成后再调度
+        for (;;) {
+            RtmPacket sendPkt = mSendScheduler.pollSendable();
+            if (sendPkt == null) {
+                break;
+            }
+            rtmEngSendData(sendPkt);
+        }
+    }
 
-        // 队列中还有数据包，放到下次发送消息中处理
-        if (mSendPktQueue.size() > 0) {
+    /**
+     * @brief 数据包完成(收到响应、超时或者发送失败)，释放发送窗口并且重新调度发送
+     */
+    void onSendPktDone(long sequenceId) {
+        if (mSendScheduler.onPacketDone(sequenceId) && mSendScheduler.hasQueued()) {
             sendSingleMessage(MSGID_RTM_SEND_PKT, 0, 0, null, 0);
         }
     }
@@ -338,6 +403,7 @@ public class RtmMgrComp extends BaseThreadComp {
             int commandId = responseCmd.getCommandId();
             int errCode = responseCmd.getRespErrCode();
             IRtmCmd requestCmd = mReqCmdMgr.removeCommand(sequenceId);
+            onSendPktDone(sequenceId);
             if (requestCmd == null) {   // 没有找到对应sequenceId的请求命令
                 ALog.getInstance().e(TAG, "<onMessageRecvPkt> fail to distill request command, sequenceId=" + sequenceId);
                 continue;
@@ -374,24 +440,6 @@ public class RtmMgrComp extends BaseThreadComp {
             return;
         }
 
-        //
-        // 处理响应超时的命令
-        //
-        List<IRtmCmd> timeoutCmdList = mReqCmdMgr.queryTimeoutCommandList(COMMAND_TIMEOUT);
-        for (IRtmCmd rtmCmd : timeoutCmdList) {
-            mReqCmdMgr.removeCommand(rtmCmd.getSequenceId());   // 从命令管理器中删除改请求命令
-
-            //
-            // 回调上层，请求--响应超时
-            //
-            ALog.getInstance().i(TAG, "<onMessageTimer> callback command timeout, rtmCmd=" + rtmCmd);
-            IRtmCmd.OnRtmCmdRespListener cmdRespListener = rtmCmd.getRespListener();
-            if (cmdRespListener != null) {
-                IRtmCmd respCmd = generateEmptyRespCmd(rtmCmd, ErrCode.XERR_DEVCMD_TIMEOUT);
-                cmdRespListener.onRtmCmdResponsed(rtmCmd.getCommandId(), ErrCode.XERR_DEVCMD_TIMEOUT, rtmCmd, respCmd );
-            }
-        }
-
         //
         // 定时给所有设备发送心跳空包
         //
@@ -406,6 +454,8 @@ public class RtmMgrComp extends BaseThreadComp {
                 RtmPacket packet = new RtmPacket();
                 packet.mSequenceId = RtmCmdSeqId.getSeuenceId();
                 packet.mPeerId = sessionInfo.mPeerDevId;
+                packet.mPktType = RtmPacket.PKT_TYPE_RAWMSG;    // 心跳包不需要响应，发送完成即释放发送窗口
+                packet.mInqueueTimestamp = System.currentTimeMillis();
                 packet.mPktData = HEARTBEAT_CONTENT;
                 mSendPktQueue.inqueue(packet);
                 ALog.getInstance().i(TAG, "<onMessageTimer> send headbeat packet");
@@ -419,6 +469,38 @@ public class RtmMgrComp extends BaseThreadComp {
     }
 
 
+    /**
+     * @brief 工作线程中运行，推进命令超时时间轮，回调所有到期的命令
+     */
+    void onMessageCmdTick(Message msg) {
+        // 时间轮中提取的超时命令已经从命令管理器中删除
+        List<IRtmCmd> timeoutCmdList = mReqCmdMgr.pollTimeoutCommandList();
+        for (IRtmCmd rtmCmd : timeoutCmdList) {
+            // 还在排队没有发送的数据包直接删除，已经发送的释放发送窗口
+            if (mSendScheduler.removeQueued(rtmCmd.getSequenceId())) {
+                ALog.getInstance().i(TAG, "<onMessageCmdTick> remove queued packet, sequenceId="
+                        + rtmCmd.getSequenceId());
+            } else {
+                onSendPktDone(rtmCmd.getSequenceId());
+            }
+
+            //
+            // 回调上层，请求--响应超时
+            //
+            ALog.getInstance().i(TAG, "<onMessageCmdTick> callback command timeout, rtmCmd=" + rtmCmd);
+            IRtmCmd.OnRtmCmdRespListener cmdRespListener = rtmCmd.getRespListener();
+            if (cmdRespListener != null) {
+                IRtmCmd respCmd = generateEmptyRespCmd(rtmCmd, ErrCode.XERR_DEVCMD_TIMEOUT);
+                cmdRespListener.onRtmCmdResponsed(rtmCmd.getCommandId(), ErrCode.XERR_DEVCMD_TIMEOUT, rtmCmd, respCmd );
+            }
+        }
+
+        // 没有等待响应的命令时停止驱动，有新命令时会重新启动
+        if (!mReqCmdMgr.stopTickerIfIdle()) {
+            sendSingleMessage(MSGID_RTM_CMD_TICK, 0, 0, null, mReqCmdMgr.getTickInterval());
+        }
+    }
+
     /**
      * @brief 工作线程中运行，解析数据包生成相应的ResponseCommand
      */
@@ -429,254 +511,14 @@ public class RtmMgrComp extends BaseThreadComp {
         }
         ALog.getInstance().d(TAG, "<parseRspCmdData> BEGIN, jsonText=" + jsonText);
 
-        JSONObject recvJsonObj = JsonUtils.generateJsonObject(jsonText);
-        if (recvJsonObj == null) {
-            ALog.getInstance().e(TAG, "<parseRspCmdData> END, fail to convert JSON object!");
-            return null;
-        }
-
-        // 解析基本的回应命令信息
-        long sequenceId = JsonUtils.parseJsonLongValue(recvJsonObj, "sequenceId", -1);
-        int commandId = JsonUtils.parseJsonIntValue(recvJsonObj, "commandId", -1);
-        int codeValue = JsonUtils.parseJsonIntValue(recvJsonObj, "code", 0);
-        if (sequenceId < 0 || commandId < 0) {
-            ALog.getInstance().e(TAG, "<parseRspCmdData> END, no sequenceId or commandId!");
+        // 流式解析，直接填充响应命令，不生成中间的 JSONObject 树
+        IRtmCmd responseCmd = mRspDecoder.decode(deviceId, jsonText);
+        if (responseCmd == null) {
+            ALog.getInstance().e(TAG, "<parseRspCmdData> END, fail to decode, error="
+                    + mRspDecoder.getLastError());
             return null;
         }
 
-        IRtmCmd responseCmd = null;
-        switch (commandId) {
-            case IRtmCmd.CMDID_EVENTTIMELINE_QUERY: {   // 事件分布查询响应命令
-                RtmEventTimelineRspCmd queryRspCmd = new RtmEventTimelineRspCmd();
-                queryRspCmd.mSequenceId = sequenceId;
-                queryRspCmd.mCmdId = commandId;
-                queryRspCmd.mIsRespCmd = true;
-                queryRspCmd.mErrCode = (codeValue == 0) ? ErrCode.XOK : ErrCode.XERR_MEDIAMGR_QUERYEVENT;
-                queryRspCmd.mDeviceId = deviceId;
-
-                JSONObject respDataObj = JsonUtils.parseJsonObject(recvJsonObj, "data", null);
-                if (respDataObj != null) {
-                    JSONArray timeArrayObj = JsonUtils.parseJsonArray(respDataObj, "arr");
-                    if (timeArrayObj != null) {
-                        for (int i = 0; i < timeArrayObj.length(); i++) {
-                            Long videoTime = JsonUtils.getLongFromArray(timeArrayObj, i, 0);
-                            queryRspCmd.mVideoTimeList.add(videoTime);
-                        }
-                    }
-                }
-                responseCmd = queryRspCmd;
-            } break;
-
-            case IRtmCmd.CMDID_MEDIA_QUERY: {       // 查询响应命令
-                RtmQueryRspCmd queryRspCmd = new RtmQueryRspCmd();
-                queryRspCmd.mSequenceId = sequenceId;
-                queryRspCmd.mCmdId = commandId;
-                queryRspCmd.mIsRespCmd = true;
-                queryRspCmd.mErrCode = (codeValue == 0) ? ErrCode.XOK : ErrCode.XERR_MEDIAMGR_QUERYLIST;
-                queryRspCmd.mDeviceId = deviceId;
-
-                JSONObject respDataObj = JsonUtils.parseJsonObject(recvJsonObj, "data", null);
-                if (respDataObj != null) {
-                    JSONArray fileArrayObj = JsonUtils.parseJsonArray(respDataObj, "fileList");
-                    if (fileArrayObj != null) {
-                        for (int i = 0; i < fileArrayObj.length(); i++) {
-                            JSONObject fileInfoObj =  JsonUtils.getJsonObjFromArray(fileArrayObj, i);
-                            if (fileInfoObj == null) {
-                                continue;
-                            }
-
-                            IDevMediaMgr.DevMediaItem mediaItem = new IDevMediaMgr.DevMediaItem();
-                            mediaItem.mType = JsonUtils.parseJsonIntValue(fileInfoObj, "type", 0);
-                            mediaItem.mFileId = JsonUtils.parseJsonStringValue(fileInfoObj, "id", null);
-                            mediaItem.mStartTimestamp = JsonUtils.parseJsonLongValue(fileInfoObj, "start", -1);
-                            mediaItem.mStopTimestamp = JsonUtils.parseJsonLongValue(fileInfoObj, "stop", -1);
-
-                            JSONArray eventJsonArray = JsonUtils.parseJsonArray(fileInfoObj, "event");
-                            if (eventJsonArray != null) {
-                                for (int j = 0; j < eventJsonArray.length(); j++) {
-                                    JSONObject eventJsonObj = JsonUtils.getJsonObjFromArray(eventJsonArray, i);
-                                    if (eventJsonObj == null) {
-                                        continue;
-                                    }
-                                    IDevMediaMgr.DevEventItem eventItem = new IDevMediaMgr.DevEventItem();
-                                    eventItem.mEventType = JsonUtils.parseJsonIntValue(eventJsonObj, "eventType", 0);
-                                    eventItem.mStartTime = JsonUtils.parseJsonLongValue(eventJsonObj, "start", -1);
-                                    eventItem.mStopTime = JsonUtils.parseJsonLongValue(eventJsonObj, "stop", -1);
-                                    eventItem.mPicUrl = JsonUtils.parseJsonStringValue(eventJsonObj, "pic", null);
-                                    eventItem.mVideoUrl = JsonUtils.parseJsonStringValue(eventJsonObj, "url", null);
-                                    mediaItem.mEventList.add(eventItem);
-                                }
-                            }
-
-                            queryRspCmd.mMediaList.add(mediaItem);
-                        }
-                    }
-                }
-                responseCmd = queryRspCmd;
-            } break;
-
-            case IRtmCmd.CMDID_MEDIA_COVER: {       // 封面图片响应命令
-                RtmCoverRspCmd coverRspCmd = new RtmCoverRspCmd();
-                coverRspCmd.mSequenceId = sequenceId;
-                coverRspCmd.mCmdId = commandId;
-                coverRspCmd.mIsRespCmd = true;
-                if (codeValue == 0) {
-                    coverRspCmd.mErrCode = ErrCode.XOK;
-                } else {
-                    coverRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_COVER_GET;
-                }
-                coverRspCmd.mDeviceId = deviceId;
-
-                JSONObject respDataObj = JsonUtils.parseJsonObject(recvJsonObj, "data", null);
-                if (respDataObj != null) {
-                    coverRspCmd.mContentBase64 = JsonUtils.parseJsonStringValue(respDataObj, "fileContent", null);
-                }
-                responseCmd = coverRspCmd;
-            } break;
-
-            case IRtmCmd.CMDID_MEDIA_DELETE: {      // 删除响应命令
-                RtmDeleteRspCmd deleteRspCmd = new RtmDeleteRspCmd();
-                deleteRspCmd.mSequenceId = sequenceId;
-                deleteRspCmd.mCmdId = commandId;
-                deleteRspCmd.mIsRespCmd = true;
-                if (codeValue == 0) {
-                    deleteRspCmd.mErrCode = ErrCode.XOK;
-                } else if (codeValue == 1) {
-                    deleteRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DEL_EXCEPT;
-                } else if (codeValue == 2) {
-                    deleteRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DEL_SDCARD;
-                } else if (codeValue == 3) {
-                    deleteRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DEL_PARTIAL;
-                } else {
-                    deleteRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DEL_UNKNOWN;
-                }
-                deleteRspCmd.mDeviceId = deviceId;
-
-                JSONObject respDataObj = JsonUtils.parseJsonObject(recvJsonObj, "data", null);
-                if (respDataObj != null) {
-                    JSONArray undelArrayObj = JsonUtils.parseJsonArray(respDataObj, "undeleteList");
-                    if (undelArrayObj != null) {
-                        for (int i = 0; i < undelArrayObj.length(); i++) {
-                            JSONObject undelItemObj =  JsonUtils.getJsonObjFromArray(undelArrayObj, i);
-                            if (undelItemObj == null) {
-                                continue;
-                            }
-
-                            DevFileDelErrInfo errInfo = new DevFileDelErrInfo();
-                            int errorValue = JsonUtils.parseJsonIntValue(undelItemObj, "error", 0);
-                            if (errorValue == 0) {
-                                errInfo.mDelErrCode = ErrCode.XOK;
-                            } else if (errorValue == 1) {
-                                errInfo.mDelErrCode = ErrCode.XERR_MEDIAMGR_DEL_NOT_EXIST;
-                            } else if (errorValue == 2) {
-                                errInfo.mDelErrCode = ErrCode.XERR_MEDIAMGR_DEL_IN_USE;
-                            } else {
-                                errInfo.mDelErrCode = ErrCode.XERR_MEDIAMGR_DEL_UNKNOWN;
-                            }
-                            errInfo.mFileId = JsonUtils.parseJsonStringValue(undelItemObj, "id", null);
-                            deleteRspCmd.mErrorList.add(errInfo);
-                        }
-                    }
-                }
-                responseCmd = deleteRspCmd;
-            } break;
-
-            case IRtmCmd.CMDID_FILE_DOWNLOAD: {      // 下载响应命令
-                RtmDownloadRspCmd dnloadRspCmd = new RtmDownloadRspCmd();
-                dnloadRspCmd.mSequenceId = sequenceId;
-                dnloadRspCmd.mCmdId = commandId;
-                dnloadRspCmd.mIsRespCmd = true;
-                if (codeValue == 0) {
-                    dnloadRspCmd.mErrCode = ErrCode.XOK;
-                } else if (codeValue == 1) {
-                    dnloadRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DOWNLOAD_EXCEPT;
-                } else if (codeValue == 2) {
-                    dnloadRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DOWNLOAD_SDCARD;
-                } else if (codeValue == 3) {
-                    dnloadRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DOWNLOAD_PARTIAL;
-                } else {
-                    dnloadRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DOWNLOAD_UNKNOWN;
-                }
-                dnloadRspCmd.mDeviceId = deviceId;
-
-                JSONObject respDataObj = JsonUtils.parseJsonObject(recvJsonObj, "data", null);
-                if (respDataObj != null) {
-                    // TODO: 当前协议中仅支持返回一个下载项的结果
-                    JSONObject resultObj = JsonUtils.parseJsonObject(respDataObj, "result", null);
-                    if (resultObj != null) {
-                        IDevMediaMgr.DevFileDownloadResult downloadResult = new IDevMediaMgr.DevFileDownloadResult();
-                        downloadResult.mFileId = JsonUtils.parseJsonStringValue(resultObj, "id", null);
-                        downloadResult.mFileName = JsonUtils.parseJsonStringValue(resultObj, "fileName", null);
-                        dnloadRspCmd.mDownloadList.add(downloadResult);
-                    }
-                }
-                responseCmd = dnloadRspCmd;
-            } break;
-
-            case IRtmCmd.CMDID_MEDIA_PLAY_ID:
-            case IRtmCmd.CMDID_MEDIA_PLAY_TIMELINE: {      // 播放响应命令
-                RtmPlayRspCmd playRspCmd = new RtmPlayRspCmd();
-                playRspCmd.mSequenceId = sequenceId;
-                playRspCmd.mCmdId = commandId;
-                playRspCmd.mIsRespCmd = true;
-                if (codeValue == 0) {
-                    playRspCmd.mErrCode = ErrCode.XOK;
-                } else if (codeValue == 1) {
-                    playRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_PLAY_READFILE;
-                } else if (codeValue == -16) {
-                    playRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_PLAY_ONGOING;
-                } else {
-                    playRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_PLAY_UNKNOWN;
-                }
-                playRspCmd.mDeviceId = deviceId;
-
-                JSONObject respDataObj = JsonUtils.parseJsonObject(recvJsonObj, "data", null);
-                if (respDataObj != null) {
-                    playRspCmd.mRtcUid = JsonUtils.parseJsonIntValue(respDataObj, "uid", -1);
-                    playRspCmd.mChnlName = JsonUtils.parseJsonStringValue(respDataObj, "cname", null);
-                    playRspCmd.mRtcToken = JsonUtils.parseJsonStringValue(respDataObj, "token", null);
-                    playRspCmd.mDevRtcUid = JsonUtils.parseJsonIntValue(respDataObj, "device_uid", -1);
-                }
-                responseCmd = playRspCmd;
-            } break;
-
-            case IRtmCmd.CMDID_CUSTOMIZE_SEND: {    // 定制化响应命令
-                RtmCustomizeRspCmd customizeRspCmd = new RtmCustomizeRspCmd();
-                customizeRspCmd.mSequenceId = sequenceId;
-                customizeRspCmd.mCmdId = commandId;
-                customizeRspCmd.mIsRespCmd = true;
-                customizeRspCmd.mErrCode = (codeValue == 0) ? ErrCode.XOK : ErrCode.XERR_UNKNOWN;
-                customizeRspCmd.mDeviceId = deviceId;
-
-                JSONObject respDataObj = JsonUtils.parseJsonObject(recvJsonObj, "data", null);
-                if (respDataObj != null) {
-                    customizeRspCmd.mRecvData = JsonUtils.parseJsonStringValue(respDataObj, "recvData", null);
-                }
-                responseCmd = customizeRspCmd;
-            } break;
-
-            case IRtmCmd.CMDID_PTZ_CTRL:
-            case IRtmCmd.CMDID_PTZ_RESET:
-            case IRtmCmd.CMDID_SDCARD_FMT:
-            case IRtmCmd.CMDID_MEDIA_STOP:
-            case IRtmCmd.CMDID_MEDIA_RATE:
-            case IRtmCmd.CMDID_MEDIA_PAUSE:
-            case IRtmCmd.CMDID_MEDIA_RESUME:
-            case IRtmCmd.CMDID_DEVICE_RESET:   {  // 其他响应命令，都不需要响应数据
-                RtmBaseCmd baseCmd = new RtmBaseCmd();
-                baseCmd.mSequenceId = sequenceId;
-                baseCmd.mCmdId = commandId;
-                baseCmd.mIsRespCmd = true;
-                baseCmd.mErrCode = (codeValue == 0) ? ErrCode.XOK : ErrCode.XERR_UNKNOWN;
-                baseCmd.mDeviceId = deviceId;
-                responseCmd = baseCmd;
-            } break;
-
-            default: {  // 不支持的命令，直接返回空
-                return null;
-            }
-        }
-
         ALog.getInstance().d(TAG, "<parseRspCmdData> END, responseCmd=" + responseCmd);
         return responseCmd;
     }
@@ -724,7 +566,13 @@ public class RtmMgrComp extends BaseThreadComp {
                 RtmPacket packet = new RtmPacket();
                 packet.mPeerId = peerId;
                 packet.mPktData = messageText;
-                mRecvPktQueue.inqueue(packet);
+                // 接收队列溢出时丢弃最旧的数据包，inqueue() 仍然返回 XOK，通过丢弃数量判断是否溢出
+                long dropCount = mRecvPktQueue.getDropCount();
+                int ret = mRecvPktQueue.inqueue(packet);
+                if ((ret != ErrCode.XOK) || (mRecvPktQueue.getDropCount() > dropCount)) {
+                    ALog.getInstance().w(TAG, "<rtmEngCreate.onMessageReceived> recv queue overflow"
+                            + ", mRecvPktQueue=" + mRecvPktQueue);
+                }
                 sendSingleMessage(MSGID_RTM_RECV_PKT, 0, 0, null, 0);
             }
 
@@ -886,6 +734,11 @@ public class RtmMgrComp extends BaseThreadComp {
      */
     private int rtmEngSendData(final RtmPacket rtmPacket) {
         if (mRtmClient == null) {
+            // 释放调度时占用的发送窗口，请求命令由超时处理回调上层
+            onSendPktDone(rtmPacket.mSequenceId);
+            if ((rtmPacket.mPktType == RtmPacket.PKT_TYPE_RAWMSG) && (rtmPacket.mSendListener != null)) {
+                rtmPacket.mSendListener.onDevMsgSendDone(ErrCode.XERR_BAD_STATE, rtmPacket.mPktData);
+            }
             return ErrCode.XERR_BAD_STATE;
         }
 
@@ -896,6 +749,7 @@ public class RtmMgrComp extends BaseThreadComp {
                 ALog.getInstance().d(TAG, "<rtmEngSendData.onSuccess> rtmPacket=" + rtmPacket);
 
                 if (rtmPacket.mPktType == RtmPacket.PKT_TYPE_RAWMSG) {  // 发送的原始裸数据处理
+                    onSendPktDone(rtmPacket.mSequenceId);
                     if (rtmPacket.mSendListener != null) {
                         rtmPacket.mSendListener.onDevMsgSendDone(ErrCode.XOK, rtmPacket.mPktData);
                     }
@@ -910,6 +764,7 @@ public class RtmMgrComp extends BaseThreadComp {
                         + ", errDesc=" + errorInfo.getErrorDescription()
                         + ", rtmPacket=" + rtmPacket);
                 int errCode = mapRtmMsgErrCode(errorInfo.getErrorCode());
+                onSendPktDone(rtmPacket.mSequenceId);
 
                 if (rtmPacket.mPktType == RtmPacket.PKT_TYPE_RAWMSG) {  // 发送的原始裸数据处理
                     if (rtmPacket.mSendListener != null) {
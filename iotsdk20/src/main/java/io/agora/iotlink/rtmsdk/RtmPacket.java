@@ -26,12 +26,15 @@ public class RtmPacket {
 
     public IDevController.OnDevMsgSendListener mSendListener;
     public int mPktType = PKT_TYPE_COMMAND;
+    public int mPriority = RtmSendScheduler.PRIORITY_NORMAL;   ///< 发送优先级通道
+    public long mInqueueTimestamp;      ///< 进入发送队列的时间戳，用于统计排队时间
 
     @Override
     public String toString() {
         String infoText = "{ mSessionId=" + mSessionId
                 + ", mSequenceId=" + mSequenceId
                 + ", mPeerId=" + mPeerId
+                + ", mPriority=" + mPriority
                 + ", mPktData=" + mPktData + " }";
         return infoText;
     }
@@ -1,10 +1,18 @@
 package io.agora.iotlink.rtmsdk;
 
-import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.agora.iotlink.ErrCode;
 
 /*
  * @brief 线程安全的 RTM传输数据包队列
+ *        内部采用有界无锁环形缓冲区，支持多个生产者线程并发入队，工作线程出队，
+ *        入队和出队都不需要加锁，也不会像 ArrayList.remove(0) 那样搬移整个数组
  */
 public class RtmPktQueue {
 
@@ -13,55 +21,116 @@ public class RtmPktQueue {
     //////////////////////// Constant Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
     private static final String TAG = "IOTSDK/RtmPktQueue";
+    public static final int DEFAULT_CAPACITY = 1024;        ///< 默认队列容量
+
+    //
+    // 队列满时的溢出策略
+    //
+    public static final int OVERFLOW_DROP_OLDEST = 0x0000;  ///< 丢弃队列头最旧的数据包，再插入新数据包
+    public static final int OVERFLOW_DROP_NEWEST = 0x0001;  ///< 直接丢弃要插入的新数据包
+    public static final int OVERFLOW_REJECT = 0x0002;       ///< 拒绝插入，返回错误码由调用者处理
 
 
     ////////////////////////////////////////////////////////////////////////
     //////////////////////// Variable Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
-    private ArrayList<RtmPacket> mPktList = new ArrayList<>();  ///< 数据包列表
+    private final int mCapacity;                            ///< 队列容量(2的整数次幂)
+    private final int mIndexMask;                           ///< 环形缓冲区下标掩码
+    private final int mOverflowPolicy;                      ///< 溢出策略
+    private final AtomicReferenceArray<RtmPacket> mSlots;   ///< 环形缓冲区数据槽
+    private final AtomicLongArray mSlotSeqs;                ///< 每个数据槽的序号，用于无锁同步
+    private final AtomicLong mTailPos = new AtomicLong(0);  ///< 入队位置
+    private final AtomicLong mHeadPos = new AtomicLong(0);  ///< 出队位置
+
+    private final ConcurrentLinkedDeque<RtmPacket> mHeadPktList = new ConcurrentLinkedDeque<>(); ///< 插到队列头部的数据包
+
+    private final AtomicInteger mDepth = new AtomicInteger(0);         ///< 当前队列深度
+    private final AtomicInteger mHighWaterMark = new AtomicInteger(0); ///< 队列深度的最高水位
+    private final AtomicLong mDropCount = new AtomicLong(0);           ///< 溢出丢弃的数据包数量
+    private final AtomicLong mRejectCount = new AtomicLong(0);         ///< 溢出拒绝的数据包数量
 
 
     ////////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods //////////////////////////////
     ////////////////////////////////////////////////////////////////////////
+    public RtmPktQueue() {
+        this(DEFAULT_CAPACITY, OVERFLOW_DROP_OLDEST);
+    }
+
     /**
-     * @brief 将数据包插入队列尾部
+     * @brief 构造函数
+     * @param capacity : 队列容量，会向上对齐到2的整数次幂
+     * @param overflowPolicy : 队列满时的溢出策略，OVERFLOW_XXXX
+     */
+    public RtmPktQueue(int capacity, int overflowPolicy) {
+        int alignedCapacity = 2;
+        while (alignedCapacity < capacity && alignedCapacity < (1 << 30)) {
+            alignedCapacity <<= 1;
+        }
+        mCapacity = alignedCapacity;
+        mIndexMask = alignedCapacity - 1;
+        mOverflowPolicy = overflowPolicy;
+        mSlots = new AtomicReferenceArray<>(alignedCapacity);
+        mSlotSeqs = new AtomicLongArray(alignedCapacity);
+        for (int i = 0; i < alignedCapacity; i++) {
+            mSlotSeqs.set(i, i);
+        }
+    }
+
+    /**
+     * @brief 将数据包插入队列尾部，可以在多个线程中并发调用
      * @param packet : 要插入的数据包
-     * @return None
+     * @return 错误码，XOK--插入成功；XERR_BUFFER_OVERFLOW--队列已满，数据包被丢弃或者拒绝
      */
-    public void inqueue(RtmPacket packet) {
-        synchronized (mPktList) {
-            mPktList.add(packet);
-//            Log.d(TAG, "<inqueue> packet=" + packet);
+    public int inqueue(RtmPacket packet) {
+        for (;;) {
+            if (offerToRing(packet)) {
+                increaseDepth();
+                return ErrCode.XOK;
+            }
+
+            // 队列已满，根据溢出策略处理
+            if (mOverflowPolicy == OVERFLOW_REJECT) {
+                mRejectCount.incrementAndGet();
+                return ErrCode.XERR_BUFFER_OVERFLOW;
+
+            } else if (mOverflowPolicy == OVERFLOW_DROP_NEWEST) {
+                mDropCount.incrementAndGet();
+                return ErrCode.XERR_BUFFER_OVERFLOW;
+            }
+
+            // 丢弃最旧的数据包，腾出空间后重新插入
+            if (pollFromRing() != null) {
+                mDepth.decrementAndGet();
+                mDropCount.incrementAndGet();
+            }
         }
     }
 
     /**
-     * @brief 从队列头提取一个数据包对象
+     * @brief 从队列头提取一个数据包对象，仅在工作线程中调用
      * @return 返回提取到的数据包，如果队列为空则返回null
      */
     public RtmPacket dequeue() {
-        synchronized (mPktList) {
-            int count = mPktList.size();
-            if (count <= 0) {
-                return null;
-            }
-            RtmPacket packet = mPktList.remove(0);
-//            Log.d(TAG, "<dequeue> packet=" + packet);
-            return packet;
+        RtmPacket packet = mHeadPktList.pollFirst();
+        if (packet == null) {
+            packet = pollFromRing();
+        }
+        if (packet != null) {
+            mDepth.decrementAndGet();
         }
+        return packet;
     }
 
     /**
-     * @brief 将数据包插入队列头部
+     * @brief 将数据包插入队列头部，该数据包下次会被优先提取
+     *        通常用于将刚提取的数据包重新放回，因此不受队列容量限制
      * @param packet : 要插入的数据包
      * @return None
      */
     public void inqueueHead(RtmPacket packet) {
-        synchronized (mPktList) {
-            mPktList.add(0, packet);
-//            Log.d(TAG, "<inqueueHead> packet=" + packet);
-        }
+        mHeadPktList.addFirst(packet);
+        increaseDepth();
     }
 
     /**
@@ -69,19 +138,29 @@ public class RtmPktQueue {
      * @return 返回删除的数据包，如果没有查询到则返回null
      */
     public RtmPacket removeBySessionId(final UUID sessionId) {
-        synchronized (mPktList) {
-            int count = mPktList.size();
-            if (count <= 0) {
-                return null;
+        for (RtmPacket packet : mHeadPktList) {
+            if ((packet.mSessionId != null) && (sessionId.compareTo(packet.mSessionId) == 0)) {
+                if (mHeadPktList.removeFirstOccurrence(packet)) {
+                    mDepth.decrementAndGet();
+                    return packet;
+                }
             }
+        }
 
-            for (int i = 0; i < count; i++) {
-                RtmPacket packet = mPktList.get(i);
-                if (packet.mSessionId == null) {
-                    continue;
-                }
-                if (sessionId.compareTo(packet.mSessionId) == 0) {
-                    mPktList.remove(i);
+        // 在环形缓冲区中查找，找到后将数据槽置空，出队时会自动跳过空槽
+        long tailPos = mTailPos.get();
+        for (long pos = mHeadPos.get(); pos < tailPos; pos++) {
+            int index = (int)(pos & mIndexMask);
+            if (mSlotSeqs.get(index) != (pos + 1)) {  // 数据槽还未写入或者已经被提取
+                continue;
+            }
+            RtmPacket packet = mSlots.get(index);
+            if ((packet == null) || (packet.mSessionId == null)) {
+                continue;
+            }
+            if (sessionId.compareTo(packet.mSessionId) == 0) {
+                if (mSlots.compareAndSet(index, packet, null)) {
+                    mDepth.decrementAndGet();
                     return packet;
                 }
             }
@@ -95,10 +174,8 @@ public class RtmPktQueue {
      * @return 队列帧数量
      */
     public int size() {
-        synchronized (mPktList) {
-            int count = mPktList.size();
-            return count;
-        }
+        int count = mDepth.get();
+        return Math.max(count, 0);
     }
 
     /**
@@ -106,10 +183,117 @@ public class RtmPktQueue {
      * @return None
      */
     public void clear() {
-        synchronized (mPktList) {
-            mPktList.clear();
+        while (dequeue() != null) {
         }
     }
 
+    /**
+     * @brief 获取队列容量
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @brief 获取队列深度的最高水位
+     */
+    public int getHighWaterMark() {
+        return mHighWaterMark.get();
+    }
+
+    /**
+     * @brief 获取溢出丢弃的数据包数量 (DROP_OLDEST 和 DROP_NEWEST 策略)
+     */
+    public long getDropCount() {
+        return mDropCount.get();
+    }
+
+    /**
+     * @brief 获取溢出拒绝的数据包数量 (REJECT 策略)
+     */
+    public long getRejectCount() {
+        return mRejectCount.get();
+    }
+
+    @Override
+    public String toString() {
+        String infoText = "{ capacity=" + mCapacity
+                + ", depth=" + size()
+                + ", highWaterMark=" + mHighWaterMark.get()
+                + ", dropCount=" + mDropCount.get()
+                + ", rejectCount=" + mRejectCount.get() + " }";
+        return infoText;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 无锁方式写入环形缓冲区
+     * @return true--写入成功; false--缓冲区已满
+     */
+    private boolean offerToRing(RtmPacket packet) {
+        for (;;) {
+            long pos = mTailPos.get();
+            int index = (int)(pos & mIndexMask);
+            long seq = mSlotSeqs.get(index);
+            long diff = seq - pos;
+
+            if (diff == 0) {  // 数据槽空闲，尝试占用
+                if (mTailPos.compareAndSet(pos, pos + 1)) {
+                    mSlots.set(index, packet);
+                    mSlotSeqs.set(index, pos + 1);   // 发布数据
+                    return true;
+                }
+            } else if (diff < 0) {  // 数据槽还未被提取，缓冲区已满
+                return false;
+            }
+            // 其他线程已经占用了该位置，重试
+        }
+    }
+
+    /**
+     * @brief 无锁方式从环形缓冲区中提取，会跳过被 removeBySessionId() 置空的数据槽
+     * @return 返回提取到的数据包，缓冲区为空返回null
+     */
+    private RtmPacket pollFromRing() {
+        for (;;) {
+            long pos = mHeadPos.get();
+            int index = (int)(pos & mIndexMask);
+            long seq = mSlotSeqs.get(index);
+            long diff = seq - (pos + 1);
+
+            if (diff == 0) {  // 数据槽已发布，尝试提取
+                if (mHeadPos.compareAndSet(pos, pos + 1)) {
+                    RtmPacket packet = mSlots.getAndSet(index, null);
+                    mSlotSeqs.set(index, pos + mCapacity);   // 释放数据槽给下一轮写入
+                    if (packet != null) {
+                        return packet;
+                    }
+                    // 数据包已经被删除，继续提取下一个
+                }
+            } else if (diff < 0) {  // 缓冲区为空
+                return null;
+            }
+            // 其他线程已经提取了该位置，重试
+        }
+    }
+
+    /**
+     * @brief 增加队列深度，同时更新最高水位
+     */
+    private void increaseDepth() {
+        int depth = mDepth.incrementAndGet();
+        for (;;) {
+            int highWater = mHighWaterMark.get();
+            if (depth <= highWater) {
+                return;
+            }
+            if (mHighWaterMark.compareAndSet(highWater, depth)) {
+                return;
+            }
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,472 @@
+package io.agora.iotlink.rtmsdk;
+
+
+import java.io.IOException;
+
+import io.agora.iotlink.ErrCode;
+import io.agora.iotlink.IDevMediaMgr;
+import io.agora.iotlink.utils.JsonPullReader;
+
+
+/**
+ * @brief RTM响应命令的流式解码器，先读取 sequenceId 和 commandId，
+ *        然后将 "data" 字段直接解析到对应的响应命令中，不生成中间的 JSONObject 树
+ *        内部复用同一个解析器，非线程安全，只在 RTM组件的工作线程中使用
+ */
+public class RtmRspDecoder {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/RtmRspDecoder";
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final JsonPullReader mReader = new JsonPullReader();
+    private String mLastError;                  ///< 最近一次解码失败的原因
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 获取最近一次解码失败的原因
+     */
+    public String getLastError() {
+        return mLastError;
+    }
+
+    /**
+     * @brief 解析数据包生成相应的ResponseCommand
+     * @param deviceId : 发送该数据包的设备Id
+     * @param jsonText : 数据包的JSON文本
+     * @return 返回解析到的响应命令，解析失败或者不支持的命令返回null
+     */
+    public IRtmCmd decode(final String deviceId, final String jsonText) {
+        mLastError = null;
+        if (jsonText == null || jsonText.isEmpty()) {
+            mLastError = "empty data";
+            return null;
+        }
+
+        try {
+            //
+            // 第一遍只读取顶层的基本字段，"data" 字段仅记录位置并跳过
+            //
+            long sequenceId = -1;
+            int commandId = -1;
+            int codeValue = 0;
+            int dataPos = -1;
+
+            mReader.reset(jsonText, 0);
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String name = mReader.nextName();
+                int token = mReader.peek();
+                if ("sequenceId".equals(name) && isScalar(token)) {
+                    sequenceId = readLong(-1);
+                } else if ("commandId".equals(name) && isScalar(token)) {
+                    commandId = (int)readLong(-1);
+                } else if ("code".equals(name) && isScalar(token)) {
+                    codeValue = (int)readLong(0);
+                } else if ("data".equals(name) && token == JsonPullReader.TOKEN_BEGIN_OBJECT) {
+                    dataPos = mReader.getValuePosition();
+                    mReader.skipValue();
+                } else {
+                    mReader.skipValue();
+                }
+            }
+            mReader.endObject();
+
+            if (sequenceId < 0 || commandId < 0) {
+                mLastError = "no sequenceId or commandId";
+                return null;
+            }
+
+            //
+            // 根据 commandId 生成响应命令，然后直接从 "data" 的位置开始填充
+            //
+            RtmBaseCmd responseCmd = createRspCmd(commandId, codeValue);
+            if (responseCmd == null) {  // 不支持的命令，直接返回空
+                mLastError = "unsupported commandId=" + commandId;
+                return null;
+            }
+            responseCmd.mSequenceId = sequenceId;
+            responseCmd.mCmdId = commandId;
+            responseCmd.mIsRespCmd = true;
+            responseCmd.mDeviceId = deviceId;
+
+            if (dataPos >= 0) {
+                mReader.reset(jsonText, dataPos);
+                decodeRspData(responseCmd);
+            }
+            return responseCmd;
+
+        } catch (IOException ioExp) {
+            mLastError = ioExp.getMessage();
+            return null;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 根据 commandId 生成对应的空响应命令，并且映射错误码
+     */
+    private RtmBaseCmd createRspCmd(int commandId, int codeValue) {
+        switch (commandId) {
+            case IRtmCmd.CMDID_EVENTTIMELINE_QUERY: {   // 事件分布查询响应命令
+                RtmEventTimelineRspCmd queryRspCmd = new RtmEventTimelineRspCmd();
+                queryRspCmd.mErrCode = (codeValue == 0) ? ErrCode.XOK : ErrCode.XERR_MEDIAMGR_QUERYEVENT;
+                return queryRspCmd;
+            }
+
+            case IRtmCmd.CMDID_MEDIA_QUERY: {       // 查询响应命令
+                RtmQueryRspCmd queryRspCmd = new RtmQueryRspCmd();
+                queryRspCmd.mErrCode = (codeValue == 0) ? ErrCode.XOK : ErrCode.XERR_MEDIAMGR_QUERYLIST;
+                return queryRspCmd;
+            }
+
+            case IRtmCmd.CMDID_MEDIA_COVER: {       // 封面图片响应命令
+                RtmCoverRspCmd coverRspCmd = new RtmCoverRspCmd();
+                coverRspCmd.mErrCode = (codeValue == 0) ? ErrCode.XOK : ErrCode.XERR_MEDIAMGR_COVER_GET;
+                return coverRspCmd;
+            }
+
+            case IRtmCmd.CMDID_MEDIA_DELETE: {      // 删除响应命令
+                RtmDeleteRspCmd deleteRspCmd = new RtmDeleteRspCmd();
+                if (codeValue == 0) {
+                    deleteRspCmd.mErrCode = ErrCode.XOK;
+                } else if (codeValue == 1) {
+                    deleteRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DEL_EXCEPT;
+                } else if (codeValue == 2) {
+                    deleteRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DEL_SDCARD;
+                } else if (codeValue == 3) {
+                    deleteRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DEL_PARTIAL;
+                } else {
+                    deleteRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DEL_UNKNOWN;
+                }
+                return deleteRspCmd;
+            }
+
+            case IRtmCmd.CMDID_FILE_DOWNLOAD: {      // 下载响应命令
+                RtmDownloadRspCmd dnloadRspCmd = new RtmDownloadRspCmd();
+                if (codeValue == 0) {
+                    dnloadRspCmd.mErrCode = ErrCode.XOK;
+                } else if (codeValue == 1) {
+                    dnloadRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DOWNLOAD_EXCEPT;
+                } else if (codeValue == 2) {
+                    dnloadRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DOWNLOAD_SDCARD;
+                } else if (codeValue == 3) {
+                    dnloadRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DOWNLOAD_PARTIAL;
+                } else {
+                    dnloadRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_DOWNLOAD_UNKNOWN;
+                }
+                return dnloadRspCmd;
+            }
+
+            case IRtmCmd.CMDID_MEDIA_PLAY_ID:
+            case IRtmCmd.CMDID_MEDIA_PLAY_TIMELINE: {      // 播放响应命令
+                RtmPlayRspCmd playRspCmd = new RtmPlayRspCmd();
+                if (codeValue == 0) {
+                    playRspCmd.mErrCode = ErrCode.XOK;
+                } else if (codeValue == 1) {
+                    playRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_PLAY_READFILE;
+                } else if (codeValue == -16) {
+                    playRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_PLAY_ONGOING;
+                } else {
+                    playRspCmd.mErrCode = ErrCode.XERR_MEDIAMGR_PLAY_UNKNOWN;
+                }
+                return playRspCmd;
+            }
+
+            case IRtmCmd.CMDID_CUSTOMIZE_SEND: {    // 定制化响应命令
+                RtmCustomizeRspCmd customizeRspCmd = new RtmCustomizeRspCmd();
+                customizeRspCmd.mErrCode = (codeValue == 0) ? ErrCode.XOK : ErrCode.XERR_UNKNOWN;
+                return customizeRspCmd;
+            }
+
+            case IRtmCmd.CMDID_PTZ_CTRL:
+            case IRtmCmd.CMDID_PTZ_RESET:
+            case IRtmCmd.CMDID_SDCARD_FMT:
+            case IRtmCmd.CMDID_MEDIA_STOP:
+            case IRtmCmd.CMDID_MEDIA_RATE:
+            case IRtmCmd.CMDID_MEDIA_PAUSE:
+            case IRtmCmd.CMDID_MEDIA_RESUME:
+            case IRtmCmd.CMDID_DEVICE_RESET:   {  // 其他响应命令，都不需要响应数据
+                RtmBaseCmd baseCmd = new RtmBaseCmd();
+                baseCmd.mErrCode = (codeValue == 0) ? ErrCode.XOK : ErrCode.XERR_UNKNOWN;
+                return baseCmd;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @brief 解析 "data" 对象，直接填充到响应命令中
+     */
+    private void decodeRspData(RtmBaseCmd responseCmd) throws IOException {
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+
+            if (responseCmd instanceof RtmEventTimelineRspCmd) {
+                if ("arr".equals(name) && mReader.peek() == JsonPullReader.TOKEN_BEGIN_ARRAY) {
+                    decodeVideoTimeList((RtmEventTimelineRspCmd)responseCmd);
+                    continue;
+                }
+
+            } else if (responseCmd instanceof RtmQueryRspCmd) {
+                if ("fileList".equals(name) && mReader.peek() == JsonPullReader.TOKEN_BEGIN_ARRAY) {
+                    decodeMediaList((RtmQueryRspCmd)responseCmd);
+                    continue;
+                }
+
+            } else if (responseCmd instanceof RtmCoverRspCmd) {
+                if ("fileContent".equals(name)) {
+                    ((RtmCoverRspCmd)responseCmd).mContentBase64 = readString(null);
+                    continue;
+                }
+
+            } else if (responseCmd instanceof RtmDeleteRspCmd) {
+                if ("undeleteList".equals(name) && mReader.peek() == JsonPullReader.TOKEN_BEGIN_ARRAY) {
+                    decodeUndeleteList((RtmDeleteRspCmd)responseCmd);
+                    continue;
+                }
+
+            } else if (responseCmd instanceof RtmDownloadRspCmd) {
+                if ("result".equals(name) && mReader.peek() == JsonPullReader.TOKEN_BEGIN_OBJECT) {
+                    decodeDownloadResult((RtmDownloadRspCmd)responseCmd);
+                    continue;
+                } else if ("result".equals(name) && mReader.peek() == JsonPullReader.TOKEN_BEGIN_ARRAY) {
+                    // 多个下载项的结果列表
+                    mReader.beginArray();
+                    while (mReader.hasNext()) {
+                        if (mReader.peek() != JsonPullReader.TOKEN_BEGIN_OBJECT) {
+                            mReader.skipValue();
+                            continue;
+                        }
+                        decodeDownloadResult((RtmDownloadRspCmd)responseCmd);
+                    }
+                    mReader.endArray();
+                    continue;
+                }
+
+            } else if (responseCmd instanceof RtmPlayRspCmd) {
+                RtmPlayRspCmd playRspCmd = (RtmPlayRspCmd)responseCmd;
+                if ("uid".equals(name)) {
+                    playRspCmd.mRtcUid = (int)readLong(-1);
+                    continue;
+                } else if ("cname".equals(name)) {
+                    playRspCmd.mChnlName = readString(null);
+                    continue;
+                } else if ("token".equals(name)) {
+                    playRspCmd.mRtcToken = readString(null);
+                    continue;
+                } else if ("device_uid".equals(name)) {
+                    playRspCmd.mDevRtcUid = (int)readLong(-1);
+                    continue;
+                }
+
+            } else if (responseCmd instanceof RtmCustomizeRspCmd) {
+                if ("recvData".equals(name)) {
+                    ((RtmCustomizeRspCmd)responseCmd).mRecvData = readString(null);
+                    continue;
+                }
+            }
+
+            mReader.skipValue();
+        }
+        mReader.endObject();
+    }
+
+    /**
+     * @brief 解析事件分布的时间列表
+     */
+    private void decodeVideoTimeList(RtmEventTimelineRspCmd queryRspCmd) throws IOException {
+        mReader.beginArray();
+        while (mReader.hasNext()) {
+            queryRspCmd.mVideoTimeList.add(readLong(0));
+        }
+        mReader.endArray();
+    }
+
+    /**
+     * @brief 解析媒体文件列表
+     */
+    private void decodeMediaList(RtmQueryRspCmd queryRspCmd) throws IOException {
+        mReader.beginArray();
+        while (mReader.hasNext()) {
+            if (mReader.peek() != JsonPullReader.TOKEN_BEGIN_OBJECT) {
+                mReader.skipValue();
+                continue;
+            }
+
+            IDevMediaMgr.DevMediaItem mediaItem = new IDevMediaMgr.DevMediaItem();
+            mediaItem.mStartTimestamp = -1;
+            mediaItem.mStopTimestamp = -1;
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String name = mReader.nextName();
+                if ("type".equals(name)) {
+                    mediaItem.mType = (int)readLong(0);
+                } else if ("id".equals(name)) {
+                    mediaItem.mFileId = readString(null);
+                } else if ("start".equals(name)) {
+                    mediaItem.mStartTimestamp = readLong(-1);
+                } else if ("stop".equals(name)) {
+                    mediaItem.mStopTimestamp = readLong(-1);
+                } else if ("event".equals(name) && mReader.peek() == JsonPullReader.TOKEN_BEGIN_ARRAY) {
+                    decodeEventList(mediaItem);
+                } else {
+                    mReader.skipValue();
+                }
+            }
+            mReader.endObject();
+
+            queryRspCmd.mMediaList.add(mediaItem);
+        }
+        mReader.endArray();
+    }
+
+    /**
+     * @brief 解析单个媒体文件的事件列表
+     */
+    private void decodeEventList(IDevMediaMgr.DevMediaItem mediaItem) throws IOException {
+        mReader.beginArray();
+        while (mReader.hasNext()) {
+            if (mReader.peek() != JsonPullReader.TOKEN_BEGIN_OBJECT) {
+                mReader.skipValue();
+                continue;
+            }
+
+            IDevMediaMgr.DevEventItem eventItem = new IDevMediaMgr.DevEventItem();
+            eventItem.mStartTime = -1;
+            eventItem.mStopTime = -1;
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String name = mReader.nextName();
+                if ("eventType".equals(name)) {
+                    eventItem.mEventType = (int)readLong(0);
+                } else if ("start".equals(name)) {
+                    eventItem.mStartTime = readLong(-1);
+                } else if ("stop".equals(name)) {
+                    eventItem.mStopTime = readLong(-1);
+                } else if ("pic".equals(name)) {
+                    eventItem.mPicUrl = readString(null);
+                } else if ("url".equals(name)) {
+                    eventItem.mVideoUrl = readString(null);
+                } else {
+                    mReader.skipValue();
+                }
+            }
+            mReader.endObject();
+
+            mediaItem.mEventList.add(eventItem);
+        }
+        mReader.endArray();
+    }
+
+    /**
+     * @brief 解析删除失败的文件列表
+     */
+    private void decodeUndeleteList(RtmDeleteRspCmd deleteRspCmd) throws IOException {
+        mReader.beginArray();
+        while (mReader.hasNext()) {
+            if (mReader.peek() != JsonPullReader.TOKEN_BEGIN_OBJECT) {
+                mReader.skipValue();
+                continue;
+            }
+
+            DevFileDelErrInfo errInfo = new DevFileDelErrInfo();
+            int errorValue = 0;
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String name = mReader.nextName();
+                if ("error".equals(name)) {
+                    errorValue = (int)readLong(0);
+                } else if ("id".equals(name)) {
+                    errInfo.mFileId = readString(null);
+                } else {
+                    mReader.skipValue();
+                }
+            }
+            mReader.endObject();
+
+            if (errorValue == 0) {
+                errInfo.mDelErrCode = ErrCode.XOK;
+            } else if (errorValue == 1) {
+                errInfo.mDelErrCode = ErrCode.XERR_MEDIAMGR_DEL_NOT_EXIST;
+            } else if (errorValue == 2) {
+                errInfo.mDelErrCode = ErrCode.XERR_MEDIAMGR_DEL_IN_USE;
+            } else {
+                errInfo.mDelErrCode = ErrCode.XERR_MEDIAMGR_DEL_UNKNOWN;
+            }
+            deleteRspCmd.mErrorList.add(errInfo);
+        }
+        mReader.endArray();
+    }
+
+    /**
+     * @brief 解析单个下载项的结果，"result" 可以是单个对象，也可以是对象数组
+     */
+    private void decodeDownloadResult(RtmDownloadRspCmd dnloadRspCmd) throws IOException {
+        IDevMediaMgr.DevFileDownloadResult downloadResult = new IDevMediaMgr.DevFileDownloadResult();
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+            if ("id".equals(name)) {
+                downloadResult.mFileId = readString(null);
+            } else if ("fileName".equals(name)) {
+                downloadResult.mFileName = readString(null);
+            } else {
+                mReader.skipValue();
+            }
+        }
+        mReader.endObject();
+        dnloadRspCmd.mDownloadList.add(downloadResult);
+    }
+
+    private static boolean isScalar(int token) {
+        return (token == JsonPullReader.TOKEN_NUMBER || token == JsonPullReader.TOKEN_STRING);
+    }
+
+    /**
+     * @brief 读取数值，类型不匹配时跳过该值并返回默认值
+     */
+    private long readLong(long defVal) throws IOException {
+        int token = mReader.peek();
+        if (token == JsonPullReader.TOKEN_NUMBER) {
+            return mReader.nextLong();
+        }
+        if (token == JsonPullReader.TOKEN_STRING) {
+            String text = mReader.nextString();
+            try {
+                return Long.parseLong(text.trim());
+            } catch (NumberFormatException numExp) {
+                return defVal;
+            }
+        }
+        mReader.skipValue();
+        return defVal;
+    }
+
+    /**
+     * @brief 读取字符串，对象、数组和null值跳过并返回默认值
+     */
+    private String readString(String defVal) throws IOException {
+        int token = mReader.peek();
+        if (token == JsonPullReader.TOKEN_STRING || token == JsonPullReader.TOKEN_NUMBER
+                || token == JsonPullReader.TOKEN_BOOLEAN) {
+            return mReader.nextString();
+        }
+        mReader.skipValue();
+        return defVal;
+    }
+
+}
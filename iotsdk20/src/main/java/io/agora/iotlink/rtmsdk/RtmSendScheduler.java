@@ -0,0 +1,271 @@
+package io.agora.iotlink.rtmsdk;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * @brief RTM发送调度器，每个设备有独立的发送窗口限制同时在途的数据包数量，
+ *        多个设备之间轮询调度，每个设备内部按照优先级通道发送：
+ *        控制命令(云台、回看控制) > 普通命令 > 批量命令(查询、删除、封面、下载)
+ *        所有方法都加锁，可以在工作线程和RTM回调线程中调用
+ */
+public class RtmSendScheduler {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/RtmSendScheduler";
+    public static final int DEFAULT_WINDOW_SIZE = 4;        ///< 默认每个设备的在途数据包数量
+
+    //
+    // 优先级通道
+    //
+    public static final int PRIORITY_CONTROL = 0;           ///< 控制命令，最高优先级
+    public static final int PRIORITY_NORMAL = 1;            ///< 普通命令和原始消息
+    public static final int PRIORITY_BULK = 2;              ///< 批量数据命令，最低优先级
+    private static final int PRIORITY_COUNT = 3;
+
+
+    /**
+     * @brief 单个设备的发送统计信息
+     */
+    public static class DevSendStats {
+        public String mDeviceId;            ///< 设备Id
+        public int mWindowSize;             ///< 在途数据包上限
+        public int mInFlight;               ///< 当前在途的数据包数量
+        public int[] mQueuedCount = new int[PRIORITY_COUNT];  ///< 各个优先级通道排队的数据包数量
+        public long mSentCount;             ///< 已经发送的数据包数量
+        public long mAvgQueueDelay;         ///< 平均排队时间(毫秒)
+        public long mMaxQueueDelay;         ///< 最大排队时间(毫秒)
+
+        @Override
+        public String toString() {
+            String infoText = "{ mDeviceId=" + mDeviceId
+                    + ", mWindowSize=" + mWindowSize
+                    + ", mInFlight=" + mInFlight
+                    + ", mQueuedCount=[" + mQueuedCount[PRIORITY_CONTROL]
+                    + "," + mQueuedCount[PRIORITY_NORMAL]
+                    + "," + mQueuedCount[PRIORITY_BULK] + "]"
+                    + ", mSentCount=" + mSentCount
+                    + ", mAvgQueueDelay=" + mAvgQueueDelay
+                    + ", mMaxQueueDelay=" + mMaxQueueDelay + " }";
+            return infoText;
+        }
+    }
+
+    /**
+     * @brief 单个设备的发送窗口
+     */
+    private static class DevWindow {
+        String mDeviceId;
+        ArrayList<ArrayDeque<RtmPacket>> mLanes = new ArrayList<>(PRIORITY_COUNT);
+        HashSet<Long> mInFlightSet = new HashSet<>();    ///< 在途数据包的 sequenceId
+        long mSentCount;
+        long mTotalQueueDelay;
+        long mMaxQueueDelay;
+
+        DevWindow(final String deviceId) {
+            mDeviceId = deviceId;
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                mLanes.add(new ArrayDeque<>());
+            }
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final HashMap<String, DevWindow> mWindowMap = new HashMap<>();  ///< 设备Id 到 发送窗口的映射
+    private final ArrayList<DevWindow> mWindowList = new ArrayList<>();     ///< 轮询顺序
+    private final HashMap<Long, DevWindow> mInFlightMap = new HashMap<>();  ///< sequenceId 到 发送窗口的映射
+    private int mRoundRobinIndex = 0;                                       ///< 下次轮询的起始位置
+    private int mWindowSize = DEFAULT_WINDOW_SIZE;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 根据命令Id获取发送优先级
+     */
+    public static int getCmdPriority(int commandId) {
+        switch (commandId) {
+            case IRtmCmd.CMDID_PTZ_CTRL:
+            case IRtmCmd.CMDID_PTZ_RESET:
+            case IRtmCmd.CMDID_MEDIA_PLAY_TIMELINE:
+            case IRtmCmd.CMDID_MEDIA_PLAY_ID:
+            case IRtmCmd.CMDID_MEDIA_STOP:
+            case IRtmCmd.CMDID_MEDIA_RATE:
+            case IRtmCmd.CMDID_MEDIA_PAUSE:
+            case IRtmCmd.CMDID_MEDIA_RESUME:
+                return PRIORITY_CONTROL;
+
+            case IRtmCmd.CMDID_MEDIA_QUERY:
+            case IRtmCmd.CMDID_MEDIA_DELETE:
+            case IRtmCmd.CMDID_MEDIA_COVER:
+            case IRtmCmd.CMDID_FILE_DOWNLOAD:
+            case IRtmCmd.CMDID_EVENTTIMELINE_QUERY:
+                return PRIORITY_BULK;
+        }
+
+        return PRIORITY_NORMAL;
+    }
+
+    /**
+     * @brief 设置每个设备的在途数据包上限
+     */
+    public synchronized void setWindowSize(int windowSize) {
+        mWindowSize = (windowSize > 0) ? windowSize : 1;
+    }
+
+    public synchronized int getWindowSize() {
+        return mWindowSize;
+    }
+
+    /**
+     * @brief 将数据包放入对应设备的优先级通道中排队
+     */
+    public synchronized void inqueue(final RtmPacket packet) {
+        DevWindow window = mWindowMap.get(packet.mPeerId);
+        if (window == null) {
+            window = new DevWindow(packet.mPeerId);
+            mWindowMap.put(packet.mPeerId, window);
+            mWindowList.add(window);
+        }
+
+        int priority = packet.mPriority;
+        if (priority < 0 || priority >= PRIORITY_COUNT) {
+            priority = PRIORITY_NORMAL;
+        }
+        if (packet.mInqueueTimestamp <= 0) {
+            packet.mInqueueTimestamp = System.currentTimeMillis();
+        }
+        window.mLanes.get(priority).addLast(packet);
+    }
+
+    /**
+     * @brief 提取下一个可以发送的数据包，并且标记为在途
+     *        先在所有设备中轮询高优先级通道，再依次轮询低优先级通道，发送窗口已满的设备跳过
+     * @return 返回可以发送的数据包，没有可以发送的数据包则返回null
+     */
+    public synchronized RtmPacket pollSendable() {
+        int windowCount = mWindowList.size();
+        if (windowCount <= 0) {
+            return null;
+        }
+
+        for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            for (int i = 0; i < windowCount; i++) {
+                int index = (mRoundRobinIndex + i) % windowCount;
+                DevWindow window = mWindowList.get(index);
+                if (window.mInFlightSet.size() >= mWindowSize) {  // 发送窗口已满
+                    continue;
+                }
+                RtmPacket packet = window.mLanes.get(priority).pollFirst();
+                if (packet == null) {
+                    continue;
+                }
+
+                // 记录在途和排队时间统计
+                window.mInFlightSet.add(packet.mSequenceId);
+                mInFlightMap.put(packet.mSequenceId, window);
+                long queueDelay = System.currentTimeMillis() - packet.mInqueueTimestamp;
+                window.mSentCount++;
+                window.mTotalQueueDelay += queueDelay;
+                if (queueDelay > window.mMaxQueueDelay) {
+                    window.mMaxQueueDelay = queueDelay;
+                }
+
+                mRoundRobinIndex = (index + 1) % windowCount;  // 下次从下一个设备开始轮询
+                return packet;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @brief 数据包已经完成(收到响应、超时或者发送失败)，释放发送窗口
+     * @return 如果释放了在途数据包则返回true，调用者应该重新调度发送
+     */
+    public synchronized boolean onPacketDone(long sequenceId) {
+        DevWindow window = mInFlightMap.remove(sequenceId);
+        if (window == null) {
+            return false;
+        }
+        window.mInFlightSet.remove(sequenceId);
+        return true;
+    }
+
+    /**
+     * @brief 删除还在优先级通道中排队的数据包，命令超时时调用，避免超时之后再发送给设备
+     * @return 如果找到并删除了数据包则返回true
+     */
+    public synchronized boolean removeQueued(long sequenceId) {
+        for (DevWindow window : mWindowList) {
+            for (ArrayDeque<RtmPacket> lane : window.mLanes) {
+                Iterator<RtmPacket> packetIt = lane.iterator();
+                while (packetIt.hasNext()) {
+                    if (packetIt.next().mSequenceId == sequenceId) {
+                        packetIt.remove();
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @brief 是否还有排队中的数据包
+     */
+    public synchronized boolean hasQueued() {
+        for (DevWindow window : mWindowList) {
+            for (ArrayDeque<RtmPacket> lane : window.mLanes) {
+                if (!lane.isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @brief 获取所有设备的发送统计信息
+     */
+    public synchronized List<DevSendStats> getStatsList() {
+        ArrayList<DevSendStats> statsList = new ArrayList<>();
+        for (DevWindow window : mWindowList) {
+            DevSendStats stats = new DevSendStats();
+            stats.mDeviceId = window.mDeviceId;
+            stats.mWindowSize = mWindowSize;
+            stats.mInFlight = window.mInFlightSet.size();
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                stats.mQueuedCount[i] = window.mLanes.get(i).size();
+            }
+            stats.mSentCount = window.mSentCount;
+            stats.mAvgQueueDelay = (window.mSentCount > 0) ? (window.mTotalQueueDelay / window.mSentCount) : 0;
+            stats.mMaxQueueDelay = window.mMaxQueueDelay;
+            statsList.add(stats);
+        }
+        return statsList;
+    }
+
+    /**
+     * @brief 清空所有排队和在途的数据包
+     */
+    public synchronized void clear() {
+        mWindowMap.clear();
+        mWindowList.clear();
+        mInFlightMap.clear();
+        mRoundRobinIndex = 0;
+    }
+
+}
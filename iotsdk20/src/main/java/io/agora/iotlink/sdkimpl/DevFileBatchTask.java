@@ -0,0 +1,235 @@
+package io.agora.iotlink.sdkimpl;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.agora.iotlink.ErrCode;
+import io.agora.iotlink.logger.ALog;
+
+
+/**
+ * @brief 设备文件批量操作任务(删除、下载)
+ *        将大的文件列表拆分成多个批次，同时最多有 maxInflight 个批次在发送中，
+ *        每个批次完成时立即回调该批次结果，所有批次完成后汇总回调最终结果
+ */
+public class DevFileBatchTask<R> {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/DevFileBatchTask";
+    public static final int DEFAULT_CHUNK_SIZE = 50;        ///< 默认每一批的文件数量
+    public static final int DEFAULT_MAX_INFLIGHT = 2;       ///< 默认同时发送的批次数量
+
+
+    /**
+     * @brief 批量操作的具体实现
+     */
+    public interface IChunkHandler<R> {
+
+        /**
+         * @brief 发送一个批次的命令，命令完成后必须调用 task.onChunkDone()
+         * @param task : 当前批量任务
+         * @param chunkIndex : 批次索引
+         * @param fileIdList : 该批次的文件列表
+         * @return 错误码，发送失败时该批次直接按照失败处理
+         */
+        int sendChunk(final DevFileBatchTask<R> task, int chunkIndex, final List<String> fileIdList);
+
+        /**
+         * @brief 某个批次没有得到设备端结果(发送失败或者超时)时，生成该批次每个文件的失败结果
+         * @return 失败结果列表，不需要时返回null
+         */
+        List<R> makeFailedResults(final List<String> fileIdList, int errCode);
+
+        /**
+         * @brief 某个批次完成
+         */
+        void onChunkResult(int errCode, final List<R> resultList, int finishedCount, int totalCount);
+
+        /**
+         * @brief 所有批次都已经完成
+         */
+        void onAllDone(int errCode, final List<R> resultList);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final Object mDataLock = new Object();
+    private final String mName;                             ///< 任务名称，用于日志
+    private final ArrayList<List<String>> mChunkList = new ArrayList<>();
+    private final IChunkHandler<R> mHandler;
+    private final int mPartialErrCode;                      ///< 部分成功时的错误码
+    private final int mMaxInflight;
+    private final int mTotalCount;
+
+    private final ArrayList<R> mResultList = new ArrayList<>();     ///< 汇总所有批次的结果
+    private int mNextChunk = 0;             ///< 下一个要发送的批次
+    private int mInflightCount = 0;         ///< 正在发送中的批次数量
+    private int mDoneChunkCount = 0;        ///< 已经完成的批次数量
+    private int mFinishedCount = 0;         ///< 已经完成的文件数量
+    private int mSuccessCount = 0;          ///< 完全成功的批次数量
+    private int mPartialCount = 0;          ///< 部分成功的批次数量
+    private int mFirstErrCode = ErrCode.XOK;    ///< 第一个失败批次的错误码
+
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 构造函数
+     * @param name : 任务名称
+     * @param fileIdList : 要处理的全部文件列表
+     * @param chunkSize : 每一批的文件数量
+     * @param maxInflight : 同时发送的最大批次数量
+     * @param partialErrCode : 部分批次失败时的最终错误码
+     * @param handler : 具体实现
+     */
+    public DevFileBatchTask(final String name, final List<String> fileIdList, int chunkSize, int maxInflight,
+                            int partialErrCode, final IChunkHandler<R> handler) {
+        mName = name;
+        mHandler = handler;
+        mPartialErrCode = partialErrCode;
+        mMaxInflight = (maxInflight > 0) ? maxInflight : 1;
+        mTotalCount = fileIdList.size();
+
+        if (chunkSize <= 0) {
+            chunkSize = DEFAULT_CHUNK_SIZE;
+        }
+        for (int begin = 0; begin < mTotalCount; begin += chunkSize) {
+            int end = Math.min(begin + chunkSize, mTotalCount);
+            mChunkList.add(new ArrayList<>(fileIdList.subList(begin, end)));
+        }
+    }
+
+    /**
+     * @brief 获取批次数量
+     */
+    public int getChunkCount() {
+        return mChunkList.size();
+    }
+
+    /**
+     * @brief 获取某个批次的文件列表
+     */
+    public List<String> getChunkFileList(int chunkIndex) {
+        return mChunkList.get(chunkIndex);
+    }
+
+    /**
+     * @brief 启动批量任务，发送最开始的几个批次
+     * @return 错误码，第一个批次就发送失败时返回错误码，不会再有回调
+     */
+    public int start() {
+        if (mChunkList.isEmpty()) {
+            mHandler.onAllDone(ErrCode.XOK, mResultList);
+            return ErrCode.XOK;
+        }
+
+        // 第一个批次单独发送，如果发送失败则直接返回错误
+        synchronized (mDataLock) {
+            mNextChunk = 1;
+            mInflightCount = 1;
+        }
+        int ret = mHandler.sendChunk(this, 0, mChunkList.get(0));
+        if (ret != ErrCode.XOK) {
+            ALog.getInstance().e(TAG, "<start> [" + mName + "] fail to send first chunk, ret=" + ret);
+            return ret;
+        }
+
+        sendPendingChunks();
+        ALog.getInstance().d(TAG, "<start> [" + mName + "] done, totalCount=" + mTotalCount
+                + ", chunkCount=" + mChunkList.size() + ", maxInflight=" + mMaxInflight);
+        return ErrCode.XOK;
+    }
+
+    /**
+     * @brief 某个批次完成时调用，回调该批次结果并且继续发送后续批次
+     * @param chunkIndex : 批次索引
+     * @param errCode : 批次结果错误码
+     * @param chunkResultList : 批次结果，失败并且没有逐个文件的结果时(超时、发送失败)
+     *                          通过 makeFailedResults() 生成整个批次的失败结果
+     */
+    public void onChunkDone(int chunkIndex, int errCode, List<R> chunkResultList) {
+        if ((errCode != ErrCode.XOK) && ((chunkResultList == null) || chunkResultList.isEmpty())) {
+            chunkResultList = mHandler.makeFailedResults(mChunkList.get(chunkIndex), errCode);
+        }
+
+        boolean allDone;
+        int finishedCount;
+        synchronized (mDataLock) {
+            mInflightCount--;
+            mDoneChunkCount++;
+            mFinishedCount += mChunkList.get(chunkIndex).size();
+            finishedCount = mFinishedCount;
+            if (chunkResultList != null) {
+                mResultList.addAll(chunkResultList);
+            }
+
+            if (errCode == ErrCode.XOK) {
+                mSuccessCount++;
+            } else if (errCode == mPartialErrCode) {
+                mPartialCount++;
+            } else if (mFirstErrCode == ErrCode.XOK) {
+                mFirstErrCode = errCode;
+            }
+            allDone = (mDoneChunkCount >= mChunkList.size());
+        }
+
+        mHandler.onChunkResult(errCode, chunkResultList, finishedCount, mTotalCount);
+
+        if (!allDone) {
+            sendPendingChunks();
+            return;
+        }
+
+        // 汇总最终结果：全部成功、全部失败、部分成功
+        int finalErrCode;
+        synchronized (mDataLock) {
+            if (mSuccessCount >= mChunkList.size()) {
+                finalErrCode = ErrCode.XOK;
+            } else if ((mSuccessCount + mPartialCount) > 0) {
+                finalErrCode = mPartialErrCode;
+            } else {
+                finalErrCode = mFirstErrCode;
+            }
+        }
+        ALog.getInstance().d(TAG, "<onChunkDone> [" + mName + "] all done, finalErrCode=" + finalErrCode
+                + ", successChunks=" + mSuccessCount + ", partialChunks=" + mPartialCount
+                + ", chunkCount=" + mChunkList.size());
+        mHandler.onAllDone(finalErrCode, mResultList);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 在不超过同时发送数量限制的情况下，发送后续的批次
+     */
+    private void sendPendingChunks() {
+        while (true) {
+            int chunkIndex;
+            synchronized (mDataLock) {
+                if ((mNextChunk >= mChunkList.size()) || (mInflightCount >= mMaxInflight)) {
+                    return;
+                }
+                chunkIndex = mNextChunk;
+                mNextChunk++;
+                mInflightCount++;
+            }
+
+            int ret = mHandler.sendChunk(this, chunkIndex, mChunkList.get(chunkIndex));
+            if (ret != ErrCode.XOK) {
+                ALog.getInstance().e(TAG, "<sendPendingChunks> [" + mName + "] fail to send chunk"
+                        + ", chunkIndex=" + chunkIndex + ", ret=" + ret);
+                onChunkDone(chunkIndex, ret, null);
+                return;     // onChunkDone() 中已经继续发送后续批次
+            }
+        }
+    }
+}
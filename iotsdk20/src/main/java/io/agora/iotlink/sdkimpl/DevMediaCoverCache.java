@@ -0,0 +1,519 @@
+package io.agora.iotlink.sdkimpl;
+
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Message;
+import android.util.Base64;
+import android.util.Base64OutputStream;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import io.agora.iotlink.ErrCode;
+import io.agora.iotlink.IDevMediaMgr;
+import io.agora.iotlink.base.BaseThreadComp;
+import io.agora.iotlink.base.MsgLoopStats;
+import io.agora.iotlink.logger.ALog;
+
+
+/**
+ * @brief 设备媒体封面缓存，所有设备会话共用
+ *        1. 内存中按照字节数限制的 LRU 缓存解码后的图像
+ *        2. 磁盘缓存保存在应用的缓存目录中，超过容量时删除最久未使用的文件
+ *        3. 相同封面的多个请求合并成一次设备端请求，所有等待者都取消时不再发送请求，
+ *           获取过程中全部取消时丢弃返回的数据，不再解码和写入缓存
+ *        4. 磁盘读写、base64 解码和图像解码都在内部线程中进行
+ */
+public class DevMediaCoverCache extends BaseThreadComp {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/DevMediaCoverCache";
+    private static final String COVER_DIR_NAME = "agora_dev_cover";             ///< 磁盘缓存目录名
+    public static final long DEFAULT_MEM_MAX_BYTES = 16 * 1024 * 1024;          ///< 默认内存缓存上限 16MB
+    public static final long DEFAULT_DISK_MAX_BYTES = 64 * 1024 * 1024;         ///< 默认磁盘缓存上限 64MB
+    private static final int DECODE_CHUNK_SIZE = 8 * 1024;                      ///< 流式 base64 解码每次处理的字符数
+
+
+    //
+    // The mesage Id
+    //
+    private static final int MSGID_COVER_LOAD = 0x3001;         ///< 从磁盘缓存加载或者从设备端获取
+    private static final int MSGID_COVER_DECODE = 0x3002;       ///< 设备端数据返回，解码并写入缓存
+
+
+    /**
+     * @brief 从设备端获取封面数据
+     */
+    public interface ICoverFetcher {
+        int fetchCover(final String imgUrl, final OnFetchDoneListener doneListener);
+    }
+
+    public interface OnFetchDoneListener {
+        void onFetchDone(int errCode, final String contentBase64);
+    }
+
+    /**
+     * @brief 一个封面请求，相同封面的多个等待者合并到同一个请求中
+     */
+    private static class CoverRequest {
+        String mKey;
+        String mImgUrl;
+        ICoverFetcher mFetcher;
+        ArrayList<IDevMediaMgr.OnCoverBitmapListener> mListenerList = new ArrayList<>();
+        int mErrCode;
+        String mContentBase64;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final Object mDataLock = new Object();
+    private final HashMap<String, CoverRequest> mRequestMap = new HashMap<>();  ///< 正在进行的请求
+    private LruCache<String, Bitmap> mMemCache;
+    private long mMemMaxBytes;
+    private File mDiskDir;                  ///< 磁盘缓存目录，为null表示不使用磁盘缓存
+    private long mDiskMaxBytes;
+    private long mDiskBytes = -1;           ///< 当前磁盘缓存的字节数，-1 表示还未统计
+
+    private long mMemHitCount = 0;
+    private long mDiskHitCount = 0;
+    private long mMissCount = 0;
+    private long mCoalescedCount = 0;
+    private long mCancelledCount = 0;
+
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 初始化缓存，启动内部线程
+     * @param cacheDir : 应用缓存目录，为null时只使用内存缓存
+     * @return 错误码
+     */
+    public int initialize(final File cacheDir) {
+        long memMaxBytes = Math.min(DEFAULT_MEM_MAX_BYTES, Runtime.getRuntime().maxMemory() / 8);
+        mMemMaxBytes = memMaxBytes;
+        mMemCache = new LruCache<String, Bitmap>((int)memMaxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        mDiskMaxBytes = DEFAULT_DISK_MAX_BYTES;
+        mDiskBytes = -1;
+        mDiskDir = null;
+        if (cacheDir != null) {
+            File diskDir = new File(cacheDir, COVER_DIR_NAME);
+            if (diskDir.isDirectory() || diskDir.mkdirs()) {
+                mDiskDir = diskDir;
+            } else {
+                ALog.getInstance().e(TAG, "<initialize> fail to create cache dir: " + diskDir);
+            }
+        }
+
+        // 封面获取是异步回调，消息处理都很短，不需要独占一个线程
+        runStart(TAG, LOOP_BACKEND_EXECUTOR);
+        ALog.getInstance().d(TAG, "<initialize> done, memMaxBytes=" + memMaxBytes
+                + ", diskDir=" + mDiskDir);
+        return ErrCode.XOK;
+    }
+
+    public void release() {
+        List<MsgLoopStats> statsList = getMessageStats();
+        for (MsgLoopStats stats : statsList) {
+            ALog.getInstance().d(TAG, "<release> msgStats=" + stats);
+        }
+        runStop();
+
+        synchronized (mDataLock) {
+            mRequestMap.clear();
+        }
+        if (mMemCache != null) {
+            mMemCache.evictAll();
+        }
+        ALog.getInstance().d(TAG, "<release> done");
+    }
+
+    /**
+     * @brief 获取封面图像
+     * @param deviceId : 设备Id，不同设备的封面路径可能相同
+     * @param imgUrl : 封面文件路径
+     * @param fetcher : 缓存都未命中时从设备端获取
+     * @param listener : 结果回调
+     * @return 错误码
+     */
+    public int getCover(final String deviceId, final String imgUrl, final ICoverFetcher fetcher,
+                        final IDevMediaMgr.OnCoverBitmapListener listener) {
+        String key = deviceId + "/" + imgUrl;
+
+        Bitmap memBmp = mMemCache.get(key);
+        if (memBmp != null) {   // 内存缓存命中，直接回调
+            synchronized (mDataLock) {
+                mMemHitCount++;
+            }
+            listener.onDevMediaCoverBitmapDone(ErrCode.XOK, imgUrl, memBmp);
+            return ErrCode.XOK;
+        }
+
+        synchronized (mDataLock) {
+            CoverRequest request = mRequestMap.get(key);
+            if (request != null) {  // 相同的封面正在获取中，合并等待
+                request.mListenerList.add(listener);
+                mCoalescedCount++;
+                return ErrCode.XOK;
+            }
+
+            request = new CoverRequest();
+            request.mKey = key;
+            request.mImgUrl = imgUrl;
+            request.mFetcher = fetcher;
+            request.mListenerList.add(listener);
+            mRequestMap.put(key, request);
+            sendMessage(MSGID_COVER_LOAD, 0, 0, request, 0);
+        }
+
+        return ErrCode.XOK;
+    }
+
+    /**
+     * @brief 取消某个等待者，取消后不再回调该等待者
+     */
+    public int cancelCover(final String deviceId, final String imgUrl,
+                           final IDevMediaMgr.OnCoverBitmapListener listener) {
+        String key = deviceId + "/" + imgUrl;
+        synchronized (mDataLock) {
+            CoverRequest request = mRequestMap.get(key);
+            if (request == null) {
+                return ErrCode.XERR_INVALID_PARAM;
+            }
+            request.mListenerList.remove(listener);
+        }
+        return ErrCode.XOK;
+    }
+
+    /**
+     * @brief 获取缓存统计信息
+     */
+    public IDevMediaMgr.CoverCacheStats getStats() {
+        IDevMediaMgr.CoverCacheStats stats = new IDevMediaMgr.CoverCacheStats();
+        synchronized (mDataLock) {
+            stats.mMemHitCount = mMemHitCount;
+            stats.mDiskHitCount = mDiskHitCount;
+            stats.mMissCount = mMissCount;
+            stats.mCoalescedCount = mCoalescedCount;
+            stats.mCancelledCount = mCancelledCount;
+            stats.mDiskBytes = Math.max(mDiskBytes, 0);
+            stats.mDiskMaxBytes = (mDiskDir != null) ? mDiskMaxBytes : 0;
+        }
+        stats.mMemBytes = mMemCache.size();
+        stats.mMemMaxBytes = mMemMaxBytes;
+        return stats;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////
+    //////////////// Methods for Override BaseThreadComp //////////////////////
+    //////////////////////////////////////////////////////////////////////////
+    @Override
+    protected void processWorkMessage(Message msg) {
+        switch (msg.what) {
+            case MSGID_COVER_LOAD:
+                onMessageCoverLoad(msg);
+                break;
+
+            case MSGID_COVER_DECODE:
+                onMessageCoverDecode(msg);
+                break;
+        }
+    }
+
+    @Override
+    protected void removeAllMessages() {
+        removeMessage(MSGID_COVER_LOAD);
+        removeMessage(MSGID_COVER_DECODE);
+        ALog.getInstance().d(TAG, "<removeAllMessages> done");
+    }
+
+    @Override
+    protected void processTaskFinsh() {
+        ALog.getInstance().d(TAG, "<processTaskFinsh> done");
+    }
+
+
+    /**
+     * @brief 工作线程中运行，先从磁盘缓存加载，没有时再从设备端获取
+     */
+    void onMessageCoverLoad(Message msg) {
+        CoverRequest request = (CoverRequest)msg.obj;
+        if (checkRequestCancelled(request)) {
+            ALog.getInstance().d(TAG, "<onMessageCoverLoad> cancelled, key=" + request.mKey);
+            return;
+        }
+
+        // 磁盘缓存
+        File diskFile = getDiskFile(request.mKey);
+        if ((diskFile != null) && diskFile.isFile()) {
+            Bitmap diskBmp = BitmapFactory.decodeFile(diskFile.getAbsolutePath());
+            if (diskBmp != null) {
+                diskFile.setLastModified(System.currentTimeMillis());   // 更新最近使用时间
+                mMemCache.put(request.mKey, diskBmp);
+                synchronized (mDataLock) {
+                    mDiskHitCount++;
+                }
+                completeRequest(request, ErrCode.XOK, diskBmp);
+                return;
+            }
+            deleteDiskFile(diskFile);  // 文件已经损坏
+        }
+
+        // 从设备端获取
+        synchronized (mDataLock) {
+            mMissCount++;
+        }
+        int ret = request.mFetcher.fetchCover(request.mImgUrl, new OnFetchDoneListener() {
+            @Override
+            public void onFetchDone(int errCode, String contentBase64) {
+                if (checkRequestCancelled(request)) {   // 获取过程中已经全部取消，丢弃数据
+                    ALog.getInstance().d(TAG, "<onFetchDone> cancelled, key=" + request.mKey);
+                    return;
+                }
+                request.mErrCode = errCode;
+                request.mContentBase64 = contentBase64;
+                sendMessage(MSGID_COVER_DECODE, 0, 0, request, 0);
+            }
+        });
+        if (ret != ErrCode.XOK) {
+            ALog.getInstance().e(TAG, "<onMessageCoverLoad> fail to fetch, ret=" + ret
+                    + ", key=" + request.mKey);
+            completeRequest(request, ret, null);
+        }
+    }
+
+    /**
+     * @brief 工作线程中运行，流式解码 base64 数据到磁盘缓存，然后解码图像
+     */
+    void onMessageCoverDecode(Message msg) {
+        CoverRequest request = (CoverRequest)msg.obj;
+        String contentBase64 = request.mContentBase64;
+        request.mContentBase64 = null;
+
+        if (checkRequestCancelled(request)) {   // 排队解码期间已经全部取消
+            ALog.getInstance().d(TAG, "<onMessageCoverDecode> cancelled, key=" + request.mKey);
+            return;
+        }
+        if (request.mErrCode != ErrCode.XOK) {
+            completeRequest(request, request.mErrCode, null);
+            return;
+        }
+        if ((contentBase64 == null) || contentBase64.isEmpty()) {
+            completeRequest(request, ErrCode.XERR_INVALID_PARAM, null);
+            return;
+        }
+
+        Bitmap coverBmp = null;
+        File diskFile = getDiskFile(request.mKey);
+        if (diskFile != null) {
+            // 解码后的数据直接写入磁盘缓存文件，不需要整块的中间缓冲区
+            File tempFile = new File(diskFile.getAbsolutePath() + ".tmp");
+            try (FileOutputStream fileStream = new FileOutputStream(tempFile)) {
+                decodeBase64(contentBase64, fileStream);
+            } catch (IOException ioExp) {
+                ALog.getInstance().e(TAG, "<onMessageCoverDecode> fail to write, exp=" + ioExp);
+                tempFile.delete();
+            }
+            long oldFileSize = diskFile.isFile() ? diskFile.length() : 0;  // 覆盖已有文件时扣除原来的大小
+            if (tempFile.isFile() && tempFile.renameTo(diskFile)) {
+                coverBmp = BitmapFactory.decodeFile(diskFile.getAbsolutePath());
+                if (coverBmp != null) {
+                    addDiskBytes(diskFile.length() - oldFileSize);
+                } else {
+                    diskFile.delete();
+                    if (oldFileSize > 0) {  // 原来的文件已经被覆盖
+                        addDiskBytes(-oldFileSize);
+                    }
+                }
+            }
+        }
+
+        if (coverBmp == null) {   // 没有磁盘缓存或者写入失败，在内存中解码
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream(contentBase64.length() * 3 / 4);
+            try {
+                decodeBase64(contentBase64, byteStream);
+                byte[] imgData = byteStream.toByteArray();
+                coverBmp = BitmapFactory.decodeByteArray(imgData, 0, imgData.length);
+            } catch (IOException ioExp) {
+                ALog.getInstance().e(TAG, "<onMessageCoverDecode> fail to decode, exp=" + ioExp);
+            }
+        }
+
+        if (coverBmp == null) {
+            ALog.getInstance().e(TAG, "<onMessageCoverDecode> fail to decode bitmap, key=" + request.mKey);
+            completeRequest(request, ErrCode.XERR_UNSUPPORTED, null);
+            return;
+        }
+
+        mMemCache.put(request.mKey, coverBmp);
+        completeRequest(request, ErrCode.XOK, coverBmp);
+    }
+
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 检查请求的所有等待者是否都已经取消，是则移除该请求
+     * @return 是否已经取消
+     */
+    private boolean checkRequestCancelled(final CoverRequest request) {
+        synchronized (mDataLock) {
+            if (!request.mListenerList.isEmpty()) {
+                return false;
+            }
+            mRequestMap.remove(request.mKey);
+            mCancelledCount++;
+        }
+        return true;
+    }
+
+    /**
+     * @brief 请求完成，回调所有还在等待的监听器
+     */
+    private void completeRequest(final CoverRequest request, int errCode, final Bitmap coverBmp) {
+        ArrayList<IDevMediaMgr.OnCoverBitmapListener> listenerList;
+        synchronized (mDataLock) {
+            mRequestMap.remove(request.mKey);
+            listenerList = new ArrayList<>(request.mListenerList);
+            request.mListenerList.clear();
+        }
+
+        for (IDevMediaMgr.OnCoverBitmapListener listener : listenerList) {
+            listener.onDevMediaCoverBitmapDone(errCode, request.mImgUrl, coverBmp);
+        }
+    }
+
+    /**
+     * @brief 分段将 base64 字符串解码输出，每次只转换一小段字符
+     */
+    private void decodeBase64(final String contentBase64, final OutputStream outStream) throws IOException {
+        Base64OutputStream decodeStream = new Base64OutputStream(outStream, Base64.NO_WRAP, false);
+        byte[] chunkBytes = new byte[DECODE_CHUNK_SIZE];
+        int length = contentBase64.length();
+        for (int begin = 0; begin < length; begin += DECODE_CHUNK_SIZE) {
+            int end = Math.min(begin + DECODE_CHUNK_SIZE, length);
+            for (int i = begin; i < end; i++) {   // base64 字符都是 ASCII
+                chunkBytes[i - begin] = (byte)contentBase64.charAt(i);
+            }
+            decodeStream.write(chunkBytes, 0, end - begin);
+        }
+        decodeStream.flush();
+        decodeStream.close();
+    }
+
+    /**
+     * @brief 根据缓存键值获取磁盘缓存文件，不使用磁盘缓存时返回null
+     */
+    private File getDiskFile(final String key) {
+        if (mDiskDir == null) {
+            return null;
+        }
+        String fileName;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(String.format("%02x", b));
+            }
+            fileName = builder.toString();
+        } catch (NoSuchAlgorithmException algExp) {
+            fileName = Integer.toHexString(key.hashCode());
+        }
+        return new File(mDiskDir, fileName);
+    }
+
+    /**
+     * @brief 删除磁盘缓存文件，同时更新统计的字节数
+     */
+    private void deleteDiskFile(final File diskFile) {
+        long fileSize = diskFile.length();
+        if (diskFile.delete()) {
+            synchronized (mDataLock) {
+                if (mDiskBytes >= fileSize) {
+                    mDiskBytes -= fileSize;
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief 增加磁盘缓存字节数，超过上限时按照最近使用时间删除最旧的文件
+     */
+    private void addDiskBytes(long fileSize) {
+        long diskBytes;
+        synchronized (mDataLock) {
+            if (mDiskBytes < 0) {   // 第一次时统计已有的缓存文件
+                mDiskBytes = 0;
+                File[] fileArray = mDiskDir.listFiles();
+                if (fileArray != null) {
+                    for (File file : fileArray) {
+                        mDiskBytes += file.length();
+                    }
+                }
+            } else {
+                mDiskBytes += fileSize;
+            }
+            diskBytes = mDiskBytes;
+        }
+        if (diskBytes <= mDiskMaxBytes) {
+            return;
+        }
+
+        // 删除最久未使用的文件，直到低于上限的 90%
+        File[] fileArray = mDiskDir.listFiles();
+        if (fileArray == null) {
+            return;
+        }
+        Arrays.sort(fileArray, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+        long targetBytes = mDiskMaxBytes * 9 / 10;
+        int deleteCount = 0;
+        for (File file : fileArray) {
+            if (diskBytes <= targetBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+                deleteCount++;
+            }
+        }
+        synchronized (mDataLock) {
+            mDiskBytes = diskBytes;
+        }
+        ALog.getInstance().d(TAG, "<addDiskBytes> trimmed, deleteCount=" + deleteCount
+                + ", diskBytes=" + diskBytes);
+    }
+}
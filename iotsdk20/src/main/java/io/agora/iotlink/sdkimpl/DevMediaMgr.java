@@ -54,6 +54,7 @@ public class DevMediaMgr implements IDevMediaMgr {
     //////////////////////// Constant Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
     private static final String TAG = "IOTSDK/DevMediaMgr";
+    private static final String EVENT_TIMELINE_CACHE_KEY = "EventTimeline";    ///< 事件分布查询没有参数，固定的缓存键值
 
 
     //
@@ -72,6 +73,12 @@ public class DevMediaMgr implements IDevMediaMgr {
     private View mDisplayView;      ///< 播放显示控件
     private DevPlayingInfo mPlayingInfo = new DevPlayingInfo();     ///< 当前播放状态信息
 
+    private final DevMediaQueryCache<List<DevMediaItem>> mMediaQueryCache = new DevMediaQueryCache<>();  ///< 媒体文件查询缓存
+    private final DevMediaQueryCache<List<Long>> mEventQueryCache = new DevMediaQueryCache<>();          ///< 事件分布查询缓存
+
+    private volatile int mBatchChunkSize = DevFileBatchTask.DEFAULT_CHUNK_SIZE;      ///< 批量删除下载时每一批的文件数量
+    private volatile int mBatchMaxInflight = DevFileBatchTask.DEFAULT_MAX_INFLIGHT;  ///< 批量删除下载时同时发送的批次数量
+
 
     ///////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods  ////////////////////////////
@@ -91,76 +98,77 @@ public class DevMediaMgr implements IDevMediaMgr {
 
     @Override
     public int queryMediaList(final QueryParam queryParam, final OnQueryListener queryListener) {
-        RtmQueryReqCmd queryReqCmd = new RtmQueryReqCmd();
-        queryReqCmd.mQueryParam.mFileId = queryParam.mFileId;
-        queryReqCmd.mQueryParam.mBeginTime = queryParam.mBeginTimestamp;
-        queryReqCmd.mQueryParam.mEndTime = queryParam.mEndTimestamp;
-
-        queryReqCmd.mSequenceId = RtmCmdSeqId.getSeuenceId();
-        queryReqCmd.mCmdId = IRtmCmd.CMDID_MEDIA_QUERY;
-        queryReqCmd.mDeviceId = mDeviceId;
-        queryReqCmd.mSendTimestamp = System.currentTimeMillis();
-
-        queryReqCmd.mRespListener = new IRtmCmd.OnRtmCmdRespListener() {
-            @Override
-            public void onRtmCmdResponsed(int commandId, int errCode, IRtmCmd reqCmd, IRtmCmd rspCmd) {
-                ALog.getInstance().d(TAG, "<queryMediaList.onRtmCmdResponsed> errCode=" + errCode);
-                RtmQueryRspCmd queryRspCmd = (RtmQueryRspCmd)rspCmd;
-                ArrayList<IDevMediaMgr.DevMediaItem> mediaList = new ArrayList<>();
-                if (queryRspCmd != null) {
-                    mediaList = queryRspCmd.mMediaList;
+        // 相同查询条件的结果可以直接从缓存中获取，或者合并到正在进行的查询中
+        String cacheKey = queryParam.mFileId + "|" + queryParam.mBeginTimestamp + "|" + queryParam.mEndTimestamp;
+        int ret = mMediaQueryCache.query(cacheKey,
+            new DevMediaQueryCache.IFetcher<List<DevMediaItem>>() {
+                @Override
+                public int fetch(DevMediaQueryCache.OnResultListener<List<DevMediaItem>> doneListener) {
+                    return sendQueryCmd(queryParam, doneListener);
                 }
-                queryListener.onDevMediaQueryDone(errCode, mediaList);
-            }
-        };
-
-        int ret = mSessionMgr.getRtmMgrComp().sendCommandToDev(queryReqCmd);
+            },
+            new DevMediaQueryCache.OnResultListener<List<DevMediaItem>>() {
+                @Override
+                public void onResult(int errCode, List<DevMediaItem> result) {
+                    // 缓存的列表会被多次回调，每次回调都给应用层独立的列表和媒体项，
+                    // 应用层修改返回的数据不会影响缓存
+                    ArrayList<IDevMediaMgr.DevMediaItem> mediaList = new ArrayList<>();
+                    if (result != null) {
+                        for (DevMediaItem mediaItem : result) {
+                            mediaList.add(copyMediaItem(mediaItem));
+                        }
+                    }
+                    queryListener.onDevMediaQueryDone(errCode, mediaList);
+                }
+            });
 
-        ALog.getInstance().d(TAG, "<queryMediaList> done, ret=" + ret
-                + ", queryReqCmd=" + queryReqCmd);
+        ALog.getInstance().d(TAG, "<queryMediaList> done, ret=" + ret + ", cacheKey=" + cacheKey);
         return ret;
     }
 
     @Override
     public int deleteMediaList(final List<String> deletingList, final OnDeleteListener deleteListener) {
-        RtmDeleteReqCmd deleteReqCmd = new RtmDeleteReqCmd();
-        int deletingCount = deletingList.size();
-        for (int i = 0; i < deletingCount; i++) {
-            String fileId = deletingList.get(i);
-            deleteReqCmd.mFileIdList.add(fileId);
-        }
-
-        deleteReqCmd.mSequenceId = RtmCmdSeqId.getSeuenceId();
-        deleteReqCmd.mCmdId = IRtmCmd.CMDID_MEDIA_DELETE;
-        deleteReqCmd.mDeviceId = mDeviceId;
-        deleteReqCmd.mSendTimestamp = System.currentTimeMillis();
+        // 文件数量较多时分批删除，每一批完成时都回调结果
+        DevFileBatchTask<DevMediaDelResult> batchTask = new DevFileBatchTask<>("delete", deletingList,
+                mBatchChunkSize, mBatchMaxInflight, ErrCode.XERR_MEDIAMGR_DEL_PARTIAL,
+                new DevFileBatchTask.IChunkHandler<DevMediaDelResult>() {
+            @Override
+            public int sendChunk(DevFileBatchTask<DevMediaDelResult> task, int chunkIndex, List<String> fileIdList) {
+                return sendDeleteCmd(task, chunkIndex, fileIdList);
+            }
 
-        deleteReqCmd.mRespListener = new IRtmCmd.OnRtmCmdRespListener() {
             @Override
-            public void onRtmCmdResponsed(int commandId, int errCode, IRtmCmd reqCmd, IRtmCmd rspCmd) {
-                ALog.getInstance().d(TAG, "<deleteMediaList.onRtmCmdResponsed> errCode=" + errCode);
-                RtmDeleteRspCmd deleteRspCmd = (RtmDeleteRspCmd)rspCmd;
+            public List<DevMediaDelResult> makeFailedResults(List<String> fileIdList, int errCode) {
                 ArrayList<DevMediaDelResult> delRsltList = new ArrayList<>();
-                if (deleteRspCmd != null) {
-                    int count = deleteRspCmd.mErrorList.size();
-                    for (int i = 0; i < count; i++) {
-                        DevFileDelErrInfo delErrInfo = deleteRspCmd.mErrorList.get(i);
+                for (String fileId : fileIdList) {
+                    DevMediaDelResult delResult = new DevMediaDelResult();
+                    delResult.mFileId = fileId;
+                    delResult.mErrCode = errCode;
+                    delRsltList.add(delResult);
+                }
+                return delRsltList;
+            }
 
-                        DevMediaDelResult delResult = new DevMediaDelResult();
-                        delResult.mFileId = delErrInfo.mFileId;
-                        delResult.mErrCode = delErrInfo.mDelErrCode;
-                        delRsltList.add(delResult);
-                    }
+            @Override
+            public void onChunkResult(int errCode, List<DevMediaDelResult> resultList, int finishedCount, int totalCount) {
+                if ((errCode == ErrCode.XOK) || (errCode == ErrCode.XERR_MEDIAMGR_DEL_PARTIAL)) {
+                    // 设备端文件已经变化，之前缓存的查询结果都失效
+                    mMediaQueryCache.invalidate();
+                    mEventQueryCache.invalidate();
                 }
+                deleteListener.onDevMediaDeleteProgress(errCode, resultList, finishedCount, totalCount);
+            }
 
-                deleteListener.onDevMediaDeleteDone(errCode, delRsltList);
+            @Override
+            public void onAllDone(int errCode, List<DevMediaDelResult> resultList) {
+                deleteListener.onDevMediaDeleteDone(errCode, resultList);
             }
-        };
+        });
 
-        int ret = mSessionMgr.getRtmMgrComp().sendCommandToDev(deleteReqCmd);
+        int ret = batchTask.start();
 
         ALog.getInstance().d(TAG, "<deleteMediaList> done, ret=" + ret
-                + ", deleteReqCmd=" + deleteReqCmd);
+                + ", deletingCount=" + deletingList.size() + ", chunkCount=" + batchTask.getChunkCount());
         return ret;
     }
 
@@ -196,71 +204,139 @@ public class DevMediaMgr implements IDevMediaMgr {
     }
 
     @Override
-    public int downloadFileList(final List<String> downloadList, final OnDownloadListener downloadListener) {
-        RtmDownloadReqCmd downloadReqCmd = new RtmDownloadReqCmd();
-        int downloadingCount = downloadList.size();
-        for (int i = 0; i < downloadingCount; i++) {
-            String fileId = downloadList.get(i);
-            downloadReqCmd.mFileIdList.add(fileId);
+    public int getMediaCoverBitmap(final String imgUrl, final OnCoverBitmapListener coverBmpListener) {
+        DevMediaCoverCache coverCache = mSessionMgr.getCoverCache();
+        if (coverCache == null) {
+            ALog.getInstance().e(TAG, "<getMediaCoverBitmap> bad state, cover cache not ready");
+            return ErrCode.XERR_BAD_STATE;
         }
 
-        downloadReqCmd.mSequenceId = RtmCmdSeqId.getSeuenceId();
-        downloadReqCmd.mCmdId = IRtmCmd.CMDID_FILE_DOWNLOAD;
-        downloadReqCmd.mDeviceId = mDeviceId;
-        downloadReqCmd.mSendTimestamp = System.currentTimeMillis();
+        int ret = coverCache.getCover(mDeviceId, imgUrl, new DevMediaCoverCache.ICoverFetcher() {
+            @Override
+            public int fetchCover(String fetchImgUrl, DevMediaCoverCache.OnFetchDoneListener doneListener) {
+                return sendCoverCmd(fetchImgUrl, doneListener);
+            }
+        }, coverBmpListener);
 
-        downloadReqCmd.mRespListener = new IRtmCmd.OnRtmCmdRespListener() {
+        ALog.getInstance().d(TAG, "<getMediaCoverBitmap> done, ret=" + ret + ", imgUrl=" + imgUrl);
+        return ret;
+    }
+
+    @Override
+    public int cancelMediaCoverBitmap(final String imgUrl, final OnCoverBitmapListener coverBmpListener) {
+        DevMediaCoverCache coverCache = mSessionMgr.getCoverCache();
+        if (coverCache == null) {
+            return ErrCode.XERR_BAD_STATE;
+        }
+        return coverCache.cancelCover(mDeviceId, imgUrl, coverBmpListener);
+    }
+
+    @Override
+    public CoverCacheStats getCoverCacheStats() {
+        DevMediaCoverCache coverCache = mSessionMgr.getCoverCache();
+        if (coverCache == null) {
+            return new CoverCacheStats();
+        }
+        return coverCache.getStats();
+    }
+
+    @Override
+    public int downloadFileList(final List<String> downloadList, final OnDownloadListener downloadListener) {
+        // 文件数量较多时分批下载，每一批完成时都回调结果
+        DevFileBatchTask<DevFileDownloadResult> batchTask = new DevFileBatchTask<>("download", downloadList,
+                mBatchChunkSize, mBatchMaxInflight, ErrCode.XERR_MEDIAMGR_DOWNLOAD_PARTIAL,
+                new DevFileBatchTask.IChunkHandler<DevFileDownloadResult>() {
             @Override
-            public void onRtmCmdResponsed(int commandId, int errCode, IRtmCmd reqCmd, IRtmCmd rspCmd) {
-                ALog.getInstance().d(TAG, "<downloadFileList.onRtmCmdResponsed> errCode=" + errCode);
+            public int sendChunk(DevFileBatchTask<DevFileDownloadResult> task, int chunkIndex, List<String> fileIdList) {
+                return sendDownloadCmd(task, chunkIndex, fileIdList);
+            }
 
-                RtmDownloadRspCmd downloadRspCmd = (RtmDownloadRspCmd)rspCmd;
+            @Override
+            public List<DevFileDownloadResult> makeFailedResults(List<String> fileIdList, int errCode) {
+                return null;    // 下载结果中只有成功的文件项
+            }
+
+            @Override
+            public void onChunkResult(int errCode, List<DevFileDownloadResult> resultList, int finishedCount, int totalCount) {
                 ArrayList<DevFileDownloadResult> dnloadRsltList = new ArrayList<>();
-                if (downloadRspCmd != null) {
-                    dnloadRsltList = downloadRspCmd.mDownloadList;
+                if (resultList != null) {
+                    dnloadRsltList.addAll(resultList);
                 }
-                downloadListener.onDevFileDownloadDone(errCode, dnloadRsltList);
+                downloadListener.onDevFileDownloadProgress(errCode, dnloadRsltList, finishedCount, totalCount);
             }
-        };
 
-        int ret = mSessionMgr.getRtmMgrComp().sendCommandToDev(downloadReqCmd);
+            @Override
+            public void onAllDone(int errCode, List<DevFileDownloadResult> resultList) {
+                downloadListener.onDevFileDownloadDone(errCode, resultList);
+            }
+        });
+
+        int ret = batchTask.start();
 
         ALog.getInstance().d(TAG, "<downloadFileList> done, ret=" + ret
-                + ", downloadReqCmd=" + downloadReqCmd);
+                + ", downloadCount=" + downloadList.size() + ", chunkCount=" + batchTask.getChunkCount());
         return ret;
     }
 
-
     @Override
-    public int queryEventTimeline(final OnQueryEventListener queryListener) {
-        RtmBaseCmd eventReqCmd = new RtmBaseCmd();
-
-        eventReqCmd.mSequenceId = RtmCmdSeqId.getSeuenceId();
-        eventReqCmd.mCmdId = IRtmCmd.CMDID_EVENTTIMELINE_QUERY;
-        eventReqCmd.mDeviceId = mDeviceId;
-        eventReqCmd.mSendTimestamp = System.currentTimeMillis();
+    public int setBatchParam(int chunkSize, int maxInflight) {
+        if ((chunkSize <= 0) || (maxInflight <= 0)) {
+            ALog.getInstance().e(TAG, "<setBatchParam> invalid param, chunkSize=" + chunkSize
+                    + ", maxInflight=" + maxInflight);
+            return ErrCode.XERR_INVALID_PARAM;
+        }
+        mBatchChunkSize = chunkSize;
+        mBatchMaxInflight = maxInflight;
+        ALog.getInstance().d(TAG, "<setBatchParam> done, chunkSize=" + chunkSize + ", maxInflight=" + maxInflight);
+        return ErrCode.XOK;
+    }
 
-        eventReqCmd.mRespListener = new IRtmCmd.OnRtmCmdRespListener() {
-            @Override
-            public void onRtmCmdResponsed(int commandId, int errCode, IRtmCmd reqCmd, IRtmCmd rspCmd) {
-                ALog.getInstance().d(TAG, "<queryEventTimeline.onRtmCmdResponsed> errCode=" + errCode);
 
-                RtmEventTimelineRspCmd eventRspCmd = (RtmEventTimelineRspCmd)rspCmd;
-                ArrayList<Long> videoTimeList = new ArrayList<>();
-                if (eventRspCmd != null) {
-                    videoTimeList = eventRspCmd.mVideoTimeList;
+    @Override
+    public int queryEventTimeline(final OnQueryEventListener queryListener) {
+        int ret = mEventQueryCache.query(EVENT_TIMELINE_CACHE_KEY,
+            new DevMediaQueryCache.IFetcher<List<Long>>() {
+                @Override
+                public int fetch(DevMediaQueryCache.OnResultListener<List<Long>> doneListener) {
+                    return sendEventTimelineCmd(doneListener);
                 }
-                queryListener.onDevQueryEventDone(errCode, videoTimeList);
-            }
-        };
-
-        int ret = mSessionMgr.getRtmMgrComp().sendCommandToDev(eventReqCmd);
+            },
+            new DevMediaQueryCache.OnResultListener<List<Long>>() {
+                @Override
+                public void onResult(int errCode, List<Long> result) {
+                    ArrayList<Long> videoTimeList = new ArrayList<>();
+                    if (result != null) {
+                        videoTimeList.addAll(result);
+                    }
+                    queryListener.onDevQueryEventDone(errCode, videoTimeList);
+                }
+            });
 
-        ALog.getInstance().d(TAG, "<queryEventTimeline> done, ret=" + ret
-                + ", eventReqCmd=" + eventReqCmd);
+        ALog.getInstance().d(TAG, "<queryEventTimeline> done, ret=" + ret);
         return ret;
     }
 
+    @Override
+    public int setQueryCacheParam(long ttl, int maxEntries) {
+        mMediaQueryCache.setParam(ttl, maxEntries);
+        mEventQueryCache.setParam(ttl, 1);
+        ALog.getInstance().d(TAG, "<setQueryCacheParam> done, ttl=" + ttl + ", maxEntries=" + maxEntries);
+        return ErrCode.XOK;
+    }
+
+    @Override
+    public QueryCacheStats getQueryCacheStats() {
+        QueryCacheStats mediaStats = mMediaQueryCache.getStats();
+        QueryCacheStats eventStats = mEventQueryCache.getStats();
+
+        QueryCacheStats stats = new QueryCacheStats();
+        stats.mHitCount = mediaStats.mHitCount + eventStats.mHitCount;
+        stats.mMissCount = mediaStats.mMissCount + eventStats.mMissCount;
+        stats.mCoalescedCount = mediaStats.mCoalescedCount + eventStats.mCoalescedCount;
+        stats.mEntryCount = mediaStats.mEntryCount + eventStats.mEntryCount;
+        return stats;
+    }
+
     @Override
     public int setDisplayView(final View displayView) {
         mDisplayView = displayView;
@@ -681,6 +757,208 @@ public class DevMediaMgr implements IDevMediaMgr {
         return playingState;
     }
 
+    ////////////////////////////////////////////////////////////////////////////
+    ///////////////////////// Methods of Media Query //////////////////////////
+    ////////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 发送媒体文件查询命令到设备端，一次RTM请求
+     */
+    int sendQueryCmd(final QueryParam queryParam,
+                     final DevMediaQueryCache.OnResultListener<List<DevMediaItem>> doneListener) {
+        RtmQueryReqCmd queryReqCmd = new RtmQueryReqCmd();
+        queryReqCmd.mQueryParam.mFileId = queryParam.mFileId;
+        queryReqCmd.mQueryParam.mBeginTime = queryParam.mBeginTimestamp;
+        queryReqCmd.mQueryParam.mEndTime = queryParam.mEndTimestamp;
+
+        queryReqCmd.mSequenceId = RtmCmdSeqId.getSeuenceId();
+        queryReqCmd.mCmdId = IRtmCmd.CMDID_MEDIA_QUERY;
+        queryReqCmd.mDeviceId = mDeviceId;
+        queryReqCmd.mSendTimestamp = System.currentTimeMillis();
+
+        queryReqCmd.mRespListener = new IRtmCmd.OnRtmCmdRespListener() {
+            @Override
+            public void onRtmCmdResponsed(int commandId, int errCode, IRtmCmd reqCmd, IRtmCmd rspCmd) {
+                ALog.getInstance().d(TAG, "<sendQueryCmd.onRtmCmdResponsed> errCode=" + errCode);
+                RtmQueryRspCmd queryRspCmd = (RtmQueryRspCmd)rspCmd;
+                ArrayList<IDevMediaMgr.DevMediaItem> mediaList = new ArrayList<>();
+                if ((queryRspCmd != null) && (queryRspCmd.mMediaList != null)) {
+                    mediaList = queryRspCmd.mMediaList;
+                }
+                doneListener.onResult(errCode, mediaList);
+            }
+        };
+
+        int ret = mSessionMgr.getRtmMgrComp().sendCommandToDev(queryReqCmd);
+
+        ALog.getInstance().d(TAG, "<sendQueryCmd> done, ret=" + ret
+                + ", queryReqCmd=" + queryReqCmd);
+        return ret;
+    }
+
+    /**
+     * @brief 深拷贝一个媒体项，包括其中的事件列表
+     */
+    static DevMediaItem copyMediaItem(final DevMediaItem srcItem) {
+        DevMediaItem dstItem = new DevMediaItem();
+        dstItem.mFileId = srcItem.mFileId;
+        dstItem.mStartTimestamp = srcItem.mStartTimestamp;
+        dstItem.mStopTimestamp = srcItem.mStopTimestamp;
+        dstItem.mType = srcItem.mType;
+        if (srcItem.mEventList != null) {
+            for (IDevMediaMgr.DevEventItem srcEvent : srcItem.mEventList) {
+                IDevMediaMgr.DevEventItem dstEvent = new IDevMediaMgr.DevEventItem();
+                dstEvent.mEventType = srcEvent.mEventType;
+                dstEvent.mStartTime = srcEvent.mStartTime;
+                dstEvent.mStopTime = srcEvent.mStopTime;
+                dstEvent.mPicUrl = srcEvent.mPicUrl;
+                dstEvent.mVideoUrl = srcEvent.mVideoUrl;
+                dstItem.mEventList.add(dstEvent);
+            }
+        }
+        return dstItem;
+    }
+
+    /**
+     * @brief 发送事件分布查询命令到设备端，一次RTM请求
+     */
+    int sendEventTimelineCmd(final DevMediaQueryCache.OnResultListener<List<Long>> doneListener) {
+        RtmBaseCmd eventReqCmd = new RtmBaseCmd();
+
+        eventReqCmd.mSequenceId = RtmCmdSeqId.getSeuenceId();
+        eventReqCmd.mCmdId = IRtmCmd.CMDID_EVENTTIMELINE_QUERY;
+        eventReqCmd.mDeviceId = mDeviceId;
+        eventReqCmd.mSendTimestamp = System.currentTimeMillis();
+
+        eventReqCmd.mRespListener = new IRtmCmd.OnRtmCmdRespListener() {
+            @Override
+            public void onRtmCmdResponsed(int commandId, int errCode, IRtmCmd reqCmd, IRtmCmd rspCmd) {
+                ALog.getInstance().d(TAG, "<sendEventTimelineCmd.onRtmCmdResponsed> errCode=" + errCode);
+
+                RtmEventTimelineRspCmd eventRspCmd = (RtmEventTimelineRspCmd)rspCmd;
+                ArrayList<Long> videoTimeList = new ArrayList<>();
+                if ((eventRspCmd != null) && (eventRspCmd.mVideoTimeList != null)) {
+                    videoTimeList = eventRspCmd.mVideoTimeList;
+                }
+                doneListener.onResult(errCode, videoTimeList);
+            }
+        };
+
+        int ret = mSessionMgr.getRtmMgrComp().sendCommandToDev(eventReqCmd);
+
+        ALog.getInstance().d(TAG, "<sendEventTimelineCmd> done, ret=" + ret
+                + ", eventReqCmd=" + eventReqCmd);
+        return ret;
+    }
+
+    /**
+     * @brief 发送封面获取命令到设备端，返回 base64 编码的封面数据
+     */
+    int sendCoverCmd(final String imgUrl, final DevMediaCoverCache.OnFetchDoneListener doneListener) {
+        RtmCoverReqCmd coverReqCmd = new RtmCoverReqCmd();
+        coverReqCmd.mImgUrl = imgUrl;
+
+        coverReqCmd.mSequenceId = RtmCmdSeqId.getSeuenceId();
+        coverReqCmd.mCmdId = IRtmCmd.CMDID_MEDIA_COVER;
+        coverReqCmd.mDeviceId = mDeviceId;
+        coverReqCmd.mSendTimestamp = System.currentTimeMillis();
+
+        coverReqCmd.mRespListener = new IRtmCmd.OnRtmCmdRespListener() {
+            @Override
+            public void onRtmCmdResponsed(int commandId, int errCode, IRtmCmd reqCmd, IRtmCmd rspCmd) {
+                ALog.getInstance().d(TAG, "<sendCoverCmd.onRtmCmdResponsed> errCode=" + errCode);
+                RtmCoverRspCmd coverRspCmd = (RtmCoverRspCmd)rspCmd;
+                String contentBase64 = (coverRspCmd != null) ? coverRspCmd.mContentBase64 : null;
+                doneListener.onFetchDone(errCode, contentBase64);
+            }
+        };
+
+        int ret = mSessionMgr.getRtmMgrComp().sendCommandToDev(coverReqCmd);
+
+        ALog.getInstance().d(TAG, "<sendCoverCmd> done, ret=" + ret
+                + ", coverReqCmd=" + coverReqCmd);
+        return ret;
+    }
+
+    /**
+     * @brief 发送一批文件的删除命令到设备端
+     */
+    int sendDeleteCmd(final DevFileBatchTask<DevMediaDelResult> batchTask, final int chunkIndex,
+                      final List<String> fileIdList) {
+        RtmDeleteReqCmd deleteReqCmd = new RtmDeleteReqCmd();
+        deleteReqCmd.mFileIdList.addAll(fileIdList);
+
+        deleteReqCmd.mSequenceId = RtmCmdSeqId.getSeuenceId();
+        deleteReqCmd.mCmdId = IRtmCmd.CMDID_MEDIA_DELETE;
+        deleteReqCmd.mDeviceId = mDeviceId;
+        deleteReqCmd.mSendTimestamp = System.currentTimeMillis();
+
+        deleteReqCmd.mRespListener = new IRtmCmd.OnRtmCmdRespListener() {
+            @Override
+            public void onRtmCmdResponsed(int commandId, int errCode, IRtmCmd reqCmd, IRtmCmd rspCmd) {
+                ALog.getInstance().d(TAG, "<sendDeleteCmd.onRtmCmdResponsed> errCode=" + errCode
+                        + ", chunkIndex=" + chunkIndex);
+                RtmDeleteRspCmd deleteRspCmd = (RtmDeleteRspCmd)rspCmd;
+                ArrayList<DevMediaDelResult> delRsltList = new ArrayList<>();
+                if ((deleteRspCmd != null) && ((errCode == ErrCode.XOK) || !deleteRspCmd.mErrorList.isEmpty())) {
+                    int count = deleteRspCmd.mErrorList.size();
+                    for (int i = 0; i < count; i++) {
+                        DevFileDelErrInfo delErrInfo = deleteRspCmd.mErrorList.get(i);
+
+                        DevMediaDelResult delResult = new DevMediaDelResult();
+                        delResult.mFileId = delErrInfo.mFileId;
+                        delResult.mErrCode = delErrInfo.mDelErrCode;
+                        delRsltList.add(delResult);
+                    }
+                } else {
+                    delRsltList = null;     // 超时或者发送失败，由批量任务生成该批次的失败结果
+                }
+
+                batchTask.onChunkDone(chunkIndex, errCode, delRsltList);
+            }
+        };
+
+        int ret = mSessionMgr.getRtmMgrComp().sendCommandToDev(deleteReqCmd);
+
+        ALog.getInstance().d(TAG, "<sendDeleteCmd> done, ret=" + ret
+                + ", deleteReqCmd=" + deleteReqCmd);
+        return ret;
+    }
+
+    /**
+     * @brief 发送一批文件的下载命令到设备端
+     */
+    int sendDownloadCmd(final DevFileBatchTask<DevFileDownloadResult> batchTask, final int chunkIndex,
+                        final List<String> fileIdList) {
+        RtmDownloadReqCmd downloadReqCmd = new RtmDownloadReqCmd();
+        downloadReqCmd.mFileIdList.addAll(fileIdList);
+
+        downloadReqCmd.mSequenceId = RtmCmdSeqId.getSeuenceId();
+        downloadReqCmd.mCmdId = IRtmCmd.CMDID_FILE_DOWNLOAD;
+        downloadReqCmd.mDeviceId = mDeviceId;
+        downloadReqCmd.mSendTimestamp = System.currentTimeMillis();
+
+        downloadReqCmd.mRespListener = new IRtmCmd.OnRtmCmdRespListener() {
+            @Override
+            public void onRtmCmdResponsed(int commandId, int errCode, IRtmCmd reqCmd, IRtmCmd rspCmd) {
+                ALog.getInstance().d(TAG, "<sendDownloadCmd.onRtmCmdResponsed> errCode=" + errCode
+                        + ", chunkIndex=" + chunkIndex);
+
+                RtmDownloadRspCmd downloadRspCmd = (RtmDownloadRspCmd)rspCmd;
+                ArrayList<DevFileDownloadResult> dnloadRsltList = null;  // 超时或者发送失败时由批量任务生成失败结果
+                if ((downloadRspCmd != null) && ((errCode == ErrCode.XOK) || !downloadRspCmd.mDownloadList.isEmpty())) {
+                    dnloadRsltList = downloadRspCmd.mDownloadList;
+                }
+                batchTask.onChunkDone(chunkIndex, errCode, dnloadRsltList);
+            }
+        };
+
+        int ret = mSessionMgr.getRtmMgrComp().sendCommandToDev(downloadReqCmd);
+
+        ALog.getInstance().d(TAG, "<sendDownloadCmd> done, ret=" + ret
+                + ", downloadReqCmd=" + downloadReqCmd);
+        return ret;
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     /////////////////////////// Methods of RtcEngine ///////////////////////////
     ////////////////////////////////////////////////////////////////////////////
@@ -0,0 +1,220 @@
+package io.agora.iotlink.sdkimpl;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.agora.iotlink.ErrCode;
+import io.agora.iotlink.IDevMediaMgr;
+
+
+/**
+ * @brief 设备媒体查询结果缓存，每个会话一个实例
+ *        1. 查询成功的结果按照查询条件缓存，有过期时间，超过容量时按照 LRU 淘汰
+ *        2. 相同查询条件正在进行中时，新的查询直接合并等待，一次 RTM 请求回调所有等待者
+ *        3. 设备端文件有变化(例如删除成功)时，调用 invalidate() 使所有缓存失效
+ */
+public class DevMediaQueryCache<T> {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/DevMediaQueryCache";
+    public static final long DEFAULT_TTL = 30000;           ///< 默认缓存有效时间 30秒
+    public static final int DEFAULT_MAX_ENTRIES = 64;       ///< 默认最多缓存的查询结果数量
+
+
+    /**
+     * @brief 查询结果回调
+     */
+    public interface OnResultListener<T> {
+        void onResult(int errCode, final T result);
+    }
+
+    /**
+     * @brief 实际执行一次查询请求(一次 RTM 往返)，完成后必须回调 doneListener
+     */
+    public interface IFetcher<T> {
+        int fetch(final OnResultListener<T> doneListener);
+    }
+
+    private static class CacheEntry<T> {
+        T mResult;
+        long mExpireTime;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final Object mDataLock = new Object();
+    private final LinkedHashMap<String, CacheEntry<T>> mEntryMap;       ///< 按访问顺序排列，用于LRU淘汰
+    private final HashMap<String, ArrayList<OnResultListener<T>>> mPendingMap = new HashMap<>();  ///< 正在进行的查询
+    private long mTtl;
+    private int mMaxEntries;
+    private long mGeneration = 0;       ///< 每次失效时递增，之前发出的查询结果不再写入缓存
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+    private long mCoalescedCount = 0;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public DevMediaQueryCache() {
+        this(DEFAULT_TTL, DEFAULT_MAX_ENTRIES);
+    }
+
+    public DevMediaQueryCache(long ttl, int maxEntries) {
+        mTtl = ttl;
+        mMaxEntries = maxEntries;
+        mEntryMap = new LinkedHashMap<String, CacheEntry<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<T>> eldest) {
+                return (size() > mMaxEntries);
+            }
+        };
+    }
+
+    /**
+     * @brief 设置缓存有效时间和最大缓存数量
+     * @param ttl : 缓存有效时间(毫秒)，小于等于0 表示不缓存结果，只合并相同的并发查询
+     * @param maxEntries : 最大缓存数量
+     */
+    public void setParam(long ttl, int maxEntries) {
+        synchronized (mDataLock) {
+            mTtl = ttl;
+            mMaxEntries = (maxEntries > 0) ? maxEntries : 1;
+            if (mTtl <= 0) {
+                mEntryMap.clear();
+            }
+            while (mEntryMap.size() > mMaxEntries) {
+                Iterator<String> it = mEntryMap.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @brief 进行查询，命中缓存时在调用线程中直接回调，否则合并到正在进行的查询或者发起新查询
+     * @param key : 查询条件对应的缓存键值
+     * @param fetcher : 发起实际查询请求
+     * @param listener : 查询结果回调
+     * @return 错误码
+     */
+    public int query(final String key, final IFetcher<T> fetcher, final OnResultListener<T> listener) {
+        T cachedResult = null;
+        long generation;
+
+        synchronized (mDataLock) {
+            CacheEntry<T> entry = mEntryMap.get(key);
+            if (entry != null) {
+                if (entry.mExpireTime > System.currentTimeMillis()) {
+                    mHitCount++;
+                    cachedResult = entry.mResult;
+                } else {
+                    mEntryMap.remove(key);     // 已经过期
+                }
+            }
+
+            if (cachedResult == null) {
+                ArrayList<OnResultListener<T>> waitingList = mPendingMap.get(key);
+                if (waitingList != null) {  // 相同的查询正在进行中，直接合并等待
+                    waitingList.add(listener);
+                    mCoalescedCount++;
+                    return ErrCode.XOK;
+                }
+
+                waitingList = new ArrayList<>();
+                waitingList.add(listener);
+                mPendingMap.put(key, waitingList);
+                mMissCount++;
+            }
+            generation = mGeneration;
+        }
+
+        if (cachedResult != null) {  // 缓存命中
+            listener.onResult(ErrCode.XOK, cachedResult);
+            return ErrCode.XOK;
+        }
+
+        // 发起实际查询
+        final long fetchGeneration = generation;
+        int ret = fetcher.fetch(new OnResultListener<T>() {
+            @Override
+            public void onResult(int errCode, T result) {
+                onFetchDone(key, fetchGeneration, errCode, result);
+            }
+        });
+        if (ret != ErrCode.XOK) {
+            // 请求没有发出，通知期间合并进来的其他等待者，当前调用者直接通过返回值得到错误
+            ArrayList<OnResultListener<T>> waitingList;
+            synchronized (mDataLock) {
+                waitingList = mPendingMap.remove(key);
+            }
+            if (waitingList != null) {
+                for (OnResultListener<T> waiting : waitingList) {
+                    if (waiting != listener) {
+                        waiting.onResult(ret, null);
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @brief 使所有缓存的结果失效，正在进行的查询结果也不会再写入缓存
+     */
+    public void invalidate() {
+        synchronized (mDataLock) {
+            mEntryMap.clear();
+            mGeneration++;
+        }
+    }
+
+    /**
+     * @brief 获取缓存统计信息
+     */
+    public IDevMediaMgr.QueryCacheStats getStats() {
+        IDevMediaMgr.QueryCacheStats stats = new IDevMediaMgr.QueryCacheStats();
+        synchronized (mDataLock) {
+            stats.mHitCount = mHitCount;
+            stats.mMissCount = mMissCount;
+            stats.mCoalescedCount = mCoalescedCount;
+            stats.mEntryCount = mEntryMap.size();
+        }
+        return stats;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 查询完成，成功时写入缓存，然后回调所有等待者
+     */
+    private void onFetchDone(final String key, long generation, int errCode, T result) {
+        ArrayList<OnResultListener<T>> waitingList;
+        synchronized (mDataLock) {
+            waitingList = mPendingMap.remove(key);
+            if ((errCode == ErrCode.XOK) && (result != null) && (generation == mGeneration) && (mTtl > 0)) {
+                CacheEntry<T> entry = new CacheEntry<>();
+                entry.mResult = result;
+                entry.mExpireTime = System.currentTimeMillis() + mTtl;
+                mEntryMap.put(key, entry);
+            }
+        }
+
+        if (waitingList == null) {
+            return;
+        }
+        for (OnResultListener<T> waiting : waitingList) {
+            waiting.onResult(errCode, result);
+        }
+    }
+}
@@ -90,7 +90,13 @@ public class DevPreviewMgr  implements IDevPreviewMgr {
 
     @Override
     public int recordingStart(final String outFilePath) {
-        int ret = mSessionMgr.recordingStart(mSessionId, outFilePath);
+        int ret = mSessionMgr.recordingStart(mSessionId, outFilePath, RECORD_MODE_TRANSCODE);
+        return ret;
+    }
+
+    @Override
+    public int recordingStart(final String outFilePath, int recordMode) {
+        int ret = mSessionMgr.recordingStart(mSessionId, outFilePath, recordMode);
         return ret;
     }
 
@@ -106,6 +112,43 @@ public class DevPreviewMgr  implements IDevPreviewMgr {
         return recording;
     }
 
+    @Override
+    public int preRecordStart(int durationSec) {
+        int ret = mSessionMgr.preRecordStart(mSessionId, durationSec, RECORD_MODE_TRANSCODE);
+        return ret;
+    }
+
+    @Override
+    public int preRecordStart(int durationSec, int recordMode) {
+        int ret = mSessionMgr.preRecordStart(mSessionId, durationSec, recordMode);
+        return ret;
+    }
+
+    @Override
+    public int preRecordStop() {
+        int ret = mSessionMgr.preRecordStop(mSessionId);
+        return ret;
+    }
+
+    @Override
+    public int preRecordSave(final String outFilePath, int postDurationSec) {
+        int ret = mSessionMgr.preRecordSave(mSessionId, outFilePath, postDurationSec, null);
+        return ret;
+    }
+
+    @Override
+    public int preRecordSave(final String outFilePath, int postDurationSec,
+                             final OnPreRecordSaveListener saveListener) {
+        int ret = mSessionMgr.preRecordSave(mSessionId, outFilePath, postDurationSec, saveListener);
+        return ret;
+    }
+
+    @Override
+    public boolean isPreRecording() {
+        boolean preRecording = mSessionMgr.isPreRecording(mSessionId);
+        return preRecording;
+    }
+
     @Override
     public int captureVideoFrame(final String saveFilePath, final OnCaptureFrameListener captureListener) {
         int ret = mSessionMgr.captureVideoFrame(mSessionId, saveFilePath, captureListener);
@@ -142,6 +185,12 @@ public class DevPreviewMgr  implements IDevPreviewMgr {
         return networkStatus;
     }
 
+    @Override
+    public RenderCallbackStats getRenderCallbackStats() {
+        RenderCallbackStats renderStats = mSessionMgr.getRenderCallbackStats(mSessionId);
+        return renderStats;
+    }
+
     @Override
     public int setPlaybackVolume(int volumeLevel) {
         int ret = mSessionMgr.setPlaybackVolume(mSessionId, volumeLevel);
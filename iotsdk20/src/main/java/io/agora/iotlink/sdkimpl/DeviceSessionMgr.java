@@ -70,6 +70,7 @@ public class DeviceSessionMgr extends BaseThreadComp
     private static final int MSGID_SDK_RENEW_TOKEN = 0x1009;     ///< renew token处理
     private static final int MSGID_DEVMEDIAMGR_DEVONLINE = 0x100A;     ///< 消息处理SD卡播放时设备上线
     private static final int MSGID_DEVMEDIAMGR_DEVOFFLINE = 0x100B;     ///< 消息处理SD卡播放时设备下线
+    private static final int MSGID_SDK_PRERECORD_SAVED = 0x100C;  ///< 预录保存完成回调
 
 
     ////////////////////////////////////////////////////////////////////////
@@ -88,6 +89,7 @@ public class DeviceSessionMgr extends BaseThreadComp
     private static final Object mTalkEngLock = new Object();    ///< 通话引擎同步访问锁
 
     private RtmMgrComp mRtmComp;                                ///< RTM组件
+    private DevMediaCoverCache mCoverCache;                     ///< 设备媒体封面缓存，所有会话共用
 
     private BaseEvent mDisconnectEvent = new BaseEvent();
 
@@ -120,6 +122,9 @@ public class DeviceSessionMgr extends BaseThreadComp
             return ErrCode.XERR_UNSUPPORTED;
         }
 
+        // 创建封面缓存，磁盘缓存放在应用的缓存目录中
+        mCoverCache = new DevMediaCoverCache();
+        mCoverCache.initialize((initParam.mContext != null) ? initParam.mContext.getCacheDir() : null);
 
         // 启动组件线程
         runStart(TAG);
@@ -146,6 +151,12 @@ public class DeviceSessionMgr extends BaseThreadComp
             mRtmComp = null;
         }
 
+        // 销毁封面缓存
+        if (mCoverCache != null) {
+            mCoverCache.release();
+            mCoverCache = null;
+        }
+
         long t2 = System.currentTimeMillis();
         ALog.getInstance().i(TAG, "<release> done, costTime=" + (t2-t1));
         ALog.getInstance().release();
@@ -339,6 +350,10 @@ public class DeviceSessionMgr extends BaseThreadComp
         return mRtmComp;
     }
 
+    public DevMediaCoverCache getCoverCache() {
+        return mCoverCache;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     //////////////// Methods for Override BaseThreadComp //////////////////////
     //////////////////////////////////////////////////////////////////////////
@@ -354,6 +369,9 @@ public class DeviceSessionMgr extends BaseThreadComp
             case MSGID_SDK_DEV_SHOTTAKEN:
                 onMessageSnapshotTaken(msg);
                 break;
+            case MSGID_SDK_PRERECORD_SAVED:
+                onMessagePreRecordSaved(msg);
+                break;
 
 
             case MSGID_SDK_CONNECT_DEV:
@@ -385,20 +403,17 @@ public class DeviceSessionMgr extends BaseThreadComp
 
     @Override
     protected void removeAllMessages() {
-        synchronized (mMsgQueueLock) {
-            if (mWorkHandler != null) {
-                mWorkHandler.removeMessages(MSGID_SDK_CONNECT_DONE);
-                mWorkHandler.removeMessages(MSGID_SDK_DEV_OFFLINE);
-                mWorkHandler.removeMessages(MSGID_SDK_DEV_FIRSTFRAME);
-                mWorkHandler.removeMessages(MSGID_SDK_DEV_SHOTTAKEN);
-                mWorkHandler.removeMessages(MSGID_SDK_TIMER);
-                mWorkHandler.removeMessages(MSGID_SDK_CONNECT_DEV);
-                mWorkHandler.removeMessages(MSGID_SDK_DISCONNECT_DEV);
-                mWorkHandler.removeMessages(MSGID_SDK_RENEW_TOKEN);
-                mWorkHandler.removeMessages(MSGID_DEVMEDIAMGR_DEVONLINE);
-                mWorkHandler.removeMessages(MSGID_DEVMEDIAMGR_DEVOFFLINE);
-            }
-        }
+        removeMessage(MSGID_SDK_CONNECT_DONE);
+        removeMessage(MSGID_SDK_DEV_OFFLINE);
+        removeMessage(MSGID_SDK_DEV_FIRSTFRAME);
+        removeMessage(MSGID_SDK_DEV_SHOTTAKEN);
+        removeMessage(MSGID_SDK_PRERECORD_SAVED);
+        removeMessage(MSGID_SDK_TIMER);
+        removeMessage(MSGID_SDK_CONNECT_DEV);
+        removeMessage(MSGID_SDK_DISCONNECT_DEV);
+        removeMessage(MSGID_SDK_RENEW_TOKEN);
+        removeMessage(MSGID_DEVMEDIAMGR_DEVONLINE);
+        removeMessage(MSGID_DEVMEDIAMGR_DEVOFFLINE);
     }
 
     @Override
@@ -429,6 +444,7 @@ public class DeviceSessionMgr extends BaseThreadComp
             if (sessionCtx.mDevPreviewMgr != null) {
                 sessionCtx.mDevPreviewMgr.previewStop();
                 sessionCtx.mDevPreviewMgr.recordingStop();
+                sessionCtx.mDevPreviewMgr.preRecordStop();
             }
 
             // 停止设备端播放
@@ -560,6 +576,7 @@ public class DeviceSessionMgr extends BaseThreadComp
         if (removeSession.mDevPreviewMgr != null) {
 //            removeSession.mDevPreviewMgr.previewStop();  // 比较耗时，离开频道即可
             removeSession.mDevPreviewMgr.recordingStop();
+            removeSession.mDevPreviewMgr.preRecordStop();
         }
 
         // 停止设备端播放
@@ -600,6 +617,7 @@ public class DeviceSessionMgr extends BaseThreadComp
         if (sessionCtx.mDevPreviewMgr != null) {
             sessionCtx.mDevPreviewMgr.previewStop();
             sessionCtx.mDevPreviewMgr.recordingStop();
+            sessionCtx.mDevPreviewMgr.preRecordStop();
         }
 
         // 停止设备端播放
@@ -675,6 +693,25 @@ public class DeviceSessionMgr extends BaseThreadComp
         }
     }
 
+    /**
+     * @brief 工作线程中运行，预录保存完成
+     */
+    void onMessagePreRecordSaved(Message msg) {
+        Object[] params = (Object[])msg.obj;
+        UUID sessionId = (UUID)(params[0]);
+        String filePath = (String) (params[1]);
+        Integer errCode = (Integer) (params[2]);
+
+        SessionCtx sessionCtx = mSessionMgr.getSession(sessionId);
+        if (sessionCtx == null) {
+            ALog.getInstance().w(TAG, "<onMessagePreRecordSaved> session removed, sessionId=" + sessionId);
+            return;
+        }
+        ALog.getInstance().i(TAG, "<onMessagePreRecordSaved> sessionCtx=" + sessionCtx
+                + ", filePath=" + filePath + ", errCode=" + errCode);
+        CallbackPreRecordSaveDone(sessionCtx, errCode, filePath);
+    }
+
     /**
      * @brief 工作线程中运行，Renew Token处理
      */
@@ -848,8 +885,9 @@ public class DeviceSessionMgr extends BaseThreadComp
     @Override
     public void onRenderVideoFrame(final String channelId, int uid, VideoFrame videoFrame) {
 
-        // 先处理设备SD卡播放播放的会话
-        SessionCtx playerSession = mDevPlayerMgr.findSessionByChannelInfo(channelId, uid);
+        // 先处理设备SD卡播放播放的会话，没有SD卡播放时不需要查找
+        SessionCtx playerSession = (mDevPlayerMgr.size() > 0) ?
+                mDevPlayerMgr.findSessionByChannelInfo(channelId, uid) : null;
         if ((playerSession != null) && (playerSession.mDevMediaMgr != null)
                 && (playerSession.mDeviceRtcUid == uid)) {
             if (!playerSession.mRecvedFirstFrame) {  // 还没有收到首帧
@@ -905,6 +943,16 @@ public class DeviceSessionMgr extends BaseThreadComp
     }
 
 
+    @Override
+    public void onPreRecordSaveDone(final UUID sessionId, final String filePath, int errCode) {
+        ALog.getInstance().d(TAG, "<onPreRecordSaveDone> sessionId=" + sessionId
+                + ", filePath=" + filePath + ", errCode=" + errCode);
+
+        // 发送预录保存完成回调事件，不能在编码线程中回调
+        Object[] params = { sessionId, filePath, errCode};
+        sendMessage(MSGID_SDK_PRERECORD_SAVED, 0, 0, params, 0);
+    }
+
     @Override
     public void onRecordingError(final UUID sessionId, int errCode) {
         // 先处理设备播放的会话
@@ -1366,7 +1414,7 @@ public class DeviceSessionMgr extends BaseThreadComp
         return (ret ? ErrCode.XOK : ErrCode.XERR_UNSUPPORTED);
     }
 
-    public int recordingStart(final UUID sessionId, final String outFilePath) {
+    public int recordingStart(final UUID sessionId, final String outFilePath, int recordMode) {
         SessionCtx sessionCtx = mSessionMgr.getSession(sessionId);
         if (sessionCtx == null) {
             ALog.getInstance().e(TAG, "<recordingStart> not found session, sessionId=" + sessionId);
@@ -1375,11 +1423,11 @@ public class DeviceSessionMgr extends BaseThreadComp
 
         int ret;
         synchronized (mTalkEngLock) {
-            ret = mTalkEngine.recordingStart(sessionCtx, outFilePath);
+            ret = mTalkEngine.recordingStart(sessionCtx, outFilePath, recordMode);
         }
 
         ALog.getInstance().d(TAG, "<recordingStart> done, sessionId=" + sessionId
-                + ", ret=" + ret + ", outFilePath=" + outFilePath);
+                + ", ret=" + ret + ", outFilePath=" + outFilePath + ", recordMode=" + recordMode);
         return (ret == Constants.ERR_OK) ? ErrCode.XOK : ErrCode.XERR_UNSUPPORTED;
     }
 
@@ -1417,6 +1465,79 @@ public class DeviceSessionMgr extends BaseThreadComp
         return recording;
     }
 
+    public int preRecordStart(final UUID sessionId, int durationSec, int recordMode) {
+        SessionCtx sessionCtx = mSessionMgr.getSession(sessionId);
+        if (sessionCtx == null) {
+            ALog.getInstance().e(TAG, "<preRecordStart> not found session, sessionId=" + sessionId);
+            return ErrCode.XERR_INVALID_PARAM;
+        }
+
+        int ret;
+        synchronized (mTalkEngLock) {
+            ret = mTalkEngine.preRecordStart(sessionCtx, durationSec, recordMode);
+        }
+
+        ALog.getInstance().d(TAG, "<preRecordStart> done, sessionId=" + sessionId
+                + ", ret=" + ret + ", durationSec=" + durationSec + ", recordMode=" + recordMode);
+        return (ret == Constants.ERR_OK) ? ErrCode.XOK : ErrCode.XERR_UNSUPPORTED;
+    }
+
+    public int preRecordStop(final UUID sessionId) {
+        SessionCtx sessionCtx = mSessionMgr.getSession(sessionId);
+        if (sessionCtx == null) {
+            ALog.getInstance().e(TAG, "<preRecordStop> not found session, sessionId=" + sessionId);
+            return ErrCode.XERR_INVALID_PARAM;
+        }
+
+        int ret;
+        synchronized (mTalkEngLock) {
+            ret = mTalkEngine.preRecordStop(sessionCtx);
+        }
+
+        ALog.getInstance().d(TAG, "<preRecordStop> done, sessionId=" + sessionId
+                + ", ret=" + ret );
+        return (ret == Constants.ERR_OK) ? ErrCode.XOK : ErrCode.XERR_UNSUPPORTED;
+    }
+
+    public int preRecordSave(final UUID sessionId, final String outFilePath, int postDurationSec,
+                             final IDevPreviewMgr.OnPreRecordSaveListener saveListener) {
+        SessionCtx sessionCtx = mSessionMgr.getSession(sessionId);
+        if (sessionCtx == null) {
+            ALog.getInstance().e(TAG, "<preRecordSave> not found session, sessionId=" + sessionId);
+            return ErrCode.XERR_INVALID_PARAM;
+        }
+
+        // 更新 session中预录保存回调
+        sessionCtx.mPreRecordSaveListener = saveListener;
+        mSessionMgr.updateSession(sessionCtx);
+
+        int ret;
+        synchronized (mTalkEngLock) {
+            ret = mTalkEngine.preRecordSave(sessionCtx, outFilePath, postDurationSec);
+        }
+
+        ALog.getInstance().d(TAG, "<preRecordSave> done, sessionId=" + sessionId
+                + ", ret=" + ret + ", outFilePath=" + outFilePath + ", postDurationSec=" + postDurationSec);
+        return (ret == Constants.ERR_OK) ? ErrCode.XOK : ErrCode.XERR_UNSUPPORTED;
+    }
+
+    public boolean isPreRecording(final UUID sessionId) {
+        SessionCtx sessionCtx = mSessionMgr.getSession(sessionId);
+        if (sessionCtx == null) {
+            ALog.getInstance().e(TAG, "<isPreRecording> not found session, sessionId=" + sessionId);
+            return false;
+        }
+
+        boolean preRecording;
+        synchronized (mTalkEngLock) {
+            preRecording = mTalkEngine.isPreRecording(sessionCtx);
+        }
+
+        ALog.getInstance().d(TAG, "<isPreRecording> done, sessionId=" + sessionId
+                + ", preRecording=" + preRecording );
+        return preRecording;
+    }
+
 
     public IDevPreviewMgr.RtcNetworkStatus getNetworkStatus(final UUID sessionId) {
         SessionCtx sessionCtx = mSessionMgr.getSession(sessionId);
@@ -1434,6 +1555,23 @@ public class DeviceSessionMgr extends BaseThreadComp
         return networkStatus;
     }
 
+    public IDevPreviewMgr.RenderCallbackStats getRenderCallbackStats(final UUID sessionId) {
+        SessionCtx sessionCtx = mSessionMgr.getSession(sessionId);
+        if (sessionCtx == null) {
+            ALog.getInstance().e(TAG, "<getRenderCallbackStats> not found session, sessionId=" + sessionId);
+            return null;
+        }
+
+        IDevPreviewMgr.RenderCallbackStats renderStats;
+        synchronized (mTalkEngLock) {
+            renderStats = mTalkEngine.getRenderStats(sessionCtx);
+        }
+
+        ALog.getInstance().d(TAG, "<getRenderCallbackStats> done, sessionId=" + sessionId
+                + ", renderStats=" + renderStats);
+        return renderStats;
+    }
+
     public int setPlaybackVolume(final UUID sessionId, int volumeLevel) {
         SessionCtx sessionCtx = mSessionMgr.getSession(sessionId);
         if (sessionCtx == null) {
@@ -1602,6 +1740,12 @@ public class DeviceSessionMgr extends BaseThreadComp
         }
     }
 
+    void CallbackPreRecordSaveDone(final SessionCtx sessionCtx, int errCode, final String filePath) {
+        if (sessionCtx.mPreRecordSaveListener != null) {
+            sessionCtx.mPreRecordSaveListener.onPreRecordSaveDone(sessionCtx.mSessionId, errCode, filePath);
+        }
+    }
+
     void CallbackShotTakeDone(final SessionCtx sessionCtx, int errCode, final String filePath,
                               int width, int height) {
         if (sessionCtx.mCaptureListener != null) {
@@ -146,4 +146,9 @@ public class ImageConvert
                                        int width, int height,
                                        int yStride, int uStride, int vStride,
                                        byte[] dstYbytes, byte[] dstUbytes, byte[] dstVbytes);
+
+    public native int ImgCvt_I420ToNv12(Object yBuffer, Object uBuffer, Object vBuffer,
+                                        int width, int height,
+                                        int yStride, int uStride, int vStride,
+                                        byte[] nv12Buffer);
 }
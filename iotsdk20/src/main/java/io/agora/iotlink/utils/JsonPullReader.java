@@ -0,0 +1,484 @@
+package io.agora.iotlink.utils;
+
+
+import java.io.IOException;
+
+
+/**
+ * @brief 拉取式JSON解析器，直接在字符串上逐个读取 token，不生成中间的 JSONObject 树
+ *        数值直接在原始字符串上解析，跳过的字段不产生任何对象分配
+ *        非线程安全，可以通过 reset() 重复使用
+ */
+public class JsonPullReader {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/JsonPullReader";
+
+    //
+    // token类型
+    //
+    public static final int TOKEN_BEGIN_OBJECT = 0x0001;
+    public static final int TOKEN_END_OBJECT = 0x0002;
+    public static final int TOKEN_BEGIN_ARRAY = 0x0003;
+    public static final int TOKEN_END_ARRAY = 0x0004;
+    public static final int TOKEN_NAME = 0x0005;
+    public static final int TOKEN_STRING = 0x0006;
+    public static final int TOKEN_NUMBER = 0x0007;
+    public static final int TOKEN_BOOLEAN = 0x0008;
+    public static final int TOKEN_NULL = 0x0009;
+    public static final int TOKEN_END_DOCUMENT = 0x000A;
+
+    //
+    // 嵌套作用域状态
+    //
+    private static final int SCOPE_EMPTY_DOCUMENT = 0x0000;
+    private static final int SCOPE_NONEMPTY_DOCUMENT = 0x0001;
+    private static final int SCOPE_EMPTY_OBJECT = 0x0002;
+    private static final int SCOPE_NONEMPTY_OBJECT = 0x0003;
+    private static final int SCOPE_DANGLING_NAME = 0x0004;
+    private static final int SCOPE_EMPTY_ARRAY = 0x0005;
+    private static final int SCOPE_NONEMPTY_ARRAY = 0x0006;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private String mText;                   ///< 要解析的JSON文本
+    private int mLength;                    ///< 文本长度
+    private int mPos;                       ///< 当前读取位置
+    private int[] mScopeStack = new int[32];  ///< 作用域栈
+    private int mScopeDepth;                ///< 作用域栈深度
+    private int mPeeked;                    ///< 已经预读的token，0表示没有预读
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public JsonPullReader() {
+        reset("", 0);
+    }
+
+    public JsonPullReader(final String text) {
+        reset(text, 0);
+    }
+
+    /**
+     * @brief 重新设置要解析的文本，从指定位置开始读取一个完整的JSON值
+     * @param text : JSON文本
+     * @param startPos : 起始位置，通常是 0 或者之前 getValuePosition() 返回的位置
+     */
+    public void reset(final String text, int startPos) {
+        mText = (text != null) ? text : "";
+        mLength = mText.length();
+        mPos = startPos;
+        mScopeDepth = 1;
+        mScopeStack[0] = SCOPE_EMPTY_DOCUMENT;
+        mPeeked = 0;
+    }
+
+    /**
+     * @brief 获取下一个值在文本中的起始位置，可以用于稍后通过 reset() 重新解析该值
+     */
+    public int getValuePosition() throws IOException {
+        int token = peek();
+        if (token == TOKEN_NAME || token == TOKEN_END_OBJECT
+                || token == TOKEN_END_ARRAY || token == TOKEN_END_DOCUMENT) {
+            throw syntaxError("Expected a value");
+        }
+        return mPos;   // 预读值token之后，mPos 正好指向值的第一个字符
+    }
+
+    /**
+     * @brief 预读下一个token的类型，不消耗该token
+     */
+    public int peek() throws IOException {
+        if (mPeeked != 0) {
+            return mPeeked;
+        }
+
+        int scope = mScopeStack[mScopeDepth - 1];
+        if (scope == SCOPE_EMPTY_ARRAY) {
+            mScopeStack[mScopeDepth - 1] = SCOPE_NONEMPTY_ARRAY;
+            int c = nextNonWhitespace();
+            if (c == ']') {
+                return setPeeked(TOKEN_END_ARRAY);
+            }
+            mPos--;
+
+        } else if (scope == SCOPE_NONEMPTY_ARRAY) {
+            int c = nextNonWhitespace();
+            if (c == ']') {
+                return setPeeked(TOKEN_END_ARRAY);
+            } else if (c != ',') {
+                throw syntaxError("Unterminated array");
+            }
+
+        } else if (scope == SCOPE_EMPTY_OBJECT || scope == SCOPE_NONEMPTY_OBJECT) {
+            mScopeStack[mScopeDepth - 1] = SCOPE_DANGLING_NAME;
+            int c = nextNonWhitespace();
+            if (scope == SCOPE_NONEMPTY_OBJECT) {
+                if (c == '}') {
+                    return setPeeked(TOKEN_END_OBJECT);
+                } else if (c != ',') {
+                    throw syntaxError("Unterminated object");
+                }
+                c = nextNonWhitespace();
+            } else if (c == '}') {
+                return setPeeked(TOKEN_END_OBJECT);
+            }
+            if (c != '"') {
+                throw syntaxError("Expected name");
+            }
+            mPos--;
+            return setPeeked(TOKEN_NAME);
+
+        } else if (scope == SCOPE_DANGLING_NAME) {
+            mScopeStack[mScopeDepth - 1] = SCOPE_NONEMPTY_OBJECT;
+            int c = nextNonWhitespace();
+            if (c != ':') {
+                throw syntaxError("Expected ':'");
+            }
+
+        } else if (scope == SCOPE_EMPTY_DOCUMENT) {
+            mScopeStack[mScopeDepth - 1] = SCOPE_NONEMPTY_DOCUMENT;
+
+        } else if (scope == SCOPE_NONEMPTY_DOCUMENT) {
+            return setPeeked(TOKEN_END_DOCUMENT);
+        }
+
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                mPos--;
+                return setPeeked(TOKEN_BEGIN_OBJECT);
+            case '[':
+                mPos--;
+                return setPeeked(TOKEN_BEGIN_ARRAY);
+            case '"':
+                mPos--;
+                return setPeeked(TOKEN_STRING);
+            case 't':
+            case 'f':
+                mPos--;
+                return setPeeked(TOKEN_BOOLEAN);
+            case 'n':
+                mPos--;
+                return setPeeked(TOKEN_NULL);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    mPos--;
+                    return setPeeked(TOKEN_NUMBER);
+                }
+                throw syntaxError("Unexpected character");
+        }
+    }
+
+    public void beginObject() throws IOException {
+        expect(TOKEN_BEGIN_OBJECT);
+        mPos++;
+        pushScope(SCOPE_EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(TOKEN_END_OBJECT);
+        mScopeDepth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(TOKEN_BEGIN_ARRAY);
+        mPos++;
+        pushScope(SCOPE_EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(TOKEN_END_ARRAY);
+        mScopeDepth--;
+    }
+
+    /**
+     * @brief 当前对象或者数组中是否还有元素
+     */
+    public boolean hasNext() throws IOException {
+        int token = peek();
+        return (token != TOKEN_END_OBJECT && token != TOKEN_END_ARRAY && token != TOKEN_END_DOCUMENT);
+    }
+
+    /**
+     * @brief 读取字段名
+     */
+    public String nextName() throws IOException {
+        expect(TOKEN_NAME);
+        return readQuotedString();
+    }
+
+    /**
+     * @brief 读取字符串值，数值和布尔值返回其文本，null值返回null
+     */
+    public String nextString() throws IOException {
+        int token = peek();
+        mPeeked = 0;
+        if (token == TOKEN_STRING) {
+            return readQuotedString();
+        } else if (token == TOKEN_NUMBER || token == TOKEN_BOOLEAN) {
+            int start = mPos;
+            skipLiteral();
+            return mText.substring(start, mPos);
+        } else if (token == TOKEN_NULL) {
+            skipLiteral();
+            return null;
+        }
+        mPeeked = token;
+        throw syntaxError("Expected a string");
+    }
+
+    /**
+     * @brief 读取长整型数值，兼容字符串形式的数值
+     */
+    public long nextLong() throws IOException {
+        int token = peek();
+        if (token == TOKEN_NUMBER) {
+            mPeeked = 0;
+            return readNumberAsLong();
+        } else if (token == TOKEN_STRING) {
+            String text = nextString();
+            try {
+                return Long.parseLong(text.trim());
+            } catch (NumberFormatException numExp) {
+                try {
+                    return (long) Double.parseDouble(text.trim());
+                } catch (NumberFormatException dblExp) {
+                    throw syntaxError("Expected a number");
+                }
+            }
+        }
+        throw syntaxError("Expected a number");
+    }
+
+    /**
+     * @brief 读取整型数值，兼容字符串形式的数值
+     */
+    public int nextInt() throws IOException {
+        return (int) nextLong();
+    }
+
+    /**
+     * @brief 读取布尔值
+     */
+    public boolean nextBoolean() throws IOException {
+        expect(TOKEN_BOOLEAN);
+        boolean value = (mText.charAt(mPos) == 't');
+        skipLiteral();
+        return value;
+    }
+
+    /**
+     * @brief 读取null值
+     */
+    public void nextNull() throws IOException {
+        expect(TOKEN_NULL);
+        skipLiteral();
+    }
+
+    /**
+     * @brief 跳过下一个值(包括嵌套的对象和数组)，不产生任何对象分配
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            int token = peek();
+            mPeeked = 0;
+            switch (token) {
+                case TOKEN_BEGIN_OBJECT:
+                    mPos++;
+                    pushScope(SCOPE_EMPTY_OBJECT);
+                    depth++;
+                    break;
+                case TOKEN_BEGIN_ARRAY:
+                    mPos++;
+                    pushScope(SCOPE_EMPTY_ARRAY);
+                    depth++;
+                    break;
+                case TOKEN_END_OBJECT:
+                case TOKEN_END_ARRAY:
+                    mScopeDepth--;
+                    depth--;
+                    break;
+                case TOKEN_NAME:
+                case TOKEN_STRING:
+                    skipQuotedString();
+                    break;
+                case TOKEN_END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    skipLiteral();
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Internal Methods ////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private int setPeeked(int token) {
+        mPeeked = token;
+        return token;
+    }
+
+    private void expect(int token) throws IOException {
+        if (peek() != token) {
+            throw syntaxError("Expected token " + token + " but was " + mPeeked);
+        }
+        mPeeked = 0;
+    }
+
+    private void pushScope(int scope) {
+        if (mScopeDepth == mScopeStack.length) {
+            int[] newStack = new int[mScopeDepth * 2];
+            System.arraycopy(mScopeStack, 0, newStack, 0, mScopeDepth);
+            mScopeStack = newStack;
+        }
+        mScopeStack[mScopeDepth++] = scope;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (mPos < mLength) {
+            char c = mText.charAt(mPos++);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+        throw syntaxError("Unexpected end of input");
+    }
+
+    /**
+     * @brief 读取引号包围的字符串，没有转义字符时直接截取子串
+     */
+    private String readQuotedString() throws IOException {
+        int start = ++mPos;    // 跳过开始的引号
+        while (mPos < mLength) {
+            char c = mText.charAt(mPos);
+            if (c == '"') {
+                mPos++;
+                return mText.substring(start, mPos - 1);
+            } else if (c == '\\') {
+                return readEscapedString(start);
+            }
+            mPos++;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private String readEscapedString(int start) throws IOException {
+        StringBuilder builder = new StringBuilder((mPos - start) + 16);
+        builder.append(mText, start, mPos);
+        while (mPos < mLength) {
+            char c = mText.charAt(mPos++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (mPos >= mLength) {
+                break;
+            }
+            char escaped = mText.charAt(mPos++);
+            switch (escaped) {
+                case 'u':
+                    if (mPos + 4 > mLength) {
+                        throw syntaxError("Unterminated escape sequence");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(mText.substring(mPos, mPos + 4), 16));
+                    } catch (NumberFormatException numExp) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                    mPos += 4;
+                    break;
+                case 't': builder.append('\t'); break;
+                case 'b': builder.append('\b'); break;
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 'f': builder.append('\f'); break;
+                default: builder.append(escaped); break;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipQuotedString() throws IOException {
+        mPos++;    // 跳过开始的引号
+        while (mPos < mLength) {
+            char c = mText.charAt(mPos++);
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                mPos++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * @brief 跳过数值、true、false、null等不带引号的字面量
+     */
+    private void skipLiteral() {
+        while (mPos < mLength) {
+            char c = mText.charAt(mPos);
+            if (c == ',' || c == '}' || c == ']' || c == ':'
+                    || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                return;
+            }
+            mPos++;
+        }
+    }
+
+    /**
+     * @brief 直接在原始文本上解析整数，遇到小数或者指数时退化为 Double 解析
+     */
+    private long readNumberAsLong() throws IOException {
+        int start = mPos;
+        boolean negative = false;
+        if (mText.charAt(mPos) == '-') {
+            negative = true;
+            mPos++;
+        }
+
+        long value = 0;
+        int digits = 0;
+        while (mPos < mLength) {
+            char c = mText.charAt(mPos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            digits++;
+            mPos++;
+        }
+
+        if (mPos < mLength) {
+            char c = mText.charAt(mPos);
+            if (c == '.' || c == 'e' || c == 'E' || digits > 18) {
+                skipLiteral();
+                try {
+                    return (long) Double.parseDouble(mText.substring(start, mPos));
+                } catch (NumberFormatException numExp) {
+                    throw syntaxError("Invalid number");
+                }
+            }
+        }
+        if (digits == 0) {
+            throw syntaxError("Invalid number");
+        }
+        return negative ? -value : value;
+    }
+
+    private IOException syntaxError(final String message) {
+        return new IOException(message + " at position " + mPos);
+    }
+
+}
@@ -0,0 +1,254 @@
+package io.agora.iotlink.base;
+
+
+import android.os.Message;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+/*
+ * @brief 线程池方式 (LOOP_BACKEND_EXECUTOR) 的组件消息循环测试，在普通JVM中运行
+ */
+public class BaseThreadCompTest {
+
+    private static final int MSGID_SEQ = 0x1001;
+    private static final int MSGID_BLOCK = 0x1002;
+    private static final int MSGID_SINGLE = 0x1003;
+    private static final int MSGID_DELAYED = 0x1004;
+    private static final int MSGID_CANCELLED = 0x1005;
+    private static final long WAIT_TIMEOUT = 5000;
+
+
+    /*
+     * @brief 测试组件，记录处理过的消息
+     */
+    private static class TestComp extends BaseThreadComp {
+        final List<int[]> mHandledList = new ArrayList<>();     ///< 处理过的消息 {what, arg1}
+        final List<Long> mHandledTimes = new ArrayList<>();     ///< 处理时的时间(毫秒)
+        final AtomicInteger mActiveCount = new AtomicInteger(0);
+        volatile boolean mConcurrent = false;                   ///< 是否出现了并发处理
+        volatile CountDownLatch mBlockLatch;
+        volatile CountDownLatch mDoneLatch;
+
+        void start(final String name) {
+            runStart(name, LOOP_BACKEND_EXECUTOR);
+        }
+
+        @Override
+        protected void processWorkMessage(Message msg) {
+            if (mActiveCount.incrementAndGet() > 1) {
+                mConcurrent = true;
+            }
+
+            if (msg.what == MSGID_BLOCK) {
+                try {
+                    mBlockLatch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            synchronized (mHandledList) {
+                mHandledList.add(new int[] { msg.what, msg.arg1 });
+                mHandledTimes.add(System.nanoTime() / 1000000L);
+            }
+
+            mActiveCount.decrementAndGet();
+            CountDownLatch doneLatch = mDoneLatch;
+            if (doneLatch != null) {
+                doneLatch.countDown();
+            }
+        }
+
+        List<int[]> getHandled(int what) {
+            List<int[]> list = new ArrayList<>();
+            synchronized (mHandledList) {
+                for (int[] item : mHandledList) {
+                    if (item[0] == what) {
+                        list.add(item);
+                    }
+                }
+            }
+            return list;
+        }
+
+        MsgLoopStats findStats(int what) {
+            for (MsgLoopStats stats : getMessageStats()) {
+                if (stats.mWhat == what) {
+                    return stats;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final List<TestComp> mCompList = new ArrayList<>();
+
+    private TestComp createComp(final String name) {
+        TestComp comp = new TestComp();
+        comp.start(name);
+        mCompList.add(comp);
+        return comp;
+    }
+
+    @After
+    public void tearDown() {
+        for (TestComp comp : mCompList) {
+            comp.runStop();
+        }
+        mCompList.clear();
+    }
+
+
+    /*
+     * @brief 每个组件内的消息按照发送顺序串行处理，多个组件共用线程池
+     */
+    @Test
+    public void perComponentOrdering() throws InterruptedException {
+        final int compCount = 4;
+        final int msgCount = 500;
+        List<TestComp> compList = new ArrayList<>();
+        CountDownLatch doneLatch = new CountDownLatch(compCount * msgCount);
+        for (int i = 0; i < compCount; i++) {
+            TestComp comp = createComp("TestComp" + i);
+            comp.mDoneLatch = doneLatch;
+            compList.add(comp);
+        }
+
+        for (int seq = 0; seq < msgCount; seq++) {
+            for (TestComp comp : compList) {
+                comp.sendMessage(MSGID_SEQ, seq, 0, null, 0);
+            }
+        }
+        assertTrue(doneLatch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        for (TestComp comp : compList) {
+            assertFalse(comp.mConcurrent);
+            List<int[]> handledList = comp.getHandled(MSGID_SEQ);
+            assertEquals(msgCount, handledList.size());
+            for (int seq = 0; seq < msgCount; seq++) {
+                assertEquals(seq, handledList.get(seq)[1]);
+            }
+        }
+    }
+
+    /*
+     * @brief sendSingleMessage() 会删除队列中相同的消息，只处理最后一次发送的
+     */
+    @Test
+    public void singleMessageDedup() throws InterruptedException {
+        TestComp comp = createComp("TestSingle");
+        comp.mBlockLatch = new CountDownLatch(1);
+        comp.sendMessage(MSGID_BLOCK, 0, 0, null, 0);   // 阻塞消息循环，让后面的消息都在队列中
+
+        for (int i = 0; i < 10; i++) {
+            comp.sendSingleMessage(MSGID_SINGLE, i, 0, null, 0);
+        }
+        CountDownLatch doneLatch = new CountDownLatch(2);
+        comp.mDoneLatch = doneLatch;
+        comp.mBlockLatch.countDown();
+        assertTrue(doneLatch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(100);  // 确认没有多余的消息
+
+        List<int[]> handledList = comp.getHandled(MSGID_SINGLE);
+        assertEquals(1, handledList.size());
+        assertEquals(9, handledList.get(0)[1]);
+
+        MsgLoopStats stats = comp.findStats(MSGID_SINGLE);
+        assertNotNull(stats);
+        assertEquals(1, stats.mHandledCount);
+        assertEquals(1, stats.mMaxQueueDepth);
+        assertEquals(0, stats.mQueueDepth);
+    }
+
+    /*
+     * @brief 延时消息到期后才处理，不阻塞之后发送的即时消息，removeMessage() 可以取消延时消息
+     */
+    @Test
+    public void delayedMessages() throws InterruptedException {
+        TestComp comp = createComp("TestDelayed");
+        CountDownLatch doneLatch = new CountDownLatch(3);
+        comp.mDoneLatch = doneLatch;
+
+        long beginTime = System.nanoTime() / 1000000L;
+        comp.sendMessage(MSGID_DELAYED, 2, 0, null, 300);
+        comp.sendMessage(MSGID_DELAYED, 1, 0, null, 150);
+        comp.sendMessage(MSGID_SEQ, 0, 0, null, 0);
+        comp.sendMessage(MSGID_CANCELLED, 0, 0, null, 200);
+        comp.removeMessage(MSGID_CANCELLED);         // 取消的延时消息不会处理
+        assertTrue(doneLatch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(300);
+
+        List<int[]> handledList;
+        List<Long> handledTimes;
+        synchronized (comp.mHandledList) {
+            handledList = new ArrayList<>(comp.mHandledList);
+            handledTimes = new ArrayList<>(comp.mHandledTimes);
+        }
+        assertEquals(3, handledList.size());
+        assertEquals(MSGID_SEQ, handledList.get(0)[0]);
+        assertEquals(MSGID_DELAYED, handledList.get(1)[0]);
+        assertEquals(1, handledList.get(1)[1]);
+        assertEquals(MSGID_DELAYED, handledList.get(2)[0]);
+        assertEquals(2, handledList.get(2)[1]);
+
+        assertTrue(handledTimes.get(1) - beginTime >= 150);
+        assertTrue(handledTimes.get(2) - beginTime >= 300);
+        assertTrue(comp.getHandled(MSGID_CANCELLED).isEmpty());
+    }
+
+    /*
+     * @brief 统计信息：处理数量、队列深度、排队延迟，返回的是副本，可以清除
+     */
+    @Test
+    public void messageStats() throws InterruptedException {
+        TestComp comp = createComp("TestStats");
+        comp.mBlockLatch = new CountDownLatch(1);
+        comp.sendMessage(MSGID_BLOCK, 0, 0, null, 0);
+
+        final int msgCount = 20;
+        for (int i = 0; i < msgCount; i++) {
+            comp.sendMessage(MSGID_SEQ, i, 0, null, 0);
+        }
+        MsgLoopStats pendingStats = comp.findStats(MSGID_SEQ);
+        assertNotNull(pendingStats);
+        assertEquals(msgCount, pendingStats.mQueueDepth);
+        assertEquals(0, pendingStats.mHandledCount);
+
+        CountDownLatch doneLatch = new CountDownLatch(msgCount + 1);
+        comp.mDoneLatch = doneLatch;
+        Thread.sleep(50);       // 让队列中的消息产生排队延迟
+        comp.mBlockLatch.countDown();
+        assertTrue(doneLatch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(50);
+
+        MsgLoopStats stats = comp.findStats(MSGID_SEQ);
+        assertNotNull(stats);
+        assertEquals(msgCount, stats.mHandledCount);
+        assertEquals(0, stats.mQueueDepth);
+        assertEquals(msgCount, stats.mMaxQueueDepth);
+        assertTrue(stats.mMaxLatencyUs >= 50 * 1000);
+        assertTrue(stats.getAvgLatencyUs() > 0);
+        assertEquals(0, pendingStats.mHandledCount);    // 之前获取的副本不会变化
+
+        MsgLoopStats blockStats = comp.findStats(MSGID_BLOCK);
+        assertNotNull(blockStats);
+        assertEquals(1, blockStats.mHandledCount);
+        assertTrue(blockStats.mMaxHandleUs >= 50 * 1000);
+
+        comp.clearMessageStats();
+        assertTrue(comp.getMessageStats().isEmpty());
+        assertNull(comp.findStats(MSGID_SEQ));
+    }
+}